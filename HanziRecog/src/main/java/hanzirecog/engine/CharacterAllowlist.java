@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine;
+
+import hanzirecog.engine.beans.CharacterDescriptor;
+import hanzirecog.engine.service.datasource.StrokesIndex;
+
+/**
+ * A CharacterAllowlist is the set of characters a lookup may return, such as the vocabulary of a course.
+ * <p>
+ * The characters are a bitset over the code points of the Basic Multilingual Plane (8 KB), the characters
+ * of the stroke recognizer being chars.  For a given StrokesIndex, the allowlist also knows which partitions
+ * hold at least one allowed entry, so a matcher skips the other partitions without looking at their entries.
+ * <p>
+ * An allowlist is never modified once built and can be shared between threads and lookups :
+ * it is meant to be built once, see Recognizer#registerAllowlist, and reused by every request.
+ *
+ * @see StrokesMatcher#setAllowlist(CharacterAllowlist)
+ */
+public class CharacterAllowlist {
+
+  private final long[] characters = new long[(Character.MAX_VALUE + 1) / 64];
+  // The partition mask of the last index the allowlist was used with, see hasAllowedEntries.
+  private volatile PartitionMask partitionMask;
+
+  /**
+   * @param characters the allowed characters, the supplementary characters (surrogate pairs) are ignored
+   */
+  public CharacterAllowlist(CharSequence characters) {
+
+    for (int i = 0; i < characters.length(); i++) {
+      char character = characters.charAt(i);
+      if (!Character.isSurrogate(character))
+        this.characters[character >>> 6] |= 1L << character;
+    }
+  }
+
+  /**
+   * @return true if the character is allowed
+   */
+  public boolean contains(char character) {
+    return (characters[character >>> 6] & 1L << character) != 0;
+  }
+
+  /**
+   * @param strokesIndex the index
+   * @param partition    the index of a partition, see StrokesIndex.getPartition
+   * @return true if the partition holds at least one allowed entry
+   */
+  public boolean hasAllowedEntries(StrokesIndex strokesIndex, int partition) {
+
+    PartitionMask mask = partitionMask;
+    if (mask == null || mask.strokesIndex != strokesIndex) {
+      // Racing threads compute the same mask, the last one written wins.
+      mask = new PartitionMask(strokesIndex);
+      partitionMask = mask;
+    }
+    return (mask.partitions[partition >>> 6] & 1L << partition) != 0;
+  }
+
+  /**
+   * The partitions of a StrokesIndex holding at least one allowed entry, as a bitset.
+   */
+  private class PartitionMask {
+
+    private final StrokesIndex strokesIndex;
+    private final long[] partitions;
+
+    private PartitionMask(StrokesIndex strokesIndex) {
+
+      this.strokesIndex = strokesIndex;
+      int partitionCount = StrokesIndex.PARTITION_TYPE_COUNT * CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT;
+      partitions = new long[(partitionCount + 63) / 64];
+      char[] indexCharacters = strokesIndex.getCharacters();
+      for (int partition = 0; partition < partitionCount; partition++) {
+        for (int entry = strokesIndex.getPartitionStart(partition); entry < strokesIndex.getPartitionEnd(partition); entry++) {
+          if (contains(indexCharacters[entry])) {
+            partitions[partition >>> 6] |= 1L << partition;
+            break;
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine;
+
+import hanzirecog.engine.beans.CharacterDescriptor;
+import hanzirecog.engine.util.CurveUtils;
+
+import java.awt.geom.CubicCurve2D;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A MatchPlan holds what the lookups with the same looseness, character types and number of results
+ * have in common, computed once instead of by each lookup.
+ * <p>
+ * The stroke and substroke ranges the looseness allows are solved on cubic curves : the plan solves them
+ * for every input stroke count and substroke count when it is compiled, so a lookup just reads them.
+ * The plan also decides whether the filter cascade is worth its tables : with few characters selected,
+ * the top matches fill late and the bounds reject little, so they are compared with a plain scan.
+ * <p>
+ * A MatchPlan is never modified once compiled : the plans are cached (see get) and shared by all the threads.
+ *
+ * @see StrokesMatcher#StrokesMatcher(hanzirecog.engine.service.datasource.StrokesIndex, CharacterDescriptor, MatchPlan)
+ */
+public class MatchPlan {
+
+  // The filter cascade runs when the lookup selects more than this number of characters per result.
+  static private final int CASCADE_MIN_CANDIDATES_PER_MATCH = 4;
+  // Enough for every looseness of the UI and web settings, the plans beyond it are compiled uncached.
+  static private final int MAX_CACHED_PLANS = 256;
+  static private final Map<PlanKey, MatchPlan> PLANS = new ConcurrentHashMap<>();
+
+  private final double looseness;
+  private final boolean searchTraditional;
+  private final boolean searchSimplified;
+  private final int numMatches;
+  // By input stroke count, an input has at most one stroke per substroke.
+  private final int[] minimumStrokes = new int[CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 1];
+  private final int[] maximumStrokes = new int[CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 1];
+  // By input substroke count.
+  private final int[] subStrokesRanges = new int[CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 1];
+  private final int cascadeThreshold;
+
+  private MatchPlan(double looseness, boolean searchTraditional, boolean searchSimplified, int numMatches) {
+
+    this.looseness = looseness;
+    this.searchTraditional = searchTraditional;
+    this.searchSimplified = searchSimplified;
+    this.numMatches = numMatches;
+    for (int strokeCount = 0; strokeCount < minimumStrokes.length; strokeCount++) {
+      int strokeRange = computeStrokesRange(strokeCount, looseness);
+      minimumStrokes[strokeCount] = Math.max(strokeCount - strokeRange, 1);
+      maximumStrokes[strokeCount] = Math.min(strokeCount + strokeRange, CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT);
+    }
+    for (int subStrokeCount = 0; subStrokeCount < subStrokesRanges.length; subStrokeCount++)
+      subStrokesRanges[subStrokeCount] = computeSubStrokesRange(subStrokeCount, looseness);
+    cascadeThreshold = CASCADE_MIN_CANDIDATES_PER_MATCH * numMatches;
+  }
+
+  /**
+   * @param looseness         matching looseness, 0-1
+   * @param searchTraditional true if traditional characters should included in results
+   * @param searchSimplified  true if simplified characters should be included in results
+   * @param numMatches        number of matches to return
+   * @return the cached plan of these settings, compiled on the first call
+   */
+  static public MatchPlan get(double looseness, boolean searchTraditional, boolean searchSimplified, int numMatches) {
+
+    PlanKey key = new PlanKey(looseness, searchTraditional, searchSimplified, numMatches);
+    MatchPlan plan = PLANS.get(key);
+    if (plan == null) {
+      plan = new MatchPlan(looseness, searchTraditional, searchSimplified, numMatches);
+      if (PLANS.size() < MAX_CACHED_PLANS) {
+        MatchPlan cached = PLANS.putIfAbsent(key, plan);
+        if (cached != null)
+          plan = cached;
+      }
+    }
+    return plan;
+  }
+
+  public double getLooseness() {
+    return looseness;
+  }
+
+  public boolean isSearchTraditional() {
+    return searchTraditional;
+  }
+
+  public boolean isSearchSimplified() {
+    return searchSimplified;
+  }
+
+  public int getNumMatches() {
+    return numMatches;
+  }
+
+  /**
+   * @param strokeCount the number of strokes of the input character
+   * @return the minimum number of strokes of the characters to compare
+   */
+  public int getMinimumStrokes(int strokeCount) {
+
+    if (strokeCount >= minimumStrokes.length)
+      return Math.max(strokeCount - computeStrokesRange(strokeCount, looseness), 1);
+    return minimumStrokes[strokeCount];
+  }
+
+  /**
+   * @param strokeCount the number of strokes of the input character
+   * @return the maximum number of strokes of the characters to compare
+   */
+  public int getMaximumStrokes(int strokeCount) {
+
+    if (strokeCount >= maximumStrokes.length)
+      return Math.min(strokeCount + computeStrokesRange(strokeCount, looseness), CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT);
+    return maximumStrokes[strokeCount];
+  }
+
+  /**
+   * @param subStrokeCount the number of substrokes of the input character
+   * @return the range of substrokes, see computeSubStrokesRange
+   */
+  public int getSubStrokesRange(int subStrokeCount) {
+    return subStrokesRanges[subStrokeCount];
+  }
+
+  /**
+   * @param candidateCount the number of characters a lookup selected
+   * @return true if the lookup should run the filter cascade, false if a plain scan is cheaper
+   */
+  public boolean isFilterCascadeWorthwhile(int candidateCount) {
+    return candidateCount > cascadeThreshold;
+  }
+
+  /**
+   * Computes a range of strokes to use based on the given looseness.
+   * Only characters whose number of strokes are within the input number of strokes
+   * +/- this range will be considered during comparison.  This helps cut down
+   * on matching cost.
+   *
+   * @param strokeCount the number of input strokes
+   * @param looseness   the looseness, 0-1
+   * @return the range
+   */
+  static private int computeStrokesRange(int strokeCount, double looseness) {
+
+    // Just return some extreme values if at minimum or maximum.
+    // Helps to avoid possible floating point issues when near the extremes.
+    if (looseness == 0.0)
+      return 0;
+    else if (looseness == 1.0)
+      return CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT;
+
+    // We use a CubicCurve that grows slowly at first and then rapidly near the end to the maximum.
+    // This is so a looseness at or near 1.0 will return a range that will consider all characters.
+    double ctrl1X = 0.35;
+    double ctrl1Y = strokeCount * 0.4;
+
+    double ctrl2X = 0.6;
+    double ctrl2Y = strokeCount;
+
+    double[] solutions = new double[1];
+    CubicCurve2D curve = new CubicCurve2D.Double(0, 0, ctrl1X, ctrl1Y, ctrl2X, ctrl2Y, 1, CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT);
+    CurveUtils.solveCubicCurveForX(curve, looseness, solutions);
+    double t = solutions[0];
+
+    // We get the t value on the parametrized curve where the x value matches the looseness.
+    // Then we compute the y value for that t.  This gives the range.
+    return (int) Math.round(CurveUtils.getPointOnCubicCurve(curve, t).getY());
+  }
+
+  /**
+   * Computes the range of substrokes to use when computing matches based on looseness.
+   * When matching, sub strokes are matched up with one another to find the best
+   * matching.  But if two substrokes are +/-  beyond this range, then the comparison
+   * is short-circuited for some computation savings.
+   *
+   * @param subStrokeCount the substroke count of the input character
+   * @param looseness      the looseness, 0-1
+   * @return the range
+   */
+  static private int computeSubStrokesRange(int subStrokeCount, double looseness) {
+
+    // Return the maximum if looseness = 1.0.
+    // Otherwise we'd have to ensure that the floating point value led to exactly the right int count.
+    if (looseness == 1.0)
+      return CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT;
+
+    // We use a CubicCurve that grows slowly at first and then rapidly near the end to the maximum.
+    double y0 = subStrokeCount * 0.25;
+
+    double ctrl1X = 0.4;
+    double ctrl1Y = 1.5 * y0;
+
+    double ctrl2X = 0.75;
+    double ctrl2Y = 1.5 * ctrl1Y;
+
+    double[] solutions = new double[1];
+    CubicCurve2D curve = new CubicCurve2D.Double(0, y0, ctrl1X, ctrl1Y, ctrl2X, ctrl2Y, 1, CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT);
+    CurveUtils.solveCubicCurveForX(curve, looseness, solutions);
+    double t = solutions[0];
+
+    // We get the t value on the parametrized curve where the x value matches the looseness.
+    // Then we compute the y value for that t.  This gives the range.
+    return (int) Math.round(CurveUtils.getPointOnCubicCurve(curve, t).getY());
+  }
+
+  /**
+   * The settings a plan is compiled from.
+   */
+  static private class PlanKey {
+
+    private final double looseness;
+    private final boolean searchTraditional;
+    private final boolean searchSimplified;
+    private final int numMatches;
+
+    private PlanKey(double looseness, boolean searchTraditional, boolean searchSimplified, int numMatches) {
+
+      this.looseness = looseness;
+      this.searchTraditional = searchTraditional;
+      this.searchSimplified = searchSimplified;
+      this.numMatches = numMatches;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+
+      if (!(other instanceof PlanKey))
+        return false;
+      PlanKey key = (PlanKey) other;
+      return Double.compare(looseness, key.looseness) == 0 && searchTraditional == key.searchTraditional
+              && searchSimplified == key.searchSimplified && numMatches == key.numMatches;
+    }
+
+    @Override
+    public int hashCode() {
+      return ((Double.hashCode(looseness) * 31 + numMatches) * 2 + (searchTraditional ? 1 : 0)) * 2 + (searchSimplified ? 1 : 0);
+    }
+  }
+}
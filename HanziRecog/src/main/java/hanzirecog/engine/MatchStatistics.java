@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine;
+
+import hanzirecog.engine.enums.FilterStage;
+
+/**
+ * Counters describing the work done by a StrokesMatcher lookup.
+ * <p>
+ * A "cell" is a cell of the score matrix aligning the substrokes of the input character
+ * with those of a compared character.  Pruned cells are the cells a comparison
+ * abandoned early didn't have to compute.
+ * <p>
+ * The characters rejected by a stage of the filter cascade are not compared,
+ * so they are not counted in the compared characters.
+ *
+ * @see StrokesMatcher#getStatistics()
+ */
+public class MatchStatistics {
+
+  private long comparedCandidates;
+  private long abandonedCandidates;
+  private long skippedCandidates;
+  private long coarseCandidates;
+  private long expandedClusters;
+  private long postings;
+  private long trieNodes;
+  private long computedCells;
+  private long prunedCells;
+  private final long[] filterTests = new long[FilterStage.values().length];
+  private final long[] filterRejections = new long[FilterStage.values().length];
+
+  /**
+   * @return the number of characters compared to the input character
+   */
+  public long getComparedCandidates() {
+    return comparedCandidates;
+  }
+
+  /**
+   * @return the number of comparisons abandoned because the character couldn't make the top matches
+   */
+  public long getAbandonedCandidates() {
+    return abandonedCandidates;
+  }
+
+  /**
+   * @return the number of characters not compared because their substroke count is out of the substroke range
+   */
+  public long getSkippedCandidates() {
+    return skippedCandidates;
+  }
+
+  /**
+   * @return the number of characters scored by the coarse pass of a coarse to fine lookup
+   */
+  public long getCoarseCandidates() {
+    return coarseCandidates;
+  }
+
+  /**
+   * @return the number of clusters whose members were compared, see CandidateStrategy.CLUSTERS
+   */
+  public long getExpandedClusters() {
+    return expandedClusters;
+  }
+
+  /**
+   * @return the number of posting list (or hash bucket) entries read to pick the characters to compare
+   */
+  public long getPostings() {
+    return postings;
+  }
+
+  /**
+   * @return the number of PrefixTrie nodes whose column of the score matrix was computed
+   */
+  public long getTrieNodes() {
+    return trieNodes;
+  }
+
+  public long getComputedCells() {
+    return computedCells;
+  }
+
+  public long getPrunedCells() {
+    return prunedCells;
+  }
+
+  /**
+   * @return the number of characters that reached the given stage of the filter cascade
+   */
+  public long getFilterTests(FilterStage stage) {
+    return filterTests[stage.ordinal()];
+  }
+
+  /**
+   * @return the number of characters the given stage of the filter cascade rejected
+   */
+  public long getFilterRejections(FilterStage stage) {
+    return filterRejections[stage.ordinal()];
+  }
+
+  void addFilterTest(FilterStage stage, boolean rejected) {
+
+    filterTests[stage.ordinal()]++;
+    if (rejected)
+      filterRejections[stage.ordinal()]++;
+  }
+
+  void addComparedCandidate(long computedCells) {
+
+    comparedCandidates++;
+    this.computedCells += computedCells;
+  }
+
+  void addAbandonedCandidate(long computedCells, long prunedCells) {
+
+    addComparedCandidate(computedCells);
+    abandonedCandidates++;
+    this.prunedCells += prunedCells;
+  }
+
+  void addCoarseCandidate() {
+    coarseCandidates++;
+  }
+
+  void addExpandedCluster() {
+    expandedClusters++;
+  }
+
+  void addPostings(long postings) {
+    this.postings += postings;
+  }
+
+  void addTrieNode(long computedCells) {
+
+    trieNodes++;
+    this.computedCells += computedCells;
+  }
+
+  void addSkippedCandidates(long skippedCandidates) {
+    this.skippedCandidates += skippedCandidates;
+  }
+
+  /**
+   * Adds the counters of another lookup, or of another part of the same lookup, to these ones.
+   *
+   * @param other the counters to add
+   */
+  public synchronized void add(MatchStatistics other) {
+
+    comparedCandidates += other.comparedCandidates;
+    abandonedCandidates += other.abandonedCandidates;
+    skippedCandidates += other.skippedCandidates;
+    coarseCandidates += other.coarseCandidates;
+    expandedClusters += other.expandedClusters;
+    postings += other.postings;
+    trieNodes += other.trieNodes;
+    computedCells += other.computedCells;
+    prunedCells += other.prunedCells;
+    for (int i = 0; i < filterTests.length; i++) {
+      filterTests[i] += other.filterTests[i];
+      filterRejections[i] += other.filterRejections[i];
+    }
+  }
+
+  public String toString() {
+
+    StringBuilder filters = new StringBuilder();
+    for (FilterStage stage : FilterStage.values()) {
+      filters.append(filters.length() == 0 ? ", filters " : ", ").append(stage).append(" rejected ")
+              .append(getFilterRejections(stage)).append("/").append(getFilterTests(stage));
+    }
+    String preselection = coarseCandidates > 0 ? "coarse scored " + coarseCandidates + " characters, " : "";
+    if (postings > 0)
+      preselection += "read " + postings + " postings, ";
+    if (expandedClusters > 0)
+      preselection += "expanded " + expandedClusters + " clusters, ";
+    if (trieNodes > 0)
+      preselection += "walked " + trieNodes + " trie nodes, ";
+    return preselection + "compared " + comparedCandidates + " characters (" + abandonedCandidates + " abandoned, "
+            + skippedCandidates + " skipped), computed "
+            + computedCells + " cells (" + prunedCells + " pruned)" + filters;
+  }
+}
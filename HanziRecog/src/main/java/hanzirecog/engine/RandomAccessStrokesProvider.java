@@ -0,0 +1,24 @@
+package hanzirecog.engine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A RandomAccessStrokesProvider is a StrokesStreamProvider that can also serve up the whole
+ * stroke recognizer as a ByteBuffer, so the StrokesDataSource scanners jump to a record with an absolute get
+ * instead of opening a stream and skipping the bytes before it, and StrokesIndex.build copies a version 2
+ * stream from it without reading the whole stream in a byte array first.
+ * <p>
+ * The readers check for this interface, the providers only serving streams keep working as before.
+ *
+ * @see hanzirecog.engine.service.datasource.MappedStrokesStreamProvider
+ */
+public interface RandomAccessStrokesProvider extends StrokesStreamProvider {
+
+  /**
+   * Get a read only, big endian view of the same stroke recognizer, from its position 0.
+   * Each call to this method should return a new view, so the callers don't share a position.
+   *
+   * @return stroke recognizer buffer
+   */
+  public ByteBuffer getStrokesBuffer();
+}
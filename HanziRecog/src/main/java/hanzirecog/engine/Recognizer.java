@@ -0,0 +1,368 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine;
+
+import hanzirecog.engine.beans.CharacterDescriptor;
+import hanzirecog.engine.enums.CandidateStrategy;
+import hanzirecog.engine.enums.ScanOrder;
+import hanzirecog.engine.enums.ScoringMode;
+import hanzirecog.engine.service.datasource.IndexSnapshot;
+import hanzirecog.engine.service.datasource.MappedStrokesStreamProvider;
+import hanzirecog.engine.service.datasource.MemoryStrokesStreamProvider;
+import hanzirecog.engine.service.datasource.StrokesIndex;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A Recognizer owns the stroke recognizer data set of the application.
+ * <p>
+ * The compiled strokes are read and decoded into a StrokesIndex once, when the Recognizer is built.
+ * After that the data set is never modified, so a single Recognizer can be shared
+ * by every thread of the process (web requests, the Swing MatcherThread...).
+ * Each lookup asks the Recognizer for a new StrokesMatcher, which is cheap to build
+ * since it only holds the per-query state.
+ * <p>
+ * The Recognizer also holds the settings applied to the matchers it builds,
+ * such as the parallel scan threshold, the scoring mode, the scan order or the candidate strategy,
+ * and the named allowlists the lookups can be restricted to.
+ *
+ * @see StrokesMatcher
+ */
+public class Recognizer {
+
+  static private final String DATA_PATH = "strokes.dat";
+  // The system property naming a compiled strokes file to map instead of the strokes.dat resource.
+  static public final String DATA_FILE_PROPERTY = "hanzirecog.strokes.file";
+  // The system property naming an index snapshot to load instead, see IndexSnapshot.
+  static public final String SNAPSHOT_FILE_PROPERTY = "hanzirecog.snapshot.file";
+  private static Logger logger = Logger.getLogger(Recognizer.class.toString());
+
+  // The decoded stroke recognizer shared by all the matchers handed out by this Recognizer.
+  private final StrokesIndex strokesIndex;
+
+  // Lookups comparing at least parallelThreshold characters are split across the pool.
+  // The default threshold keeps all lookups serial.
+  private volatile ForkJoinPool forkJoinPool = ForkJoinPool.commonPool();
+  private volatile int parallelThreshold = Integer.MAX_VALUE;
+  private volatile ScoringMode scoringMode = ScoringMode.EXACT;
+  private volatile ScanOrder scanOrder = ScanOrder.COMPILED;
+  private volatile int coarseCandidates;
+  private volatile CandidateStrategy candidateStrategy = CandidateStrategy.SCAN;
+  private volatile int strategyCandidates;
+  private final Map<String, CharacterAllowlist> allowlists = new ConcurrentHashMap<>();
+
+  /**
+   * @param strokesIndex the decoded stroke recognizer the matchers will compare against
+   */
+  public Recognizer(StrokesIndex strokesIndex) {
+    this.strokesIndex = strokesIndex;
+  }
+
+  /**
+   * Builds a Recognizer holding in memory the compiled strokes read from the given stream.
+   * The stream is fully read but not closed.
+   *
+   * @param compiledIn the compiled strokes, as written by StrokesParser
+   * @return a new Recognizer
+   * @throws IOException on an exception reading from the strokes stream
+   */
+  static public Recognizer load(InputStream compiledIn) throws IOException {
+
+    if (compiledIn == null)
+      throw new IOException("Unable to find the compiled strokes!");
+    return new Recognizer(StrokesIndex.build(new MemoryStrokesStreamProvider(compiledIn)));
+  }
+
+  /**
+   * Builds a Recognizer from a compiled strokes file mapped in memory, see MappedStrokesStreamProvider.
+   * A version 2 file (see CompiledStrokesFormat) is copied from the mapping into the index section by section,
+   * without reading the whole file in a byte array first : the index is on the heap, not shared with other processes.
+   *
+   * @param strokesFile the compiled strokes file, as written by StrokesParser
+   * @return a new Recognizer
+   * @throws IOException on an exception mapping or reading the file
+   */
+  static public Recognizer load(File strokesFile) throws IOException {
+    return new Recognizer(StrokesIndex.build(new MappedStrokesStreamProvider(strokesFile)));
+  }
+
+  /**
+   * Builds a Recognizer from an index snapshot, see IndexSnapshot : the candidate generation structures
+   * are loaded with the index instead of being built on first use.  The arrays of the index are copied
+   * from the mapping to the heap.
+   *
+   * @param snapshotFile the snapshot file, as written by IndexSnapshot
+   * @return a new Recognizer
+   * @throws IOException on an exception mapping the file, or if it isn't a snapshot this version reads
+   */
+  static public Recognizer loadSnapshot(File snapshotFile) throws IOException {
+    return new Recognizer(IndexSnapshot.load(snapshotFile));
+  }
+
+  /**
+   * The process-wide Recognizer, built from the strokes.dat resource the first time it is needed,
+   * or from the snapshot named by the SNAPSHOT_FILE_PROPERTY system property, or from the file named by
+   * the DATA_FILE_PROPERTY system property, when they are set.
+   *
+   * @return the shared Recognizer
+   */
+  static public Recognizer getInstance() {
+    return DefaultInstanceHolder.INSTANCE;
+  }
+
+  /**
+   * Builds a matcher comparing the given character against the data set of this Recognizer.
+   *
+   * @param character         the input character we want matches for
+   * @param searchTraditional true if traditional characters should included in results
+   * @param searchSimplified  true if simplified characters should be included in results
+   * @param looseness         matching looseness, 0-1
+   * @param numMatches        number of matches to return
+   * @return a new StrokesMatcher, to be used for a single lookup
+   */
+  public StrokesMatcher newMatcher(CharacterDescriptor character, boolean searchTraditional,
+                                   boolean searchSimplified, double looseness, int numMatches) {
+
+    return newMatcher(character, MatchPlan.get(looseness, searchTraditional, searchSimplified, numMatches));
+  }
+
+  /**
+   * Same as newMatcher(CharacterDescriptor, boolean, boolean, double, int), for the callers
+   * keeping the plan of their settings.
+   *
+   * @param character the input character we want matches for
+   * @param plan      the looseness, character types and number of matches of the lookup
+   * @return a new StrokesMatcher, to be used for a single lookup
+   */
+  public StrokesMatcher newMatcher(CharacterDescriptor character, MatchPlan plan) {
+
+    StrokesMatcher matcher = new StrokesMatcher(strokesIndex, character, plan);
+    matcher.setParallelism(forkJoinPool, parallelThreshold);
+    matcher.setScoringMode(scoringMode);
+    matcher.setScanOrder(scanOrder);
+    matcher.setCoarseCandidates(coarseCandidates);
+    matcher.setCandidateStrategy(candidateStrategy, strategyCandidates);
+    return matcher;
+  }
+
+  /**
+   * Convenience method running a lookup in the calling thread.
+   *
+   * @return the closest matches, lower indices are better matches
+   * @see #newMatcher(CharacterDescriptor, boolean, boolean, double, int)
+   */
+  public Character[] recognize(CharacterDescriptor character, boolean searchTraditional,
+                               boolean searchSimplified, double looseness, int numMatches) {
+
+    return newMatcher(character, searchTraditional, searchSimplified, looseness, numMatches).doMatching();
+  }
+
+  public StrokesIndex getStrokesIndex() {
+    return strokesIndex;
+  }
+
+  public ForkJoinPool getForkJoinPool() {
+    return forkJoinPool;
+  }
+
+  /**
+   * @param forkJoinPool the pool running the parallel scans, the common pool by default
+   */
+  public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+    this.forkJoinPool = forkJoinPool;
+  }
+
+  public int getParallelThreshold() {
+    return parallelThreshold;
+  }
+
+  /**
+   * @param parallelThreshold the number of characters to compare from which a lookup is split
+   *                          across the fork join pool, Integer.MAX_VALUE to keep all lookups serial
+   */
+  public void setParallelThreshold(int parallelThreshold) {
+
+    if (parallelThreshold < 1)
+      throw new IllegalArgumentException("parallelThreshold must be at least 1!");
+    this.parallelThreshold = parallelThreshold;
+  }
+
+  public ScoringMode getScoringMode() {
+    return scoringMode;
+  }
+
+  /**
+   * @param scoringMode how the matchers compute their scores, EXACT by default
+   */
+  public void setScoringMode(ScoringMode scoringMode) {
+    this.scoringMode = scoringMode;
+  }
+
+  public ScanOrder getScanOrder() {
+    return scanOrder;
+  }
+
+  /**
+   * With PREFIX_TRIE, the PrefixTrie of the index is built here, if it wasn't loaded with the index.
+   *
+   * @param scanOrder the order in which the matchers compare the characters, COMPILED by default
+   */
+  public void setScanOrder(ScanOrder scanOrder) {
+
+    this.scanOrder = scanOrder;
+    buildCandidateStructures();
+  }
+
+  public int getCoarseCandidates() {
+    return coarseCandidates;
+  }
+
+  /**
+   * @param coarseCandidates the number of characters the coarse pass of the matchers keeps,
+   *                         0 (the default) to compare all the characters exactly
+   * @see StrokesMatcher#setCoarseCandidates(int)
+   */
+  public void setCoarseCandidates(int coarseCandidates) {
+
+    if (coarseCandidates < 0)
+      throw new IllegalArgumentException("coarseCandidates can't be negative!");
+    this.coarseCandidates = coarseCandidates;
+  }
+
+  public CandidateStrategy getCandidateStrategy() {
+    return candidateStrategy;
+  }
+
+  public int getStrategyCandidates() {
+    return strategyCandidates;
+  }
+
+  /**
+   * The structure of the index the strategy reads (TokenIndex, ClusterIndex or EmbeddingIndex) is built here,
+   * if it wasn't loaded with the index : this takes seconds for the ClusterIndex, which the lookups don't wait for.
+   *
+   * @param candidateStrategy how the matchers pick the characters they compare, SCAN by default
+   * @param candidates        the number of characters the matchers compare, ignored by SCAN
+   * @see StrokesMatcher#setCandidateStrategy(CandidateStrategy, int)
+   */
+  public void setCandidateStrategy(CandidateStrategy candidateStrategy, int candidates) {
+
+    if (candidateStrategy != CandidateStrategy.SCAN && candidates < 1)
+      throw new IllegalArgumentException("candidates must be at least 1!");
+    this.candidateStrategy = candidateStrategy;
+    this.strategyCandidates = candidates;
+    buildCandidateStructures();
+  }
+
+  /**
+   * Builds the structures of the index that the scan order and candidate strategy of the matchers read,
+   * so that no lookup builds them.  The structures loaded with an index snapshot are already there.
+   */
+  private void buildCandidateStructures() {
+
+    if (scanOrder == ScanOrder.PREFIX_TRIE)
+      strokesIndex.getPrefixTrie();
+    switch (candidateStrategy) {
+      case TOKENS:
+      case TOKENS_AND_BIGRAMS:
+        strokesIndex.getTokenIndex();
+        break;
+      case CLUSTERS:
+        strokesIndex.buildClusterIndex();
+        break;
+      case LSH:
+        strokesIndex.getEmbeddingIndex();
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Registers an allowlist under a name, replacing the allowlist previously registered under that name, if any.
+   * The allowlist is built once here, and its partitions of the index computed, so the requests
+   * naming it don't pay for it.
+   *
+   * @param name       the name of the allowlist, such as a course or an HSK level
+   * @param characters the allowed characters
+   * @return the allowlist
+   */
+  public CharacterAllowlist registerAllowlist(String name, CharSequence characters) {
+
+    CharacterAllowlist allowlist = new CharacterAllowlist(characters);
+    allowlist.hasAllowedEntries(strokesIndex, 0);
+    allowlists.put(name, allowlist);
+    return allowlist;
+  }
+
+  /**
+   * @param name the name of an allowlist
+   * @return the allowlist registered under that name, null if there is none
+   * @see StrokesMatcher#setAllowlist(CharacterAllowlist)
+   */
+  public CharacterAllowlist getAllowlist(String name) {
+    return allowlists.get(name);
+  }
+
+  /**
+   * Lazy holder : the class is only initialized, and the resource only read, on the first call to getInstance.
+   */
+  static private class DefaultInstanceHolder {
+
+    static private final Recognizer INSTANCE = loadDefault();
+
+    static private Recognizer loadDefault() {
+
+      String snapshotFile = System.getProperty(SNAPSHOT_FILE_PROPERTY);
+      if (snapshotFile != null) {
+        try {
+          return loadSnapshot(new File(snapshotFile));
+        }
+        catch (IOException e) {
+          logger.error("Error reading in strokes index snapshot from " + snapshotFile + "!");
+          throw new RuntimeException(e);
+        }
+      }
+      String dataFile = System.getProperty(DATA_FILE_PROPERTY);
+      if (dataFile != null) {
+        try {
+          return load(new File(dataFile));
+        }
+        catch (IOException e) {
+          logger.error("Error reading in strokes recognizer from " + dataFile + "!");
+          throw new RuntimeException(e);
+        }
+      }
+      ClassLoader classLoader = Recognizer.class.getClassLoader();
+      try (InputStream compiledIn = classLoader.getResourceAsStream(DATA_PATH)) {
+        return load(compiledIn);
+      }
+      catch (IOException e) {
+        logger.error("Error reading in strokes recognizer!");
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
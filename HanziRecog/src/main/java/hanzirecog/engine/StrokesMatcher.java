@@ -21,80 +21,370 @@
 
 package hanzirecog.engine;
 
-import hanzirecog.engine.beans.CharacterMatch;
-import hanzirecog.engine.service.datasource.MemoryStrokesStreamProvider;
-import hanzirecog.engine.service.datasource.StrokesDataSource;
+import hanzirecog.engine.service.datasource.ClusterIndex;
+import hanzirecog.engine.service.datasource.PrefixTrie;
+import hanzirecog.engine.service.datasource.StrokesIndex;
+import hanzirecog.engine.service.datasource.EmbeddingIndex;
+import hanzirecog.engine.service.datasource.TokenIndex;
 import hanzirecog.engine.util.CurveUtils;
 import hanzirecog.engine.beans.CharacterDescriptor;
-import hanzirecog.engine.util.PriorityList;
+import hanzirecog.engine.beans.MatchResult;
+import hanzirecog.engine.enums.CandidateStrategy;
+import hanzirecog.engine.enums.FilterStage;
+import hanzirecog.engine.enums.ScanOrder;
+import hanzirecog.engine.enums.ScoringMode;
+import hanzirecog.engine.util.TopMatchHeap;
 import org.apache.log4j.Logger;
 
 import java.awt.geom.CubicCurve2D;
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Refactorized by I-Tang HIU August 2018
  * <p>
  * StrokesMatcher compares a CharacterDescriptor against characters in a the given stroke recognizer.
- * A new instance of one of these is created for every comparison against a stroke recognizer bytes,
- * but since it only reads stroke recognizer, there shouldn't be any synchronization problems of
+ * A new instance of one of these is created for every comparison against a stroke recognizer bytes
+ * (see Recognizer#newMatcher), but since it only reads stroke recognizer, there shouldn't be any synchronization problems of
  * running multiple matchers simulateneously.  If a particular StrokesMatcher is running
- * in a Thread but its results are no longer needed, setRunning(false) can be invoked in another
+ * in a Thread but its results are no longer needed, stop() can be invoked in another
  * Thread to cause execution to fall out of its processing loop, and the doMatching method will
- * return null.
+ * return null.  The scan checks the flag every CANCELLATION_CHECK_INTERVAL characters.
+ * doMatching(Duration) bounds the duration of a lookup the same way.
+ * <p>
+ * A lookup scanning a lot of characters (high looseness) can be split across the threads of
+ * a ForkJoinPool, see setParallelism.  Each task scores its share of the characters with its own
+ * score matrix and TopMatchHeap, and the heaps are merged when the tasks join.
+ * <p>
+ * Once the top matches are full, a comparison is abandoned as soon as the character provably can't
+ * beat the worst of them, see setEarlyAbandon.  This doesn't change the results.
+ * <p>
+ * In the FIXED_POINT scoring mode the score matrices are computed in integers, over the 8 bit
+ * quantized directions and lengths of the index.  Cheaper, but the results may differ slightly.
+ * <p>
+ * With setBatchLanes, the characters of a partition that have the same number of substrokes are
+ * compared several at a time, in lockstep, see PartitionScanner.computeBatchMatchScores.
+ * <p>
+ * Before comparing a character, the EXACT scoring runs a cascade of cheap filters (see FilterStage),
+ * each computing an upper bound of its score from coarse features of the index.  Once the top matches
+ * are full, a character whose bound can't beat the worst of them isn't compared at all.
+ * <p>
+ * setCoarseCandidates enables a coarse to fine matching, trading some recall for speed.
+ * setCandidateStrategy picks the characters to compare from an index instead of scanning them all,
+ * or from the clusters of similar characters of the ClusterIndex.
+ * <p>
+ * The PREFIX_TRIE scan order computes the score matrices one column (one substroke of the character)
+ * at a time, walking the PrefixTrie of the index : the characters starting with the same substrokes
+ * share the columns of their common prefix, see PartitionScanner.scanPrefixTrie.
  */
 public class StrokesMatcher {
 
-  static private final String DATA_PATH = "strokes.dat";
   static final double CORRECT_NUM_STROKES_BONUS = 0.1; // max multiplier bonus if characters has the correct number of strokes
   static final int CORRECT_NUM_STROKES_CAP = 10;  // characters with more strokes than this will not be multiplied
-  static private final double SKIP_PENALTY_MULTIPLIER = 1.75; // penalty mulitplier for skipping a stroke
+  static final double SKIP_PENALTY_MULTIPLIER = 1.75; // penalty mulitplier for skipping a stroke
   // We use curves to evaluate the scores when comparing two directions or two lengths.
   // It's faster to just generate the curves at the start and sample them and store the samples
   // then to compute a point on the curve at run time.
   static private final double[] DIRECTION_SCORE_TABLE = initDirectionScoreTable();
   static private final double[] LENGTH_SCORE_TABLE = initLengthScoreTable();
+  // Seed values of the first row and column of the score matrix.
+  static private final double[] SKIP_SEEDS = initSkipSeeds();
+  // What each substroke skipped by a seed costs : the seeds decrease linearly.
+  static private final double SEED_SKIP_PENALTY = -SKIP_SEEDS[1];
+  // Fixed point scores are scaled by 2^FIXED_POINT_SHIFT.
+  static private final int FIXED_POINT_SHIFT = 12;
+  static private final double FIXED_POINT_ONE = 1 << FIXED_POINT_SHIFT;
+  // The fixed point score of the cells out of the substroke range.  Far from Integer.MIN_VALUE so that
+  // subtracting penalties can't overflow, any score below FIXED_POINT_UNUSABLE / 2 is unusable.
+  static private final int FIXED_POINT_UNUSABLE = Integer.MIN_VALUE / 4;
+  static private final int[] FIXED_POINT_SKIP_SEEDS = initFixedPointSkipSeeds();
+  // The penalty for skipping a substroke, by quantized length.
+  static private final int[] FIXED_POINT_SKIP_PENALTIES = initFixedPointSkipPenalties();
+  // The highest score of two aligned substrokes, so a bound on what each remaining substroke can add.
+  static private final double MAX_SUB_STROKE_SCORE = initMaxSubStrokeScore();
+  // Relative margin keeping the early abandon exact despite the floating point rounding of the scores.
+  static private final double EARLY_ABANDON_MARGIN = 1e-9;
+  // A parallel scan doesn't split the characters to compare in chunks smaller than this.
+  static private final int MIN_PARALLEL_CHUNK_SIZE = 256;
+  static public final int MAX_BATCH_LANES = 16;
+  // Number of characters of a partition compared before their scores are added to the matches, when batching.
+  static private final int BATCH_SLICE_SIZE = 256;
+  // Number of characters compared between two checks of the cancellation flag and the deadline, a power of 2.
+  static private final int CANCELLATION_CHECK_INTERVAL = 64;
+  // The cluster expansion stops after this many clusters in a row left the top matches unchanged.
+  static private final int STABLE_CLUSTER_COUNT = 16;
+  // The heap of a serial scan is reused by the next lookups of the same thread, its dedup table being large.
+  static private final ThreadLocal<TopMatchHeap> SERIAL_SCAN_HEAP = new ThreadLocal<>();
 
-  // a matrix is used to try to match the individual sub strokes
-  // we instantiate that matrix once and re-use it.
-  private double[][] scoreMatrix;
   private boolean searchTraditional;
   private boolean searchSimplified;
-  private double looseness;    // comparison looseness, 0-1
-  private boolean running;    // flag to prematurely stop processing if necessary
+  private MatchPlan plan;      // the ranges and scan choices of the looseness, types and number of matches
+  private volatile boolean running;    // flag to prematurely stop processing if necessary
+  private long deadline;      // System.nanoTime() at which the scan stops, if hasDeadline
+  private boolean hasDeadline;
+  private volatile boolean deadlineReached;
   private CharacterDescriptor inputCharacter;        // the input character we want to find a match for
-  private CharacterDescriptor compareTo;            // an instance we'll reload with recognizer to compare against the input
-  // need this to properly handle the possibility of multiple instances of a character in the repository recognizer
-  private CharacterMatchCollector matches;
-  // The recognizer source where stroke recognizer is derived from.
-  private StrokesDataSource strokesDataSource;
+  private int numMatches;
+  private ForkJoinPool forkJoinPool;
+  private int parallelThreshold = Integer.MAX_VALUE; // number of characters to compare from which the scan is parallel
+  private boolean earlyAbandon = true;
+  private ScoringMode scoringMode = ScoringMode.EXACT;
+  private int batchLanes = 1;
+  private ScanOrder scanOrder = ScanOrder.COMPILED;
+  private boolean candidateFilters = true;
+  private boolean runFilters;  // candidateFilters, unless the plan finds a plain scan cheaper for this lookup
+  private double filterTolerance;
+  private int coarseCandidates;
+  private CandidateStrategy candidateStrategy = CandidateStrategy.SCAN;
+  private int strategyCandidates;
+  private CharacterAllowlist allowlist;
+  private final MatchStatistics statistics = new MatchStatistics();
+
+  // Query parameters computed by doMatching and read by the PartitionScanners.
+  private int inputStrokeCount;
+  private int inputSubStrokeCount;
+  private int subStrokesRange;
+  // The characters to compare are the entries [rangeStarts[i], rangeEnds[i]) of the index, for each i.
+  // Seen as a single sequence, the entries of range i start at position rangePositions[i].
+  private int[] rangeStarts;
+  private int[] rangeEnds;
+  private int[] rangePositions;
+  // The partition of the entries of range i.
+  private int[] rangePartitions;
+  private int candidateCount;
+  // All the partitions of the searched types and stroke counts, whether or not they have entries in the substroke range.
+  private int[] searchedPartitions;
+  // The substroke score tables of the query, see buildSubStrokeScoreTables.
+  private double[][] directionScores;
+  private double[][] lengthScores;
+  private double[] compareSkipPenalties;
+  // The same in fixed point, by quantized direction and length.
+  private int[][] fixedPointDirectionScores;
+  private int[][] fixedPointLengthScores;
+  private int[] fixedPointInputSkipPenalties;
+  private int fixedPointMaxSubStrokeScore;
+  // The scores of the downsampled input substrokes of the coarse pass, by quantized direction and length,
+  // see buildCoarseScoreTables.
+  private int reducedInputSubStrokeCount;
+  private double[][] coarseDirectionScores;
+  private double[][] coarseLengthScores;
+  private double[] coarseInputSkipPenalties;
+  private double[] coarseCompareSkipPenalties;
+  // The filter cascade tables of the query, see buildFilterTables.
+  private double[] cheapestInputSkipCosts;
+  private double[] directionBinsBounds;
+  private double[] lengthBinsBounds;
+  // The decoded stroke recognizer, shared with the other matchers.
+  private final StrokesIndex strokesIndex;
   private static Logger logger = Logger.getLogger(StrokesMatcher.class.toString());
 
   /**
+   * Builds a matcher comparing against the data set of the shared Recognizer.
+   *
    * @param character         the input character we want matches for
    * @param searchTraditional true if traditional characters should included in results
    * @param searchSimplified  true if simplified characters should be included in results
    * @param looseness         matching looseness, 0-1
    * @param numMatches        number of matches to return
-   * @param strokesDataSource the dat source
+   * @see Recognizer#newMatcher(CharacterDescriptor, boolean, boolean, double, int)
    */
   public StrokesMatcher(CharacterDescriptor character, boolean searchTraditional,
                         boolean searchSimplified, double looseness, int numMatches) {
 
+    this(Recognizer.getInstance().getStrokesIndex(), character, searchTraditional, searchSimplified, looseness, numMatches);
+  }
+
+  /**
+   * @param strokesIndex      the decoded stroke recognizer, shared with other matchers
+   * @param character         the input character we want matches for
+   * @param searchTraditional true if traditional characters should included in results
+   * @param searchSimplified  true if simplified characters should be included in results
+   * @param looseness         matching looseness, 0-1
+   * @param numMatches        number of matches to return
+   */
+  public StrokesMatcher(StrokesIndex strokesIndex, CharacterDescriptor character, boolean searchTraditional,
+                        boolean searchSimplified, double looseness, int numMatches) {
+
+    this(strokesIndex, character, MatchPlan.get(looseness, searchTraditional, searchSimplified, numMatches));
+  }
+
+  /**
+   * @param strokesIndex the decoded stroke recognizer, shared with other matchers
+   * @param character    the input character we want matches for
+   * @param plan         the looseness, character types and number of matches of the lookup, see MatchPlan.get
+   */
+  public StrokesMatcher(StrokesIndex strokesIndex, CharacterDescriptor character, MatchPlan plan) {
+
+    this.strokesIndex = strokesIndex;
     this.inputCharacter = character;
-    compareTo = new CharacterDescriptor();
-    this.searchTraditional = searchTraditional;
-    this.searchSimplified = searchSimplified;
-    this.looseness = looseness;
+    this.searchTraditional = plan.isSearchTraditional();
+    this.searchSimplified = plan.isSearchSimplified();
+    this.plan = plan;
     this.running = true;
-    if (this.strokesDataSource == null)
-      this.strokesDataSource = getStrokesDataSource();
-    matches = new CharacterMatchCollector(numMatches);
-    initScoreMatrix();
+    this.numMatches = plan.getNumMatches();
+  }
+
+  /**
+   * Enables the parallel scan : when a lookup has at least parallelThreshold characters to compare,
+   * the comparisons are split in tasks run by the given pool.  Smaller lookups are run in the calling thread.
+   *
+   * @param forkJoinPool      the pool running the tasks
+   * @param parallelThreshold the number of characters to compare from which the scan is parallel
+   */
+  public void setParallelism(ForkJoinPool forkJoinPool, int parallelThreshold) {
+
+    this.forkJoinPool = forkJoinPool;
+    this.parallelThreshold = parallelThreshold;
+  }
+
+  /**
+   * Enables or disables the early abandon of the comparisons, enabled by default.
+   * When enabled, the score matrix of a character is abandoned after any row from which even a perfect
+   * match of the remaining substrokes couldn't beat the worst of the top matches.  The results are the same
+   * either way, this only saves work.
+   *
+   * @param earlyAbandon true to abandon the comparisons that can't make the top matches
+   */
+  public void setEarlyAbandon(boolean earlyAbandon) {
+    this.earlyAbandon = earlyAbandon;
+  }
+
+  /**
+   * @param scoringMode how to compute the score matrices, EXACT by default
+   */
+  public void setScoringMode(ScoringMode scoringMode) {
+    this.scoringMode = scoringMode;
+  }
+
+  /**
+   * With NEAREST_STROKE_COUNT_FIRST, the characters most likely to match are compared first,
+   * so the worst of the top matches rises early and the early abandon prunes more,
+   * and a lookup cut by its deadline has already compared the best candidates.
+   * Characters with equal scores may come in a different order than with COMPILED.
+   * <p>
+   * PREFIX_TRIE only applies to the EXACT scoring of the lookups that compare all the characters, without allowlist.
+   * These lookups are never split across the fork join pool, and compare the characters one at a time.
+   * The scores are those of COMPILED, characters with equal scores may also come in a different order.
+   * The others scan in the COMPILED order.
+   *
+   * @param scanOrder the order in which to compare the characters, COMPILED by default
+   */
+  public void setScanOrder(ScanOrder scanOrder) {
+    this.scanOrder = scanOrder;
+  }
+
+  /**
+   * Sets the number of characters compared in lockstep by the EXACT scoring.
+   * The characters of a batch share the loops of their score matrices, their cells being interleaved,
+   * which gives the processor independent computations to overlap.  The results are the same
+   * as comparing the characters one at a time.
+   *
+   * @param batchLanes the number of characters compared at once, 1 (the default) to compare them one at a time
+   */
+  public void setBatchLanes(int batchLanes) {
+
+    if (batchLanes < 1 || batchLanes > MAX_BATCH_LANES)
+      throw new IllegalArgumentException("batchLanes must be between 1 and " + MAX_BATCH_LANES + "!");
+    this.batchLanes = batchLanes;
+  }
+
+  /**
+   * Enables or disables the filter cascade run before comparing a character, enabled by default.
+   * It needs the early abandon, and is only run by the EXACT scoring.  Even enabled, it is left out of the lookups
+   * selecting too few characters to pay for its tables, see MatchPlan.isFilterCascadeWorthwhile.
+   *
+   * @param candidateFilters true to reject the characters whose score bounds can't make the top matches
+   * @see FilterStage
+   */
+  public void setCandidateFilters(boolean candidateFilters) {
+    this.candidateFilters = candidateFilters;
+  }
+
+  /**
+   * With a tolerance of 0 (the default) the filters only reject the characters that provably can't make
+   * the top matches, and the results are the same as without them.  A positive tolerance also rejects
+   * the characters whose score bound beats the worst of the top matches by less than the tolerance :
+   * more characters are rejected, but some good matches may be missed.
+   *
+   * @param filterTolerance the tolerance, in score units, 0 or more
+   */
+  public void setFilterTolerance(double filterTolerance) {
+
+    if (filterTolerance < 0)
+      throw new IllegalArgumentException("filterTolerance can't be negative!");
+    this.filterTolerance = filterTolerance;
+  }
+
+  /**
+   * Enables the coarse to fine matching.  A first pass scores every character by aligning downsampled
+   * copies of the substrokes (see StrokesIndex.downsample), about REDUCTION_FACTOR^2 times fewer cells,
+   * then only the coarseCandidates best characters of this pass are compared exactly.
+   * This pays for loose lookups, which compare a lot of characters.  But a good match ranked too low
+   * by the coarse pass is missed : the fewer the candidates, the faster and the more likely.
+   * A coarse to fine lookup is never split across the fork join pool.  It only applies to the SCAN candidate strategy.
+   *
+   * @param coarseCandidates the number of characters the coarse pass keeps, 0 (the default) to compare all the characters exactly
+   */
+  public void setCoarseCandidates(int coarseCandidates) {
+
+    if (coarseCandidates < 0)
+      throw new IllegalArgumentException("coarseCandidates can't be negative!");
+    this.coarseCandidates = coarseCandidates;
+  }
+
+  /**
+   * Sets how the characters to compare exactly are picked.  With SCAN (the default) they are all compared.
+   * With the other strategies, an index gives each character of the stroke count range a similarity
+   * to the input, and only the candidates most similar ones are compared : the lookup reads the
+   * index instead of scanning every character, but may miss good matches the index ranks too low.
+   * These lookups are never split across the fork join pool.
+   * <p>
+   * CLUSTERS, experimental, compares the representatives of the clusters of the ClusterIndex, then expands the clusters
+   * in order of promise until none can improve the matches or candidates characters were compared,
+   * see PartitionScanner.scanClusters.  Its skipping rule is a guess, the cluster distances not being a metric.
+   * Building the ClusterIndex is O(n^2) in the partition sizes, so a lookup never builds it : it must have been
+   * loaded with an index snapshot or built by StrokesIndex.buildClusterIndex, as Recognizer.setCandidateStrategy does.
+   * <p>
+   * LSH hashes a fixed length embedding of the input into the tables of the EmbeddingIndex, and only compares
+   * the characters sharing a bucket with it, at most candidates of them, those colliding in the most tables first.
+   * <p>
+   * The other index structures a strategy reads are built by the first lookup needing them, unless they were loaded with
+   * an index snapshot : prefer the matchers of a Recognizer, which builds them when set to the strategy.
+   *
+   * @param candidateStrategy the strategy
+   * @param candidates        the number of characters to compare, ignored by SCAN
+   * @throws IllegalStateException with CLUSTERS, if the ClusterIndex of the index was neither loaded nor built
+   */
+  public void setCandidateStrategy(CandidateStrategy candidateStrategy, int candidates) {
+
+    if (candidateStrategy != CandidateStrategy.SCAN && candidates < 1)
+      throw new IllegalArgumentException("candidates must be at least 1!");
+    if (candidateStrategy == CandidateStrategy.CLUSTERS && strokesIndex.getClusterIndex() == null)
+      throw new IllegalStateException("The ClusterIndex must be built before a matcher uses it, see StrokesIndex.buildClusterIndex!");
+    this.candidateStrategy = candidateStrategy;
+    this.strategyCandidates = candidates;
+  }
+
+  /**
+   * Restricts the lookup to the characters of an allowlist : the other characters are neither decoded
+   * nor compared, and never returned, and the partitions without any allowed character are skipped.
+   * The PREFIX_TRIE scan order is ignored with an allowlist, the trie mixing the allowed characters with the others.
+   *
+   * @param allowlist the characters the lookup may return, null (the default) for all of them
+   */
+  public void setAllowlist(CharacterAllowlist allowlist) {
+    this.allowlist = allowlist;
+  }
+
+  /**
+   * @return the counters of the work done by doMatching
+   */
+  public MatchStatistics getStatistics() {
+    return statistics;
   }
 
   /**
@@ -104,267 +394,1389 @@ public class StrokesMatcher {
    */
   public Character[] doMatching() {
 
+    hasDeadline = false;
+    return scan();
+  }
+
+  /**
+   * Same as doMatching(), but stops comparing characters once the given budget is spent.
+   * The matches are then the best among the characters compared so far, and the result is flagged as partial.
+   *
+   * @param budget the maximum duration of the lookup
+   * @return the closest matches, null if processing canceled prematurely
+   */
+  public MatchResult doMatching(Duration budget) {
+
+    hasDeadline = true;
+    deadline = System.nanoTime() + budget.toNanos();
+    Character[] matches = scan();
+    if (matches == null)
+      return null;
+    return new MatchResult(matches, deadlineReached);
+  }
+
+  /**
+   * @return true if the scan must stop : the matcher was stopped or its deadline is reached
+   */
+  private boolean isInterrupted() {
+
+    if (!running)
+      return true;
+    if (hasDeadline && System.nanoTime() - deadline >= 0)
+      deadlineReached = true;
+    return deadlineReached;
+  }
+
+  private Character[] scan() {
+
+    deadlineReached = false;
+
     int strokeCount = inputCharacter.getStrokeCount();
     int subStrokeCount = inputCharacter.getSubStrokeCount();
+    inputStrokeCount = strokeCount;
+    inputSubStrokeCount = subStrokeCount;
 
-    // Get the range of strokes to compare against based on the loosness.
-    // Characters with fewer strokes than strokeCount - strokeRange
-    // or more than strokeCount + strokeRange won't even be considered.
-    int strokeRange = getStrokesRange(strokeCount, looseness);
-
+    // Get the range of strokes to compare against based on the loosness, from the plan.
     // Characters with stroke count >= minimumStrokes and <= maximumStrokes considered.
-    int minimumStrokes = Math.max(strokeCount - strokeRange, 1);
-    int maximumStrokes = Math.min(strokeCount + strokeRange, CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT);
+    int minimumStrokes = plan.getMinimumStrokes(strokeCount);
+    int maximumStrokes = plan.getMaximumStrokes(strokeCount);
 
     // Get the range of substrokes to compare against based on looseness.
     // When trying to match sub stroke patterns, won't compare sub strokes
     // that are farther about in sequence than this range.  This is to make
     // computing matches less expensive for low loosenesses.
-    int subStrokesRange = getSubStrokesRange(subStrokeCount, looseness);
-
-    // The recognizer source might come from a resource file, or in memory, etc.
-    StrokesDataSource.StrokesDataScanner strokesScanner = strokesDataSource.getStrokesScanner(searchTraditional, searchSimplified, minimumStrokes, maximumStrokes);
-
-    // While there are more characters from the source, load them into the compare instance,
-    // get the match, and add it to our matches.
-    try {
-      while (strokesScanner.loadNextCharacterStrokeData(compareTo)) {
-        // continue doing Character matches until the scanner tells us there are no
-        // more characters to match.
-        CharacterMatch match = compareToNext(strokeCount, subStrokeCount, subStrokesRange);
-        // always add, it won't have any effect if it wasn't a good match
-        matches.addMatch(match);
-      }
-    }
-    catch (IOException ioe) {
-      // There was an io error reading from the strokes recognizer stream when
-      // running a character comparison.  This will abort any further matching.
-      // If existing best matches (if any) are returned.  This means on an IOException
-      // the error will be spit out to System.err, and nothing more.  No in-app indication.
-      logger.info("Error running strokes comparison!");
-      ioe.printStackTrace();
-    }
-
-    // Results available for us in the CharacterMatchCollector.
-    Character[] matches = this.matches.getMatches();
-    // Only return matches if processing completed.
+    subStrokesRange = plan.getSubStrokesRange(subStrokeCount);
+
+    selectPartitions(minimumStrokes, maximumStrokes);
+    runFilters = candidateFilters && plan.isFilterCascadeWorthwhile(candidateCount);
+    if (candidateCount > 0) {
+      if (scoringMode == ScoringMode.FIXED_POINT)
+        buildFixedPointSubStrokeScoreTables();
+      else {
+        buildSubStrokeScoreTables();
+        if (runFilters)
+          buildFilterTables();
+      }
+    }
+    // Preselecting the characters to compare only pays off if it leaves characters out.
+    int preselectedCandidates = candidateStrategy == CandidateStrategy.SCAN ? coarseCandidates : strategyCandidates;
+    boolean preselect = preselectedCandidates > 0 && candidateCount > preselectedCandidates;
+    if (preselect && candidateStrategy == CandidateStrategy.SCAN)
+      buildCoarseScoreTables();
+    // The trie walk reads the substroke score tables, which aren't built when no character is selected.
+    boolean isPrefixTrieScan = scanOrder == ScanOrder.PREFIX_TRIE && scoringMode == ScoringMode.EXACT && !preselect
+            && allowlist == null && candidateCount > 0;
+    TopMatchHeap heap;
+    if (forkJoinPool != null && candidateCount >= parallelThreshold && !preselect && !isPrefixTrieScan) {
+      int chunkSize = Math.max(MIN_PARALLEL_CHUNK_SIZE, candidateCount / (4 * forkJoinPool.getParallelism()));
+      heap = forkJoinPool.invoke(new ParallelScanTask(0, candidateCount, chunkSize));
+    }
+    else {
+      heap = getSerialScanHeap();
+      PartitionScanner scanner = new PartitionScanner(heap);
+      if (preselect && candidateStrategy == CandidateStrategy.CLUSTERS)
+        scanner.scanClusters(preselectedCandidates);
+      else if (preselect)
+        scanner.scanPreselected(preselectedCandidates);
+      else if (isPrefixTrieScan)
+        scanner.scanPrefixTrie(minimumStrokes, maximumStrokes);
+      else
+        scanner.scan(0, candidateCount);
+      statistics.add(scanner.statistics);
+    }
+
+    if (heap.size() < numMatches && isRunning())
+      addSkippedCandidates(heap);
+
+    // Results available for us in the TopMatchHeap.
+    Character[] matches = heap.getMatches();
+    // Only return matches if processing wasn't stopped, a deadline only makes them partial.
     if (isRunning())
       return matches;
     return null;
   }
 
   /**
-   * Computes a range of strokes to use based on the given looseness.
-   * Only characters whose number of strokes are within the input number of strokes
-   * +/- this range will be considered during comparison.  This helps cut down
-   * on matching cost.
+   * @return the cleared heap of the serial scans of the current thread
+   */
+  private TopMatchHeap getSerialScanHeap() {
+
+    TopMatchHeap heap = SERIAL_SCAN_HEAP.get();
+    if (heap == null || heap.getCapacity() != numMatches) {
+      heap = new TopMatchHeap(numMatches);
+      SERIAL_SCAN_HEAP.set(heap);
+    }
+    heap.clear();
+    return heap;
+  }
+
+  /**
+   * Scores the input character against each of the entries [entryFrom, entryTo) of the index,
+   * whatever their type and stroke count, for the callers needing all the scores, such as the ClusterIndex.
+   * Nothing is abandoned nor filtered out.
    *
-   * @param strokeCount the number of input strokes
-   * @param looseness   the looseness, 0-1
-   * @return the range
+   * @param entryFrom the first entry
+   * @param entryTo   the entry after the last one
+   * @return the scores, bonus included, by entry - entryFrom, negative infinity for the entries out of the substroke range
    */
-  private int getStrokesRange(int strokeCount, double looseness) {
+  public double[] scoreEntries(int entryFrom, int entryTo) {
+
+    inputStrokeCount = inputCharacter.getStrokeCount();
+    inputSubStrokeCount = inputCharacter.getSubStrokeCount();
+    subStrokesRange = plan.getSubStrokesRange(inputSubStrokeCount);
+    runFilters = false;
+    if (scoringMode == ScoringMode.FIXED_POINT)
+      buildFixedPointSubStrokeScoreTables();
+    else
+      buildSubStrokeScoreTables();
+    // The matches stay empty, so the abandon score stays negative infinity.
+    PartitionScanner scanner = new PartitionScanner(getSerialScanHeap());
+    double[] scores = new double[entryTo - entryFrom];
+    for (int entry = entryFrom; entry < entryTo; entry++)
+      scores[entry - entryFrom] = scanner.compareToNext(entry, inputStrokeCount, inputSubStrokeCount, subStrokesRange);
+    statistics.add(scanner.statistics);
+    return scores;
+  }
+
+  /**
+   * Selects the entry ranges of the partitions to compare : the characters whose stroke count
+   * is within [minimumStrokes, maximumStrokes], in the scan order.
+   * <p>
+   * The entries of a partition are sorted by substroke count, so only the entries whose substroke count
+   * is within the substroke range of the input are selected : the others can't be aligned with the input
+   * and would score negative infinity.
+   *
+   * @param minimumStrokes the minimum number of strokes in a character we should check
+   * @param maximumStrokes the maximum number of strokes in a character we should check
+   */
+  private void selectPartitions(int minimumStrokes, int maximumStrokes) {
+
+    List<Integer> partitions = new ArrayList<>();
+    List<Integer> searched = new ArrayList<>();
+    if (scanOrder == ScanOrder.NEAREST_STROKE_COUNT_FIRST) {
+      // The input stroke count, then one stroke less, one stroke more, two strokes less...
+      int maximumDistance = Math.max(inputStrokeCount - minimumStrokes, maximumStrokes - inputStrokeCount);
+      for (int distance = 0; distance <= maximumDistance; distance++) {
+        for (int compareStrokeCount : new int[]{inputStrokeCount - distance, inputStrokeCount + distance}) {
+          if (compareStrokeCount < minimumStrokes || compareStrokeCount > maximumStrokes)
+            continue;
+          for (int partitionType = 0; partitionType < StrokesIndex.PARTITION_TYPE_COUNT; partitionType++)
+            addPartition(partitions, searched, partitionType, compareStrokeCount);
+          if (distance == 0)
+            break;
+        }
+      }
+    }
+    else {
+      for (int partitionType = 0; partitionType < StrokesIndex.PARTITION_TYPE_COUNT; partitionType++) {
+        for (int compareStrokeCount = minimumStrokes; compareStrokeCount <= maximumStrokes; compareStrokeCount++)
+          addPartition(partitions, searched, partitionType, compareStrokeCount);
+      }
+    }
+
+    if (allowlist == null) {
+      rangeStarts = new int[partitions.size()];
+      rangeEnds = new int[partitions.size()];
+      rangePartitions = new int[partitions.size()];
+      for (int i = 0; i < partitions.size(); i++) {
+        int partition = partitions.get(i);
+        rangePartitions[i] = partition;
+        rangeStarts[i] = getRangeStart(partition);
+        rangeEnds[i] = getRangeEnd(partition);
+      }
+    }
+    else
+      selectAllowedRanges(partitions);
+    rangePositions = new int[rangeStarts.length];
+    candidateCount = 0;
+    for (int i = 0; i < rangeStarts.length; i++) {
+      rangePositions[i] = candidateCount;
+      candidateCount += rangeEnds[i] - rangeStarts[i];
+    }
+    searchedPartitions = new int[searched.size()];
+    for (int i = 0; i < searched.size(); i++) {
+      int partition = searched.get(i);
+      searchedPartitions[i] = partition;
+      statistics.addSkippedCandidates(strokesIndex.getPartitionEnd(partition) - strokesIndex.getPartitionStart(partition)
+              - (getRangeEnd(partition) - getRangeStart(partition)));
+    }
+  }
 
-    // Just return some extreme values if at minimum or maximum.
-    // Helps to avoid possible floating point issues when near the extremes.
-    if (looseness == 0.0)
-      return 0;
-    else if (looseness == 1.0)
-      return CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT;
+  /**
+   * Splits the entry range of each partition into the runs of consecutive allowed entries, so the scans
+   * only ever see the allowed characters.  A partition may then make several ranges, which follow each other.
+   *
+   * @param partitions the partitions to scan, in the scan order
+   */
+  private void selectAllowedRanges(List<Integer> partitions) {
+
+    char[] characters = strokesIndex.getCharacters();
+    List<int[]> ranges = new ArrayList<>();
+    for (int partition : partitions) {
+      int rangeEnd = getRangeEnd(partition);
+      for (int entry = getRangeStart(partition); entry < rangeEnd; entry++) {
+        if (!allowlist.contains(characters[entry]))
+          continue;
+        int runStart = entry;
+        while (entry < rangeEnd && allowlist.contains(characters[entry]))
+          entry++;
+        ranges.add(new int[]{partition, runStart, entry});
+      }
+    }
+    rangeStarts = new int[ranges.size()];
+    rangeEnds = new int[ranges.size()];
+    rangePartitions = new int[ranges.size()];
+    for (int i = 0; i < ranges.size(); i++) {
+      rangePartitions[i] = ranges.get(i)[0];
+      rangeStarts[i] = ranges.get(i)[1];
+      rangeEnds[i] = ranges.get(i)[2];
+    }
+  }
 
-    // We use a CubicCurve that grows slowly at first and then rapidly near the end to the maximum.
-    // This is so a looseness at or near 1.0 will return a range that will consider all characters.
-    double ctrl1X = 0.35;
-    double ctrl1Y = strokeCount * 0.4;
+  /**
+   * The characters out of the substroke range aren't compared, their score would be negative infinity.
+   * When fewer than numMatches characters were compared they still complete the matches, as they did
+   * when every character was compared.
+   */
+  private void addSkippedCandidates(TopMatchHeap matches) {
 
-    double ctrl2X = 0.6;
-    double ctrl2Y = strokeCount;
+    for (int partition : searchedPartitions) {
+      addNegativeInfinityMatches(matches, strokesIndex.getPartitionStart(partition), getRangeStart(partition));
+      addNegativeInfinityMatches(matches, getRangeEnd(partition), strokesIndex.getPartitionEnd(partition));
+    }
+  }
 
-    double[] solutions = new double[1];
-    CubicCurve2D curve = new CubicCurve2D.Double(0, 0, ctrl1X, ctrl1Y, ctrl2X, ctrl2Y, 1, CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT);
-    CurveUtils.solveCubicCurveForX(curve, looseness, solutions);
-    double t = solutions[0];
+  private void addNegativeInfinityMatches(TopMatchHeap matches, int entryFrom, int entryTo) {
 
-    // We get the t value on the parametrized curve where the x value matches the looseness.
-    // Then we compute the y value for that t.  This gives the range.
-    return (int) Math.round(CurveUtils.getPointOnCubicCurve(curve, t).getY());
+    char[] characters = strokesIndex.getCharacters();
+    for (int entry = entryFrom; entry < entryTo && matches.size() < matches.getCapacity(); entry++) {
+      if (allowlist == null || allowlist.contains(characters[entry]))
+        matches.add(characters[entry], Double.NEGATIVE_INFINITY);
+    }
   }
 
   /**
-   * Computes the range of substrokes to use when computing matches based on looseness.
-   * When matching, sub strokes are matched up with one another to find the best
-   * matching.  But if two substrokes are +/-  beyond this range, then the comparison
-   * is short-circuited for some computation savings.
-   *
-   * @param subStrokeCount the substroke count of the input character
-   * @param looseness      the looseness, 0-1
-   * @return the range
+   * @return the first entry of the partition within the substroke range of the input
    */
-  private int getSubStrokesRange(int subStrokeCount, double looseness) {
+  private int getRangeStart(int partition) {
 
-    // Return the maximum if looseness = 1.0.
-    // Otherwise we'd have to ensure that the floating point value led to exactly the right int count.
-    if (looseness == 1.0)
-      return CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT;
+    // Without input substrokes there is no alignment to check.
+    if (inputSubStrokeCount == 0)
+      return strokesIndex.getPartitionStart(partition);
+    return strokesIndex.getSubPartitionStart(partition, inputSubStrokeCount - subStrokesRange);
+  }
 
-    // We use a CubicCurve that grows slowly at first and then rapidly near the end to the maximum.
-    double y0 = subStrokeCount * 0.25;
+  /**
+   * @return the entry after the last entry of the partition within the substroke range of the input
+   */
+  private int getRangeEnd(int partition) {
 
-    double ctrl1X = 0.4;
-    double ctrl1Y = 1.5 * y0;
+    if (inputSubStrokeCount == 0)
+      return strokesIndex.getPartitionEnd(partition);
+    return strokesIndex.getSubPartitionStart(partition, inputSubStrokeCount + subStrokesRange + 1);
+  }
 
-    double ctrl2X = 0.75;
-    double ctrl2Y = 1.5 * ctrl1Y;
+  /**
+   * Precomputes the scores of the input substrokes against every distinct direction and length of the index.
+   * The input side of a substroke comparison is the same for all the characters compared, and the index
+   * only has a few hundred distinct values, so the score matrix cells just read these tables.
+   * The scores are exactly the ones that would be computed cell by cell.
+   */
+  private void buildSubStrokeScoreTables() {
 
-    double[] solutions = new double[1];
-    CubicCurve2D curve = new CubicCurve2D.Double(0, y0, ctrl1X, ctrl1Y, ctrl2X, ctrl2Y, 1, CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT);
-    CurveUtils.solveCubicCurveForX(curve, looseness, solutions);
-    double t = solutions[0];
+    double[] directionValues = strokesIndex.getDirectionValues();
+    double[] lengthValues = strokesIndex.getLengthValues();
+    double[] inputDirections = inputCharacter.getDirections();
+    double[] inputLengths = inputCharacter.getLengths();
 
-    // We get the t value on the parametrized curve where the x value matches the looseness.
-    // Then we compute the y value for that t.  This gives the range.
-    return (int) Math.round(CurveUtils.getPointOnCubicCurve(curve, t).getY());
+    directionScores = new double[inputSubStrokeCount][directionValues.length];
+    lengthScores = new double[inputSubStrokeCount][lengthValues.length];
+    for (int x = 0; x < inputSubStrokeCount; x++) {
+      for (int i = 0; i < directionValues.length; i++)
+        directionScores[x][i] = getDirectionScore(inputDirections[x], directionValues[i], inputLengths[x]);
+      for (int i = 0; i < lengthValues.length; i++)
+        lengthScores[x][i] = getLengthScore(inputLengths[x], lengthValues[i]);
+    }
+    compareSkipPenalties = new double[lengthValues.length];
+    for (int i = 0; i < lengthValues.length; i++)
+      compareSkipPenalties[i] = lengthValues[i] * SKIP_PENALTY_MULTIPLIER;
   }
 
   /**
-   * Init the reusable score matrix.  Need to make it sufficiently large so that any character will fit it.
+   * Precomputes the score bounds of the filter cascade from the substroke score tables.
+   * <p>
+   * In an alignment, each input substroke is either aligned with a substroke of the character,
+   * skipped, or skipped by the seed of the first column.  So the score of a character is at most the sum,
+   * over the input substrokes, of the best of their score against a substroke of the character and of
+   * the cheapest of their skips (the skips of the character substrokes only lower the score).
+   * The best score against a character is bounded from the bins its substrokes fall in, for every set of bins.
    */
-  private void initScoreMatrix() {
+  private void buildFilterTables() {
 
-    final double AVG_SUBSTROKE_LENGTH = 0.33;    // an average length (out of 1)
-    // We use a dimension + 1 because the first row and column are seed values.
-    int scoreMatrixDimension = CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 1;
-    scoreMatrix = new double[scoreMatrixDimension][scoreMatrixDimension];
-    for (int i = 0; i < scoreMatrixDimension; i++) {
-      // Seed the first row and column with base values.
-      // Starting from a cell that isn't at 0,0 to skip strokes incurs a penalty.
-      double penalty = -AVG_SUBSTROKE_LENGTH * SKIP_PENALTY_MULTIPLIER * i;
-      scoreMatrix[i][0] = penalty;
-      scoreMatrix[0][i] = penalty;
+    int binSets = 1 << StrokesIndex.FEATURE_BINS;
+    double[] inputLengths = inputCharacter.getLengths();
+    double[] skipCosts = new double[inputSubStrokeCount];
+    directionBinsBounds = new double[binSets];
+    lengthBinsBounds = new double[binSets];
+    double[] binMinimums = new double[StrokesIndex.FEATURE_BINS];
+    double[] binMaximums = new double[StrokesIndex.FEATURE_BINS];
+    double[] rowBounds = new double[binSets];
+    for (int x = 0; x < inputSubStrokeCount; x++) {
+      skipCosts[x] = Math.min(inputLengths[x] * SKIP_PENALTY_MULTIPLIER, SEED_SKIP_PENALTY);
+      double[] directionScoreRow = directionScores[x];
+      double[] lengthScoreRow = lengthScores[x];
+      addRowBounds(directionBinsBounds, directionScoreRow, true, getMinimum(lengthScoreRow), getMaximum(lengthScoreRow),
+              skipCosts[x], binMinimums, binMaximums, rowBounds);
+      addRowBounds(lengthBinsBounds, lengthScoreRow, false, getMinimum(directionScoreRow), getMaximum(directionScoreRow),
+              skipCosts[x], binMinimums, binMaximums, rowBounds);
     }
+
+    // When the input has more substrokes than the character, the extra ones are skipped : at best the cheapest ones.
+    Arrays.sort(skipCosts);
+    cheapestInputSkipCosts = new double[inputSubStrokeCount + 1];
+    for (int i = 0; i < inputSubStrokeCount; i++)
+      cheapestInputSkipCosts[i + 1] = cheapestInputSkipCosts[i] + skipCosts[i];
   }
 
   /**
-   * Compares the inputDescriptor recognizer to the next recognizer in the given DataInputStream.
+   * Adds the bounds of an input substroke to binsBounds, for each set of bins.
    *
-   * @param inputStrokeCount    the number of strokes in the character input
-   * @param inputSubStrokeCount the number of substrokes in the character input
-   * @param subStrokesRange     the subStrokesRange computed by looseness
-   * @return a CharacterMatch for the comparison
-   * @throws IOException
-   */
-  private CharacterMatch compareToNext(int inputStrokeCount, int inputSubStrokeCount, int subStrokesRange) {
-
-    // Read the recognizer out of the stream.
-    // Format is [Character][type][stroke count][sub stroke recognizer]
-    Character character = compareTo.getCharacter();
-    int type = compareTo.getCharacterType();
-    int compareStrokeCount = compareTo.getStrokeCount();
-    int compareSubStrokeCount = compareTo.getSubStrokeCount();
-    double score = computeMatchScore(inputSubStrokeCount, compareSubStrokeCount, subStrokesRange);
-
-    // If the input character and the character in the repository have the same number of strokes, assign a small bonus.
-    // Might be able to remove this, doesn't really add much, only semi-useful for characters with only a couple strokes.
-    if (inputStrokeCount == compareStrokeCount && inputStrokeCount < CORRECT_NUM_STROKES_CAP) {
-      // The bonus declines linearly as the number of strokes increases, writing 2 instead of 3 strokes is worse than 9 for 10.
-      double bonus = CORRECT_NUM_STROKES_BONUS * ((double) (Math.max(CORRECT_NUM_STROKES_CAP - inputStrokeCount, 0)) / CORRECT_NUM_STROKES_CAP);
-      score += bonus * score;
+   * @param binsBounds     the bounds, by set of bins of the feature
+   * @param scores         the scores of the input substroke against the distinct values of the feature
+   * @param directions     true if the feature is the direction, false for the length
+   * @param otherMinimum   the lowest score of the input substroke against the values of the other feature
+   * @param otherMaximum   the highest score of the input substroke against the values of the other feature
+   * @param skipCost       the cost of skipping the input substroke
+   */
+  private void addRowBounds(double[] binsBounds, double[] scores, boolean directions, double otherMinimum, double otherMaximum,
+                            double skipCost, double[] binMinimums, double[] binMaximums, double[] rowBounds) {
+
+    double[] values = directions ? strokesIndex.getDirectionValues() : strokesIndex.getLengthValues();
+    Arrays.fill(binMinimums, Double.POSITIVE_INFINITY);
+    Arrays.fill(binMaximums, Double.NEGATIVE_INFINITY);
+    for (int i = 0; i < values.length; i++) {
+      int bin = directions ? StrokesIndex.getDirectionBin(values[i]) : StrokesIndex.getLengthBin(values[i]);
+      binMinimums[bin] = Math.min(binMinimums[bin], scores[i]);
+      binMaximums[bin] = Math.max(binMaximums[bin], scores[i]);
+    }
+
+    // The score of two substrokes is the product of their direction and length scores.
+    rowBounds[0] = Double.NEGATIVE_INFINITY;
+    binsBounds[0] -= skipCost;
+    for (int bins = 1; bins < rowBounds.length; bins++) {
+      int bin = Integer.numberOfTrailingZeros(bins);
+      double binBound = Double.NEGATIVE_INFINITY;
+      if (binMinimums[bin] <= binMaximums[bin]) {
+        binBound = Math.max(Math.max(binMinimums[bin] * otherMinimum, binMinimums[bin] * otherMaximum),
+                Math.max(binMaximums[bin] * otherMinimum, binMaximums[bin] * otherMaximum));
+      }
+      rowBounds[bins] = Math.max(rowBounds[bins & (bins - 1)], binBound);
+      binsBounds[bins] += Math.max(rowBounds[bins], -skipCost);
     }
-    return new CharacterMatch(character, score);
+  }
+
+  static private double getMinimum(double[] values) {
+    return Arrays.stream(values).min().orElse(0);
+  }
+
+  static private double getMaximum(double[] values) {
+    return Arrays.stream(values).max().orElse(0);
   }
 
   /**
-   * Computes a score by comparing the sub stroke recognizer already loaded into the
-   * inputDirections, inputLengths, compareDirections, and compareLengths arrays.
-   * <p>
-   * Builds a matrix in which substrokes from the two sets are compared against each
-   * other to find a good alignment.  Skipped substrokes incur penalties, but may
-   * still lead to the best scoring alignment.
-   * <p>
-   * The score returned only has a meaning when compared the results of other calls to this
-   * method from the same matcher.  There is no preset range to expect from the scores.
-   *
-   * @param inputSubStrokeCount   the number of input substrokes
-   * @param compareSubStrokeCount the number of substrokes in the compare character
-   * @param subStrokesRange       the substroke range
-   * @return the score
+   * Downsamples the input substrokes like those of the index and precomputes their scores against
+   * every quantized direction and length, for the coarse pass.  A downsampled substroke stands for
+   * REDUCTION_FACTOR substrokes, so do its skip penalties.
+   */
+  private void buildCoarseScoreTables() {
+
+    double[] reducedDirections = new double[StrokesIndex.getReducedCount(inputSubStrokeCount)];
+    double[] reducedLengths = new double[reducedDirections.length];
+    reducedInputSubStrokeCount = StrokesIndex.downsample(inputCharacter.getDirections(), inputCharacter.getLengths(),
+            inputSubStrokeCount, reducedDirections, reducedLengths);
+
+    coarseDirectionScores = new double[reducedInputSubStrokeCount][StrokesIndex.QUANTIZATION_LEVELS];
+    coarseLengthScores = new double[reducedInputSubStrokeCount][StrokesIndex.QUANTIZATION_LEVELS];
+    coarseInputSkipPenalties = new double[reducedInputSubStrokeCount];
+    for (int x = 0; x < reducedInputSubStrokeCount; x++) {
+      for (int i = 0; i < StrokesIndex.QUANTIZATION_LEVELS; i++) {
+        coarseDirectionScores[x][i] = getDirectionScore(reducedDirections[x], StrokesIndex.getQuantizedDirectionValue(i), reducedLengths[x]);
+        coarseLengthScores[x][i] = getLengthScore(reducedLengths[x], StrokesIndex.getQuantizedLengthValue(i));
+      }
+      coarseInputSkipPenalties[x] = reducedLengths[x] * SKIP_PENALTY_MULTIPLIER * StrokesIndex.REDUCTION_FACTOR;
+    }
+    coarseCompareSkipPenalties = new double[StrokesIndex.QUANTIZATION_LEVELS];
+    for (int i = 0; i < StrokesIndex.QUANTIZATION_LEVELS; i++)
+      coarseCompareSkipPenalties[i] = StrokesIndex.getQuantizedLengthValue(i) * SKIP_PENALTY_MULTIPLIER * StrokesIndex.REDUCTION_FACTOR;
+  }
+
+  /**
+   * Same as buildSubStrokeScoreTables for the fixed point scoring : the input substrokes are quantized
+   * like the index ones, and their scores against every quantized direction and length are scaled to integers.
    */
-  private double computeMatchScore(int inputSubStrokeCount, int compareSubStrokeCount, int subStrokesRange) {
+  private void buildFixedPointSubStrokeScoreTables() {
 
     double[] inputDirections = inputCharacter.getDirections();
     double[] inputLengths = inputCharacter.getLengths();
-    double[] compareDirections = compareTo.getDirections();
-    double[] compareLengths = compareTo.getLengths();
 
+    fixedPointDirectionScores = new int[inputSubStrokeCount][StrokesIndex.QUANTIZATION_LEVELS];
+    fixedPointLengthScores = new int[inputSubStrokeCount][StrokesIndex.QUANTIZATION_LEVELS];
+    fixedPointInputSkipPenalties = new int[inputSubStrokeCount];
+    fixedPointMaxSubStrokeScore = 0;
     for (int x = 0; x < inputSubStrokeCount; x++) {
+      double inputDirection = StrokesIndex.getQuantizedDirectionValue(StrokesIndex.quantizeDirection(inputDirections[x]));
+      int inputQuantizedLength = StrokesIndex.quantizeLength(inputLengths[x]);
+      double inputLength = StrokesIndex.getQuantizedLengthValue(inputQuantizedLength);
+      int maxDirectionScore = Integer.MIN_VALUE;
+      int maxLengthScore = Integer.MIN_VALUE;
+      for (int i = 0; i < StrokesIndex.QUANTIZATION_LEVELS; i++) {
+        double directionScore = getDirectionScore(inputDirection, StrokesIndex.getQuantizedDirectionValue(i), inputLength);
+        double lengthScore = getLengthScore(inputLength, StrokesIndex.getQuantizedLengthValue(i));
+        fixedPointDirectionScores[x][i] = (int) Math.round(directionScore * FIXED_POINT_ONE);
+        fixedPointLengthScores[x][i] = (int) Math.round(lengthScore * FIXED_POINT_ONE);
+        maxDirectionScore = Math.max(maxDirectionScore, fixedPointDirectionScores[x][i]);
+        maxLengthScore = Math.max(maxLengthScore, fixedPointLengthScores[x][i]);
+      }
+      fixedPointInputSkipPenalties[x] = FIXED_POINT_SKIP_PENALTIES[inputQuantizedLength];
+      // The length scores are positive and the best direction score at least 1.
+      fixedPointMaxSubStrokeScore = Math.max(fixedPointMaxSubStrokeScore, (maxDirectionScore * maxLengthScore) >> FIXED_POINT_SHIFT);
+    }
+  }
 
-      // For each of the input substrokes...
-      double inputDirection = inputDirections[x];
-      double inputLength = inputLengths[x];
-      for (int y = 0; y < compareSubStrokeCount; y++) {
-        // For each of the compare substrokes...
-        // initialize the score as being not usable, it will only be set to a good
-        // value if the two substrokes are within the range.
-        double newScore = Double.NEGATIVE_INFINITY;
-        if (Math.abs(x - y) <= subStrokesRange) {
-          // The range is based on looseness.  If the two substrokes fall out of the range
-          // then the comparison score for those two substrokes remains Double.MIN_VALUE and will not be used.
-          double compareDirection = compareDirections[y];
-          double compareLength = compareLengths[y];
+  /**
+   * Adds a partition to the list of partitions to scan, unless it has no entry within the substroke range,
+   * and to the list of searched partitions unless it is empty.  Nothing is added if its type isn't searched,
+   * or if it has no character of the allowlist.
+   */
+  private void addPartition(List<Integer> partitions, List<Integer> searched, int partitionType, int compareStrokeCount) {
+
+    if (partitionType == StrokesIndex.SIMPLIFIED_PARTITION && !searchSimplified ||
+            partitionType == StrokesIndex.TRADITIONAL_PARTITION && !searchTraditional)
+      return;
+    int partition = StrokesIndex.getPartition(partitionType, compareStrokeCount);
+    if (allowlist != null && !allowlist.hasAllowedEntries(strokesIndex, partition))
+      return;
+    if (strokesIndex.getPartitionEnd(partition) > strokesIndex.getPartitionStart(partition))
+      searched.add(partition);
+    if (getRangeEnd(partition) > getRangeStart(partition))
+      partitions.add(partition);
+  }
+
+  /**
+   * If the input character and the character in the repository have the same number of strokes, assign a small bonus.
+   * Might be able to remove this, doesn't really add much, only semi-useful for characters with only a couple strokes.
+   *
+   * @return the bonus, as a ratio of the score
+   */
+  static private double getStrokeCountBonus(int inputStrokeCount, int compareStrokeCount) {
+
+    if (inputStrokeCount == compareStrokeCount && inputStrokeCount < CORRECT_NUM_STROKES_CAP) {
+      // The bonus declines linearly as the number of strokes increases, writing 2 instead of 3 strokes is worse than 9 for 10.
+      return CORRECT_NUM_STROKES_BONUS * ((double) (Math.max(CORRECT_NUM_STROKES_CAP - inputStrokeCount, 0)) / CORRECT_NUM_STROKES_CAP);
+    }
+    return 0;
+  }
+
+  /**
+   * Computes the seed values of the score matrix rows and columns.
+   * Starting from a cell that isn't at 0,0 to skip strokes incurs a penalty.
+   *
+   * @return the seeds, index i being the seed of row i and column i
+   */
+  static private double[] initSkipSeeds() {
+
+    final double AVG_SUBSTROKE_LENGTH = 0.33;    // an average length (out of 1)
+    // We use a dimension + 1 because the first row and column are seed values.
+    double[] seeds = new double[CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 1];
+    for (int i = 0; i < seeds.length; i++)
+      seeds[i] = -AVG_SUBSTROKE_LENGTH * SKIP_PENALTY_MULTIPLIER * i;
+    return seeds;
+  }
+
+  static private int[] initFixedPointSkipSeeds() {
+
+    int[] seeds = new int[SKIP_SEEDS.length];
+    for (int i = 0; i < seeds.length; i++)
+      seeds[i] = (int) Math.round(SKIP_SEEDS[i] * FIXED_POINT_ONE);
+    return seeds;
+  }
+
+  static private int[] initFixedPointSkipPenalties() {
+
+    int[] penalties = new int[StrokesIndex.QUANTIZATION_LEVELS];
+    for (int i = 0; i < penalties.length; i++)
+      penalties[i] = (int) Math.round(StrokesIndex.getQuantizedLengthValue(i) * SKIP_PENALTY_MULTIPLIER * FIXED_POINT_ONE);
+    return penalties;
+  }
+
+  /**
+   * @return the number of cells of the rows [fromRow, toRow) of the score matrix within the substroke range
+   */
+  static private long countBandCells(int fromRow, int toRow, int compareSubStrokeCount, int subStrokesRange) {
+
+    long cells = 0;
+    for (int x = fromRow; x < toRow; x++)
+      cells += Math.min(compareSubStrokeCount - 1, x + subStrokesRange) - Math.max(0, x - subStrokesRange) + 1;
+    return cells;
+  }
+
+  /**
+   * A PartitionScanner compares the input character to a share of the selected characters.
+   * It holds the state that can't be shared between threads : the score matrix rows and the collected matches.
+   */
+  private class PartitionScanner {
+
+    // Only two rows of the score matrix are needed at a time : the previous one and the one being computed.
+    // We instantiate them once and re-use them.
+    private double[] previousRow = new double[CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 1];
+    private double[] currentRow = new double[CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 1];
+    private int[] previousFixedPointRow;
+    private int[] currentFixedPointRow;
+    // The state of the batched comparisons, allocated on first use.
+    private double[] previousBatchRow;
+    private double[] currentBatchRow;
+    private double[] batchRowMaxScores;
+    private int[] batchOffsets;
+    private boolean[] batchAbandoned;
+    private int[] batchOrder;
+    private double[] batchScores;
+    private boolean[] batchFiltered;
+    private int[] subStrokeCountStarts;
+    // The columns of the score matrix along the current path of the PrefixTrie, by depth.
+    private double[][] trieColumns;
+    // need this to properly handle the possibility of multiple instances of a character in the repository recognizer
+    private TopMatchHeap matches;
+    private MatchStatistics statistics = new MatchStatistics();
+
+    private PartitionScanner(TopMatchHeap matches) {
+      this.matches = matches;
+    }
+
+    /**
+     * Compares the input character to the selected characters at positions [from, to), and adds them to the matches.
+     *
+     * @param from the first position
+     * @param to   the position after the last one
+     */
+    private void scan(int from, int to) {
+
+      char[] characters = strokesIndex.getCharacters();
+      for (int range = 0; range < rangeStarts.length; range++) {
+        // Intersect [from, to) with the positions of the range.
+        int rangeFrom = Math.max(from, rangePositions[range]);
+        int rangeTo = Math.min(to, rangePositions[range] + rangeEnds[range] - rangeStarts[range]);
+        if (batchLanes > 1 && scoringMode == ScoringMode.EXACT) {
+          for (int position = rangeFrom; position < rangeTo; position += BATCH_SLICE_SIZE) {
+            if (isInterrupted())
+              return;
+            int entry = rangeStarts[range] + position - rangePositions[range];
+            scanBatched(entry, entry + Math.min(BATCH_SLICE_SIZE, rangeTo - position));
+          }
+          continue;
+        }
+        for (int position = rangeFrom; position < rangeTo; position++) {
+          if ((position & (CANCELLATION_CHECK_INTERVAL - 1)) == 0 && isInterrupted())
+            return;
+          int entry = rangeStarts[range] + position - rangePositions[range];
+          double score = compareToNext(entry, inputStrokeCount, inputSubStrokeCount, subStrokesRange);
+          // always add, it won't have any effect if it wasn't a good match
+          matches.add(characters[entry], score);
+        }
+      }
+    }
+
+    /**
+     * Compares the input character to the selected characters in the depth first order of the PrefixTrie,
+     * and adds them to the matches.
+     * <p>
+     * The score matrix is computed one column at a time, each node of the trie adding the column
+     * of its substroke to the column of its parent.  The cells are computed exactly as by computeMatchScore
+     * (same operations on the same values), so the scores are the same.  The column of a node is shared by
+     * all the characters of its subtree, and so is its early abandon : once the top matches are full,
+     * a subtree whose best path can't beat the worst of them is skipped.
+     *
+     * @param minimumStrokes the minimum number of strokes of the characters to compare
+     * @param maximumStrokes the maximum number of strokes of the characters to compare
+     */
+    private void scanPrefixTrie(int minimumStrokes, int maximumStrokes) {
+
+      PrefixTrie trie = strokesIndex.getPrefixTrie();
+      short[] directionCodes = trie.getDirectionCodes();
+      short[] lengthCodes = trie.getLengthCodes();
+      byte[] depths = trie.getDepths();
+      int[] subtreeEnds = trie.getSubtreeEnds();
+      byte[] partitionTypeMasks = trie.getPartitionTypeMasks();
+      byte[] minimumStrokeCounts = trie.getMinimumStrokeCounts();
+      byte[] maximumStrokeCounts = trie.getMaximumStrokeCounts();
+      byte[] maximumSubStrokeCounts = trie.getMaximumSubStrokeCounts();
+      double[] compareSkipPenalties = StrokesMatcher.this.compareSkipPenalties;
+
+      int partitionTypeMask = 1 << StrokesIndex.GENERIC_PARTITION;
+      if (searchSimplified)
+        partitionTypeMask |= 1 << StrokesIndex.SIMPLIFIED_PARTITION;
+      if (searchTraditional)
+        partitionTypeMask |= 1 << StrokesIndex.TRADITIONAL_PARTITION;
+      // The substroke counts that can be aligned with the input, as selected by getRangeStart and getRangeEnd.
+      int minimumDepth = inputSubStrokeCount == 0 ? 0 : inputSubStrokeCount - subStrokesRange;
+      int maximumDepth = inputSubStrokeCount == 0 ? CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT
+              : inputSubStrokeCount + subStrokesRange;
+      // A subtree may hold characters of any stroke count, so it is skipped on the lowest of their abandon scores.
+      double maximumBonus = getStrokeCountBonus(inputStrokeCount, inputStrokeCount);
+      double[] inputSkipPenalties = new double[inputSubStrokeCount];
+      for (int x = 0; x < inputSubStrokeCount; x++)
+        inputSkipPenalties[x] = inputCharacter.getLengths()[x] * SKIP_PENALTY_MULTIPLIER;
+
+      trieColumns = new double[CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 1][inputSubStrokeCount + 1];
+      System.arraycopy(SKIP_SEEDS, 0, trieColumns[0], 0, inputSubStrokeCount + 1);
+      addTrieMatches(trie, 0, minimumDepth, minimumStrokes, maximumStrokes, partitionTypeMask);
+      int node = 1;
+      while (node < trie.getNodeCount()) {
+        if ((node & (CANCELLATION_CHECK_INTERVAL - 1)) == 0 && isInterrupted())
+          return;
+        int depth = depths[node];
+        if ((partitionTypeMasks[node] & partitionTypeMask) == 0 || depth > maximumDepth
+                || maximumSubStrokeCounts[node] < minimumDepth
+                || maximumStrokeCounts[node] < minimumStrokes || minimumStrokeCounts[node] > maximumStrokes) {
+          node = subtreeEnds[node];
+          continue;
+        }
+
+        // Column y + 1 of the score matrix, rows within the range of the substroke y of the node.
+        int y = depth - 1;
+        double[] previousColumn = trieColumns[depth - 1];
+        double[] column = trieColumns[depth];
+        int directionCode = directionCodes[node] & 0xFFFF;
+        int lengthCode = lengthCodes[node] & 0xFFFF;
+        double compareSkipPenalty = compareSkipPenalties[lengthCode];
+        int fromX = Math.max(0, y - subStrokesRange);
+        int toX = Math.min(inputSubStrokeCount - 1, y + subStrokesRange);
+        column[0] = SKIP_SEEDS[depth];
+        if (fromX > 0)
+          column[fromX] = Double.NEGATIVE_INFINITY;
+        // The best score the characters of the subtree can reach from this column.
+        double bestBound = column[0] + inputSubStrokeCount * MAX_SUB_STROKE_SCORE;
+        for (int x = fromX; x <= toX; x++) {
+          double skipScore = Math.max(column[x] - inputSkipPenalties[x], previousColumn[x + 1] - compareSkipPenalty);
+          double matchScore = lengthScores[x][lengthCode] * directionScores[x][directionCode];
+          double newScore = Math.max(previousColumn[x] + matchScore, skipScore);
+          column[x + 1] = newScore;
+          bestBound = Math.max(bestBound, newScore + (inputSubStrokeCount - x - 1) * MAX_SUB_STROKE_SCORE);
+        }
+        if (toX + 2 <= inputSubStrokeCount)
+          column[toX + 2] = Double.NEGATIVE_INFINITY;
+        statistics.addTrieNode(Math.max(0, toX - fromX + 1));
+
+        // Every alignment goes through this column, or starts from a lower seed of the first row.
+        // Each of the remaining input substrokes adds at most MAX_SUB_STROKE_SCORE, skips only subtract.
+        if (bestBound < Math.min(getAbandonScore(0), getAbandonScore(maximumBonus))) {
+          node = subtreeEnds[node];
+          continue;
+        }
+        addTrieMatches(trie, node, minimumDepth, minimumStrokes, maximumStrokes, partitionTypeMask);
+        node++;
+      }
+    }
+
+    /**
+     * Adds to the matches the selected characters ending at a node of the PrefixTrie,
+     * scored from the column of the node.
+     */
+    private void addTrieMatches(PrefixTrie trie, int node, int minimumDepth, int minimumStrokes, int maximumStrokes,
+                                int partitionTypeMask) {
+
+      int depth = trie.getDepths()[node];
+      if (depth < minimumDepth)
+        return;
+      int[] entries = trie.getEntries();
+      byte[] entryPartitionTypes = trie.getEntryPartitionTypes();
+      char[] characters = strokesIndex.getCharacters();
+      byte[] strokeCounts = strokesIndex.getStrokeCounts();
+      double score = trieColumns[depth][inputSubStrokeCount];
+      for (int i = trie.getEntryStarts()[node]; i < trie.getEntryStarts()[node + 1]; i++) {
+        int compareStrokeCount = strokeCounts[entries[i]];
+        if ((partitionTypeMask & 1 << entryPartitionTypes[i]) == 0
+                || compareStrokeCount < minimumStrokes || compareStrokeCount > maximumStrokes)
+          continue;
+        statistics.addComparedCandidate(0);
+        double bonus = getStrokeCountBonus(inputStrokeCount, compareStrokeCount);
+        matches.add(characters[entries[i]], bonus > 0 ? score + bonus * score : score);
+      }
+    }
+
+    /**
+     * Gives a similarity to each selected character, with the coarse pass for the SCAN strategy or from
+     * the index of the candidate strategy, then compares the most similar ones and adds them to the matches.
+     * Among characters of equal similarity, the first ones in the scan order are preferred.
+     *
+     * @param candidates the number of characters to compare
+     */
+    private void scanPreselected(int candidates) {
+
+      double[] similarities = candidateStrategy == CandidateStrategy.SCAN ? computeCoarseScores()
+              : candidateStrategy == CandidateStrategy.LSH ? computeBucketCollisions() : computeTokenOverlaps();
+      if (similarities == null)
+        return;
+      double[] sortedSimilarities = similarities.clone();
+      Arrays.sort(sortedSimilarities);
+      double threshold = sortedSimilarities[candidateCount - candidates];
+      int ties = candidates;
+      for (int i = candidateCount - 1; i >= 0 && sortedSimilarities[i] > threshold; i--)
+        ties--;
+      // LSH only reranks the characters sharing a bucket with the input, even when there are fewer than candidates.
+      if (candidateStrategy == CandidateStrategy.LSH && threshold < 1) {
+        threshold = 1;
+        ties = candidateCount;
+      }
+
+      // The candidates are compared in the scan order, as without the preselection.
+      char[] characters = strokesIndex.getCharacters();
+      int compared = 0;
+      for (int range = 0; range < rangeStarts.length; range++) {
+        for (int position = rangePositions[range]; position < rangePositions[range] + rangeEnds[range] - rangeStarts[range]; position++) {
+          if (similarities[position] < threshold || similarities[position] == threshold && ties-- <= 0)
+            continue;
+          if ((compared++ & (CANCELLATION_CHECK_INTERVAL - 1)) == 0 && isInterrupted())
+            return;
+          int entry = rangeStarts[range] + position - rangePositions[range];
+          matches.add(characters[entry], compareToNext(entry, inputStrokeCount, inputSubStrokeCount, subStrokesRange));
+        }
+      }
+    }
+
+    /**
+     * Compares the input character to the representatives of the clusters of the selected characters
+     * (see ClusterIndex), then to the other members of the clusters by decreasing promise, and adds them to the matches.
+     * <p>
+     * A cluster whose representative is out of the substroke range (or not allowed) is represented by its first
+     * member within the range (and allowed), and left out if it has none.  The clusters are expanded by decreasing score of their
+     * representative, which ranks the clusters holding the top matches best.  A cluster is skipped when its
+     * representative score plus its radius doesn't beat the worst of the top matches : were the distances
+     * of the ClusterIndex to obey the triangle inequality, none of its members could.  They don't, so this
+     * is only a guess.  The expansion stops once candidates characters were compared, or when the top matches
+     * are stable : STABLE_CLUSTER_COUNT clusters in a row didn't change them.  The representatives are
+     * all compared, even when there are more than candidates of them.
+     *
+     * @param candidates the number of characters to compare
+     */
+    private void scanClusters(int candidates) {
+
+      ClusterIndex clusterIndex = strokesIndex.getClusterIndex();
+      int[] representatives = clusterIndex.getRepresentatives();
+      float[] radii = clusterIndex.getRadii();
+      int[] memberStarts = clusterIndex.getMemberStarts();
+      int[] members = clusterIndex.getMembers();
+      char[] characters = strokesIndex.getCharacters();
+
+      // With an allowlist a partition makes several ranges, which follow each other.
+      int maximumClusterCount = 0;
+      for (int range = 0; range < rangeStarts.length; range++) {
+        int partition = rangePartitions[range];
+        if (range == 0 || partition != rangePartitions[range - 1])
+          maximumClusterCount += clusterIndex.getPartitionClusterStart(partition + 1) - clusterIndex.getPartitionClusterStart(partition);
+      }
+      int[] clusters = new int[maximumClusterCount];
+      int[] clusterPartitions = new int[maximumClusterCount];
+      int[] standIns = new int[maximumClusterCount];
+      double[] standInScores = new double[maximumClusterCount];
+      int clusterCount = 0;
+      int compared = 0;
+      for (int range = 0; range < rangeStarts.length; range++) {
+        int partition = rangePartitions[range];
+        if (range > 0 && partition == rangePartitions[range - 1])
+          continue;
+        for (int cluster = clusterIndex.getPartitionClusterStart(partition);
+             cluster < clusterIndex.getPartitionClusterStart(partition + 1); cluster++) {
+          int standIn = representatives[cluster];
+          for (int i = memberStarts[cluster]; i < memberStarts[cluster + 1] && !isSelected(standIn, partition); i++)
+            standIn = members[i];
+          if (!isSelected(standIn, partition))
+            continue;
+          if ((compared++ & (CANCELLATION_CHECK_INTERVAL - 1)) == 0 && isInterrupted())
+            return;
+          // The matches are still empty, so the representatives are never abandoned.
+          clusters[clusterCount] = cluster;
+          clusterPartitions[clusterCount] = partition;
+          standIns[clusterCount] = standIn;
+          standInScores[clusterCount] = compareToNext(standIn, inputStrokeCount, inputSubStrokeCount, subStrokesRange);
+          clusterCount++;
+        }
+      }
+      for (int i = 0; i < clusterCount; i++)
+        matches.add(characters[standIns[i]], standInScores[i]);
+
+      // The sort is stable : among clusters of equal promise, the first ones in the scan order come first.
+      Integer[] order = new Integer[clusterCount];
+      for (int i = 0; i < clusterCount; i++)
+        order[i] = i;
+      Arrays.sort(order, (i1, i2) -> Double.compare(standInScores[i2], standInScores[i1]));
+      int stableClusters = 0;
+      for (int i : order) {
+        if (compared >= candidates || stableClusters >= STABLE_CLUSTER_COUNT)
+          break;
+        if (standInScores[i] + radii[clusters[i]] <= matches.getThreshold())
+          continue;
+        statistics.addExpandedCluster();
+        boolean changed = false;
+        for (int member = memberStarts[clusters[i]]; member < memberStarts[clusters[i] + 1]; member++) {
+          int entry = members[member];
+          if (entry == standIns[i] || !isSelected(entry, clusterPartitions[i]))
+            continue;
+          if ((compared++ & (CANCELLATION_CHECK_INTERVAL - 1)) == 0 && isInterrupted())
+            return;
+          changed |= matches.add(characters[entry], compareToNext(entry, inputStrokeCount, inputSubStrokeCount, subStrokesRange));
+        }
+        stableClusters = changed ? 0 : stableClusters + 1;
+      }
+    }
+
+    /**
+     * @return true if an entry of the partition is within the substroke range of the input and allowed
+     */
+    private boolean isSelected(int entry, int partition) {
+
+      if (entry < getRangeStart(partition) || entry >= getRangeEnd(partition))
+        return false;
+      return allowlist == null || allowlist.contains(strokesIndex.getCharacters()[entry]);
+    }
+
+    /**
+     * @return the coarse score of each selected character, by position, null if the lookup was interrupted
+     */
+    private double[] computeCoarseScores() {
+
+      double[] coarseScores = new double[candidateCount];
+      for (int range = 0; range < rangeStarts.length; range++) {
+        for (int position = rangePositions[range]; position < rangePositions[range] + rangeEnds[range] - rangeStarts[range]; position++) {
+          if ((position & (CANCELLATION_CHECK_INTERVAL - 1)) == 0 && isInterrupted())
+            return null;
+          coarseScores[position] = computeCoarseMatchScore(rangeStarts[range] + position - rangePositions[range]);
+        }
+      }
+      return coarseScores;
+    }
+
+    /**
+     * @return the number of distinct tokens (and bigrams, depending on the strategy) of the input
+     * that each selected character has, by position, null if the lookup was interrupted
+     */
+    private double[] computeTokenOverlaps() {
+
+      TokenIndex tokenIndex = strokesIndex.getTokenIndex();
+      int[] tokens = new int[TokenIndex.MAX_CHARACTER_TOKEN_COUNT];
+      int tokenCount = TokenIndex.getTokens(inputCharacter.getDirections(), inputCharacter.getLengths(), inputSubStrokeCount,
+              candidateStrategy == CandidateStrategy.TOKENS_AND_BIGRAMS, tokens);
+      int[] overlaps = new int[strokesIndex.size()];
+      for (int i = 0; i < tokenCount; i++) {
+        if (isInterrupted())
+          return null;
+        tokenIndex.addOverlaps(tokens[i], overlaps);
+        statistics.addPostings(tokenIndex.getPostingSize(tokens[i]));
+      }
+
+      double[] similarities = new double[candidateCount];
+      for (int range = 0; range < rangeStarts.length; range++) {
+        for (int position = rangePositions[range]; position < rangePositions[range] + rangeEnds[range] - rangeStarts[range]; position++)
+          similarities[position] = overlaps[rangeStarts[range] + position - rangePositions[range]];
+      }
+      return similarities;
+    }
+
+    /**
+     * @return the number of tables of the EmbeddingIndex in which each selected character falls
+     * in the same bucket as the input, by position, null if the lookup was interrupted
+     */
+    private double[] computeBucketCollisions() {
+
+      EmbeddingIndex embeddingIndex = strokesIndex.getEmbeddingIndex();
+      float[] embedding = new float[EmbeddingIndex.EMBEDDING_SIZE];
+      EmbeddingIndex.embed(inputCharacter.getDirections(), inputCharacter.getLengths(), inputSubStrokeCount, embedding);
+      int[] collisions = new int[strokesIndex.size()];
+      statistics.addPostings(embeddingIndex.addCollisions(embedding, collisions));
+      if (isInterrupted())
+        return null;
+
+      double[] similarities = new double[candidateCount];
+      for (int range = 0; range < rangeStarts.length; range++) {
+        for (int position = rangePositions[range]; position < rangePositions[range] + rangeEnds[range] - rangeStarts[range]; position++)
+          similarities[position] = collisions[rangeStarts[range] + position - rangePositions[range]];
+      }
+      return similarities;
+    }
+
+    /**
+     * Same alignment as computeMatchScore, over the downsampled substrokes of the input and of an entry,
+     * with the tables of buildCoarseScoreTables.  The comparison is never abandoned.
+     *
+     * @param entry the index of the entry to compare to
+     * @return the coarse score, only meaningful compared to the other coarse scores of the lookup
+     */
+    private double computeCoarseMatchScore(int entry) {
+
+      int[] reducedOffsets = strokesIndex.getReducedOffsets();
+      byte[] reducedDirections = strokesIndex.getReducedDirections();
+      byte[] reducedLengths = strokesIndex.getReducedLengths();
+      int compareOffset = reducedOffsets[entry];
+      int compareSubStrokeCount = reducedOffsets[entry + 1] - compareOffset;
+      int range = StrokesIndex.getReducedCount(subStrokesRange);
+      statistics.addCoarseCandidate();
+      if (reducedInputSubStrokeCount > 0 && compareSubStrokeCount > 0
+              && Math.abs(reducedInputSubStrokeCount - compareSubStrokeCount) > range)
+        return Double.NEGATIVE_INFINITY;
+
+      // A downsampled substroke stands for REDUCTION_FACTOR substrokes, so do its seeds.
+      double seedPenalty = SEED_SKIP_PENALTY * StrokesIndex.REDUCTION_FACTOR;
+      double[] previousRow = this.previousRow;
+      double[] currentRow = this.currentRow;
+      for (int y = 0; y <= compareSubStrokeCount; y++)
+        previousRow[y] = -seedPenalty * y;
+      for (int x = 0; x < reducedInputSubStrokeCount; x++) {
+        double[] directionScoreRow = coarseDirectionScores[x];
+        double[] lengthScoreRow = coarseLengthScores[x];
+        double inputSkipPenalty = coarseInputSkipPenalties[x];
+        int fromY = Math.max(0, x - range);
+        int toY = Math.min(compareSubStrokeCount - 1, x + range);
+        currentRow[0] = -seedPenalty * (x + 1);
+        if (fromY > 0)
+          currentRow[fromY] = Double.NEGATIVE_INFINITY;
+        for (int y = fromY; y <= toY; y++) {
+          int quantizedLength = reducedLengths[compareOffset + y] & 0xFF;
+          double skipScore = Math.max(previousRow[y + 1] - inputSkipPenalty,
+                  currentRow[y] - coarseCompareSkipPenalties[quantizedLength]);
+          double matchScore = lengthScoreRow[quantizedLength] * directionScoreRow[reducedDirections[compareOffset + y] & 0xFF];
+          currentRow[y + 1] = Math.max(previousRow[y] + matchScore, skipScore);
+        }
+        if (toY + 2 <= compareSubStrokeCount)
+          currentRow[toY + 2] = Double.NEGATIVE_INFINITY;
+        double[] row = previousRow;
+        previousRow = currentRow;
+        currentRow = row;
+      }
+      return previousRow[compareSubStrokeCount];
+    }
+
+    /**
+     * Compares the inputDescriptor recognizer to an entry of the index.
+     *
+     * @param entry               the index of the entry to compare to
+     * @param inputStrokeCount    the number of strokes in the character input
+     * @param inputSubStrokeCount the number of substrokes in the character input
+     * @param subStrokesRange     the subStrokesRange computed by looseness
+     * @return the score of the comparison
+     */
+    private double compareToNext(int entry, int inputStrokeCount, int inputSubStrokeCount, int subStrokesRange) {
+
+      int compareStrokeCount = strokesIndex.getStrokeCounts()[entry];
+      int compareSubStrokeCount = strokesIndex.getSubStrokeCounts()[entry];
+      int compareOffset = strokesIndex.getFeatureOffsets()[entry];
+      double bonus = getStrokeCountBonus(inputStrokeCount, compareStrokeCount);
+      double abandonScore = getAbandonScore(bonus);
+      double score;
+      if (scoringMode == ScoringMode.EXACT && isFilteredOut(entry, compareSubStrokeCount, abandonScore))
+        return Double.NEGATIVE_INFINITY;
+      if (scoringMode == ScoringMode.FIXED_POINT)
+        score = computeFixedPointMatchScore(inputSubStrokeCount, compareOffset, compareSubStrokeCount, subStrokesRange, abandonScore);
+      else
+        score = computeMatchScore(inputSubStrokeCount, compareOffset, compareSubStrokeCount, subStrokesRange, abandonScore);
+      if (bonus > 0)
+        score += bonus * score;
+      return score;
+    }
+
+    /**
+     * Runs the filter cascade on an entry, see buildFilterTables.
+     *
+     * @param entry                 the index of the entry
+     * @param compareSubStrokeCount the number of substrokes of the entry
+     * @param abandonScore          the score the entry must be able to beat, see getAbandonScore
+     * @return true if a stage rejected the entry
+     */
+    private boolean isFilteredOut(int entry, int compareSubStrokeCount, double abandonScore) {
+
+      if (!runFilters || abandonScore == Double.NEGATIVE_INFINITY)
+        return false;
+      double rejectScore = abandonScore + filterTolerance;
+
+      // At most min(n, m) pairs of substrokes are aligned, the extra substrokes of the longer side are skipped.
+      double countBound = Math.min(inputSubStrokeCount, compareSubStrokeCount) * MAX_SUB_STROKE_SCORE;
+      if (inputSubStrokeCount > compareSubStrokeCount)
+        countBound -= cheapestInputSkipCosts[inputSubStrokeCount - compareSubStrokeCount];
+      else if (compareSubStrokeCount > inputSubStrokeCount)
+        countBound -= (compareSubStrokeCount - inputSubStrokeCount)
+                * Math.min(strokesIndex.getMinimumLengths()[entry] * SKIP_PENALTY_MULTIPLIER, SEED_SKIP_PENALTY);
+      if (isRejected(FilterStage.SUBSTROKE_COUNT, countBound < rejectScore))
+        return true;
+      if (isRejected(FilterStage.DIRECTION_BINS, directionBinsBounds[strokesIndex.getDirectionBins()[entry] & 0xFF] < rejectScore))
+        return true;
+      return isRejected(FilterStage.LENGTH_BINS, lengthBinsBounds[strokesIndex.getLengthBins()[entry] & 0xFF] < rejectScore);
+    }
+
+    private boolean isRejected(FilterStage stage, boolean rejected) {
+
+      statistics.addFilterTest(stage, rejected);
+      return rejected;
+    }
+
+    /**
+     * Compares the input character to the entries [entryFrom, entryTo) of a partition, by batches of
+     * the entries with the same number of substrokes, and adds them to the matches in the order of the entries.
+     */
+    private void scanBatched(int entryFrom, int entryTo) {
+
+      if (batchOrder == null) {
+        batchOrder = new int[BATCH_SLICE_SIZE];
+        batchScores = new double[BATCH_SLICE_SIZE];
+        batchFiltered = new boolean[BATCH_SLICE_SIZE];
+        subStrokeCountStarts = new int[CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 2];
+      }
+      char[] characters = strokesIndex.getCharacters();
+      byte[] subStrokeCounts = strokesIndex.getSubStrokeCounts();
+
+      // All the entries of a partition have the same number of strokes.
+      double bonus = getStrokeCountBonus(inputStrokeCount, strokesIndex.getStrokeCounts()[entryFrom]);
+      double abandonScore = getAbandonScore(bonus);
+
+      // Sort the entries the filter cascade didn't reject by substroke count (counting sort).
+      int count = 0;
+      Arrays.fill(subStrokeCountStarts, 0);
+      for (int entry = entryFrom; entry < entryTo; entry++) {
+        boolean filtered = isFilteredOut(entry, subStrokeCounts[entry], abandonScore);
+        batchFiltered[entry - entryFrom] = filtered;
+        if (filtered) {
+          batchScores[entry - entryFrom] = Double.NEGATIVE_INFINITY;
+        }
+        else {
+          subStrokeCountStarts[subStrokeCounts[entry] + 1]++;
+          count++;
+        }
+      }
+      for (int i = 1; i < subStrokeCountStarts.length; i++)
+        subStrokeCountStarts[i] += subStrokeCountStarts[i - 1];
+      for (int entry = entryFrom; entry < entryTo; entry++) {
+        if (!batchFiltered[entry - entryFrom])
+          batchOrder[subStrokeCountStarts[subStrokeCounts[entry]]++] = entry;
+      }
+
+      for (int from = 0; from < count; ) {
+        int compareSubStrokeCount = subStrokeCounts[batchOrder[from]];
+        int to = from + 1;
+        while (to < count && to - from < batchLanes && subStrokeCounts[batchOrder[to]] == compareSubStrokeCount)
+          to++;
+        computeBatchMatchScores(entryFrom, from, to - from, compareSubStrokeCount, abandonScore);
+        from = to;
+      }
+
+      for (int entry = entryFrom; entry < entryTo; entry++) {
+        double score = batchScores[entry - entryFrom];
+        if (bonus > 0)
+          score += bonus * score;
+        matches.add(characters[entry], score);
+      }
+    }
+
+    /**
+     * Same as computeMatchScore for the lanes entries batchOrder[from, from + lanes), which all have
+     * compareSubStrokeCount substrokes : their score matrices have the same shape, so they are computed
+     * in lockstep, the cells of the lanes being interleaved in the rows.  The scores are written
+     * to batchScores, at the index of the entry relative to entryFrom.
+     */
+    private void computeBatchMatchScores(int entryFrom, int from, int lanes, int compareSubStrokeCount, double abandonScore) {
+
+      if (inputSubStrokeCount > 0 && compareSubStrokeCount > 0
+              && Math.abs(inputSubStrokeCount - compareSubStrokeCount) > subStrokesRange) {
+        for (int lane = 0; lane < lanes; lane++) {
+          batchScores[batchOrder[from + lane] - entryFrom] = Double.NEGATIVE_INFINITY;
+          statistics.addComparedCandidate(0);
+        }
+        return;
+      }
+      if (previousBatchRow == null) {
+        int rowSize = (CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 1) * MAX_BATCH_LANES;
+        previousBatchRow = new double[rowSize];
+        currentBatchRow = new double[rowSize];
+        batchRowMaxScores = new double[MAX_BATCH_LANES];
+        batchOffsets = new int[MAX_BATCH_LANES];
+        batchAbandoned = new boolean[MAX_BATCH_LANES];
+      }
+
+      double[] inputLengths = inputCharacter.getLengths();
+      short[] directionCodes = strokesIndex.getDirectionCodes();
+      short[] lengthCodes = strokesIndex.getLengthCodes();
+      double[] compareSkipPenalties = StrokesMatcher.this.compareSkipPenalties;
+      int[] offsets = batchOffsets;
+      double[] rowMaxScores = batchRowMaxScores;
+      boolean[] abandoned = batchAbandoned;
+      for (int lane = 0; lane < lanes; lane++) {
+        offsets[lane] = strokesIndex.getFeatureOffsets()[batchOrder[from + lane]];
+        abandoned[lane] = false;
+      }
+
+      // Cell y of lane l is at index y * lanes + l of a row.
+      double[] previousRow = previousBatchRow;
+      double[] currentRow = currentBatchRow;
+      for (int y = 0; y <= compareSubStrokeCount; y++) {
+        for (int lane = 0; lane < lanes; lane++)
+          previousRow[y * lanes + lane] = SKIP_SEEDS[y];
+      }
+      long computedCells = 0;
+      int activeLanes = lanes;
+      int x = 0;
+      while (x < inputSubStrokeCount && activeLanes > 0) {
+
+        double[] directionScoreRow = directionScores[x];
+        double[] lengthScoreRow = lengthScores[x];
+        double inputSkipPenalty = inputLengths[x] * SKIP_PENALTY_MULTIPLIER;
+        int fromY = Math.max(0, x - subStrokesRange);
+        int toY = Math.min(compareSubStrokeCount - 1, x + subStrokesRange);
+        for (int lane = 0; lane < lanes; lane++) {
+          currentRow[lane] = SKIP_SEEDS[x + 1];
+          rowMaxScores[lane] = SKIP_SEEDS[x + 1];
+          if (fromY > 0)
+            currentRow[fromY * lanes + lane] = Double.NEGATIVE_INFINITY;
+        }
+        for (int y = fromY; y <= toY; y++) {
+          int cell = y * lanes;
+          int nextCell = cell + lanes;
+          for (int lane = 0; lane < lanes; lane++) {
+            int directionCode = directionCodes[offsets[lane] + y] & 0xFFFF;
+            int lengthCode = lengthCodes[offsets[lane] + y] & 0xFFFF;
+            double skip1Score = previousRow[nextCell + lane] - inputSkipPenalty;
+            double skip2Score = currentRow[cell + lane] - compareSkipPenalties[lengthCode];
+            double skipScore = Math.max(skip1Score, skip2Score);
+            double matchScore = lengthScoreRow[lengthCode] * directionScoreRow[directionCode];
+            double newScore = Math.max(previousRow[cell + lane] + matchScore, skipScore);
+            currentRow[nextCell + lane] = newScore;
+            rowMaxScores[lane] = Math.max(rowMaxScores[lane], newScore);
+          }
+        }
+        if (toY + 2 <= compareSubStrokeCount) {
+          for (int lane = 0; lane < lanes; lane++)
+            currentRow[(toY + 2) * lanes + lane] = Double.NEGATIVE_INFINITY;
+        }
+        computedCells += toY - fromY + 1;
+
+        // A lane that can't make the matches anymore keeps running with the others, unless they all stopped.
+        int remainingRows = inputSubStrokeCount - x - 1;
+        for (int lane = 0; lane < lanes; lane++) {
+          if (remainingRows > 0 && !abandoned[lane] && rowMaxScores[lane] + remainingRows * MAX_SUB_STROKE_SCORE < abandonScore) {
+            abandoned[lane] = true;
+            activeLanes--;
+          }
+        }
+        double[] row = previousRow;
+        previousRow = currentRow;
+        currentRow = row;
+        x++;
+      }
+
+      long prunedCells = countBandCells(x, inputSubStrokeCount, compareSubStrokeCount, subStrokesRange);
+      for (int lane = 0; lane < lanes; lane++) {
+        int scoreIndex = batchOrder[from + lane] - entryFrom;
+        if (abandoned[lane]) {
+          batchScores[scoreIndex] = Double.NEGATIVE_INFINITY;
+          statistics.addAbandonedCandidate(computedCells, prunedCells);
+        }
+        else {
+          batchScores[scoreIndex] = previousRow[compareSubStrokeCount * lanes + lane];
+          statistics.addComparedCandidate(computedCells);
+        }
+      }
+    }
+
+    /**
+     * @return the score, bonus included, a character must be above to make the matches, less a safety margin
+     */
+    private double getAbandonScore(double bonus) {
+
+      // A character whose score, bonus included, isn't above the threshold won't enter the matches.
+      if (!earlyAbandon)
+        return Double.NEGATIVE_INFINITY;
+      double threshold = matches.getThreshold() / (1 + bonus);
+      return threshold - EARLY_ABANDON_MARGIN * (1 + Math.abs(threshold));
+    }
+
+    /**
+     * Computes a score by comparing the sub stroke recognizer of the input character
+     * with the substrokes of an index entry.
+     * <p>
+     * Builds a matrix in which substrokes from the two sets are compared against each
+     * other to find a good alignment.  Skipped substrokes incur penalties, but may
+     * still lead to the best scoring alignment.  Substrokes farther apart in sequence than
+     * the substroke range are never aligned, so only the band of cells within the range is computed,
+     * one row at a time.
+     * <p>
+     * The score returned only has a meaning when compared the results of other calls to this
+     * method from the same matcher.  There is no preset range to expect from the scores.
+     *
+     * @param inputSubStrokeCount   the number of input substrokes
+     * @param compareOffset         the index of the first substroke of the compare character in the index feature arrays
+     * @param compareSubStrokeCount the number of substrokes in the compare character
+     * @param subStrokesRange       the substroke range
+     * @param abandonScore          the comparison is abandoned once the score can't be above this one
+     * @return the score, negative infinity if the comparison was abandoned
+     */
+    private double computeMatchScore(int inputSubStrokeCount, int compareOffset, int compareSubStrokeCount,
+                                     int subStrokesRange, double abandonScore) {
+
+      // The opposite corner of the matrix is out of the range : the two characters can't be aligned.
+      if (inputSubStrokeCount > 0 && compareSubStrokeCount > 0
+              && Math.abs(inputSubStrokeCount - compareSubStrokeCount) > subStrokesRange) {
+        statistics.addComparedCandidate(0);
+        return Double.NEGATIVE_INFINITY;
+      }
+
+      double[] inputLengths = inputCharacter.getLengths();
+      short[] directionCodes = strokesIndex.getDirectionCodes();
+      short[] lengthCodes = strokesIndex.getLengthCodes();
+      double[] compareSkipPenalties = StrokesMatcher.this.compareSkipPenalties;
+
+      // Row 0 of the matrix holds the seed values.  In the next rows only the cells within the range
+      // (|x - y| <= subStrokesRange) are computed, the others being unusable (negative infinity) :
+      // a row only writes its range, plus negative infinity on each side of it for the next row to read.
+      double[] previousRow = this.previousRow;
+      double[] currentRow = this.currentRow;
+      System.arraycopy(SKIP_SEEDS, 0, previousRow, 0, compareSubStrokeCount + 1);
+      long computedCells = 0;
+      for (int x = 0; x < inputSubStrokeCount; x++) {
+
+        // For each of the input substrokes...
+        double[] directionScoreRow = directionScores[x];
+        double[] lengthScoreRow = lengthScores[x];
+        double inputSkipPenalty = inputLengths[x] * SKIP_PENALTY_MULTIPLIER;
+        int fromY = Math.max(0, x - subStrokesRange);
+        int toY = Math.min(compareSubStrokeCount - 1, x + subStrokesRange);
+        currentRow[0] = SKIP_SEEDS[x + 1];
+        if (fromY > 0)
+          currentRow[fromY] = Double.NEGATIVE_INFINITY;
+        // The best score of the row, the seed of its first column included.
+        double rowMaxScore = currentRow[0];
+        for (int y = fromY; y <= toY; y++) {
+          // For each of the compare substrokes within the range...
+          int directionCode = directionCodes[compareOffset + y] & 0xFFFF;
+          int lengthCode = lengthCodes[compareOffset + y] & 0xFFFF;
 
           // We incur penalties for skipping substrokes.
           // Get the scores that would be incurred either for skipping the substroke from the descriptor, or from the repository.
-          double skip1Score = scoreMatrix[x][y + 1] - (inputLength * SKIP_PENALTY_MULTIPLIER);
-          double skip2Score = scoreMatrix[x + 1][y] - (compareLength * SKIP_PENALTY_MULTIPLIER);
+          double skip1Score = previousRow[y + 1] - inputSkipPenalty;
+          double skip2Score = currentRow[y] - compareSkipPenalties[lengthCode];
 
           // The skip score is the maximum of the scores that would result from skipping one of the substrokes.
           double skipScore = Math.max(skip1Score, skip2Score);
 
-          // The matchScore is the score of actually comparing the two substrokes.
-          double matchScore = computeSubStrokeScore(inputDirection, inputLength, compareDirection, compareLength);
+          // The matchScore is the score of actually comparing the two substrokes :
+          // for the final score we just multiple the length and direction scores together.
+          double matchScore = lengthScoreRow[lengthCode] * directionScoreRow[directionCode];
 
           // Previous score is the score we'd add to if we compared the two substrokes.
-          double previousScore = scoreMatrix[x][y];
+          double previousScore = previousRow[y];
 
           // Result score is the maximum of skipping a substroke, or comparing the two.
-          newScore = Math.max(previousScore + matchScore, skipScore);
+          double newScore = Math.max(previousScore + matchScore, skipScore);
+          // Set the score for comparing the two substrokes.
+          currentRow[y + 1] = newScore;
+          rowMaxScore = Math.max(rowMaxScore, newScore);
+        }
+        if (toY + 2 <= compareSubStrokeCount)
+          currentRow[toY + 2] = Double.NEGATIVE_INFINITY;
+        computedCells += toY - fromY + 1;
+
+        // Every alignment ending at the opposite corner goes through this row (or starts from a lower seed
+        // of the first column, which can't do better) then consumes the remaining input substrokes,
+        // each adding at most MAX_SUB_STROKE_SCORE while skips only subtract.
+        int remainingRows = inputSubStrokeCount - x - 1;
+        if (remainingRows > 0 && rowMaxScore + remainingRows * MAX_SUB_STROKE_SCORE < abandonScore) {
+          statistics.addAbandonedCandidate(computedCells,
+                  countBandCells(x + 1, inputSubStrokeCount, compareSubStrokeCount, subStrokesRange));
+          return Double.NEGATIVE_INFINITY;
         }
-        // Set the score for comparing the two substrokes.
-        scoreMatrix[x + 1][y + 1] = newScore;
+        double[] row = previousRow;
+        previousRow = currentRow;
+        currentRow = row;
       }
+      statistics.addComparedCandidate(computedCells);
+      // At the end the score is the score at the opposite corner of the matrix...
+      // don't need to use count - 1 since seed values occupy indices 0
+      return previousRow[compareSubStrokeCount];
     }
-    // At the end the score is the score at the opposite corner of the matrix...
-    // don't need to use count - 1 since seed values occupy indices 0
-    return scoreMatrix[inputSubStrokeCount][compareSubStrokeCount];
-  }
 
-  /**
-   * Compute a score for comparing two substrokes.  Uses their directions and lengths
-   *
-   * @param direction1
-   * @param length1
-   * @param direction2
-   * @param length2
-   * @return the score
-   */
-  private double computeSubStrokeScore(double direction1, double length1, double direction2, double length2) {
+    /**
+     * Same as computeMatchScore, in fixed point over the quantized directions and lengths.
+     *
+     * @return the score, negative infinity if the comparison was abandoned or the characters can't be aligned
+     */
+    private double computeFixedPointMatchScore(int inputSubStrokeCount, int compareOffset, int compareSubStrokeCount,
+                                               int subStrokesRange, double abandonScore) {
 
-    // Score drops off after directions get sufficiently apart, start to rise again as the substrokes approach opposite directions.
-    // This in particular reflects that occasionally strokes will be written backwards, this isn't totally bad, they get
-    // some score for having the stroke oriented correctly.
-    //double directionScore = Math.max(Math.cos(2.0 * theta), 0.3 * Math.cos((1.5 * theta) + (Math.PI / 3.0)));
-    double directionScore = getDirectionScore(direction1, direction2, length1);
+      if (inputSubStrokeCount > 0 && compareSubStrokeCount > 0
+              && Math.abs(inputSubStrokeCount - compareSubStrokeCount) > subStrokesRange) {
+        statistics.addComparedCandidate(0);
+        return Double.NEGATIVE_INFINITY;
+      }
+      if (previousFixedPointRow == null) {
+        previousFixedPointRow = new int[CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 1];
+        currentFixedPointRow = new int[CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 1];
+      }
 
-    // Length score gives an indication of how similar the lengths of the substrokes are.
-    // Get the ratio of the smaller of the lengths over the longer of the lengths.
-    double lengthScore = getLengthScore(length1, length2);
-    // Ratios that are within a certain range are fine, but after that they drop off, scores not more than 1.
-    //lengthScore = Math.log(lengthScore + (1.0 / Math.E)) + 1;
-    //lengthScore = Math.min(lengthScore, 1.0);
+      byte[] quantizedDirections = strokesIndex.getQuantizedDirections();
+      byte[] quantizedLengths = strokesIndex.getQuantizedLengths();
+      double fixedPointAbandonScore = abandonScore * FIXED_POINT_ONE;
+
+      int[] previousRow = previousFixedPointRow;
+      int[] currentRow = currentFixedPointRow;
+      System.arraycopy(FIXED_POINT_SKIP_SEEDS, 0, previousRow, 0, compareSubStrokeCount + 1);
+      long computedCells = 0;
+      for (int x = 0; x < inputSubStrokeCount; x++) {
+
+        int[] directionScoreRow = fixedPointDirectionScores[x];
+        int[] lengthScoreRow = fixedPointLengthScores[x];
+        int inputSkipPenalty = fixedPointInputSkipPenalties[x];
+        int fromY = Math.max(0, x - subStrokesRange);
+        int toY = Math.min(compareSubStrokeCount - 1, x + subStrokesRange);
+        currentRow[0] = FIXED_POINT_SKIP_SEEDS[x + 1];
+        if (fromY > 0)
+          currentRow[fromY] = FIXED_POINT_UNUSABLE;
+        int rowMaxScore = currentRow[0];
+        for (int y = fromY; y <= toY; y++) {
+          int quantizedDirection = quantizedDirections[compareOffset + y] & 0xFF;
+          int quantizedLength = quantizedLengths[compareOffset + y] & 0xFF;
+          int skipScore = Math.max(previousRow[y + 1] - inputSkipPenalty,
+                  currentRow[y] - FIXED_POINT_SKIP_PENALTIES[quantizedLength]);
+          int matchScore = (lengthScoreRow[quantizedLength] * directionScoreRow[quantizedDirection]) >> FIXED_POINT_SHIFT;
+          int newScore = Math.max(previousRow[y] + matchScore, skipScore);
+          currentRow[y + 1] = newScore;
+          rowMaxScore = Math.max(rowMaxScore, newScore);
+        }
+        if (toY + 2 <= compareSubStrokeCount)
+          currentRow[toY + 2] = FIXED_POINT_UNUSABLE;
+        computedCells += toY - fromY + 1;
+
+        int remainingRows = inputSubStrokeCount - x - 1;
+        if (remainingRows > 0 && rowMaxScore + (double) remainingRows * fixedPointMaxSubStrokeScore < fixedPointAbandonScore) {
+          statistics.addAbandonedCandidate(computedCells,
+                  countBandCells(x + 1, inputSubStrokeCount, compareSubStrokeCount, subStrokesRange));
+          return Double.NEGATIVE_INFINITY;
+        }
+        int[] row = previousRow;
+        previousRow = currentRow;
+        currentRow = row;
+      }
+      statistics.addComparedCandidate(computedCells);
+      int score = previousRow[compareSubStrokeCount];
+      return score < FIXED_POINT_UNUSABLE / 2 ? Double.NEGATIVE_INFINITY : score / FIXED_POINT_ONE;
+    }
+  }
 
-    // For the final score we just multiple the two scores together.
-    double score = lengthScore * directionScore;
-    return score;
+  /**
+   * @return an upper bound of the score of two aligned substrokes, the product of their length and direction scores
+   */
+  static private double initMaxSubStrokeScore() {
+
+    // getDirectionScore adds its short length bonus only to scores below 1, and never above 1.
+    double maxDirectionScore = Math.max(1.0, Arrays.stream(DIRECTION_SCORE_TABLE).max().getAsDouble());
+    double minDirectionScore = Arrays.stream(DIRECTION_SCORE_TABLE).min().getAsDouble();
+    double maxLengthScore = Arrays.stream(LENGTH_SCORE_TABLE).max().getAsDouble();
+    double minLengthScore = Arrays.stream(LENGTH_SCORE_TABLE).min().getAsDouble();
+    return Math.max(Math.max(maxDirectionScore * maxLengthScore, maxDirectionScore * minLengthScore),
+            Math.max(minDirectionScore * maxLengthScore, minDirectionScore * minLengthScore));
   }
 
   /**
@@ -430,6 +1842,9 @@ public class StrokesMatcher {
 
   /**
    * Compute a direction score between two substrokes.
+   * Score drops off after directions get sufficiently apart, start to rise again as the substrokes approach opposite directions.
+   * This in particular reflects that occasionally strokes will be written backwards, this isn't totally bad, they get
+   * some score for having the stroke oriented correctly.
    * Uses the precomputed direction score table.
    * Also takes the input length because direction isn't really important for very small strokes.
    *
@@ -438,7 +1853,7 @@ public class StrokesMatcher {
    * @param inputLength the length of the input substroke
    * @return the direction score
    */
-  private double getDirectionScore(double direction1, double direction2, double inputLength) {
+  static private double getDirectionScore(double direction1, double direction2, double inputLength) {
 
     // Get the difference in direction, less than PI.
     double theta = Math.abs(direction1 - direction2);
@@ -460,13 +1875,14 @@ public class StrokesMatcher {
 
   /**
    * Compute the length score for two substrokes.
+   * Length score gives an indication of how similar the lengths of the substrokes are.
    * Uses the precomputed length score table.
    *
    * @param length1
    * @param length2
    * @return the length score
    */
-  private double getLengthScore(double length1, double length2) {
+  static private double getLengthScore(double length1, double length2) {
 
     // Get the ratio between the two lengths less than one.
     double lengthRatio = length1 < length2 ? length1 / length2 : length2 / length1;
@@ -476,12 +1892,26 @@ public class StrokesMatcher {
     return lengthScore;
   }
 
+  /**
+   * Compute the score of two substrokes, as the substroke score tables hold it.
+   * Package private for the tests comparing the scores to those of the decoded strokes.
+   *
+   * @param direction1 the direction of the input substroke
+   * @param length1    the length of the input substroke
+   * @param direction2 the direction of the compared substroke
+   * @param length2    the length of the compared substroke
+   * @return the substroke score
+   */
+  static double computeSubStrokeScore(double direction1, double length1, double direction2, double length2) {
+    return getLengthScore(length1, length2) * getDirectionScore(direction1, direction2, length1);
+  }
+
   /**
    * Is this matcher currently running (has it been prematurely stopped)?
    *
    * @return true if running, false otherwise
    */
-  private synchronized boolean isRunning() {
+  private boolean isRunning() {
     return running;
   }
 
@@ -491,110 +1921,45 @@ public class StrokesMatcher {
    * The results of the not yet completed matcher would be obsolete,
    * so it's better to stop it and ignore its results.
    */
-  public synchronized void stop() {
+  public void stop() {
     running = false;
   }
 
   /**
-   * A single character can have several representations in the strokes recognizer.
-   * (say because there are multiple acceptable stroke orderings that we want to support).
-   * But we want to be able to compute the closest X matches to a character
-   * without having duplicates however (since two representations of the same character
-   * will each have scores computed independently).  CharacterMatchCollectors
-   * wrap the priority queue of results and make sure that only the particular match for
-   * a character with the highest score is kept.
+   * Scans the positions [from, to) of the selected characters, splitting the range
+   * in two halves run in parallel until the chunks are small enough.
+   * The tasks are never serialized.
    */
-  static private class CharacterMatchCollector {
-
-    // a map of Characters to the current CharacterMatch
-    private Map matchMap = new HashMap();
+  @SuppressWarnings("serial")
+  private class ParallelScanTask extends RecursiveTask<TopMatchHeap> {
 
-    // PriorityList is a simple O(n) PriorityQueue.
-    // It's fine for us since the number of matches should be small.
-    private PriorityList<CharacterMatch> matches = new PriorityList();
-    private int maxSize;
+    private int from;
+    private int to;
+    private int chunkSize;
 
-    /**
-     * Make a new CharacterMatchCollector that orders the top maxSize matches.
-     *
-     * @param maxSize number of matches to return
-     */
-    private CharacterMatchCollector(int maxSize) {
-      this.maxSize = maxSize;
-    }
+    private ParallelScanTask(int from, int to, int chunkSize) {
 
-    /**
-     * Add the given  CharacterMatch to this collector.
-     * The guts of this method will handle removal of duplicates and will throw out low scoring matches.
-     *
-     * @param match the match to add
-     * @return true if the match if the top matches were changed, false if already at maxSize and the given match had lowest score
-     */
-    private boolean addMatch(CharacterMatch match) {
-
-      // First check the matchMap to see if there is already a CharacterMatch for the relevant Character.
-      CharacterMatch existingMatch = (CharacterMatch) matchMap.get(match.getCharacter());
-      if (null != existingMatch) {
-        // There was an existing match for this Character...
-        if (match.getScore() > existingMatch.getScore())
-          // If the new match has a higher score, then we remove the current entry in the List.
-          matches.remove(existingMatch);
-        else
-          // The new match has a lower score than the existing match, nothing left to do.
-          return false;
-      }
-
-      // Check if the List of matches is already at capacity...
-      if (matches.size() >= maxSize) {
-        // If it is then check that the new match at least has a higher score than the current lowest match.
-        // This helps speed things up a little rather than adding every time and removing the last if at capacity.
-        CharacterMatch worstMatch = (CharacterMatch) matches.getLast();
-        if (match.getScore() > worstMatch.getScore()) {
-          // The new match is better than the worst current, so we want to remove the worst current.
-          matches.removeLast();
-          matchMap.remove(worstMatch.getCharacter());
-        }
-        else {
-          // The new match doesn't make the cut.
-          return false;
-        }
-      }
-      // Add the new match.
-      matchMap.put(match.getCharacter(), match);
-      matches.add(match);
-      return true;
+      this.from = from;
+      this.to = to;
+      this.chunkSize = chunkSize;
     }
 
-    /**
-     * Get the set of top matches.  This should only be called once all calls to addMatch have already ocurred.
-     *
-     * @return
-     */
-    private Character[] getMatches() {
+    protected TopMatchHeap compute() {
 
-      // Since the method prototype calls for an array, we need to copy the contents of the PriorityList to an array.
-      Character[] matchArray = new Character[matches.size()];
-      Iterator matchIter = matches.iterator();
-      for (int i = 0; matchIter.hasNext(); i++) {
-        CharacterMatch nextMatch = (CharacterMatch) matchIter.next();
-        matchArray[i] = nextMatch.getCharacter();
+      if (to - from <= chunkSize) {
+        PartitionScanner scanner = new PartitionScanner(new TopMatchHeap(numMatches));
+        scanner.scan(from, to);
+        statistics.add(scanner.statistics);
+        return scanner.matches;
       }
-      return matchArray;
-    }
-  }
-
-  private StrokesDataSource getStrokesDataSource() {
-
-    StrokesDataSource strokesDataSource = null;
-    ClassLoader classLoader = getClass().getClassLoader();
-    //try (InputStream compiledIn = getClass().getResourceAsStream(DATA_PATH);) {
-    try (InputStream compiledIn = classLoader.getResourceAsStream(DATA_PATH);) {
-      strokesDataSource = new StrokesDataSource(new MemoryStrokesStreamProvider(compiledIn));
-    }
-    catch (IOException e) {
-      logger.error("Error reading in strokes recognizer!");
-      throw new RuntimeException(e);
+      int middle = (from + to) >>> 1;
+      ParallelScanTask left = new ParallelScanTask(from, middle, chunkSize);
+      left.fork();
+      TopMatchHeap rightMatches = new ParallelScanTask(middle, to, chunkSize).compute();
+      // Merge the right half into the left one, as if the characters had been scanned in order.
+      TopMatchHeap matches = left.join();
+      matches.addAll(rightMatches);
+      return matches;
     }
-    return strokesDataSource;
   }
 }
@@ -0,0 +1,47 @@
+package hanzirecog.engine.beans;
+
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+/**
+ * The matches of a lookup run with a time budget.
+ * When the budget ran out before all the characters were compared, the matches are the best ones
+ * among the characters compared so far and the result is flagged as partial.
+ */
+public class MatchResult {
+
+    private Character[] matches;
+    private boolean partial;
+
+    /**
+     * @param matches the closest matches, lower indices are better matches
+     * @param partial true if not all the characters could be compared in time
+     */
+    public MatchResult(Character[] matches, boolean partial) {
+
+        this.matches = matches;
+        this.partial = partial;
+    }
+
+    public Character[] getMatches() {
+        return matches;
+    }
+
+    public boolean isPartial() {
+        return partial;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A minimal micro benchmark harness used by the benchmark programs of this package.
+ * <p>
+ * An operation is run a number of times to warm up the JIT, then timed one call at a time
+ * after a garbage collection.
+ * The bytes allocated by the calling thread are read from the HotSpot ThreadMXBean,
+ * so the allocation figures are only available on HotSpot based JVMs.
+ */
+public class Benchmark {
+
+  /**
+   * Runs the given operation and measures it.
+   *
+   * @param name       the name printed with the results
+   * @param warmup     number of untimed calls
+   * @param iterations number of timed calls
+   * @param operation  the operation, receives the index of the call
+   * @return the measures
+   */
+  static public Result run(String name, int warmup, int iterations, IntConsumer operation) {
+
+    for (int i = 0; i < warmup; i++)
+      operation.accept(i);
+    // Don't charge the garbage of the previous benchmark to this one.
+    System.gc();
+
+    long[] durations = new long[iterations];
+    long allocatedBefore = getAllocatedBytes();
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      operation.accept(i);
+      durations[i] = System.nanoTime() - start;
+    }
+    long allocatedBytes = getAllocatedBytes() - allocatedBefore;
+    return new Result(name, durations, allocatedBytes < 0 ? -1 : allocatedBytes / iterations);
+  }
+
+  /**
+   * @return the number of bytes allocated so far by the current thread, -1 if not supported by the JVM
+   */
+  static public long getAllocatedBytes() {
+
+    java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    if (threadBean instanceof com.sun.management.ThreadMXBean)
+      return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    return -1;
+  }
+
+  /**
+   * The measures of a benchmark run.
+   */
+  static public class Result {
+
+    private String name;
+    private long[] sortedDurations;
+    private long bytesPerOperation;
+
+    private Result(String name, long[] durations, long bytesPerOperation) {
+
+      this.name = name;
+      this.sortedDurations = durations.clone();
+      Arrays.sort(this.sortedDurations);
+      this.bytesPerOperation = bytesPerOperation;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public double getMeanMicros() {
+      return Arrays.stream(sortedDurations).average().orElse(0) / 1000.0;
+    }
+
+    public double getPercentileMicros(double percentile) {
+
+      int index = (int) Math.min(sortedDurations.length - 1, Math.floor(percentile * sortedDurations.length));
+      return sortedDurations[index] / 1000.0;
+    }
+
+    public long getBytesPerOperation() {
+      return bytesPerOperation;
+    }
+
+    public String toString() {
+      return String.format("%-40s mean %10.1f us   p50 %10.1f us   p99 %10.1f us   %12d B/op",
+              name, getMeanMicros(), getPercentileMicros(0.5), getPercentileMicros(0.99), bytesPerOperation);
+    }
+  }
+}
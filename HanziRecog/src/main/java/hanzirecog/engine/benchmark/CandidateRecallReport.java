@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.benchmark;
+
+import hanzirecog.engine.Recognizer;
+import hanzirecog.engine.StrokesMatcher;
+import hanzirecog.engine.enums.CandidateStrategy;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Measures the recall / latency tradeoff of the lookups that only compare a preselection of the characters :
+ * the coarse to fine matching (see StrokesMatcher#setCoarseCandidates) or a candidate strategy
+ * (see StrokesMatcher#setCandidateStrategy).
+ * <p>
+ * For each looseness, the serial exact lookup is the reference.  For each number of candidates
+ * the program prints the latency of the lookups and their recall@k : the mean share of the k reference
+ * results also found (k being the number of results), how often the best match is the same, and the mean
+ * number of characters compared exactly (with LSH, fewer than the candidates when the buckets hold fewer).
+ * <p>
+ * Usage : CandidateRecallReport [COARSE or a CandidateStrategy] [comma separated loosenesses]
+ * [comma separated numbers of candidates] [number of queries] [number of results]
+ */
+public class CandidateRecallReport {
+
+  static public void main(String[] args) {
+
+    String preselection = args.length > 0 ? args[0] : "COARSE";
+    String[] loosenesses = (args.length > 1 ? args[1] : "0.5,0.75,1.0").split(",");
+    String[] candidateCounts = (args.length > 2 ? args[2] : "50,100,200,400,800").split(",");
+    int numQueries = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+    int numResults = args.length > 4 ? Integer.parseInt(args[4]) : 15;
+
+    Recognizer recognizer = Recognizer.getInstance();
+    QueryCorpus corpus = QueryCorpus.generate(recognizer.getStrokesIndex(), numQueries, 42, 0.5);
+    // The matchers are made with newMatcher, so the clusters are built here rather than by setCandidateStrategy.
+    if (preselection.equals(CandidateStrategy.CLUSTERS.name()))
+      recognizer.getStrokesIndex().buildClusterIndex();
+
+    for (String loosenessArg : loosenesses) {
+      double looseness = Double.parseDouble(loosenessArg);
+      System.out.println(preselection + ", looseness " + looseness + ", " + numQueries + " queries, recall@" + numResults);
+      Character[][] reference = new Character[numQueries][];
+      System.out.println(Benchmark.run("exact", numQueries, numQueries, i -> {
+        reference[i] = match(recognizer, corpus, i, looseness, numResults, preselection, 0, null);
+      }));
+      for (String candidateCountArg : candidateCounts) {
+        int candidates = Integer.parseInt(candidateCountArg);
+        Character[][] results = new Character[numQueries][];
+        long[] compared = new long[numQueries];
+        Benchmark.Result result = Benchmark.run(candidates + " candidates", numQueries, numQueries, i -> {
+          results[i] = match(recognizer, corpus, i, looseness, numResults, preselection, candidates, compared);
+        });
+        double recall = 0;
+        int sameBest = 0;
+        long totalCompared = 0;
+        for (int i = 0; i < numQueries; i++) {
+          recall += getRecall(reference[i], results[i]);
+          totalCompared += compared[i];
+          if (reference[i].length > 0 && results[i].length > 0 && reference[i][0].equals(results[i][0]))
+            sameBest++;
+        }
+        System.out.println(result + String.format("   recall %5.1f%%   same best %5.1f%%   compared %6.1f",
+                100.0 * recall / numQueries, 100.0 * sameBest / numQueries, (double) totalCompared / numQueries));
+      }
+    }
+  }
+
+  /**
+   * @param candidates the number of characters to compare, 0 for the reference lookup
+   * @param compared   receives the number of characters compared by each query, null to ignore it
+   */
+  static private Character[] match(Recognizer recognizer, QueryCorpus corpus, int query, double looseness,
+                                   int numResults, String preselection, int candidates, long[] compared) {
+
+    StrokesMatcher matcher = recognizer.newMatcher(corpus.getQuery(query), true, true, looseness, numResults);
+    matcher.setParallelism(null, Integer.MAX_VALUE);
+    if (candidates > 0) {
+      if (preselection.equals("COARSE"))
+        matcher.setCoarseCandidates(candidates);
+      else
+        matcher.setCandidateStrategy(CandidateStrategy.valueOf(preselection), candidates);
+    }
+    Character[] results = matcher.doMatching();
+    if (compared != null)
+      compared[query] = matcher.getStatistics().getComparedCandidates();
+    return results;
+  }
+
+  /**
+   * @return the share of the reference results found in the results
+   */
+  static private double getRecall(Character[] reference, Character[] results) {
+
+    if (reference.length == 0)
+      return 1;
+    Set<Character> found = new HashSet<>(Arrays.asList(results));
+    found.retainAll(Arrays.asList(reference));
+    return (double) found.size() / reference.length;
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.benchmark;
+
+import hanzirecog.engine.beans.CharacterMatch;
+import hanzirecog.engine.util.PriorityList;
+import hanzirecog.engine.util.TopMatchHeap;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the match collectors on the same stream of (character, score) candidates.
+ * <p>
+ * "PriorityList" is a copy of the collector StrokesMatcher used before the TopMatchHeap :
+ * a HashMap of the kept matches and a PriorityList, one CharacterMatch per candidate
+ * that makes the cut.  The streams mimic a lookup : a few thousand candidates, some characters
+ * appearing more than once (generic, simplified and traditional forms), a few of them
+ * out of range (negative infinity).
+ * <p>
+ * Usage : CollectorBenchmark [comma separated capacities] [number of candidates per lookup] [number of lookups]
+ */
+public class CollectorBenchmark {
+
+  static private final int CHARACTER_RANGE = 9000;
+
+  static public void main(String[] args) {
+
+    String[] capacities = (args.length > 0 ? args[0] : "15,50,200").split(",");
+    int numCandidates = args.length > 1 ? Integer.parseInt(args[1]) : 8000;
+    int numLookups = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+    char[][] characters = new char[numLookups][numCandidates];
+    double[][] scores = new double[numLookups][numCandidates];
+    Random random = new Random(42);
+    for (int i = 0; i < numLookups; i++) {
+      for (int j = 0; j < numCandidates; j++) {
+        characters[i][j] = (char) ('一' + random.nextInt(CHARACTER_RANGE));
+        scores[i][j] = random.nextInt(20) == 0 ? Double.NEGATIVE_INFINITY : random.nextGaussian() * 100;
+      }
+    }
+
+    for (String capacityArg : capacities) {
+      int capacity = Integer.parseInt(capacityArg);
+      System.out.println("k = " + capacity + ", " + numCandidates + " candidates per lookup");
+      Character[][] reference = new Character[numLookups][];
+      Character[][] results = new Character[numLookups][];
+
+      System.out.println(Benchmark.run("PriorityList", numLookups, numLookups, i -> {
+        PriorityListCollector collector = new PriorityListCollector(capacity);
+        for (int j = 0; j < numCandidates; j++)
+          collector.addMatch(characters[i][j], scores[i][j]);
+        reference[i] = collector.getMatches();
+      }));
+
+      TopMatchHeap heap = new TopMatchHeap(capacity);
+      Benchmark.Result result = Benchmark.run("TopMatchHeap", numLookups, numLookups, i -> {
+        heap.clear();
+        for (int j = 0; j < numCandidates; j++)
+          heap.add(characters[i][j], scores[i][j]);
+        results[i] = heap.getMatches();
+      });
+      int differences = 0;
+      for (int i = 0; i < numLookups; i++) {
+        if (!Arrays.equals(reference[i], results[i]))
+          differences++;
+      }
+      System.out.println(result + "   differing results: " + differences);
+    }
+  }
+
+  /**
+   * The former StrokesMatcher.CharacterMatchCollector, also measured by the TopMatchHeapBenchmark of the tests.
+   */
+  static class PriorityListCollector {
+
+    private Map<Character, CharacterMatch> matchMap = new HashMap<>();
+    private PriorityList<CharacterMatch> matches = new PriorityList<>();
+    private int maxSize;
+
+    PriorityListCollector(int maxSize) {
+      this.maxSize = maxSize;
+    }
+
+    boolean addMatch(char character, double score) {
+
+      if (matches.size() >= maxSize && score <= ((CharacterMatch) matches.getLast()).getScore())
+        return false;
+
+      CharacterMatch match = new CharacterMatch(character, score);
+      CharacterMatch existingMatch = matchMap.get(match.getCharacter());
+      if (null != existingMatch) {
+        if (match.getScore() > existingMatch.getScore())
+          matches.remove(existingMatch);
+        else
+          return false;
+      }
+      if (matches.size() >= maxSize) {
+        CharacterMatch worstMatch = (CharacterMatch) matches.getLast();
+        matches.removeLast();
+        matchMap.remove(worstMatch.getCharacter());
+      }
+      matchMap.put(match.getCharacter(), match);
+      matches.add(match);
+      return true;
+    }
+
+    Character[] getMatches() {
+
+      Character[] matchChars = new Character[matches.size()];
+      int i = 0;
+      for (Object match : matches)
+        matchChars[i++] = ((CharacterMatch) match).getCharacter();
+      return matchChars;
+    }
+  }
+}
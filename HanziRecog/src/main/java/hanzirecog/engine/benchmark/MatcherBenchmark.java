@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.benchmark;
+
+import hanzirecog.engine.MatchStatistics;
+import hanzirecog.engine.Recognizer;
+import hanzirecog.engine.StrokesMatcher;
+import hanzirecog.engine.enums.ScanOrder;
+import hanzirecog.engine.enums.ScoringMode;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Compares the matcher configurations ("scenarios") on the same generated queries.
+ * <p>
+ * The first scenario is the reference : the plain serial scan computing every comparison in full.
+ * For each other scenario the program prints the latency, the number of queries whose results differ
+ * from the reference and the work counters of the matchers.
+ * <p>
+ * Usage : MatcherBenchmark [comma separated loosenesses] [number of queries] [number of results]
+ */
+public class MatcherBenchmark {
+
+  static public void main(String[] args) {
+
+    String[] loosenesses = (args.length > 0 ? args[0] : "0.25,0.5,1.0").split(",");
+    int numQueries = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    int numResults = args.length > 2 ? Integer.parseInt(args[2]) : 15;
+
+    Recognizer recognizer = Recognizer.getInstance();
+    QueryCorpus corpus = QueryCorpus.generate(recognizer.getStrokesIndex(), numQueries, 42, 0.5);
+    Map<String, Consumer<StrokesMatcher>> scenarios = buildScenarios();
+
+    for (String loosenessArg : loosenesses) {
+      double looseness = Double.parseDouble(loosenessArg);
+      System.out.println("looseness " + looseness + ", " + numQueries + " queries, " + numResults + " results");
+      Character[][] reference = null;
+      for (Map.Entry<String, Consumer<StrokesMatcher>> scenario : scenarios.entrySet()) {
+        Character[][] results = new Character[numQueries][];
+        MatchStatistics[] statistics = new MatchStatistics[numQueries];
+        Benchmark.Result result = Benchmark.run(scenario.getKey(), numQueries, numQueries, i -> {
+          StrokesMatcher matcher = recognizer.newMatcher(corpus.getQuery(i), true, true, looseness, numResults);
+          scenario.getValue().accept(matcher);
+          results[i] = matcher.doMatching();
+          statistics[i] = matcher.getStatistics();
+        });
+        if (reference == null) {
+          reference = results;
+          System.out.println(result);
+        }
+        else {
+          System.out.println(result + "   differing results: " + countDifferences(reference, results));
+        }
+        MatchStatistics total = new MatchStatistics();
+        for (MatchStatistics queryStatistics : statistics)
+          total.add(queryStatistics);
+        System.out.println("    " + total);
+      }
+    }
+  }
+
+  /**
+   * @return the matcher configurations to compare, the reference first
+   */
+  static private Map<String, Consumer<StrokesMatcher>> buildScenarios() {
+
+    Map<String, Consumer<StrokesMatcher>> scenarios = new LinkedHashMap<>();
+    scenarios.put("exhaustive", matcher -> {
+      matcher.setParallelism(null, Integer.MAX_VALUE);
+      matcher.setEarlyAbandon(false);
+    });
+    scenarios.put("serial", matcher -> matcher.setParallelism(null, Integer.MAX_VALUE));
+    scenarios.put("no filters", matcher -> {
+      matcher.setParallelism(null, Integer.MAX_VALUE);
+      matcher.setCandidateFilters(false);
+    });
+    scenarios.put("filter tolerance 0.5", matcher -> {
+      matcher.setParallelism(null, Integer.MAX_VALUE);
+      matcher.setFilterTolerance(0.5);
+    });
+    scenarios.put("nearest first", matcher -> {
+      matcher.setParallelism(null, Integer.MAX_VALUE);
+      matcher.setScanOrder(ScanOrder.NEAREST_STROKE_COUNT_FIRST);
+    });
+    scenarios.put("prefix trie", matcher -> matcher.setScanOrder(ScanOrder.PREFIX_TRIE));
+    scenarios.put("parallel", matcher -> matcher.setParallelism(ForkJoinPool.commonPool(), 1));
+    for (int lanes = 4; lanes <= StrokesMatcher.MAX_BATCH_LANES; lanes *= 2) {
+      int batchLanes = lanes;
+      scenarios.put("batched " + lanes, matcher -> {
+        matcher.setParallelism(null, Integer.MAX_VALUE);
+        matcher.setBatchLanes(batchLanes);
+      });
+    }
+    scenarios.put("fixed point", matcher -> {
+      matcher.setParallelism(null, Integer.MAX_VALUE);
+      matcher.setScoringMode(ScoringMode.FIXED_POINT);
+    });
+    return scenarios;
+  }
+
+  static private int countDifferences(Character[][] reference, Character[][] results) {
+
+    int differences = 0;
+    for (int i = 0; i < reference.length; i++) {
+      if (!Arrays.equals(reference[i], results[i]))
+        differences++;
+    }
+    return differences;
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.benchmark;
+
+import hanzirecog.engine.beans.CharacterDescriptor;
+import hanzirecog.engine.service.datasource.StrokesIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A replayable set of input characters for the benchmarks.
+ * <p>
+ * There is no corpus of real handwritten input, so the queries are derived from the
+ * characters of the data set itself : each query is a copy of a randomly chosen character
+ * whose substroke directions and lengths are jittered, as a hand would.
+ * The same seed always gives the same queries.
+ */
+public class QueryCorpus {
+
+  private List<CharacterDescriptor> queries = new ArrayList<>();
+  private List<Character> expectedCharacters = new ArrayList<>();
+
+  /**
+   * @param strokesIndex the data set to draw the characters from
+   * @param size         the number of queries
+   * @param seed         the seed of the random generator
+   * @param noise        amount of jitter, 0 gives exact copies of the data set characters
+   * @return a new corpus
+   */
+  static public QueryCorpus generate(StrokesIndex strokesIndex, int size, long seed, double noise) {
+
+    QueryCorpus corpus = new QueryCorpus();
+    Random random = new Random(seed);
+    CharacterDescriptor source = new CharacterDescriptor();
+    for (int i = 0; i < size; i++) {
+      strokesIndex.loadDescriptor(random.nextInt(strokesIndex.size()), source);
+      corpus.queries.add(jitter(source, random, noise));
+      corpus.expectedCharacters.add(source.getCharacter());
+    }
+    return corpus;
+  }
+
+  static private CharacterDescriptor jitter(CharacterDescriptor source, Random random, double noise) {
+
+    CharacterDescriptor query = new CharacterDescriptor();
+    query.setCharacter(source.getCharacter());
+    query.setCharacterType(source.getCharacterType());
+    query.setStrokeCount(source.getStrokeCount());
+    query.setSubStrokeCount(source.getSubStrokeCount());
+    for (int i = 0; i < source.getSubStrokeCount(); i++) {
+      double direction = source.getDirections()[i] + random.nextGaussian() * noise * Math.PI / 8;
+      direction = (direction + 2 * Math.PI) % (2 * Math.PI);
+      double length = source.getLengths()[i] * (1 + random.nextGaussian() * noise * 0.3);
+      query.getDirections()[i] = direction;
+      query.getLengths()[i] = Math.max(0.01, Math.min(1.0, length));
+    }
+    return query;
+  }
+
+  public int size() {
+    return queries.size();
+  }
+
+  public CharacterDescriptor getQuery(int index) {
+    return queries.get(index);
+  }
+
+  /**
+   * @return the data set character the query was derived from
+   */
+  public Character getExpectedCharacter(int index) {
+    return expectedCharacters.get(index);
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.benchmark;
+
+import hanzirecog.engine.Recognizer;
+import hanzirecog.engine.beans.CharacterDescriptor;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Measures the per request latency and allocation of a lookup.
+ * <p>
+ * "reload per request" reproduces what every web request used to do : read the strokes.dat
+ * resource and index it before running the matcher.  "shared recognizer" runs the same
+ * lookups against the process-wide Recognizer.
+ * <p>
+ * Usage : RecognizerBenchmark [looseness] [number of queries]
+ */
+public class RecognizerBenchmark {
+
+  static private final String DATA_PATH = "strokes.dat";
+  static private final int NUM_RESULTS = 15;
+
+  static public void main(String[] args) throws IOException {
+
+    double looseness = args.length > 0 ? Double.parseDouble(args[0]) : 0.25;
+    int numQueries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+    Recognizer recognizer = Recognizer.getInstance();
+    QueryCorpus corpus = QueryCorpus.generate(recognizer.getStrokesIndex(), numQueries, 42, 0.5);
+    System.out.println("looseness " + looseness + ", " + numQueries + " queries");
+
+    System.out.println(Benchmark.run("reload per request", numQueries, numQueries, i -> {
+      try (InputStream compiledIn = RecognizerBenchmark.class.getClassLoader().getResourceAsStream(DATA_PATH)) {
+        Recognizer.load(compiledIn).recognize(corpus.getQuery(i), true, true, looseness, NUM_RESULTS);
+      }
+      catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }));
+
+    System.out.println(Benchmark.run("shared recognizer", numQueries, numQueries, i -> {
+      CharacterDescriptor query = corpus.getQuery(i);
+      recognizer.recognize(query, true, true, looseness, NUM_RESULTS);
+    }));
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.benchmark;
+
+import hanzirecog.engine.Recognizer;
+import hanzirecog.engine.StrokesMatcher;
+import hanzirecog.engine.enums.ScoringMode;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reports how close the results of a scoring mode are to the EXACT ones, on a replayable query corpus.
+ * <p>
+ * For each looseness it prints the share of queries with identical results, with the same best match,
+ * the mean overlap of the result lists, and for both modes how often the character the query
+ * was generated from comes first or among the results.
+ * <p>
+ * Usage : ScoringParityReport [scoring mode] [comma separated loosenesses] [number of queries] [number of results] [seed] [noise]
+ */
+public class ScoringParityReport {
+
+  static public void main(String[] args) {
+
+    ScoringMode scoringMode = ScoringMode.valueOf(args.length > 0 ? args[0] : "FIXED_POINT");
+    String[] loosenesses = (args.length > 1 ? args[1] : "0.25,0.5,1.0").split(",");
+    int numQueries = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+    int numResults = args.length > 3 ? Integer.parseInt(args[3]) : 15;
+    long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+    double noise = args.length > 5 ? Double.parseDouble(args[5]) : 0.5;
+
+    Recognizer recognizer = Recognizer.getInstance();
+    QueryCorpus corpus = QueryCorpus.generate(recognizer.getStrokesIndex(), numQueries, seed, noise);
+    System.out.println(scoringMode + " against EXACT, " + numQueries + " queries (seed " + seed + ", noise " + noise + "), " + numResults + " results");
+
+    for (String loosenessArg : loosenesses) {
+      double looseness = Double.parseDouble(loosenessArg);
+      int identical = 0;
+      int sameBest = 0;
+      double overlap = 0;
+      int[] exactHits = new int[2];
+      int[] hits = new int[2];
+      for (int i = 0; i < numQueries; i++) {
+        Character[] exactResults = match(recognizer, corpus, i, looseness, numResults, ScoringMode.EXACT);
+        Character[] results = match(recognizer, corpus, i, looseness, numResults, scoringMode);
+        if (Arrays.equals(exactResults, results))
+          identical++;
+        if (exactResults.length > 0 && results.length > 0 && exactResults[0].equals(results[0]))
+          sameBest++;
+        Set<Character> common = new HashSet<>(Arrays.asList(exactResults));
+        common.retainAll(Arrays.asList(results));
+        overlap += exactResults.length == 0 ? 1 : (double) common.size() / exactResults.length;
+        countHits(exactResults, corpus.getExpectedCharacter(i), exactHits);
+        countHits(results, corpus.getExpectedCharacter(i), hits);
+      }
+      System.out.println(String.format("looseness %.2f : identical %5.1f%%   same best %5.1f%%   overlap %5.1f%%   " +
+                      "expected first %5.1f%% (EXACT %5.1f%%)   expected found %5.1f%% (EXACT %5.1f%%)",
+              looseness, 100.0 * identical / numQueries, 100.0 * sameBest / numQueries, 100.0 * overlap / numQueries,
+              100.0 * hits[0] / numQueries, 100.0 * exactHits[0] / numQueries,
+              100.0 * hits[1] / numQueries, 100.0 * exactHits[1] / numQueries));
+    }
+  }
+
+  static private Character[] match(Recognizer recognizer, QueryCorpus corpus, int query, double looseness,
+                                   int numResults, ScoringMode scoringMode) {
+
+    StrokesMatcher matcher = recognizer.newMatcher(corpus.getQuery(query), true, true, looseness, numResults);
+    matcher.setScoringMode(scoringMode);
+    return matcher.doMatching();
+  }
+
+  /**
+   * @param hits incremented at index 0 if the expected character is the first result, at index 1 if it is one of them
+   */
+  static private void countHits(Character[] results, char expectedCharacter, int[] hits) {
+
+    if (results.length > 0 && results[0] == expectedCharacter)
+      hits[0]++;
+    if (Arrays.asList(results).contains(expectedCharacter))
+      hits[1]++;
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.benchmark;
+
+import hanzirecog.engine.Recognizer;
+import hanzirecog.engine.beans.CharacterDescriptor;
+import hanzirecog.engine.service.datasource.IndexSnapshot;
+import hanzirecog.engine.service.datasource.StrokesIndex;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Measures the time from startup to ready of a Recognizer, for each way of loading the data set :
+ * <ul>
+ * <li>"resource parse" : decoding the strokes.dat resource record by record, as getInstance does by default</li>
+ * <li>"v1 load" : decoding a compiled strokes file, mapped in memory</li>
+ * <li>"snapshot load" : loading an IndexSnapshot</li>
+ * </ul>
+ * A Recognizer is ready once its candidate generation structures are built and it has answered a lookup,
+ * so the first lookup of each candidate strategy doesn't pay for building them.
+ * <p>
+ * The first run of each mode is the closest to the startup of a process, the JIT being cold ; run
+ * one mode per JVM for the exact figure, since the modes share the code warmed up by the previous ones.
+ * <p>
+ * Usage : StartupReport [compiled strokes file] [snapshot file] [resource, v1, snapshot or all] [number of runs]
+ * The files default to temporary copies of the strokes.dat resource and to its snapshot, written first.
+ */
+public class StartupReport {
+
+  static private final String DATA_PATH = "strokes.dat";
+
+  static public void main(String[] args) throws IOException {
+
+    File strokesFile = args.length > 0 ? new File(args[0]) : copyResource();
+    File snapshotFile = args.length > 1 ? new File(args[1]) : writeSnapshot(strokesFile);
+    String mode = args.length > 2 ? args[2] : "all";
+    int runs = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+    if (mode.equals("resource") || mode.equals("all"))
+      report("resource parse", runs, () -> {
+        try (InputStream compiledIn = StartupReport.class.getClassLoader().getResourceAsStream(DATA_PATH)) {
+          return Recognizer.load(compiledIn);
+        }
+      });
+    if (mode.equals("v1") || mode.equals("all"))
+      report("v1 load", runs, () -> Recognizer.load(strokesFile));
+    if (mode.equals("snapshot") || mode.equals("all"))
+      report("snapshot load", runs, () -> Recognizer.loadSnapshot(snapshotFile));
+  }
+
+  static private void report(String name, int runs, Loader loader) throws IOException {
+
+    long[] loadTimes = new long[runs];
+    long[] readyTimes = new long[runs];
+    for (int run = 0; run < runs; run++) {
+      System.gc();
+      long start = System.nanoTime();
+      Recognizer recognizer = loader.load();
+      loadTimes[run] = System.nanoTime() - start;
+      StrokesIndex strokesIndex = recognizer.getStrokesIndex();
+      strokesIndex.getTokenIndex();
+      strokesIndex.getPrefixTrie();
+      strokesIndex.buildClusterIndex();
+      strokesIndex.getEmbeddingIndex();
+      CharacterDescriptor query = new CharacterDescriptor();
+      strokesIndex.loadDescriptor(0, query);
+      recognizer.recognize(query, true, true, 0.25, 15);
+      readyTimes[run] = System.nanoTime() - start;
+    }
+    System.out.println(String.format("%-20s first: load %8.1f ms   ready %8.1f ms      p50: load %8.1f ms   ready %8.1f ms",
+            name, loadTimes[0] / 1e6, readyTimes[0] / 1e6, getMedian(loadTimes) / 1e6, getMedian(readyTimes) / 1e6));
+  }
+
+  static private long getMedian(long[] times) {
+
+    long[] sortedTimes = times.clone();
+    Arrays.sort(sortedTimes);
+    return sortedTimes[sortedTimes.length / 2];
+  }
+
+  static private File copyResource() throws IOException {
+
+    File strokesFile = File.createTempFile("strokes", ".dat");
+    strokesFile.deleteOnExit();
+    try (InputStream compiledIn = StartupReport.class.getClassLoader().getResourceAsStream(DATA_PATH)) {
+      Files.copy(compiledIn, strokesFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    return strokesFile;
+  }
+
+  static private File writeSnapshot(File strokesFile) throws IOException {
+
+    File snapshotFile = File.createTempFile("strokes", ".snapshot");
+    snapshotFile.deleteOnExit();
+    try (FileOutputStream snapshotOut = new FileOutputStream(snapshotFile)) {
+      IndexSnapshot.write(Recognizer.load(strokesFile).getStrokesIndex(), snapshotOut);
+    }
+    return snapshotFile;
+  }
+
+  /**
+   * Loads a Recognizer.
+   */
+  private interface Loader {
+
+    Recognizer load() throws IOException;
+  }
+}
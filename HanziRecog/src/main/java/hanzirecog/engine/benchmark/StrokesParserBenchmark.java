@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.benchmark;
+
+import hanzirecog.engine.beans.CharacterDescriptor;
+import hanzirecog.engine.service.datasource.CharacterTypeParser;
+import hanzirecog.engine.service.datasource.CharacterTypeRepository;
+import hanzirecog.engine.service.datasource.StrokesParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures the throughput of the strokes source compilers on a synthetic source : the regular expression
+ * parser of the StrokesParser constructors, and StrokesParser.compile on one and on several threads.
+ * <p>
+ * The source has the given number of characters, each with a few variants, with 1 to 30 strokes of 1 to 4
+ * substrokes, numbers of 1 to 10 decimals, comments, blank lines, "\r\n" line ends and a few malformed lines.
+ * The program also checks that the compilers give the same compiled output.
+ * <p>
+ * Usage : StrokesParserBenchmark [number of characters] [number of threads] [number of runs]
+ */
+public class StrokesParserBenchmark {
+
+  static private final int VARIANTS = 3;
+  static private final int MAX_STROKES = 30;
+  static private final int MAX_SUB_STROKES_PER_STROKE = 4;
+
+  static public void main(String[] args) throws IOException {
+
+    int characterCount = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    int runs = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    byte[] source = generateSource(characterCount, 42);
+    byte[] types = generateTypes(characterCount, 43);
+    CharacterTypeRepository typeRepository = new CharacterTypeParser(new ByteArrayInputStream(types)).buildCharacterTypeRepository();
+    double megabytes = source.length / 1e6;
+    System.out.println(String.format("%d characters, %.1f MB of source, %d threads", characterCount, megabytes, threads));
+
+    byte[][] outputs = new byte[3][];
+    report(Benchmark.run("regular expressions", 1, runs, i -> {
+      try {
+        outputs[0] = getCompiledOutput(new StrokesParser(new ByteArrayInputStream(source), typeRepository));
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }), megabytes);
+    report(Benchmark.run("byte scanner, 1 thread", 1, runs, i -> {
+      try {
+        outputs[1] = getCompiledOutput(StrokesParser.compile(source, typeRepository, 1));
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }), megabytes);
+    report(Benchmark.run("byte scanner, " + threads + " threads", 1, runs, i -> {
+      try {
+        outputs[2] = getCompiledOutput(StrokesParser.compile(source, typeRepository, threads));
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }), megabytes);
+    System.out.println("same compiled output : " + (Arrays.equals(outputs[0], outputs[1]) && Arrays.equals(outputs[0], outputs[2])));
+  }
+
+  static private void report(Benchmark.Result result, double megabytes) {
+    System.out.println(result + String.format("   %7.1f MB/s", megabytes / (result.getMeanMicros() / 1e6)));
+  }
+
+  static private byte[] getCompiledOutput(StrokesParser strokesParser) throws IOException {
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    strokesParser.writeCompiledOutput(bytes);
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @return a synthetic strokes source, in the format of StrokesParser.parseLine
+   */
+  static public byte[] generateSource(int characterCount, long seed) {
+
+    Random random = new Random(seed);
+    StringBuilder source = new StringBuilder();
+    source.append("// synthetic strokes source\n");
+    for (int character = 0; character < characterCount; character++) {
+      String code = String.format(Locale.ROOT, random.nextBoolean() ? "%04x" : "%04X", 0x4E00 + character);
+      for (int variant = 0; variant < VARIANTS; variant++) {
+        if (random.nextInt(50) == 0)
+          source.append(random.nextBoolean() ? "  # variant\n" : "\t\n");
+        int strokeCount = 1 + random.nextInt(MAX_STROKES);
+        source.append(code).append(random.nextBoolean() ? " | " : "|");
+        int subStrokeCount = 0;
+        for (int stroke = 0; stroke < strokeCount; stroke++) {
+          if (stroke > 0)
+            source.append(" | ");
+          int subStrokes = Math.min(1 + random.nextInt(MAX_SUB_STROKES_PER_STROKE),
+                  CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT - subStrokeCount - (strokeCount - stroke - 1));
+          for (int subStroke = 0; subStroke < subStrokes; subStroke++) {
+            if (subStroke > 0)
+              source.append(" # ");
+            source.append('(').append(formatNumber(random.nextDouble() * 2 * Math.PI, random))
+                    .append(random.nextBoolean() ? ", " : ",").append(formatNumber(random.nextDouble(), random)).append(')');
+          }
+          subStrokeCount += subStrokes;
+        }
+        // A few malformed lines : too many decimals, or a missing parenthesis.
+        if (random.nextInt(1000) == 0)
+          source.append(random.nextBoolean() ? " # (1.12345678901, 0.5)" : " # (1.5, 0.5");
+        source.append(random.nextInt(10) == 0 ? "\r\n" : "\n");
+      }
+    }
+    return source.toString().getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * @return a synthetic types source, in the format of CharacterTypeParser.parseLine
+   */
+  static public byte[] generateTypes(int characterCount, long seed) {
+
+    Random random = new Random(seed);
+    StringBuilder types = new StringBuilder();
+    for (int character = 0; character < characterCount; character += 2) {
+      String code = String.format(Locale.ROOT, "%04x", 0x4E00 + character);
+      String alternateCode = String.format(Locale.ROOT, "%04x", 0x4E00 + character + 1);
+      int type = random.nextInt(4);
+      types.append(code).append(" | ").append(type);
+      if (type > 0)
+        types.append(" | ").append(alternateCode);
+      types.append('\n');
+    }
+    return types.toString().getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * @return the number with 1 to 10 decimals
+   */
+  static private String formatNumber(double value, Random random) {
+    return String.format(Locale.ROOT, "%." + (1 + random.nextInt(10)) + "f", value);
+  }
+}
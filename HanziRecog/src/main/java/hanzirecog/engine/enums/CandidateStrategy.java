@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.enums;
+
+/**
+ * How a StrokesMatcher picks the characters it compares exactly, among those of the stroke count range of a lookup.
+ */
+public enum CandidateStrategy {
+
+    SCAN,               // All the characters of the stroke count range (and substroke count range) are compared.
+    TOKENS,             // The characters sharing the most substroke tokens with the input, see TokenIndex.
+    TOKENS_AND_BIGRAMS, // Same as TOKENS, counting the bigrams of consecutive tokens too.
+    CLUSTERS,           // Experimental : the representatives of the clusters of similar characters, then the most promising clusters, see ClusterIndex.
+    LSH;                // The characters whose embedding falls in the same bucket as the input in the most tables, see EmbeddingIndex.
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.enums;
+
+/**
+ * The stages of the filter cascade a StrokesMatcher runs before comparing a character, cheapest first.
+ * Each stage computes an upper bound of the score of the character and rejects it if the bound
+ * can't make the top matches.
+ */
+public enum FilterStage {
+
+    SUBSTROKE_COUNT, // The substrokes that can't be aligned because of the substroke count difference must be skipped.
+    DIRECTION_BINS,  // Each input substroke scores at most its best score against the direction bins of the character.
+    LENGTH_BINS;     // Each input substroke scores at most its best score against the length bins of the character.
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.enums;
+
+/**
+ * The order in which a StrokesMatcher compares the characters of the stroke count range of a lookup.
+ */
+public enum ScanOrder {
+
+    COMPILED,                   // Order of the compiled data : generic, simplified, then traditional, each by increasing stroke count.
+    NEAREST_STROKE_COUNT_FIRST, // By increasing distance between the stroke counts of the character and of the input, types interleaved.
+    PREFIX_TRIE;                // Depth first over the PrefixTrie of the substroke sequences, sharing the work of common prefixes.
+}
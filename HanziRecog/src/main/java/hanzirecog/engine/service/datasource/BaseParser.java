@@ -84,8 +84,12 @@ abstract public class BaseParser {
    * @return true if the line is a comment, can be overridden for customized behavior
    */
   protected boolean isLineComment(String line) {
+
     // line is a comment if the first non-whitespace is // or #
-    return line.matches("^\\s*//.*") || line.matches("^\\s*#.*");
+    int i = 0;
+    while (i < line.length() && isWhitespace(line.charAt(i)))
+      i++;
+    return line.startsWith("//", i) || line.startsWith("#", i);
   }
 
   /**
@@ -93,7 +97,19 @@ abstract public class BaseParser {
    * @return true if the line is empty, false otherwise
    */
   protected boolean isLineEmpty(String line) {
+
     // line is empty if length 0 or all whitespace
-    return line.matches("^\\s*$");
+    for (int i = 0; i < line.length(); i++) {
+      if (!isWhitespace(line.charAt(i)))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the character is whitespace, as \s of the regular expressions
+   */
+  static protected boolean isWhitespace(int c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
   }
 }
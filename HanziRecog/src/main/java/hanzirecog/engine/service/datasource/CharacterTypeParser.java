@@ -88,6 +88,13 @@ public class CharacterTypeParser extends BaseParser {
         return typeRepository;
     }
 
+    /**
+     * @return the parsed map of Characters to TypeDescriptors, not to be written to
+     */
+    Map<Character, TypeDescriptor> getTypeMap() {
+        return typeMap;
+    }
+
     /**
      * Parses a line of type recognizer.
      * Each line should correspond to one CharacterTypeRepository.TypeDescriptor.
@@ -30,21 +30,84 @@ import java.util.Map;
  * Refactorized by I-Tang HIU August 2018
  * A data repository for describing the types of Chinese Characters (ie simplified, traditional, mappings between the two, etc).
  * Generally these will only be built by CharacterTypeParsers when they are done parsing a type file.
+ * <p>
+ * The types are held in two tables indexed by the char itself, so a lookup is an array read :
+ * a byte per char for its type, and a char per char for its alternate character.
+ * The type of an equivalent character is resolved once, when the repository is built, to the type of
+ * the character it is equivalent to.  The tables can be written with the compiled strokes
+ * (see CompiledStrokesFormat), so a reader doesn't need the plain-text types file.
+ * <p>
+ * A repository is never modified once built and can be shared between threads.
  *
  * @see CharacterTypeParser
  */
 public class CharacterTypeRepository {
 
-  private Map<Character, TypeDescriptor> typeMap; // thinly wraps a Map that maps Characters to TypeDescriptors.
+  // The number of chars, the length of the tables.
+  static public final int TABLE_SIZE = Character.MAX_VALUE + 1;
 
+  // An entry of the type table is 0 for a character that isn't in the repository, else the code of its resolved
+  // type + 1 (0 for an equivalent character whose chain doesn't end on a type), ORed with EQUIVALENT_FLAG
+  // for a character declared equivalent to another.
+  static private final int RESOLVED_TYPE_MASK = 0x0F;
+  static private final int EQUIVALENT_FLAG = 0x10;
+
+  // The resolved types by code + 1.
+  static private final CharacterType[] RESOLVED_TYPES = {
+          CharacterType.NOT_FOUND, CharacterType.GENERIC_TYPE, CharacterType.SIMPLIFIED_TYPE, CharacterType.TRADITIONAL_TYPE};
+
+  private final byte[] typeTable;
+  private final char[] alternateTable;
 
   /**
    * Instantiate a new CharacterTypeRepository using the map provided.
+   * The map is only read here, the repository doesn't keep it.
    *
    * @param typeMap a Map of Characters to TypeDescriptors.
    */
-  public CharacterTypeRepository(Map typeMap) {
-    this.typeMap = typeMap;
+  public CharacterTypeRepository(Map<Character, TypeDescriptor> typeMap) {
+
+    this.typeTable = new byte[TABLE_SIZE];
+    this.alternateTable = new char[TABLE_SIZE];
+    for (TypeDescriptor descriptor : typeMap.values()) {
+      char character = descriptor.getUnicode();
+      if (descriptor.getAlUnicode() != null)
+        alternateTable[character] = descriptor.getAlUnicode();
+      typeTable[character] = (byte) (descriptor.isEquivalent() ? EQUIVALENT_FLAG : descriptor.getType().getCode() + 1);
+    }
+
+    // Resolve the equivalence chains.
+    // A chain longer than the number of characters loops, a mistake in the type file : it resolves to NOT_FOUND.
+    for (TypeDescriptor descriptor : typeMap.values()) {
+      if (!descriptor.isEquivalent())
+        continue;
+      char character = descriptor.getUnicode();
+      int resolvedType = 0;
+      char equivalent = alternateTable[character];
+      for (int steps = 0; steps < typeMap.size(); steps++) {
+        int entry = typeTable[equivalent];
+        if ((entry & EQUIVALENT_FLAG) == 0) {
+          resolvedType = entry & RESOLVED_TYPE_MASK;
+          break;
+        }
+        equivalent = alternateTable[equivalent];
+      }
+      typeTable[character] = (byte) (EQUIVALENT_FLAG | resolvedType);
+    }
+  }
+
+  /**
+   * Instantiate a CharacterTypeRepository from the tables of another, as returned by getTypeTable and getAlternateTable.
+   *
+   * @param typeTable      the type table
+   * @param alternateTable the alternate character table
+   */
+  CharacterTypeRepository(byte[] typeTable, char[] alternateTable) {
+
+    if (typeTable.length != TABLE_SIZE || alternateTable.length != TABLE_SIZE)
+      throw new IllegalArgumentException("The character type tables must have " + TABLE_SIZE + " entries!");
+    this.typeTable = typeTable;
+    this.alternateTable = alternateTable;
   }
 
   /**
@@ -55,9 +118,11 @@ public class CharacterTypeRepository {
    */
   public TypeDescriptor lookup(Character character) {
 
-    // Just pass the lookup onto the underlying map.
-    TypeDescriptor descriptor = typeMap.get(character);
-    return descriptor;
+    int entry = typeTable[character];
+    if (entry == 0)
+      return null;
+    CharacterType type = (entry & EQUIVALENT_FLAG) != 0 ? CharacterType.EQUIVALENT_TYPE : RESOLVED_TYPES[entry & RESOLVED_TYPE_MASK];
+    return new TypeDescriptor(type, character, type.isGeneric() ? null : alternateTable[character]);
   }
 
   /**
@@ -70,21 +135,35 @@ public class CharacterTypeRepository {
    * @return the type of the Character, -1 if the Character wasn't found
    */
   public CharacterType getType(Character character) {
+    return getType(character.charValue());
+  }
 
-    TypeDescriptor typeDescriptor = lookup(character);
-    if (typeDescriptor == null)
-      return CharacterType.NOT_FOUND;
-    if (typeDescriptor.isGeneric() || typeDescriptor.isSimplified() ||
-            typeDescriptor.isTraditional()) {
-      // Normally we can just return the type set on the TypeDescriptor...
-      return typeDescriptor.getType();
-    }
-    else if (typeDescriptor.isEquivalent()) {
-      // except in the case of an equivalent type.
-      // In that case the type we return is actually the type of the equivalent mapped to.
-      // It's possible that if a mistake mistake in the recognizer file could cause in infinite loop here.
-      return getType(typeDescriptor.getAlUnicode());
-    }
-    return null;
+  /**
+   * Same as getType(Character), without boxing : an array read.
+   */
+  public CharacterType getType(char character) {
+    return RESOLVED_TYPES[typeTable[character] & RESOLVED_TYPE_MASK];
+  }
+
+  /**
+   * @param character a character
+   * @return the character it is the simplified or traditional form of, or is equivalent to, 0 if none
+   */
+  public char getAlternate(char character) {
+    return alternateTable[character];
+  }
+
+  /**
+   * @return the type table, indexed by char, not to be written to
+   */
+  byte[] getTypeTable() {
+    return typeTable;
+  }
+
+  /**
+   * @return the alternate character table, indexed by char, not to be written to
+   */
+  char[] getAlternateTable() {
+    return alternateTable;
   }
 }
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.service.datasource;
+
+import hanzirecog.engine.StrokesMatcher;
+import hanzirecog.engine.beans.CharacterDescriptor;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A ClusterIndex groups the entries of each partition of a StrokesIndex into clusters of similar entries.
+ * <p>
+ * The entries are compared with the StrokesMatcher score, at the SCORE_LOOSENESS looseness.  A score grows
+ * with the number of substrokes aligned, so the distance between two entries i and j is how much lower than
+ * their self scores (their score against themselves) their scores against each other are :
+ * (s(i, i) + s(j, j) - s(i, j) - s(j, i)) / 2, s(i, j) being the score of j with i as the input.
+ * It is infinite when the two entries can't be aligned.
+ * <p>
+ * The entries of each partition are clustered by k-medoids, about CLUSTER_SIZE entries per cluster :
+ * each cluster has a representative (its medoid), and each member is in the cluster of its nearest
+ * representative.  The radius of a cluster is the distance of its farthest member to the representative.
+ * The entries that can't be aligned with any representative are clusters of their own.
+ * <p>
+ * A matcher can then score the representatives only, and compare the members of the clusters
+ * whose representative scored high enough.
+ * <p>
+ * The clusters of partition p are the clusters [getPartitionClusterStart(p), getPartitionClusterStart(p + 1)),
+ * by increasing representative entry.  The members of cluster c, its representative included, are
+ * getMembers()[getMemberStarts()[c], getMemberStarts()[c + 1]), by increasing entry, so by increasing substroke count.
+ * <p>
+ * Building a ClusterIndex scores each entry against every other entry of its partition,
+ * O(n^2) in the partition sizes : it is built up front or loaded with an index snapshot, never by a lookup.
+ * Since the distances aren't a metric, the clusters only guess which members can match, and the CLUSTERS
+ * strategy reading them is experimental.
+ * <p>
+ * A ClusterIndex is never modified once built and can be shared between threads.
+ *
+ * @see StrokesIndex#buildClusterIndex()
+ */
+public class ClusterIndex {
+
+    // The mean number of entries of the clusters of a partition.
+    static public final int CLUSTER_SIZE = 20;
+    // The looseness of the scores between entries, the widest substroke range so that most entries can be aligned.
+    static public final double SCORE_LOOSENESS = 1.0;
+    // The most assignment and update steps of the k-medoids.
+    static private final int MAX_ITERATIONS = 8;
+    // Stands for the distance of two entries that can't be aligned when summing distances.
+    static private final double UNALIGNED_DISTANCE = 1e4;
+
+    private final int[] partitionClusterStarts;
+    private final int[] representatives;
+    private final float[] radii;
+    private final int[] memberStarts;
+    private final int[] members;
+
+    private ClusterIndex(int[] partitionClusterStarts, int[] representatives, float[] radii, int[] memberStarts, int[] members) {
+
+        this.partitionClusterStarts = partitionClusterStarts;
+        this.representatives = representatives;
+        this.radii = radii;
+        this.memberStarts = memberStarts;
+        this.members = members;
+    }
+
+    void writeSnapshot(IndexSnapshot.Output out) throws IOException {
+
+        out.writeInts(partitionClusterStarts);
+        out.writeInts(representatives);
+        out.writeFloats(radii);
+        out.writeInts(memberStarts);
+        out.writeInts(members);
+    }
+
+    static ClusterIndex readSnapshot(IndexSnapshot.Input in) throws IOException {
+        return new ClusterIndex(in.readInts(), in.readInts(), in.readFloats(), in.readInts(), in.readInts());
+    }
+
+    /**
+     * Clusters all the entries of a StrokesIndex.  This scores each entry against all the entries of its partition.
+     *
+     * @param strokesIndex the index
+     * @return the cluster index
+     */
+    static public ClusterIndex build(StrokesIndex strokesIndex) {
+
+        int partitionCount = StrokesIndex.PARTITION_TYPE_COUNT * CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT;
+        int[] partitionClusterStarts = new int[partitionCount + 1];
+        int[] representatives = new int[strokesIndex.size()];
+        float[] radii = new float[strokesIndex.size()];
+        int[] memberStarts = new int[strokesIndex.size() + 1];
+        int[] members = new int[strokesIndex.size()];
+        int clusterCount = 0;
+        int memberCount = 0;
+        CharacterDescriptor descriptor = new CharacterDescriptor();
+        for (int partition = 0; partition < partitionCount; partition++) {
+            partitionClusterStarts[partition] = clusterCount;
+            int start = strokesIndex.getPartitionStart(partition);
+            int size = strokesIndex.getPartitionEnd(partition) - start;
+            if (size == 0)
+                continue;
+
+            // scores[i][j] is the score of entry start + j with entry start + i as the input.
+            double[][] scores = new double[size][];
+            for (int i = 0; i < size; i++) {
+                strokesIndex.loadDescriptor(start + i, descriptor);
+                StrokesMatcher matcher = new StrokesMatcher(strokesIndex, descriptor, true, true, SCORE_LOOSENESS, 1);
+                scores[i] = matcher.scoreEntries(start, start + size);
+            }
+            double[][] distances = new double[size][size];
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++)
+                    distances[i][j] = (scores[i][i] + scores[j][j] - scores[i][j] - scores[j][i]) / 2;
+            }
+            int[] assignments = cluster(distances, (size + CLUSTER_SIZE - 1) / CLUSTER_SIZE);
+
+            // Each representative makes a cluster, as does each entry assigned to none.
+            for (int i = 0; i < size; i++) {
+                if (assignments[i] != i && assignments[i] >= 0)
+                    continue;
+                representatives[clusterCount] = start + i;
+                double radius = 0;
+                for (int j = 0; j < size; j++) {
+                    if (j == i || assignments[j] == i && assignments[i] == i) {
+                        members[memberCount++] = start + j;
+                        radius = Math.max(radius, distances[i][j]);
+                    }
+                }
+                radii[clusterCount] = (float) radius;
+                clusterCount++;
+                memberStarts[clusterCount] = memberCount;
+            }
+        }
+        partitionClusterStarts[partitionCount] = clusterCount;
+        return new ClusterIndex(partitionClusterStarts, Arrays.copyOf(representatives, clusterCount),
+                Arrays.copyOf(radii, clusterCount), Arrays.copyOf(memberStarts, clusterCount + 1), members);
+    }
+
+    /**
+     * Clusters the entries of a partition by k-medoids.
+     *
+     * @param distances    the distances between the entries, see build
+     * @param clusterCount the number of clusters
+     * @return for each entry, the entry representing its cluster (itself for the representatives),
+     * -1 if it can't be aligned with any representative
+     */
+    static private int[] cluster(double[][] distances, int clusterCount) {
+
+        int size = distances.length;
+        // The first representative is the most central entry, then each one is the entry the farthest
+        // from those already chosen.
+        int[] medoids = new int[clusterCount];
+        int first = 0;
+        double firstSum = getDistanceSum(distances, 0, null, 0);
+        for (int i = 1; i < size; i++) {
+            double sum = getDistanceSum(distances, i, null, 0);
+            if (sum < firstSum) {
+                first = i;
+                firstSum = sum;
+            }
+        }
+        medoids[0] = first;
+        double[] nearestDistances = new double[size];
+        for (int j = 0; j < size; j++)
+            nearestDistances[j] = getClusteringDistance(distances[first][j]);
+        boolean[] chosen = new boolean[size];
+        chosen[first] = true;
+        for (int m = 1; m < clusterCount; m++) {
+            int farthest = -1;
+            for (int j = 0; j < size; j++) {
+                if (!chosen[j] && (farthest < 0 || nearestDistances[j] > nearestDistances[farthest]))
+                    farthest = j;
+            }
+            medoids[m] = farthest;
+            chosen[farthest] = true;
+            for (int j = 0; j < size; j++)
+                nearestDistances[j] = Math.min(nearestDistances[j], getClusteringDistance(distances[farthest][j]));
+        }
+
+        int[] assignments = new int[size];
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            assign(distances, medoids, assignments);
+            // Each representative moves to the member whose distances to the other members sum lowest.
+            boolean changed = false;
+            for (int m = 0; m < clusterCount; m++) {
+                int medoid = medoids[m];
+                double bestSum = getDistanceSum(distances, medoid, assignments, medoid);
+                for (int i = 0; i < size; i++) {
+                    if (assignments[i] != medoid || i == medoid)
+                        continue;
+                    double sum = getDistanceSum(distances, i, assignments, medoid);
+                    if (sum < bestSum) {
+                        bestSum = sum;
+                        medoids[m] = i;
+                    }
+                }
+                changed |= medoids[m] != medoid;
+            }
+            if (!changed)
+                break;
+        }
+        assign(distances, medoids, assignments);
+        return assignments;
+    }
+
+    /**
+     * Assigns each entry to its nearest representative, the representatives to themselves.
+     */
+    static private void assign(double[][] distances, int[] medoids, int[] assignments) {
+
+        for (int j = 0; j < distances.length; j++) {
+            int assignment = -1;
+            double nearestDistance = Double.POSITIVE_INFINITY;
+            for (int medoid : medoids) {
+                if (distances[medoid][j] < nearestDistance) {
+                    nearestDistance = distances[medoid][j];
+                    assignment = medoid;
+                }
+            }
+            assignments[j] = assignment;
+        }
+        for (int medoid : medoids)
+            assignments[medoid] = medoid;
+    }
+
+    /**
+     * @return the sum of the distances of the members of a cluster to entry i, of all the entries if assignments is null
+     */
+    static private double getDistanceSum(double[][] distances, int i, int[] assignments, int medoid) {
+
+        double sum = 0;
+        for (int j = 0; j < distances.length; j++) {
+            if (assignments == null || assignments[j] == medoid)
+                sum += getClusteringDistance(distances[i][j]);
+        }
+        return sum;
+    }
+
+    static private double getClusteringDistance(double distance) {
+        return Math.min(distance, UNALIGNED_DISTANCE);
+    }
+
+    /**
+     * @param partition the index of a partition, see StrokesIndex.getPartition
+     * @return the first cluster of the partition, the first cluster of the next partition if it has none
+     */
+    public int getPartitionClusterStart(int partition) {
+        return partitionClusterStarts[partition];
+    }
+
+    /**
+     * @return the number of clusters
+     */
+    public int size() {
+        return representatives.length;
+    }
+
+    /**
+     * @return the representative entry of each cluster
+     */
+    public int[] getRepresentatives() {
+        return representatives;
+    }
+
+    /**
+     * @return the radius of each cluster : the distance of its farthest member to its representative
+     */
+    public float[] getRadii() {
+        return radii;
+    }
+
+    public int[] getMemberStarts() {
+        return memberStarts;
+    }
+
+    /**
+     * @return the entries, grouped by cluster
+     */
+    public int[] getMembers() {
+        return members;
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.service.datasource;
+
+import hanzirecog.engine.beans.CharacterDescriptor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The version 2 of the compiled strokes format, laid out as the arrays of a StrokesIndex, so that a reader
+ * copies each array in bulk instead of decoding the entries one by one.
+ * <p>
+ * The version 1 stream written by StrokesParser.writeCompiledOutput is a sequence of variable length records,
+ * grouped by (type, stroke count), each group prefixed by its size in bytes : finding an entry means reading
+ * all the ones before it.  Version 2 stores the columns of the StrokesIndex instead, each section being
+ * an array of fixed width values.  All the values are big endian.
+ * <p>
+ * The header (HEADER_SIZE bytes) is :
+ * MAGIC, VERSION, the flags (FLAG_SUB_STROKE_SORTED, FLAG_CHARACTER_TYPES), the number of entries, the number of substrokes,
+ * the number of partitions, the number of substroke counts per partition of the sub partition table,
+ * the number of sections, all ints.  Then comes the byte offset of each section from the start of the stream,
+ * as ints, in the order of the section constants.  Each section starts on a SECTION_ALIGNMENT boundary,
+ * the gaps are zeros :
+ * <ul>
+ * <li>PARTITION_STARTS : int[partitions + 1], the first entry of each partition, see StrokesIndex.getPartition</li>
+ * <li>SUB_PARTITION_STARTS : int[partitions * stride], see StrokesIndex.getSubPartitionStart</li>
+ * <li>FEATURE_OFFSETS : int[entries + 1], the first substroke of each entry</li>
+ * <li>CHARACTERS : char[entries]</li>
+ * <li>TYPES, STROKE_COUNTS, SUB_STROKE_COUNTS : byte[entries]</li>
+ * <li>DIRECTIONS, LENGTHS : double[substrokes], the values version 1 decodes from its shorts, so that the index
+ * gets the same values from both versions, at 8 bytes per value instead of 2</li>
+ * <li>CHARACTER_TYPE_TABLE : byte[CharacterTypeRepository.TABLE_SIZE], ALTERNATE_CHARACTER_TABLE :
+ * char[CharacterTypeRepository.TABLE_SIZE], the tables of the CharacterTypeRepository the strokes were compiled with,
+ * if FLAG_CHARACTER_TYPES is set</li>
+ * </ul>
+ * A stream without character types has the first BASE_SECTION_COUNT sections only.
+ * The numbers of substrokes of each stroke, which no reader uses, are not kept.
+ * <p>
+ * A version 1 stream starts with the size of its first group, far below MAGIC, so the readers tell the versions
+ * apart from the first int.
+ *
+ * @see StrokesIndex#build(hanzirecog.engine.StrokesStreamProvider)
+ * @see StrokesParser#main(String[])
+ */
+public class CompiledStrokesFormat {
+
+    // "HRV2"
+    static public final int MAGIC = 0x48525632;
+    static public final int VERSION = 2;
+    // The entries of each partition are sorted by substroke count.
+    static public final int FLAG_SUB_STROKE_SORTED = 1;
+    // The stream holds the tables of a CharacterTypeRepository.
+    static public final int FLAG_CHARACTER_TYPES = 2;
+
+    static public final int PARTITION_STARTS = 0;
+    static public final int SUB_PARTITION_STARTS = 1;
+    static public final int FEATURE_OFFSETS = 2;
+    static public final int CHARACTERS = 3;
+    static public final int TYPES = 4;
+    static public final int STROKE_COUNTS = 5;
+    static public final int SUB_STROKE_COUNTS = 6;
+    static public final int DIRECTIONS = 7;
+    static public final int LENGTHS = 8;
+    static public final int CHARACTER_TYPE_TABLE = 9;
+    static public final int ALTERNATE_CHARACTER_TABLE = 10;
+    static public final int SECTION_COUNT = 11;
+    // The number of sections of a stream without FLAG_CHARACTER_TYPES : the ones before the type tables.
+    static public final int BASE_SECTION_COUNT = CHARACTER_TYPE_TABLE;
+
+    static public final int HEADER_SIZE = 32;
+    static public final int SECTION_ALIGNMENT = 8;
+
+    // Offsets of the header fields.
+    static public final int FLAGS_OFFSET = 8;
+    static public final int ENTRY_COUNT_OFFSET = 12;
+    static public final int FEATURE_COUNT_OFFSET = 16;
+    static public final int PARTITION_COUNT_OFFSET = 20;
+    static public final int SUB_PARTITION_STRIDE_OFFSET = 24;
+    static public final int SECTION_COUNT_OFFSET = 28;
+
+    static private final int PARTITION_COUNT = StrokesIndex.PARTITION_TYPE_COUNT * CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT;
+    static private final int SUB_PARTITION_STRIDE = CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 2;
+
+    private CompiledStrokesFormat() {
+    }
+
+    /**
+     * @param firstInt the first int of a compiled strokes stream
+     * @return true if the stream is in the version 2 format, false if it is in the version 1 format
+     */
+    static public boolean isVersion2(int firstInt) {
+        return firstInt == MAGIC;
+    }
+
+    /**
+     * Writes an index in the version 2 format, with the character types it was read with if any.
+     * The stream is flushed but not closed.
+     *
+     * @param index the index
+     * @param out   the stream to write to
+     * @throws IOException on an exception writing to the stream
+     */
+    static public void write(StrokesIndex index, OutputStream out) throws IOException {
+        write(index, index.getTypeRepository(), out);
+    }
+
+    /**
+     * Writes an index in the version 2 format.  The stream is flushed but not closed.
+     *
+     * @param index          the index
+     * @param typeRepository the character types to write with the index, can be null
+     * @param out            the stream to write to
+     * @throws IOException on an exception writing to the stream
+     */
+    static public void write(StrokesIndex index, CharacterTypeRepository typeRepository, OutputStream out) throws IOException {
+
+        int entryCount = index.size();
+        int featureCount = index.getFeatureOffsets()[entryCount];
+        int sectionCount = typeRepository != null ? SECTION_COUNT : BASE_SECTION_COUNT;
+        long[] sizes = getSectionSizes(entryCount, featureCount, typeRepository != null);
+        int[] offsets = new int[sectionCount];
+        int position = HEADER_SIZE + 4 * sectionCount;
+        for (int section = 0; section < sectionCount; section++) {
+            position = align(position);
+            offsets[section] = position;
+            position += (int) sizes[section];
+        }
+
+        DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out));
+        dataOut.writeInt(MAGIC);
+        dataOut.writeInt(VERSION);
+        dataOut.writeInt(typeRepository != null ? FLAG_SUB_STROKE_SORTED | FLAG_CHARACTER_TYPES : FLAG_SUB_STROKE_SORTED);
+        dataOut.writeInt(entryCount);
+        dataOut.writeInt(featureCount);
+        dataOut.writeInt(PARTITION_COUNT);
+        dataOut.writeInt(SUB_PARTITION_STRIDE);
+        dataOut.writeInt(sectionCount);
+        for (int offset : offsets)
+            dataOut.writeInt(offset);
+
+        for (int section = 0; section < sectionCount; section++) {
+            while (dataOut.size() < offsets[section])
+                dataOut.writeByte(0);
+            switch (section) {
+                case PARTITION_STARTS:
+                    for (int partition = 0; partition <= PARTITION_COUNT; partition++)
+                        dataOut.writeInt(partition < PARTITION_COUNT ? index.getPartitionStart(partition) : entryCount);
+                    break;
+                case SUB_PARTITION_STARTS:
+                    for (int partition = 0; partition < PARTITION_COUNT; partition++) {
+                        for (int subStrokeCount = 0; subStrokeCount < SUB_PARTITION_STRIDE; subStrokeCount++)
+                            dataOut.writeInt(index.getSubPartitionStart(partition, subStrokeCount));
+                    }
+                    break;
+                case FEATURE_OFFSETS:
+                    for (int offset : index.getFeatureOffsets())
+                        dataOut.writeInt(offset);
+                    break;
+                case CHARACTERS:
+                    for (char character : index.getCharacters())
+                        dataOut.writeChar(character);
+                    break;
+                case TYPES:
+                    dataOut.write(index.getTypes());
+                    break;
+                case STROKE_COUNTS:
+                    dataOut.write(index.getStrokeCounts());
+                    break;
+                case SUB_STROKE_COUNTS:
+                    dataOut.write(index.getSubStrokeCounts());
+                    break;
+                case DIRECTIONS:
+                    for (double direction : index.getDirections())
+                        dataOut.writeDouble(direction);
+                    break;
+                case LENGTHS:
+                    for (double length : index.getLengths())
+                        dataOut.writeDouble(length);
+                    break;
+                case CHARACTER_TYPE_TABLE:
+                    dataOut.write(typeRepository.getTypeTable());
+                    break;
+                case ALTERNATE_CHARACTER_TABLE:
+                    for (char alternate : typeRepository.getAlternateTable())
+                        dataOut.writeChar(alternate);
+                    break;
+            }
+        }
+        dataOut.flush();
+    }
+
+    /**
+     * Reads an index from a buffer holding a version 2 stream, from its position 0.
+     * The arrays are copied in bulk, nothing is parsed record by record.
+     *
+     * @param buffer the stream
+     * @return the index, with the character types of the stream if any, see StrokesIndex.getTypeRepository
+     * @throws IOException if the buffer doesn't hold a version 2 stream this reader understands
+     */
+    static public StrokesIndex read(ByteBuffer buffer) throws IOException {
+
+        ByteBuffer in = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        checkHeader(in);
+        int entryCount = in.getInt(ENTRY_COUNT_OFFSET);
+        int featureCount = in.getInt(FEATURE_COUNT_OFFSET);
+
+        int[] partitionStarts = new int[PARTITION_COUNT + 1];
+        getSection(in, PARTITION_STARTS).asIntBuffer().get(partitionStarts);
+        int[] subPartitionStarts = new int[PARTITION_COUNT * SUB_PARTITION_STRIDE];
+        getSection(in, SUB_PARTITION_STARTS).asIntBuffer().get(subPartitionStarts);
+        int[] featureOffsets = new int[entryCount + 1];
+        getSection(in, FEATURE_OFFSETS).asIntBuffer().get(featureOffsets);
+        char[] characters = new char[entryCount];
+        getSection(in, CHARACTERS).asCharBuffer().get(characters);
+        byte[] types = new byte[entryCount];
+        getSection(in, TYPES).get(types);
+        byte[] strokeCounts = new byte[entryCount];
+        getSection(in, STROKE_COUNTS).get(strokeCounts);
+        byte[] subStrokeCounts = new byte[entryCount];
+        getSection(in, SUB_STROKE_COUNTS).get(subStrokeCounts);
+        double[] directions = new double[featureCount];
+        getSection(in, DIRECTIONS).asDoubleBuffer().get(directions);
+        double[] lengths = new double[featureCount];
+        getSection(in, LENGTHS).asDoubleBuffer().get(lengths);
+        return new StrokesIndex(characters, types, strokeCounts, subStrokeCounts, featureOffsets, directions, lengths,
+                partitionStarts, subPartitionStarts, readTypeRepository(in));
+    }
+
+    /**
+     * Reads the character types of a version 2 stream.
+     *
+     * @param buffer the stream, from its position 0
+     * @return the character types, null if the stream has none
+     * @throws IOException if the buffer doesn't hold a version 2 stream this reader understands
+     */
+    static public CharacterTypeRepository readTypeRepository(ByteBuffer buffer) throws IOException {
+
+        ByteBuffer in = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        checkHeader(in);
+        if ((in.getInt(FLAGS_OFFSET) & FLAG_CHARACTER_TYPES) == 0)
+            return null;
+        byte[] typeTable = new byte[CharacterTypeRepository.TABLE_SIZE];
+        getSection(in, CHARACTER_TYPE_TABLE).get(typeTable);
+        char[] alternateTable = new char[CharacterTypeRepository.TABLE_SIZE];
+        getSection(in, ALTERNATE_CHARACTER_TABLE).asCharBuffer().get(alternateTable);
+        return new CharacterTypeRepository(typeTable, alternateTable);
+    }
+
+    /**
+     * Checks the header of a version 2 stream, and that its sections fit in the stream.
+     *
+     * @param in the stream, big endian
+     * @throws IOException if the stream isn't a version 2 stream this reader understands
+     */
+    static public void checkHeader(ByteBuffer in) throws IOException {
+
+        if (in.limit() < HEADER_SIZE + 4 * BASE_SECTION_COUNT || !isVersion2(in.getInt(0)))
+            throw new IOException("Not a version 2 compiled strokes stream!");
+        if (in.getInt(4) != VERSION)
+            throw new IOException("Unsupported compiled strokes version : " + in.getInt(4) + "!");
+        if ((in.getInt(FLAGS_OFFSET) & FLAG_SUB_STROKE_SORTED) == 0)
+            throw new IOException("The entries of the compiled strokes aren't sorted by substroke count!");
+        if (in.getInt(PARTITION_COUNT_OFFSET) != PARTITION_COUNT || in.getInt(SUB_PARTITION_STRIDE_OFFSET) != SUB_PARTITION_STRIDE)
+            throw new IOException("The compiled strokes don't have the stroke and substroke limits of this reader!");
+        boolean characterTypes = (in.getInt(FLAGS_OFFSET) & FLAG_CHARACTER_TYPES) != 0;
+        int sectionCount = in.getInt(SECTION_COUNT_OFFSET);
+        // Without the character types, the type table sections can be left out.
+        if (sectionCount != SECTION_COUNT && (sectionCount != BASE_SECTION_COUNT || characterTypes))
+            throw new IOException("Unsupported number of compiled strokes sections : " + sectionCount + "!");
+        if (in.limit() < HEADER_SIZE + 4 * sectionCount)
+            throw new IOException("Truncated compiled strokes stream!");
+        int entryCount = in.getInt(ENTRY_COUNT_OFFSET);
+        int featureCount = in.getInt(FEATURE_COUNT_OFFSET);
+        if (entryCount < 0 || featureCount < 0)
+            throw new IOException("Corrupted compiled strokes stream!");
+        long[] sizes = getSectionSizes(entryCount, featureCount, characterTypes);
+        // The sections follow each other, without overlapping.
+        long sectionsEnd = HEADER_SIZE + 4 * sectionCount;
+        for (int section = 0; section < sectionCount; section++) {
+            int offset = getSectionOffset(in, section);
+            if (offset < sectionsEnd)
+                throw new IOException("Corrupted compiled strokes stream!");
+            sectionsEnd = offset + sizes[section];
+        }
+        if (sectionsEnd > in.limit())
+            throw new IOException("Truncated compiled strokes stream!");
+    }
+
+    /**
+     * @return the size in bytes of each section, for the given numbers of entries and substrokes
+     */
+    static private long[] getSectionSizes(int entryCount, int featureCount, boolean characterTypes) {
+
+        long[] sizes = new long[SECTION_COUNT];
+        sizes[PARTITION_STARTS] = 4L * (PARTITION_COUNT + 1);
+        sizes[SUB_PARTITION_STARTS] = 4L * PARTITION_COUNT * SUB_PARTITION_STRIDE;
+        sizes[FEATURE_OFFSETS] = 4L * (entryCount + 1);
+        sizes[CHARACTERS] = 2L * entryCount;
+        sizes[TYPES] = entryCount;
+        sizes[STROKE_COUNTS] = entryCount;
+        sizes[SUB_STROKE_COUNTS] = entryCount;
+        sizes[DIRECTIONS] = 8L * featureCount;
+        sizes[LENGTHS] = 8L * featureCount;
+        if (characterTypes) {
+            sizes[CHARACTER_TYPE_TABLE] = CharacterTypeRepository.TABLE_SIZE;
+            sizes[ALTERNATE_CHARACTER_TABLE] = 2L * CharacterTypeRepository.TABLE_SIZE;
+        }
+        return sizes;
+    }
+
+    /**
+     * @param in      a version 2 stream, big endian
+     * @param section one of the section constants
+     * @return the byte offset of the section from the start of the stream
+     */
+    static public int getSectionOffset(ByteBuffer in, int section) {
+        return in.getInt(HEADER_SIZE + 4 * section);
+    }
+
+    /**
+     * @return a big endian view of the stream starting at the section
+     */
+    static private ByteBuffer getSection(ByteBuffer in, int section) {
+
+        ByteBuffer view = in.duplicate();
+        view.position(getSectionOffset(in, section));
+        return view.slice().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    static private int align(int position) {
+        return (position + SECTION_ALIGNMENT - 1) / SECTION_ALIGNMENT * SECTION_ALIGNMENT;
+    }
+}
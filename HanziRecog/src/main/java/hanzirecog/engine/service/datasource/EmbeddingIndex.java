@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.service.datasource;
+
+import hanzirecog.engine.beans.CharacterDescriptor;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * An EmbeddingIndex hashes fixed length embeddings of the entries of a StrokesIndex into locality sensitive hash tables.
+ * <p>
+ * The embedding of a character resamples its substroke sequence at EMBEDDING_SAMPLES points evenly spaced
+ * along its total length : each point takes the unit vector of the direction of the substroke it falls in,
+ * so the embedding has 2 * EMBEDDING_SAMPLES coordinates whatever the number of substrokes.
+ * Two characters written alike have close embeddings.
+ * <p>
+ * Each of the TABLE_COUNT tables hashes an embedding on HASH_BITS bits, bit b telling on which side of
+ * a random hyperplane (through the origin) the embedding is : the closer the directions of two embeddings,
+ * the more likely they fall in the same bucket of a table.  The hyperplanes are drawn from a fixed seed,
+ * so the input of a matcher is hashed the same way as the entries.
+ * <p>
+ * The entries of bucket h of table t are getEntries()[getBucketStarts()[t * BUCKET_COUNT + h],
+ * getBucketStarts()[t * BUCKET_COUNT + h + 1]), by increasing entry.
+ * <p>
+ * An EmbeddingIndex is never modified once built and can be shared between threads.
+ *
+ * @see StrokesIndex#getEmbeddingIndex()
+ */
+public class EmbeddingIndex {
+
+    static public final int EMBEDDING_SAMPLES = 12;
+    static public final int EMBEDDING_SIZE = 2 * EMBEDDING_SAMPLES;
+    static public final int TABLE_COUNT = 32;
+    static public final int HASH_BITS = 6;
+    static public final int BUCKET_COUNT = 1 << HASH_BITS;
+    static private final long HYPERPLANES_SEED = 0x5EEDL;
+    // hyperplanes[table][bit] is the normal vector of a hyperplane.
+    static private final float[][][] HYPERPLANES = initHyperplanes();
+
+    private final int[] bucketStarts;
+    private final int[] entries;
+
+    private EmbeddingIndex(int[] bucketStarts, int[] entries) {
+
+        this.bucketStarts = bucketStarts;
+        this.entries = entries;
+    }
+
+    void writeSnapshot(IndexSnapshot.Output out) throws IOException {
+
+        out.writeInts(bucketStarts);
+        out.writeInts(entries);
+    }
+
+    static EmbeddingIndex readSnapshot(IndexSnapshot.Input in) throws IOException {
+        return new EmbeddingIndex(in.readInts(), in.readInts());
+    }
+
+    static private float[][][] initHyperplanes() {
+
+        Random random = new Random(HYPERPLANES_SEED);
+        float[][][] hyperplanes = new float[TABLE_COUNT][HASH_BITS][EMBEDDING_SIZE];
+        for (float[][] table : hyperplanes) {
+            for (float[] hyperplane : table) {
+                for (int i = 0; i < EMBEDDING_SIZE; i++)
+                    hyperplane[i] = (float) random.nextGaussian();
+            }
+        }
+        return hyperplanes;
+    }
+
+    /**
+     * Computes the embedding of a character.
+     *
+     * @param directions     the directions of the substrokes of the character
+     * @param lengths        the lengths of the substrokes of the character
+     * @param subStrokeCount the number of substrokes
+     * @param embedding      receives the embedding, EMBEDDING_SIZE long, all zeros if the character has no length
+     */
+    static public void embed(double[] directions, double[] lengths, int subStrokeCount, float[] embedding) {
+
+        double totalLength = 0;
+        for (int i = 0; i < subStrokeCount; i++)
+            totalLength += lengths[i];
+        if (totalLength <= 0) {
+            Arrays.fill(embedding, 0);
+            return;
+        }
+        int subStroke = 0;
+        double subStrokeEnd = lengths[0];
+        for (int sample = 0; sample < EMBEDDING_SAMPLES; sample++) {
+            double position = (sample + 0.5) * totalLength / EMBEDDING_SAMPLES;
+            while (subStroke < subStrokeCount - 1 && subStrokeEnd < position)
+                subStrokeEnd += lengths[++subStroke];
+            embedding[2 * sample] = (float) Math.cos(directions[subStroke]);
+            embedding[2 * sample + 1] = (float) Math.sin(directions[subStroke]);
+        }
+    }
+
+    /**
+     * @param embedding an embedding
+     * @param table     the table, 0 - TABLE_COUNT - 1
+     * @return the bucket of the embedding in the table, 0 - BUCKET_COUNT - 1
+     */
+    static public int hash(float[] embedding, int table) {
+
+        int hash = 0;
+        for (int bit = 0; bit < HASH_BITS; bit++) {
+            float[] hyperplane = HYPERPLANES[table][bit];
+            double dot = 0;
+            for (int i = 0; i < EMBEDDING_SIZE; i++)
+                dot += hyperplane[i] * embedding[i];
+            if (dot >= 0)
+                hash |= 1 << bit;
+        }
+        return hash;
+    }
+
+    /**
+     * Hashes all the entries of a StrokesIndex.
+     *
+     * @param strokesIndex the index
+     * @return the embedding index
+     */
+    static public EmbeddingIndex build(StrokesIndex strokesIndex) {
+
+        int size = strokesIndex.size();
+        double[] directions = new double[CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT];
+        double[] lengths = new double[CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT];
+        float[] embedding = new float[EMBEDDING_SIZE];
+        int[] hashes = new int[size * TABLE_COUNT];
+        int[] bucketStarts = new int[TABLE_COUNT * BUCKET_COUNT + 1];
+        for (int entry = 0; entry < size; entry++) {
+            int offset = strokesIndex.getFeatureOffsets()[entry];
+            int subStrokeCount = strokesIndex.getSubStrokeCounts()[entry];
+            for (int i = 0; i < subStrokeCount; i++) {
+                directions[i] = strokesIndex.getDirections()[offset + i];
+                lengths[i] = strokesIndex.getLengths()[offset + i];
+            }
+            embed(directions, lengths, subStrokeCount, embedding);
+            for (int table = 0; table < TABLE_COUNT; table++) {
+                int bucket = table * BUCKET_COUNT + hash(embedding, table);
+                hashes[entry * TABLE_COUNT + table] = bucket;
+                bucketStarts[bucket + 1]++;
+            }
+        }
+
+        // Counting sort of the entries by bucket, so each bucket lists its entries in increasing order.
+        for (int bucket = 0; bucket < TABLE_COUNT * BUCKET_COUNT; bucket++)
+            bucketStarts[bucket + 1] += bucketStarts[bucket];
+        int[] positions = bucketStarts.clone();
+        int[] entries = new int[size * TABLE_COUNT];
+        for (int entry = 0; entry < size; entry++) {
+            for (int table = 0; table < TABLE_COUNT; table++)
+                entries[positions[hashes[entry * TABLE_COUNT + table]]++] = entry;
+        }
+        return new EmbeddingIndex(bucketStarts, entries);
+    }
+
+    /**
+     * Adds 1 to the count of every entry falling in the same bucket as the given embedding, for each table.
+     *
+     * @param embedding an embedding
+     * @param counts    the counts, by entry
+     * @return the number of entries read from the buckets
+     */
+    public int addCollisions(float[] embedding, int[] counts) {
+
+        int read = 0;
+        for (int table = 0; table < TABLE_COUNT; table++) {
+            int bucket = table * BUCKET_COUNT + hash(embedding, table);
+            for (int i = bucketStarts[bucket]; i < bucketStarts[bucket + 1]; i++)
+                counts[entries[i]]++;
+            read += bucketStarts[bucket + 1] - bucketStarts[bucket];
+        }
+        return read;
+    }
+
+    public int[] getBucketStarts() {
+        return bucketStarts;
+    }
+
+    /**
+     * @return the entries, grouped by table and bucket
+     */
+    public int[] getEntries() {
+        return entries;
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.service.datasource;
+
+import hanzirecog.engine.beans.CharacterDescriptor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * An IndexSnapshot is a StrokesIndex fully built, written as it is in memory : the decoded entries and
+ * partition tables, the derived per-entry features (codes, quantized and reduced substrokes, filter features),
+ * the character types read with the compiled strokes if any, and the candidate generation structures
+ * (TokenIndex, PrefixTrie, ClusterIndex, EmbeddingIndex), which are otherwise built on first use,
+ * or up front for the clusters, which take seconds.
+ * <p>
+ * Loading a snapshot is one bulk read, or a mapping, followed by array copies : nothing is decoded record
+ * by record nor recomputed, so a process is ready to match as soon as it is loaded.  The arrays are copied
+ * from the mapping to the heap : the mapping saves reading the file in a byte array first, but each process
+ * loading the snapshot holds its own copy of the index.
+ * <p>
+ * The snapshot starts with MAGIC, VERSION and the constants the structures were built with : a snapshot
+ * written with other constants is refused and has to be written again.  Then come the arrays of each
+ * structure, in the order of its fields, each array being its length (an int) followed by its values.
+ * All the values are big endian.  The layout follows the classes, see the writeSnapshot and readSnapshot
+ * methods of each structure : a snapshot is meant to be written by the build of the application it is loaded by,
+ * the compiled strokes (StrokesParser, CompiledStrokesFormat) remaining the exchange format.
+ *
+ * @see #main(String[])
+ * @see hanzirecog.engine.Recognizer#loadSnapshot(File)
+ */
+public class IndexSnapshot {
+
+    // "HRS1"
+    static public final int MAGIC = 0x48525331;
+    static public final int VERSION = 1;
+
+    private IndexSnapshot() {
+    }
+
+    /**
+     * Writes an index with all its candidate generation structures, building those not built yet.
+     * The stream is flushed but not closed.
+     *
+     * @param strokesIndex the index
+     * @param out          the stream to write to
+     * @throws IOException on an exception writing to the stream
+     */
+    static public void write(StrokesIndex strokesIndex, OutputStream out) throws IOException {
+
+        Output snapshotOut = new Output(out);
+        snapshotOut.writeInt(MAGIC);
+        snapshotOut.writeInt(VERSION);
+        snapshotOut.writeInts(getLayout());
+        strokesIndex.writeSnapshot(snapshotOut);
+        snapshotOut.flush();
+    }
+
+    /**
+     * Reads an index from a buffer holding a snapshot, from its position 0.
+     *
+     * @param buffer the snapshot
+     * @return the index, with its candidate generation structures
+     * @throws IOException if the buffer doesn't hold a snapshot this reader understands
+     */
+    static public StrokesIndex read(ByteBuffer buffer) throws IOException {
+
+        Input in = new Input(buffer);
+        if (buffer.limit() < 8 || in.readInt() != MAGIC)
+            throw new IOException("Not a strokes index snapshot!");
+        int version = in.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported strokes index snapshot version : " + version + "!");
+        int[] layout = in.readInts();
+        int[] expectedLayout = getLayout();
+        if (layout.length != expectedLayout.length)
+            throw new IOException("The strokes index snapshot was written with other constants, write it again!");
+        for (int i = 0; i < layout.length; i++) {
+            if (layout[i] != expectedLayout[i])
+                throw new IOException("The strokes index snapshot was written with other constants, write it again!");
+        }
+        return StrokesIndex.readSnapshot(in);
+    }
+
+    /**
+     * Maps a snapshot file and copies the arrays of the index from the mapping, see read.
+     *
+     * @param snapshotFile the snapshot file, as written by write
+     * @return the index, with its candidate generation structures
+     * @throws IOException on an exception mapping the file, or if it isn't a snapshot this reader understands
+     */
+    static public StrokesIndex load(File snapshotFile) throws IOException {
+
+        try (RandomAccessFile file = new RandomAccessFile(snapshotFile, "r")) {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("The strokes index snapshot is too large to be mapped: " + snapshotFile);
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * @return the constants the structures of the snapshot depend on
+     */
+    static private int[] getLayout() {
+
+        return new int[]{
+                StrokesIndex.PARTITION_TYPE_COUNT, CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT,
+                CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT, StrokesIndex.QUANTIZATION_LEVELS,
+                StrokesIndex.FEATURE_BINS, StrokesIndex.REDUCTION_FACTOR, ClusterIndex.CLUSTER_SIZE,
+                EmbeddingIndex.EMBEDDING_SAMPLES, EmbeddingIndex.TABLE_COUNT, EmbeddingIndex.HASH_BITS};
+    }
+
+    /**
+     * Use this to write the snapshot of compiled strokes.
+     * The snapshot is written to a temporary file first, then renamed, so a process never maps a partial snapshot.
+     */
+    static public void main(String[] args) {
+
+        if (args.length != 2) {
+            StringBuffer sbuf = new StringBuffer();
+            sbuf.append("Takes two arguments:\n");
+            sbuf.append("1: the compiled strokes file, in either compiled format\n");
+            sbuf.append("2: the file to output the snapshot to");
+            System.err.println(sbuf);
+        }
+        else {
+            try {
+                StrokesIndex strokesIndex = StrokesIndex.build(new MappedStrokesStreamProvider(new File(args[0])));
+                File snapshotFile = new File(args[1]);
+                File temporaryFile = new File(snapshotFile.getPath() + ".tmp");
+                try (FileOutputStream snapshotOut = new FileOutputStream(temporaryFile)) {
+                    write(strokesIndex, snapshotOut);
+                }
+                if (snapshotFile.exists() && !snapshotFile.delete() || !temporaryFile.renameTo(snapshotFile))
+                    throw new IOException("Unable to rename " + temporaryFile + " to " + snapshotFile);
+            }
+            catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes the arrays of a snapshot, each prefixed by its length.
+     */
+    static class Output {
+
+        private final DataOutputStream out;
+
+        private Output(OutputStream out) {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        }
+
+        void writeInt(int value) throws IOException {
+            out.writeInt(value);
+        }
+
+        void writeBytes(byte[] values) throws IOException {
+
+            out.writeInt(values.length);
+            out.write(values);
+        }
+
+        void writeChars(char[] values) throws IOException {
+
+            ByteBuffer bytes = ByteBuffer.allocate(2 * values.length);
+            bytes.asCharBuffer().put(values);
+            writeValues(values.length, bytes);
+        }
+
+        void writeShorts(short[] values) throws IOException {
+
+            ByteBuffer bytes = ByteBuffer.allocate(2 * values.length);
+            bytes.asShortBuffer().put(values);
+            writeValues(values.length, bytes);
+        }
+
+        void writeInts(int[] values) throws IOException {
+
+            ByteBuffer bytes = ByteBuffer.allocate(4 * values.length);
+            bytes.asIntBuffer().put(values);
+            writeValues(values.length, bytes);
+        }
+
+        void writeFloats(float[] values) throws IOException {
+
+            ByteBuffer bytes = ByteBuffer.allocate(4 * values.length);
+            bytes.asFloatBuffer().put(values);
+            writeValues(values.length, bytes);
+        }
+
+        void writeDoubles(double[] values) throws IOException {
+
+            ByteBuffer bytes = ByteBuffer.allocate(8 * values.length);
+            bytes.asDoubleBuffer().put(values);
+            writeValues(values.length, bytes);
+        }
+
+        private void writeValues(int length, ByteBuffer bytes) throws IOException {
+
+            out.writeInt(length);
+            out.write(bytes.array());
+        }
+
+        private void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * Reads the arrays of a snapshot, copying them in bulk.
+     */
+    static class Input {
+
+        private final ByteBuffer in;
+
+        private Input(ByteBuffer buffer) {
+            in = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+            in.position(0);
+        }
+
+        int readInt() throws IOException {
+
+            checkRemaining(4);
+            return in.getInt();
+        }
+
+        byte[] readBytes() throws IOException {
+
+            byte[] values = new byte[readLength(1)];
+            in.get(values);
+            return values;
+        }
+
+        char[] readChars() throws IOException {
+
+            char[] values = new char[readLength(2)];
+            in.asCharBuffer().get(values);
+            in.position(in.position() + 2 * values.length);
+            return values;
+        }
+
+        short[] readShorts() throws IOException {
+
+            short[] values = new short[readLength(2)];
+            in.asShortBuffer().get(values);
+            in.position(in.position() + 2 * values.length);
+            return values;
+        }
+
+        int[] readInts() throws IOException {
+
+            int[] values = new int[readLength(4)];
+            in.asIntBuffer().get(values);
+            in.position(in.position() + 4 * values.length);
+            return values;
+        }
+
+        float[] readFloats() throws IOException {
+
+            float[] values = new float[readLength(4)];
+            in.asFloatBuffer().get(values);
+            in.position(in.position() + 4 * values.length);
+            return values;
+        }
+
+        double[] readDoubles() throws IOException {
+
+            double[] values = new double[readLength(8)];
+            in.asDoubleBuffer().get(values);
+            in.position(in.position() + 8 * values.length);
+            return values;
+        }
+
+        /**
+         * @return the length of the next array, checked against the bytes left
+         */
+        private int readLength(int valueSize) throws IOException {
+
+            int length = readInt();
+            if (length < 0)
+                throw new IOException("Corrupted strokes index snapshot!");
+            checkRemaining((long) length * valueSize);
+            return length;
+        }
+
+        private void checkRemaining(long size) throws IOException {
+
+            if (in.remaining() < size)
+                throw new IOException("Truncated strokes index snapshot!");
+        }
+    }
+}
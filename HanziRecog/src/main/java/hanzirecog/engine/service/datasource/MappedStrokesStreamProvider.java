@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.service.datasource;
+
+import hanzirecog.engine.RandomAccessStrokesProvider;
+import hanzirecog.engine.StrokesStreamProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A StrokesStreamProvider whose recognizer is a compiled strokes file mapped in memory.
+ * Use this guy to read a data set kept outside of the jar : the pages of the file are read
+ * by the operating system when first touched, and the file is never copied in a byte array.
+ * <p>
+ * The processes mapping the same file share its pages in the page cache, but not what is read from it :
+ * StrokesIndex.build copies the sections of a version 2 file from the mapping into the heap arrays
+ * of the index, so each process holds its own index.  Only the StrokesDataSource scanners read
+ * the records in place, with absolute gets on the mapping.
+ * <p>
+ * The mapping is read only and stays valid until garbage collected, the file being closed
+ * as soon as it is mapped.  Don't rewrite the file while it is mapped.
+ *
+ * @see RandomAccessStrokesProvider
+ */
+public class MappedStrokesStreamProvider implements RandomAccessStrokesProvider {
+
+    private final MappedByteBuffer strokesBuffer;
+
+    /**
+     * @param strokesFile the compiled strokes file, in either format of StrokesIndex.build
+     * @throws IOException on an exception opening or mapping the file
+     */
+    public MappedStrokesStreamProvider(File strokesFile) throws IOException {
+
+        try (RandomAccessFile file = new RandomAccessFile(strokesFile, "r")) {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("The compiled strokes file is too large to be mapped: " + strokesFile);
+            strokesBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * @return a view of the mapped file
+     * @see RandomAccessStrokesProvider#getStrokesBuffer()
+     */
+    public ByteBuffer getStrokesBuffer() {
+        return strokesBuffer.asReadOnlyBuffer().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * @return InputStream reading the mapped file
+     * @see StrokesStreamProvider#getStrokesStream()
+     */
+    public InputStream getStrokesStream() {
+        return new BufferInputStream(getStrokesBuffer());
+    }
+
+    /**
+     * An InputStream reading a ByteBuffer from its position to its limit.
+     */
+    static private class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+
+            if (length == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long count) {
+
+            int skipped = (int) Math.max(0, Math.min(count, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -37,7 +37,7 @@ import java.io.InputStream;
  */
 public class MemoryStrokesStreamProvider implements StrokesStreamProvider {
 
-	private byte[] strokeBytes;
+	private final byte[] strokeBytes;
 	
 	/**
 	 * Create an instance from an existing byte array of stroke recognizer
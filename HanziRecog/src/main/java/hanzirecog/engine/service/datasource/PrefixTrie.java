@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.service.datasource;
+
+import hanzirecog.engine.beans.CharacterDescriptor;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A PrefixTrie is a trie of the substroke sequences of the entries of a StrokesIndex.
+ * <p>
+ * Each node but the root stands for a substroke, given by its direction and length codes
+ * (see StrokesIndex.getDirectionCodes and getLengthCodes), so the entries starting with the same
+ * substrokes share the nodes of that prefix.  An entry ends at the node of its last substroke,
+ * the entries with no substroke at the root.
+ * <p>
+ * The nodes are numbered in depth first order, the root being node 0 : the subtree of node i is made
+ * of the nodes [i, getSubtreeEnds()[i]), so skipping a subtree is a jump.  The entries ending at node i are
+ * getEntries()[getEntryStarts()[i], getEntryStarts()[i + 1]).  Each node also has a summary of the entries
+ * of its subtree (their partition types, stroke counts and substroke counts) for a matcher to skip
+ * the subtrees without any entry it would compare.
+ * <p>
+ * A PrefixTrie is never modified once built and can be shared between threads.
+ *
+ * @see StrokesIndex#getPrefixTrie()
+ */
+public class PrefixTrie {
+
+    private final int nodeCount;
+    private final short[] directionCodes;
+    private final short[] lengthCodes;
+    private final byte[] depths;
+    private final int[] subtreeEnds;
+    private final int[] entryStarts;
+    private final int[] entries;
+    // The partition type of each of the entries, in the order of getEntries().
+    private final byte[] entryPartitionTypes;
+    // Summary of the entries of the subtree of each node.
+    private final byte[] partitionTypeMasks;
+    private final byte[] minimumStrokeCounts;
+    private final byte[] maximumStrokeCounts;
+    private final byte[] maximumSubStrokeCounts;
+
+    private PrefixTrie(int nodeCount, short[] directionCodes, short[] lengthCodes, byte[] depths, int[] subtreeEnds,
+                       int[] entryStarts, int[] entries, byte[] entryPartitionTypes, byte[] partitionTypeMasks,
+                       byte[] minimumStrokeCounts, byte[] maximumStrokeCounts, byte[] maximumSubStrokeCounts) {
+
+        this.nodeCount = nodeCount;
+        this.directionCodes = directionCodes;
+        this.lengthCodes = lengthCodes;
+        this.depths = depths;
+        this.subtreeEnds = subtreeEnds;
+        this.entryStarts = entryStarts;
+        this.entries = entries;
+        this.entryPartitionTypes = entryPartitionTypes;
+        this.partitionTypeMasks = partitionTypeMasks;
+        this.minimumStrokeCounts = minimumStrokeCounts;
+        this.maximumStrokeCounts = maximumStrokeCounts;
+        this.maximumSubStrokeCounts = maximumSubStrokeCounts;
+    }
+
+    void writeSnapshot(IndexSnapshot.Output out) throws IOException {
+
+        out.writeInt(nodeCount);
+        out.writeShorts(directionCodes);
+        out.writeShorts(lengthCodes);
+        out.writeBytes(depths);
+        out.writeInts(subtreeEnds);
+        out.writeInts(entryStarts);
+        out.writeInts(entries);
+        out.writeBytes(entryPartitionTypes);
+        out.writeBytes(partitionTypeMasks);
+        out.writeBytes(minimumStrokeCounts);
+        out.writeBytes(maximumStrokeCounts);
+        out.writeBytes(maximumSubStrokeCounts);
+    }
+
+    static PrefixTrie readSnapshot(IndexSnapshot.Input in) throws IOException {
+
+        return new PrefixTrie(in.readInt(), in.readShorts(), in.readShorts(), in.readBytes(), in.readInts(),
+                in.readInts(), in.readInts(), in.readBytes(), in.readBytes(), in.readBytes(), in.readBytes(), in.readBytes());
+    }
+
+    /**
+     * Builds the trie of all the entries of a StrokesIndex.
+     *
+     * @param strokesIndex the index
+     * @return the trie
+     */
+    static public PrefixTrie build(StrokesIndex strokesIndex) {
+
+        int size = strokesIndex.size();
+        int[] featureOffsets = strokesIndex.getFeatureOffsets();
+        byte[] subStrokeCounts = strokesIndex.getSubStrokeCounts();
+        byte[] strokeCounts = strokesIndex.getStrokeCounts();
+        short[] entryDirectionCodes = strokesIndex.getDirectionCodes();
+        short[] entryLengthCodes = strokesIndex.getLengthCodes();
+
+        byte[] partitionTypes = new byte[size];
+        for (int partitionType = 0; partitionType < StrokesIndex.PARTITION_TYPE_COUNT; partitionType++) {
+            for (int strokeCount = 1; strokeCount <= CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT; strokeCount++) {
+                int partition = StrokesIndex.getPartition(partitionType, strokeCount);
+                Arrays.fill(partitionTypes, strokesIndex.getPartitionStart(partition), strokesIndex.getPartitionEnd(partition),
+                        (byte) partitionType);
+            }
+        }
+
+        // Sorting the substroke sequences puts a sequence right before the sequences it is a prefix of,
+        // so each entry only adds the nodes of its substrokes after its common prefix with the previous one.
+        Integer[] order = new Integer[size];
+        for (int entry = 0; entry < size; entry++)
+            order[entry] = entry;
+        Arrays.sort(order, (entry1, entry2) -> {
+            int count1 = subStrokeCounts[entry1];
+            int count2 = subStrokeCounts[entry2];
+            for (int i = 0; i < Math.min(count1, count2); i++) {
+                int comparison = Integer.compare(getKey(entryDirectionCodes, entryLengthCodes, featureOffsets[entry1] + i),
+                        getKey(entryDirectionCodes, entryLengthCodes, featureOffsets[entry2] + i));
+                if (comparison != 0)
+                    return comparison;
+            }
+            return count1 != count2 ? Integer.compare(count1, count2) : Integer.compare(entry1, entry2);
+        });
+
+        int capacity = featureOffsets[size] + 1;
+        short[] directionCodes = new short[capacity];
+        short[] lengthCodes = new short[capacity];
+        byte[] depths = new byte[capacity];
+        int[] parents = new int[capacity];
+        int[] subtreeEnds = new int[capacity];
+        int[] entryCounts = new int[capacity + 1];
+        int[] entries = new int[size];
+        byte[] entryPartitionTypes = new byte[size];
+        // The nodes of the path to the last node added, by depth.
+        int[] path = new int[CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 1];
+        int pathDepth = 0;
+        int nodeCount = 1;
+        int previousEntry = -1;
+        for (int i = 0; i < size; i++) {
+            int entry = order[i];
+            int subStrokeCount = subStrokeCounts[entry];
+            int commonDepth = 0;
+            if (previousEntry >= 0) {
+                int maximumDepth = Math.min(subStrokeCount, subStrokeCounts[previousEntry]);
+                while (commonDepth < maximumDepth
+                        && getKey(entryDirectionCodes, entryLengthCodes, featureOffsets[entry] + commonDepth)
+                        == getKey(entryDirectionCodes, entryLengthCodes, featureOffsets[previousEntry] + commonDepth))
+                    commonDepth++;
+            }
+            // The subtrees of the nodes below the common prefix are complete.
+            for (; pathDepth > commonDepth; pathDepth--)
+                subtreeEnds[path[pathDepth]] = nodeCount;
+            for (; pathDepth < subStrokeCount; pathDepth++) {
+                int node = nodeCount++;
+                int offset = featureOffsets[entry] + pathDepth;
+                directionCodes[node] = entryDirectionCodes[offset];
+                lengthCodes[node] = entryLengthCodes[offset];
+                depths[node] = (byte) (pathDepth + 1);
+                parents[node] = path[pathDepth];
+                path[pathDepth + 1] = node;
+            }
+            // The nodes are created in the order of the sorted entries, so are the entries of each node.
+            entries[i] = entry;
+            entryPartitionTypes[i] = partitionTypes[entry];
+            entryCounts[path[subStrokeCount] + 1]++;
+            previousEntry = entry;
+        }
+        for (; pathDepth >= 0; pathDepth--)
+            subtreeEnds[path[pathDepth]] = nodeCount;
+        int[] entryStarts = new int[nodeCount + 1];
+        for (int node = 0; node < nodeCount; node++)
+            entryStarts[node + 1] = entryStarts[node] + entryCounts[node + 1];
+
+        // The summaries, children before their parent : a child always comes after its parent.
+        byte[] partitionTypeMasks = new byte[nodeCount];
+        byte[] minimumStrokeCounts = new byte[nodeCount];
+        byte[] maximumStrokeCounts = new byte[nodeCount];
+        byte[] maximumSubStrokeCounts = new byte[nodeCount];
+        Arrays.fill(minimumStrokeCounts, Byte.MAX_VALUE);
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            for (int i = entryStarts[node]; i < entryStarts[node + 1]; i++) {
+                partitionTypeMasks[node] |= 1 << entryPartitionTypes[i];
+                minimumStrokeCounts[node] = (byte) Math.min(minimumStrokeCounts[node], strokeCounts[entries[i]]);
+                maximumStrokeCounts[node] = (byte) Math.max(maximumStrokeCounts[node], strokeCounts[entries[i]]);
+                maximumSubStrokeCounts[node] = depths[node];
+            }
+            if (node > 0) {
+                int parent = parents[node];
+                partitionTypeMasks[parent] |= partitionTypeMasks[node];
+                minimumStrokeCounts[parent] = (byte) Math.min(minimumStrokeCounts[parent], minimumStrokeCounts[node]);
+                maximumStrokeCounts[parent] = (byte) Math.max(maximumStrokeCounts[parent], maximumStrokeCounts[node]);
+                maximumSubStrokeCounts[parent] = (byte) Math.max(maximumSubStrokeCounts[parent], maximumSubStrokeCounts[node]);
+            }
+        }
+        return new PrefixTrie(nodeCount, Arrays.copyOf(directionCodes, nodeCount), Arrays.copyOf(lengthCodes, nodeCount),
+                Arrays.copyOf(depths, nodeCount), Arrays.copyOf(subtreeEnds, nodeCount), entryStarts, entries,
+                entryPartitionTypes, partitionTypeMasks, minimumStrokeCounts, maximumStrokeCounts, maximumSubStrokeCounts);
+    }
+
+    static private int getKey(short[] directionCodes, short[] lengthCodes, int offset) {
+        return (directionCodes[offset] & 0xFFFF) << 16 | lengthCodes[offset] & 0xFFFF;
+    }
+
+    /**
+     * @return the number of nodes, the root included
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the direction code of the substroke of each node, see StrokesIndex.getDirectionCodes
+     */
+    public short[] getDirectionCodes() {
+        return directionCodes;
+    }
+
+    /**
+     * @return the length code of the substroke of each node, see StrokesIndex.getLengthCodes
+     */
+    public short[] getLengthCodes() {
+        return lengthCodes;
+    }
+
+    /**
+     * @return the depth of each node, that is the number of substrokes of its prefix
+     */
+    public byte[] getDepths() {
+        return depths;
+    }
+
+    /**
+     * @return for each node, the node after the last one of its subtree
+     */
+    public int[] getSubtreeEnds() {
+        return subtreeEnds;
+    }
+
+    public int[] getEntryStarts() {
+        return entryStarts;
+    }
+
+    /**
+     * @return the entries, grouped by the node they end at
+     */
+    public int[] getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the partition type of each of the entries of getEntries()
+     */
+    public byte[] getEntryPartitionTypes() {
+        return entryPartitionTypes;
+    }
+
+    /**
+     * @return for each node, the bit mask of the partition types of the entries of its subtree
+     */
+    public byte[] getPartitionTypeMasks() {
+        return partitionTypeMasks;
+    }
+
+    /**
+     * @return for each node, the smallest stroke count of the entries of its subtree
+     */
+    public byte[] getMinimumStrokeCounts() {
+        return minimumStrokeCounts;
+    }
+
+    /**
+     * @return for each node, the largest stroke count of the entries of its subtree
+     */
+    public byte[] getMaximumStrokeCounts() {
+        return maximumStrokeCounts;
+    }
+
+    /**
+     * @return for each node, the largest substroke count of the entries of its subtree
+     */
+    public byte[] getMaximumSubStrokeCounts() {
+        return maximumSubStrokeCounts;
+    }
+}
@@ -21,6 +21,7 @@
 
 package hanzirecog.engine.service.datasource;
 
+import hanzirecog.engine.RandomAccessStrokesProvider;
 import hanzirecog.engine.StrokesStreamProvider;
 import hanzirecog.engine.beans.CharacterDescriptor;
 import hanzirecog.engine.StrokesMatcher;
@@ -29,6 +30,7 @@ import hanzirecog.engine.util.IOUtils;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -45,6 +47,11 @@ import java.util.List;
  * This replaces the StrokesRepository in previous versions.  The StrokesRepository
  * always held all of the stroke recognizer in memory.  This abstraction gives the ability
  * to decide if the recognizer stream comes from an in-memory source or from elsewhere.
+ * <p>
+ * When the provider is a RandomAccessStrokesProvider, the scanners read the records
+ * with absolute gets on its buffer instead of streaming and skipping up to them.
+ * The matchers don't scan a StrokesDataSource but a StrokesIndex, which copies the records
+ * into heap arrays, see StrokesIndex.build.
  *
  * @see StrokesMatcher
  * @see StrokesStreamProvider
@@ -52,15 +59,18 @@ import java.util.List;
  */
 public class StrokesDataSource {
 
-    private StrokesStreamProvider streamProvider;
+    private final StrokesStreamProvider streamProvider;
+    // Null unless the provider is a RandomAccessStrokesProvider.
+    private final RandomAccessStrokesProvider randomAccessProvider;
 
     // Arrays contain the byte indexes in the stream where the characters with each number
     // of strokes begins.  i.e. traditional characters with 8 strokes begin at byte index
     // traditionalPositions[8 - 1] in the strokes stream.  We index the positions once
     // on instantiation and then can use the indices each subsequent lookup to speed things up.
-    private long[] genericPositions = new long[CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT];
-    private long[] simplifiedPositions = new long[CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT];
-    private long[] traditionalPositions = new long[CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT];
+    // The arrays are only written during construction, so a StrokesDataSource can be shared between threads.
+    private final long[] genericPositions = new long[CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT];
+    private final long[] simplifiedPositions = new long[CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT];
+    private final long[] traditionalPositions = new long[CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT];
 
     /**
      * Create a new StrokesDataSource whose strokes recognizer is derived from the
@@ -72,6 +82,7 @@ public class StrokesDataSource {
     public StrokesDataSource(StrokesStreamProvider streamProvider) throws IOException {
 
         this.streamProvider = streamProvider;
+        this.randomAccessProvider = streamProvider instanceof RandomAccessStrokesProvider ? (RandomAccessStrokesProvider) streamProvider : null;
         indexPositions();
     }
 
@@ -83,7 +94,23 @@ public class StrokesDataSource {
      */
     private void indexPositions() throws IOException {
 
+        if (randomAccessProvider != null) {
+            ByteBuffer strokesBuffer = randomAccessProvider.getStrokesBuffer();
+            if (CompiledStrokesFormat.isVersion2(strokesBuffer.getInt(0)))
+                throw new IOException("A StrokesDataSource only reads the version 1 compiled strokes, use a StrokesIndex!");
+            long bytePosition = loadPositions(this.genericPositions, strokesBuffer, 0);
+            bytePosition = loadPositions(this.simplifiedPositions, strokesBuffer, bytePosition);
+            loadPositions(this.traditionalPositions, strokesBuffer, bytePosition);
+            return;
+        }
         DataInputStream inStream = new DataInputStream(this.streamProvider.getStrokesStream());
+        // The scanners decode the records of the version 1 format, the version 2 format is read by StrokesIndex.
+        if (CompiledStrokesFormat.isVersion2(inStream.readInt())) {
+            inStream.close();
+            throw new IOException("A StrokesDataSource only reads the version 1 compiled strokes, use a StrokesIndex!");
+        }
+        inStream.close();
+        inStream = new DataInputStream(this.streamProvider.getStrokesStream());
         long bytePosition = 0;
         // This assumes the byte stream is in the correct form (generic characters, then
         // simplified, then traditional, with characters grouped in each category by their
@@ -108,6 +135,15 @@ public class StrokesDataSource {
         return bytePosition;
     }
 
+    private long loadPositions(long[] positions, ByteBuffer strokesBuffer, long bytePosition) {
+
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = bytePosition;
+            bytePosition += strokesBuffer.getInt((int) bytePosition) + 4;
+        }
+        return bytePosition;
+    }
+
     /**
      * Obtain a StrokesDataScanner instance.
      * The instance can be tuned to return recognizer faster if it can filter
@@ -136,6 +172,8 @@ public class StrokesDataSource {
     public class StrokesDataScanner {
 
         private DataInputStream strokeDataStream;
+        // Read with absolute gets at position instead of strokeDataStream, when the provider is random access.
+        private ByteBuffer strokeDataBuffer;
         private Iterator positionsIter;
         private long position;
         private long endOfStrokeCount;
@@ -171,10 +209,14 @@ public class StrokesDataSource {
                 positions.add(new Long(StrokesDataSource.this.simplifiedPositions[strokeIndex]));
             if (searchTraditional)
                 positions.add(new Long(StrokesDataSource.this.traditionalPositions[strokeIndex]));
-            InputStream strokesStream = new DataInputStream(StrokesDataSource.this.streamProvider.getStrokesStream());
-            if (null == strokesStream)
-                throw new NullPointerException("Unable to get strokes stream!");
-            strokeDataStream = new DataInputStream(strokesStream);
+            if (StrokesDataSource.this.randomAccessProvider != null)
+                strokeDataBuffer = StrokesDataSource.this.randomAccessProvider.getStrokesBuffer();
+            else {
+                InputStream strokesStream = new DataInputStream(StrokesDataSource.this.streamProvider.getStrokesStream());
+                if (null == strokesStream)
+                    throw new NullPointerException("Unable to get strokes stream!");
+                strokeDataStream = new DataInputStream(strokesStream);
+            }
             positionsIter = positions.iterator();
             position = 0;
             skipToNextTypePosition = true;
@@ -197,7 +239,7 @@ public class StrokesDataSource {
          */
         public boolean loadNextCharacterStrokeData(CharacterDescriptor descriptor) throws IOException {
 
-            if (null == this.strokeDataStream)
+            if (null == this.strokeDataStream && null == this.strokeDataBuffer)
                 // w/o an input stream there's nothing we can check
                 return false;
             if (skipToNextTypePosition) {
@@ -209,8 +251,10 @@ public class StrokesDataSource {
                     return false;
                 // Get the position of the next character type and skip to it.
                 long nextPosition = ((Long) this.positionsIter.next()).longValue();
-                long skipBytes = nextPosition - this.position;
-                skipFully(skipBytes, this.strokeDataStream);
+                if (strokeDataBuffer == null) {
+                    long skipBytes = nextPosition - this.position;
+                    skipFully(skipBytes, this.strokeDataStream);
+                }
                 position = nextPosition;
                 skipToNextTypePosition = false;
             }
@@ -222,13 +266,19 @@ public class StrokesDataSource {
                 // an int is 4 bytes, so advance the position accordingly.
 
                 // Save in the instance the position where the characters for the new stroke count end.
-                endOfStrokeCount = position + strokeDataStream.readInt();
+                if (strokeDataBuffer != null)
+                    endOfStrokeCount = position + strokeDataBuffer.getInt((int) position - 4);
+                else
+                    endOfStrokeCount = position + strokeDataStream.readInt();
                 loadNextStrokeCount = false;
             }
 
             if (position < endOfStrokeCount) {
                 // If there are more characters to read for a stroke count, then load the next character's recognizer.
-                loadNextCharacterDataFromStream(descriptor, strokeDataStream);
+                if (strokeDataBuffer != null)
+                    loadNextCharacterDataFromBuffer(descriptor, strokeDataBuffer, (int) position);
+                else
+                    loadNextCharacterDataFromStream(descriptor, strokeDataStream);
 
                 // Advance the position by the number of bytes read for the character
                 position += 4    // 2 bytes for the actual unicode character + 1 byte for the type of character + 1 byte for the number of strokes
@@ -295,6 +345,38 @@ public class StrokesDataSource {
             loadInto.setStrokeCount(strokeCount);
             loadInto.setSubStrokeCount(subStrokeCount);
         }
+
+        /**
+         * Same as loadNextCharacterDataFromStream, reading the character at the given position of the buffer.
+         *
+         * @param loadInto   the CharacterDescriptor instance to load recognizer into
+         * @param dataBuffer the buffer to load recognizer from
+         * @param position   the position of the character in the buffer
+         */
+        private void loadNextCharacterDataFromBuffer(CharacterDescriptor loadInto, ByteBuffer dataBuffer, int position) {
+
+            char character = dataBuffer.getChar(position);
+            int characterType = dataBuffer.get(position + 2);
+            int strokeCount = dataBuffer.get(position + 3);
+            position += 4;
+            int subStrokeCount = 0;
+
+            double[] directions = loadInto.getDirections();
+            double[] lengths = loadInto.getLengths();
+            for (int i = 0; i < strokeCount; i++) {
+                int numSubStrokesInStroke = dataBuffer.get(position++);
+                for (int j = 0; j < numSubStrokesInStroke; j++) {
+                    directions[subStrokeCount] = IOUtils.readDirection(dataBuffer, position);
+                    lengths[subStrokeCount] = IOUtils.readLength(dataBuffer, position + 2);
+                    position += 4;
+                    subStrokeCount++;
+                }
+            }
+            loadInto.setCharacter(new Character(character));
+            loadInto.setCharacterType(characterType);
+            loadInto.setStrokeCount(strokeCount);
+            loadInto.setSubStrokeCount(subStrokeCount);
+        }
     }
 
     /**
@@ -0,0 +1,832 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.service.datasource;
+
+import hanzirecog.engine.RandomAccessStrokesProvider;
+import hanzirecog.engine.StrokesStreamProvider;
+import hanzirecog.engine.beans.CharacterDescriptor;
+import hanzirecog.engine.util.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A StrokesIndex holds the whole stroke recognizer decoded in memory, column by column.
+ * <p>
+ * Where a StrokesDataScanner decodes the byte stream again for every lookup, the index decodes
+ * it once : the entries (one per character representation) are stored in parallel arrays,
+ * the substroke directions and lengths of all the entries being packed in two double arrays.
+ * They are kept exactly as IOUtils decodes them from the shorts of the stream, so the scores are the same
+ * as those computed on a decoded CharacterDescriptor.
+ * The substrokes of entry i are at indices [getFeatureOffsets()[i], getFeatureOffsets()[i + 1]).
+ * <p>
+ * The compiled stream stores the directions and lengths as shorts, so they only take a few hundred
+ * distinct values.  Each substroke also has the code of its direction and of its length : their index
+ * in the sorted arrays of distinct values (read the codes as unsigned, & 0xFFFF).  A matcher can then
+ * compute its scores once per distinct value instead of once per substroke.
+ * <p>
+ * For the fixed point scoring the directions and lengths are also quantized on 8 bits,
+ * see quantizeDirection and quantizeLength.
+ * <p>
+ * Each entry also has a few coarse features, cheap to compare, from which a matcher can bound its score :
+ * the shortest of its substroke lengths, and the sets of the FEATURE_BINS direction and length bins
+ * its substrokes fall in, as bit masks (see getDirectionBin and getLengthBin).
+ * <p>
+ * For the coarse pass of a matcher each entry also has a downsampled copy of its substrokes,
+ * about REDUCTION_FACTOR times shorter, see downsample, quantized like the fixed point features.
+ * The reduced substrokes of entry i are at indices [getReducedOffsets()[i], getReducedOffsets()[i + 1])
+ * of getReducedDirections() and getReducedLengths().
+ * <p>
+ * The candidate generation structures, such as the TokenIndex, the ClusterIndex or the EmbeddingIndex, and the PrefixTrie
+ * of the substroke sequences are built from the index on first use, unless the index is read from
+ * an IndexSnapshot which holds them already.
+ * <p>
+ * Entries keep the order of the compiled stream, so they are partitioned by
+ * (type, stroke count) : generic, then simplified, then traditional characters,
+ * each sorted by stroke count.  getPartitionStart/getPartitionEnd give the entries of a partition.
+ * Within a partition the entries are sorted by substroke count, as StrokesParser writes them
+ * (streams compiled before that are sorted when they are read), and getSubPartitionStart gives
+ * the entries of a substroke count window.
+ * <p>
+ * The version 2 compiled format (see CompiledStrokesFormat) stores the columns of the index as they are,
+ * so reading it copies arrays instead of decoding records.  It can also hold the character types the strokes
+ * were compiled with, which the index then keeps, see getTypeRepository.
+ * <p>
+ * An index is never modified once built and can be shared between threads.
+ * The arrays returned by the getters are the internal ones, for speed, and must not be written to.
+ *
+ * @see StrokesDataSource
+ */
+public class StrokesIndex {
+
+    // Partitions in the order they are written by StrokesParser.
+    static public final int GENERIC_PARTITION = 0;
+    static public final int SIMPLIFIED_PARTITION = 1;
+    static public final int TRADITIONAL_PARTITION = 2;
+    static public final int PARTITION_TYPE_COUNT = 3;
+    // Number of levels of the quantized directions and lengths, so that they fit in a byte.
+    static public final int QUANTIZATION_LEVELS = 256;
+    // Number of direction bins and of length bins of the coarse features, so that a set of bins fits in a byte.
+    static public final int FEATURE_BINS = 8;
+    // Number of consecutive substrokes merged into one by downsample.
+    static public final int REDUCTION_FACTOR = 3;
+    static private final int PARTITION_COUNT = PARTITION_TYPE_COUNT * CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT;
+    // Number of entries of subPartitionStarts per partition : substroke counts 0 - MAX_CHARACTER_SUB_STROKE_COUNT + 1.
+    static private final int SUB_PARTITION_STRIDE = CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 2;
+
+    private final char[] characters;
+    private final byte[] types;
+    private final byte[] strokeCounts;
+    private final byte[] subStrokeCounts;
+    private final int[] featureOffsets;
+    private final double[] directions;
+    private final double[] lengths;
+    private final short[] directionCodes;
+    private final short[] lengthCodes;
+    private final double[] directionValues;
+    private final double[] lengthValues;
+    private final byte[] quantizedDirections;
+    private final byte[] quantizedLengths;
+    private final double[] minimumLengths;
+    private final byte[] directionBins;
+    private final byte[] lengthBins;
+    private final int[] reducedOffsets;
+    private final byte[] reducedDirections;
+    private final byte[] reducedLengths;
+    // Loaded with a snapshot, or built on first use, see getTokenIndex.
+    private volatile TokenIndex tokenIndex;
+    // Loaded with a snapshot, or built on first use, see getPrefixTrie.
+    private volatile PrefixTrie prefixTrie;
+    // Loaded with a snapshot, or built by buildClusterIndex, never on first use : see buildClusterIndex.
+    private volatile ClusterIndex clusterIndex;
+    // Loaded with a snapshot, or built on first use, see getEmbeddingIndex.
+    private volatile EmbeddingIndex embeddingIndex;
+
+    // partitionStarts[getPartition(type, strokeCount)] is the first entry of the partition,
+    // the partition ends where the next one starts.
+    private final int[] partitionStarts;
+    // subPartitionStarts[partition * SUB_PARTITION_STRIDE + subStrokeCount] is the first entry
+    // of the partition with at least subStrokeCount substrokes.
+    private final int[] subPartitionStarts;
+    // The character types read with the compiled strokes, null if they had none.
+    private final CharacterTypeRepository typeRepository;
+
+    StrokesIndex(char[] characters, byte[] types, byte[] strokeCounts, byte[] subStrokeCounts,
+                         int[] featureOffsets, double[] directions, double[] lengths, int[] partitionStarts,
+                         int[] subPartitionStarts) {
+        this(characters, types, strokeCounts, subStrokeCounts, featureOffsets, directions, lengths, partitionStarts,
+                subPartitionStarts, null);
+    }
+
+    StrokesIndex(char[] characters, byte[] types, byte[] strokeCounts, byte[] subStrokeCounts,
+                         int[] featureOffsets, double[] directions, double[] lengths, int[] partitionStarts,
+                         int[] subPartitionStarts, CharacterTypeRepository typeRepository) {
+
+        this.typeRepository = typeRepository;
+        this.characters = characters;
+        this.types = types;
+        this.strokeCounts = strokeCounts;
+        this.subStrokeCounts = subStrokeCounts;
+        this.featureOffsets = featureOffsets;
+        this.directions = directions;
+        this.lengths = lengths;
+        this.directionValues = getDistinctValues(directions);
+        this.lengthValues = getDistinctValues(lengths);
+        this.directionCodes = encode(directions, directionValues);
+        this.lengthCodes = encode(lengths, lengthValues);
+        this.quantizedDirections = new byte[directions.length];
+        this.quantizedLengths = new byte[lengths.length];
+        for (int i = 0; i < directions.length; i++) {
+            quantizedDirections[i] = (byte) quantizeDirection(directions[i]);
+            quantizedLengths[i] = (byte) quantizeLength(lengths[i]);
+        }
+        this.partitionStarts = partitionStarts;
+        this.subPartitionStarts = subPartitionStarts;
+        this.minimumLengths = new double[characters.length];
+        this.directionBins = new byte[characters.length];
+        this.lengthBins = new byte[characters.length];
+        for (int entry = 0; entry < characters.length; entry++) {
+            double minimumLength = Double.POSITIVE_INFINITY;
+            int entryDirectionBins = 0;
+            int entryLengthBins = 0;
+            for (int i = featureOffsets[entry]; i < featureOffsets[entry + 1]; i++) {
+                minimumLength = Math.min(minimumLength, lengths[i]);
+                entryDirectionBins |= 1 << getDirectionBin(directions[i]);
+                entryLengthBins |= 1 << getLengthBin(lengths[i]);
+            }
+            minimumLengths[entry] = minimumLength;
+            directionBins[entry] = (byte) entryDirectionBins;
+            lengthBins[entry] = (byte) entryLengthBins;
+        }
+
+        this.reducedOffsets = new int[characters.length + 1];
+        for (int entry = 0; entry < characters.length; entry++)
+            reducedOffsets[entry + 1] = reducedOffsets[entry] + getReducedCount(subStrokeCounts[entry]);
+        this.reducedDirections = new byte[reducedOffsets[characters.length]];
+        this.reducedLengths = new byte[reducedOffsets[characters.length]];
+        double[] entryDirections = new double[CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT];
+        double[] entryLengths = new double[CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT];
+        double[] entryReducedDirections = new double[CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT];
+        double[] entryReducedLengths = new double[CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT];
+        for (int entry = 0; entry < characters.length; entry++) {
+            for (int i = 0; i < subStrokeCounts[entry]; i++) {
+                entryDirections[i] = directions[featureOffsets[entry] + i];
+                entryLengths[i] = lengths[featureOffsets[entry] + i];
+            }
+            int reducedCount = downsample(entryDirections, entryLengths, subStrokeCounts[entry], entryReducedDirections, entryReducedLengths);
+            for (int i = 0; i < reducedCount; i++) {
+                reducedDirections[reducedOffsets[entry] + i] = (byte) quantizeDirection(entryReducedDirections[i]);
+                reducedLengths[reducedOffsets[entry] + i] = (byte) quantizeLength(entryReducedLengths[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads an index written by writeSnapshot, see IndexSnapshot.
+     */
+    private StrokesIndex(IndexSnapshot.Input in) throws IOException {
+
+        this.characters = in.readChars();
+        this.types = in.readBytes();
+        this.strokeCounts = in.readBytes();
+        this.subStrokeCounts = in.readBytes();
+        this.featureOffsets = in.readInts();
+        this.directions = in.readDoubles();
+        this.lengths = in.readDoubles();
+        this.directionCodes = in.readShorts();
+        this.lengthCodes = in.readShorts();
+        this.directionValues = in.readDoubles();
+        this.lengthValues = in.readDoubles();
+        this.quantizedDirections = in.readBytes();
+        this.quantizedLengths = in.readBytes();
+        this.minimumLengths = in.readDoubles();
+        this.directionBins = in.readBytes();
+        this.lengthBins = in.readBytes();
+        this.reducedOffsets = in.readInts();
+        this.reducedDirections = in.readBytes();
+        this.reducedLengths = in.readBytes();
+        this.partitionStarts = in.readInts();
+        this.subPartitionStarts = in.readInts();
+        if (in.readInt() != 0) {
+            byte[] typeTable = in.readBytes();
+            char[] alternateTable = in.readChars();
+            if (typeTable.length != CharacterTypeRepository.TABLE_SIZE || alternateTable.length != CharacterTypeRepository.TABLE_SIZE)
+                throw new IOException("Corrupted strokes index snapshot!");
+            this.typeRepository = new CharacterTypeRepository(typeTable, alternateTable);
+        }
+        else
+            this.typeRepository = null;
+        if (partitionStarts.length != PARTITION_COUNT + 1 || subPartitionStarts.length != PARTITION_COUNT * SUB_PARTITION_STRIDE
+                || featureOffsets.length != characters.length + 1 || reducedOffsets.length != characters.length + 1)
+            throw new IOException("Corrupted strokes index snapshot!");
+    }
+
+    /**
+     * Writes the index and all its candidate generation structures, building those not built yet.
+     */
+    void writeSnapshot(IndexSnapshot.Output out) throws IOException {
+
+        out.writeChars(characters);
+        out.writeBytes(types);
+        out.writeBytes(strokeCounts);
+        out.writeBytes(subStrokeCounts);
+        out.writeInts(featureOffsets);
+        out.writeDoubles(directions);
+        out.writeDoubles(lengths);
+        out.writeShorts(directionCodes);
+        out.writeShorts(lengthCodes);
+        out.writeDoubles(directionValues);
+        out.writeDoubles(lengthValues);
+        out.writeBytes(quantizedDirections);
+        out.writeBytes(quantizedLengths);
+        out.writeDoubles(minimumLengths);
+        out.writeBytes(directionBins);
+        out.writeBytes(lengthBins);
+        out.writeInts(reducedOffsets);
+        out.writeBytes(reducedDirections);
+        out.writeBytes(reducedLengths);
+        out.writeInts(partitionStarts);
+        out.writeInts(subPartitionStarts);
+        out.writeInt(typeRepository != null ? 1 : 0);
+        if (typeRepository != null) {
+            out.writeBytes(typeRepository.getTypeTable());
+            out.writeChars(typeRepository.getAlternateTable());
+        }
+        getTokenIndex().writeSnapshot(out);
+        getPrefixTrie().writeSnapshot(out);
+        buildClusterIndex().writeSnapshot(out);
+        getEmbeddingIndex().writeSnapshot(out);
+    }
+
+    static StrokesIndex readSnapshot(IndexSnapshot.Input in) throws IOException {
+
+        StrokesIndex strokesIndex = new StrokesIndex(in);
+        strokesIndex.tokenIndex = TokenIndex.readSnapshot(in);
+        strokesIndex.prefixTrie = PrefixTrie.readSnapshot(in);
+        strokesIndex.clusterIndex = ClusterIndex.readSnapshot(in);
+        strokesIndex.embeddingIndex = EmbeddingIndex.readSnapshot(in);
+        return strokesIndex;
+    }
+
+    /**
+     * @return the distinct values of the given array, sorted
+     */
+    static private double[] getDistinctValues(double[] values) {
+
+        double[] sortedValues = values.clone();
+        Arrays.sort(sortedValues);
+        int distinctCount = 0;
+        for (int i = 0; i < sortedValues.length; i++) {
+            if (distinctCount == 0 || Double.compare(sortedValues[i], sortedValues[distinctCount - 1]) != 0)
+                sortedValues[distinctCount++] = sortedValues[i];
+        }
+        if (distinctCount > Character.MAX_VALUE + 1)
+            throw new IllegalStateException("Too many distinct feature values to encode them : " + distinctCount + "!");
+        return Arrays.copyOf(sortedValues, distinctCount);
+    }
+
+    /**
+     * @param direction a direction in radians, 0 - 2 Pi
+     * @return the quantized direction, 0 - QUANTIZATION_LEVELS - 1, a full turn being QUANTIZATION_LEVELS
+     */
+    static public int quantizeDirection(double direction) {
+        return (int) Math.round(direction * QUANTIZATION_LEVELS / (2 * Math.PI)) & (QUANTIZATION_LEVELS - 1);
+    }
+
+    /**
+     * @param quantizedDirection a quantized direction
+     * @return the direction in radians
+     */
+    static public double getQuantizedDirectionValue(int quantizedDirection) {
+        return quantizedDirection * 2 * Math.PI / QUANTIZATION_LEVELS;
+    }
+
+    /**
+     * @param length a length, 0 - 1
+     * @return the quantized length, 0 - QUANTIZATION_LEVELS - 1
+     */
+    static public int quantizeLength(double length) {
+        return (int) Math.max(0, Math.min(QUANTIZATION_LEVELS - 1, Math.round(length * (QUANTIZATION_LEVELS - 1))));
+    }
+
+    /**
+     * @param quantizedLength a quantized length
+     * @return the length
+     */
+    static public double getQuantizedLengthValue(int quantizedLength) {
+        return (double) quantizedLength / (QUANTIZATION_LEVELS - 1);
+    }
+
+    /**
+     * @param direction a direction in radians, 0 - 2 Pi
+     * @return its bin, 0 - FEATURE_BINS - 1, each bin covering an equal angle
+     */
+    static public int getDirectionBin(double direction) {
+        return Math.max(0, Math.min(FEATURE_BINS - 1, (int) (direction * FEATURE_BINS / (2 * Math.PI))));
+    }
+
+    /**
+     * @param length a length, 0 - 1
+     * @return its bin, 0 - FEATURE_BINS - 1, each bin covering an equal length
+     */
+    static public int getLengthBin(double length) {
+        return Math.max(0, Math.min(FEATURE_BINS - 1, (int) (length * FEATURE_BINS)));
+    }
+
+    /**
+     * @param subStrokeCount a number of substrokes
+     * @return the number of substrokes downsample reduces them to
+     */
+    static public int getReducedCount(int subStrokeCount) {
+        return (subStrokeCount + REDUCTION_FACTOR - 1) / REDUCTION_FACTOR;
+    }
+
+    /**
+     * Downsamples a sequence of substrokes : each group of REDUCTION_FACTOR consecutive substrokes
+     * (fewer for the last group) is replaced by the sum of their vectors, divided by REDUCTION_FACTOR
+     * so that the lengths stay within 0 - 1.
+     *
+     * @param directions        the directions of the substrokes, in radians
+     * @param lengths           the lengths of the substrokes
+     * @param subStrokeCount    the number of substrokes
+     * @param reducedDirections receives the directions of the reduced substrokes, 0 - 2 Pi
+     * @param reducedLengths    receives the lengths of the reduced substrokes
+     * @return the number of reduced substrokes, getReducedCount(subStrokeCount)
+     */
+    static public int downsample(double[] directions, double[] lengths, int subStrokeCount,
+                                 double[] reducedDirections, double[] reducedLengths) {
+
+        int reducedCount = 0;
+        for (int from = 0; from < subStrokeCount; from += REDUCTION_FACTOR) {
+            double x = 0;
+            double y = 0;
+            for (int i = from; i < Math.min(from + REDUCTION_FACTOR, subStrokeCount); i++) {
+                x += Math.cos(directions[i]) * lengths[i];
+                y += Math.sin(directions[i]) * lengths[i];
+            }
+            double direction = Math.atan2(y, x);
+            reducedDirections[reducedCount] = direction < 0 ? direction + 2 * Math.PI : direction;
+            reducedLengths[reducedCount] = Math.sqrt(x * x + y * y) / REDUCTION_FACTOR;
+            reducedCount++;
+        }
+        return reducedCount;
+    }
+
+    /**
+     * @return the index of each value in the distinct values
+     */
+    static private short[] encode(double[] values, double[] distinctValues) {
+
+        short[] codes = new short[values.length];
+        for (int i = 0; i < values.length; i++)
+            codes[i] = (short) Arrays.binarySearch(distinctValues, values[i]);
+        return codes;
+    }
+
+    /**
+     * Decodes the whole compiled strokes stream served by the given provider, in the version 1 format
+     * written by StrokesParser.writeCompiledOutput or in the version 2 format of CompiledStrokesFormat.
+     * A version 2 stream served by a RandomAccessStrokesProvider is copied from its buffer section by section,
+     * without reading the whole stream in a byte array first.  Either way, the arrays of the index are on the heap.
+     *
+     * @param streamProvider the provider of the compiled strokes, as written by StrokesParser
+     * @return the index
+     * @throws IOException on an exception reading from the strokes stream
+     */
+    static public StrokesIndex build(StrokesStreamProvider streamProvider) throws IOException {
+
+        if (streamProvider instanceof RandomAccessStrokesProvider) {
+            ByteBuffer strokesBuffer = ((RandomAccessStrokesProvider) streamProvider).getStrokesBuffer();
+            if (strokesBuffer.limit() >= 4 && CompiledStrokesFormat.isVersion2(strokesBuffer.getInt(0)))
+                return CompiledStrokesFormat.read(strokesBuffer);
+        }
+        try (DataInputStream inStream = new DataInputStream(new BufferedInputStream(streamProvider.getStrokesStream()))) {
+            inStream.mark(4);
+            int firstInt = inStream.readInt();
+            inStream.reset();
+            if (CompiledStrokesFormat.isVersion2(firstInt))
+                return CompiledStrokesFormat.read(ByteBuffer.wrap(readFully(inStream)));
+            return buildFromVersion1(inStream);
+        }
+    }
+
+    static private byte[] readFully(InputStream in) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int bytesRead = in.read(buffer); bytesRead > -1; bytesRead = in.read(buffer))
+            bytes.write(buffer, 0, bytesRead);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a version 1 stream, record by record.
+     */
+    static private StrokesIndex buildFromVersion1(DataInputStream inStream) throws IOException {
+
+        Builder builder = new Builder();
+        // The stream holds the generic, then simplified, then traditional characters,
+        // grouped by stroke count, each group being prefixed by its size in bytes.
+        for (int partitionType = 0; partitionType < PARTITION_TYPE_COUNT; partitionType++) {
+            for (int strokeCount = 1; strokeCount <= CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT; strokeCount++) {
+                builder.startPartition(getPartition(partitionType, strokeCount));
+                int bytesForSeries = inStream.readInt();
+                while (bytesForSeries > 0)
+                    bytesForSeries -= builder.readEntry(inStream);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param partitionType one of GENERIC_PARTITION, SIMPLIFIED_PARTITION, TRADITIONAL_PARTITION
+     * @param strokeCount   the stroke count, 1 - MAX_CHARACTER_STROKE_COUNT
+     * @return the index of the partition
+     */
+    static public int getPartition(int partitionType, int strokeCount) {
+        return partitionType * CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT + strokeCount - 1;
+    }
+
+    public int getPartitionStart(int partition) {
+        return partitionStarts[partition];
+    }
+
+    public int getPartitionEnd(int partition) {
+        return partitionStarts[partition + 1];
+    }
+
+    /**
+     * The entries of a partition with a substroke count within [minimum, maximum] are the entries
+     * [getSubPartitionStart(partition, minimum), getSubPartitionStart(partition, maximum + 1)).
+     *
+     * @param partition      the index of the partition
+     * @param subStrokeCount a substroke count, clamped to 0 - MAX_CHARACTER_SUB_STROKE_COUNT + 1
+     * @return the first entry of the partition with at least subStrokeCount substrokes, the end of the partition if there is none
+     */
+    public int getSubPartitionStart(int partition, int subStrokeCount) {
+
+        int clampedCount = Math.max(0, Math.min(SUB_PARTITION_STRIDE - 1, subStrokeCount));
+        return subPartitionStarts[partition * SUB_PARTITION_STRIDE + clampedCount];
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return characters.length;
+    }
+
+    /**
+     * @return the character types read with the compiled strokes, null if they had none
+     * (the version 1 format never has them, see CompiledStrokesFormat)
+     */
+    public CharacterTypeRepository getTypeRepository() {
+        return typeRepository;
+    }
+
+    public char[] getCharacters() {
+        return characters;
+    }
+
+    public byte[] getTypes() {
+        return types;
+    }
+
+    public byte[] getStrokeCounts() {
+        return strokeCounts;
+    }
+
+    public byte[] getSubStrokeCounts() {
+        return subStrokeCounts;
+    }
+
+    public int[] getFeatureOffsets() {
+        return featureOffsets;
+    }
+
+    public double[] getDirections() {
+        return directions;
+    }
+
+    public double[] getLengths() {
+        return lengths;
+    }
+
+    /**
+     * @return for each substroke, the index of its direction in getDirectionValues(), to read as unsigned
+     */
+    public short[] getDirectionCodes() {
+        return directionCodes;
+    }
+
+    /**
+     * @return for each substroke, the index of its length in getLengthValues(), to read as unsigned
+     */
+    public short[] getLengthCodes() {
+        return lengthCodes;
+    }
+
+    /**
+     * @return the distinct substroke directions, sorted
+     */
+    public double[] getDirectionValues() {
+        return directionValues;
+    }
+
+    /**
+     * @return the distinct substroke lengths, sorted
+     */
+    public double[] getLengthValues() {
+        return lengthValues;
+    }
+
+    /**
+     * @return for each substroke, its quantized direction, to read as unsigned
+     */
+    public byte[] getQuantizedDirections() {
+        return quantizedDirections;
+    }
+
+    /**
+     * @return for each substroke, its quantized length, to read as unsigned
+     */
+    public byte[] getQuantizedLengths() {
+        return quantizedLengths;
+    }
+
+    /**
+     * @return for each entry, the shortest of its substroke lengths, positive infinity if it has no substroke
+     */
+    public double[] getMinimumLengths() {
+        return minimumLengths;
+    }
+
+    /**
+     * @return for each entry, bit b is set if one of its substrokes has a direction in bin b, to read as unsigned
+     */
+    public byte[] getDirectionBins() {
+        return directionBins;
+    }
+
+    /**
+     * @return for each entry, bit b is set if one of its substrokes has a length in bin b, to read as unsigned
+     */
+    public byte[] getLengthBins() {
+        return lengthBins;
+    }
+
+    public int[] getReducedOffsets() {
+        return reducedOffsets;
+    }
+
+    /**
+     * @return for each reduced substroke, its quantized direction, to read as unsigned
+     */
+    public byte[] getReducedDirections() {
+        return reducedDirections;
+    }
+
+    /**
+     * @return for each reduced substroke, its quantized length, to read as unsigned
+     */
+    public byte[] getReducedLengths() {
+        return reducedLengths;
+    }
+
+    /**
+     * The Recognizer calls this when its matchers are set to a strategy reading it, so that no lookup builds it.
+     *
+     * @return the inverted index of the entries by substroke token, built on the first call unless loaded with a snapshot
+     */
+    public TokenIndex getTokenIndex() {
+
+        TokenIndex result = tokenIndex;
+        if (result == null) {
+            synchronized (this) {
+                result = tokenIndex;
+                if (result == null) {
+                    result = TokenIndex.build(this);
+                    tokenIndex = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The Recognizer calls this when its matchers are set to the PREFIX_TRIE scan order, so that no lookup builds it.
+     *
+     * @return the trie of the substroke sequences of the entries, built on the first call unless loaded with a snapshot
+     */
+    public PrefixTrie getPrefixTrie() {
+
+        PrefixTrie result = prefixTrie;
+        if (result == null) {
+            synchronized (this) {
+                result = prefixTrie;
+                if (result == null) {
+                    result = PrefixTrie.build(this);
+                    prefixTrie = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the clusters of similar entries of each partition, null unless loaded with a snapshot or built by buildClusterIndex
+     */
+    public ClusterIndex getClusterIndex() {
+        return clusterIndex;
+    }
+
+    /**
+     * Builds the ClusterIndex unless it was loaded with a snapshot or already built.  Building it scores
+     * each entry against every other entry of its partition, O(n^2) in the partition sizes, and takes seconds :
+     * the Recognizer calls this when its matchers are set to the CLUSTERS strategy, and a lookup never does.
+     *
+     * @return the clusters of similar entries of each partition
+     */
+    public ClusterIndex buildClusterIndex() {
+
+        ClusterIndex result = clusterIndex;
+        if (result == null) {
+            synchronized (this) {
+                result = clusterIndex;
+                if (result == null) {
+                    result = ClusterIndex.build(this);
+                    clusterIndex = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The Recognizer calls this when its matchers are set to the LSH strategy, so that no lookup builds it.
+     *
+     * @return the locality sensitive hash tables of the embeddings of the entries, built on the first call unless loaded with a snapshot
+     */
+    public EmbeddingIndex getEmbeddingIndex() {
+
+        EmbeddingIndex result = embeddingIndex;
+        if (result == null) {
+            synchronized (this) {
+                result = embeddingIndex;
+                if (result == null) {
+                    result = EmbeddingIndex.build(this);
+                    embeddingIndex = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copies an entry into a CharacterDescriptor, for the callers that need one.
+     *
+     * @param entry    the index of the entry
+     * @param loadInto the descriptor to load the entry into
+     */
+    public void loadDescriptor(int entry, CharacterDescriptor loadInto) {
+
+        loadInto.setCharacter(characters[entry]);
+        loadInto.setCharacterType(types[entry]);
+        loadInto.setStrokeCount(strokeCounts[entry]);
+        loadInto.setSubStrokeCount(subStrokeCounts[entry]);
+        int offset = featureOffsets[entry];
+        for (int i = 0; i < subStrokeCounts[entry]; i++) {
+            loadInto.getDirections()[i] = directions[offset + i];
+            loadInto.getLengths()[i] = lengths[offset + i];
+        }
+    }
+
+    /**
+     * Accumulates the decoded entries in growable arrays.
+     */
+    static private class Builder {
+
+        private int size;
+        private int featureSize;
+        private char[] characters = new char[1024];
+        private byte[] types = new byte[1024];
+        private byte[] strokeCounts = new byte[1024];
+        private byte[] subStrokeCounts = new byte[1024];
+        private int[] featureOffsets = new int[1025];
+        private double[] directions = new double[8192];
+        private double[] lengths = new double[8192];
+        private int[] partitionStarts = new int[PARTITION_COUNT + 1];
+
+        private void startPartition(int partition) {
+            partitionStarts[partition] = size;
+        }
+
+        /**
+         * Decodes the next record of the stream.
+         *
+         * @return the number of bytes read
+         */
+        private int readEntry(DataInputStream inStream) throws IOException {
+
+            if (size == characters.length) {
+                int capacity = 2 * size;
+                characters = Arrays.copyOf(characters, capacity);
+                types = Arrays.copyOf(types, capacity);
+                strokeCounts = Arrays.copyOf(strokeCounts, capacity);
+                subStrokeCounts = Arrays.copyOf(subStrokeCounts, capacity);
+                featureOffsets = Arrays.copyOf(featureOffsets, capacity + 1);
+            }
+
+            // Format is [character][type][stroke count]([sub stroke count]([direction][length])+)+
+            characters[size] = IOUtils.readCharacter(inStream);
+            types[size] = (byte) IOUtils.readCharacterType(inStream);
+            int strokeCount = IOUtils.readStrokeCount(inStream);
+            strokeCounts[size] = (byte) strokeCount;
+            int subStrokeCount = 0;
+            for (int i = 0; i < strokeCount; i++) {
+                int numSubStrokesInStroke = IOUtils.readSubStrokeCount(inStream);
+                for (int j = 0; j < numSubStrokesInStroke; j++) {
+                    if (featureSize == directions.length) {
+                        directions = Arrays.copyOf(directions, 2 * featureSize);
+                        lengths = Arrays.copyOf(lengths, 2 * featureSize);
+                    }
+                    directions[featureSize] = IOUtils.readDirection(inStream);
+                    lengths[featureSize] = IOUtils.readLength(inStream);
+                    featureSize++;
+                    subStrokeCount++;
+                }
+            }
+            subStrokeCounts[size] = (byte) subStrokeCount;
+            size++;
+            featureOffsets[size] = featureSize;
+            // 2 bytes for the character + 1 for the type + 1 for the stroke count,
+            // 1 per stroke for its substroke count, 4 per substroke for the direction and length.
+            return 4 + strokeCount + 4 * subStrokeCount;
+        }
+
+        private StrokesIndex build() {
+
+            partitionStarts[PARTITION_COUNT] = size;
+
+            // Sort the entries of each partition by substroke count (counting sort, so the sort is stable
+            // and keeps the order of an already sorted stream), and note where each substroke count starts.
+            int[] order = new int[size];
+            int[] subPartitionStarts = new int[PARTITION_COUNT * SUB_PARTITION_STRIDE];
+            for (int partition = 0; partition < PARTITION_COUNT; partition++) {
+                int base = partition * SUB_PARTITION_STRIDE;
+                int start = partitionStarts[partition];
+                int end = partitionStarts[partition + 1];
+                for (int entry = start; entry < end; entry++)
+                    subPartitionStarts[base + subStrokeCounts[entry] + 1]++;
+                subPartitionStarts[base] = start;
+                for (int i = 1; i < SUB_PARTITION_STRIDE; i++)
+                    subPartitionStarts[base + i] += subPartitionStarts[base + i - 1];
+                int[] positions = Arrays.copyOfRange(subPartitionStarts, base, base + SUB_PARTITION_STRIDE);
+                for (int entry = start; entry < end; entry++)
+                    order[positions[subStrokeCounts[entry]]++] = entry;
+            }
+
+            char[] sortedCharacters = new char[size];
+            byte[] sortedTypes = new byte[size];
+            byte[] sortedStrokeCounts = new byte[size];
+            byte[] sortedSubStrokeCounts = new byte[size];
+            int[] sortedFeatureOffsets = new int[size + 1];
+            double[] sortedDirections = new double[featureSize];
+            double[] sortedLengths = new double[featureSize];
+            for (int i = 0; i < size; i++) {
+                int entry = order[i];
+                sortedCharacters[i] = characters[entry];
+                sortedTypes[i] = types[entry];
+                sortedStrokeCounts[i] = strokeCounts[entry];
+                sortedSubStrokeCounts[i] = subStrokeCounts[entry];
+                int featureCount = featureOffsets[entry + 1] - featureOffsets[entry];
+                System.arraycopy(directions, featureOffsets[entry], sortedDirections, sortedFeatureOffsets[i], featureCount);
+                System.arraycopy(lengths, featureOffsets[entry], sortedLengths, sortedFeatureOffsets[i], featureCount);
+                sortedFeatureOffsets[i + 1] = sortedFeatureOffsets[i] + featureCount;
+            }
+            return new StrokesIndex(sortedCharacters, sortedTypes, sortedStrokeCounts, sortedSubStrokeCounts,
+                    sortedFeatureOffsets, sortedDirections, sortedLengths, partitionStarts, subPartitionStarts);
+        }
+    }
+}
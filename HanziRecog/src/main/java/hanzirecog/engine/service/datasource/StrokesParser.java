@@ -22,6 +22,7 @@
 package hanzirecog.engine.service.datasource;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.FileInputStream;
@@ -29,7 +30,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -53,17 +61,23 @@ import hanzirecog.engine.util.IOUtils;
  * <p>
  * HanziLookup's various constructors determine which method of reading
  * in the recognizer is used.
+ * <p>
+ * The constructors parse the source line by line with regular expressions.  The compile methods
+ * scan the bytes of the source by hand instead, accepting the same lines, and can split the lines
+ * in ranges parsed in parallel : that's the way to compile large sources.
  *
  * @see BaseParser
  */
 public class StrokesParser extends BaseParser {
 
-    private ByteArrayOutputStream[] genericByteStreams;
-    private ByteArrayOutputStream[] simplifiedByteStreams;
-    private ByteArrayOutputStream[] traditionalByteStreams;
-    private DataOutputStream[] genericOutStreams;
-    private DataOutputStream[] simplifiedOutStreams;
-    private DataOutputStream[] traditionalOutStreams;
+    // The records of each type, by [stroke count - 1][substroke count], so that the records
+    // of a stroke count are written grouped by substroke count.  The streams are created on first use.
+    private ByteArrayOutputStream[][] genericByteStreams;
+    private ByteArrayOutputStream[][] simplifiedByteStreams;
+    private ByteArrayOutputStream[][] traditionalByteStreams;
+    private DataOutputStream[][] genericOutStreams;
+    private DataOutputStream[][] simplifiedOutStreams;
+    private DataOutputStream[][] traditionalOutStreams;
 
     // We need a CharacterTypeRepository to look up types of characters to write into our byte recognizer array.
     private CharacterTypeRepository typeRepository;
@@ -86,6 +100,21 @@ public class StrokesParser extends BaseParser {
     // subStrokePattern groups the direction and length of a SubStroke.
     private Pattern subStrokePattern = Pattern.compile("^\\s*\\((\\d+(\\.\\d{1,10})?)\\s*,\\s*(\\d+(\\.\\d{1,10})?)\\)\\s*$");
 
+    // The most digits of the fraction of a number, as subStrokePattern.
+    static private final int MAX_FRACTION_DIGITS = 10;
+    // A number of at most this many digits is below 2^53 : it is exact as a double, and so is its division by a power of 10.
+    static private final int MAX_EXACT_DIGITS = 15;
+    static private final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10};
+    // compile splits the source in about this many ranges of lines per thread, each range being at least MIN_RANGE_SIZE bytes.
+    static private final int RANGES_PER_THREAD = 4;
+    static private final int MIN_RANGE_SIZE = 1 << 16;
+
+    // The lines that couldn't be parsed.  Those of the ranges of compile are reported once the ranges are merged,
+    // so in the order of the source.
+    private List<LineError> lineErrors;
+    // The position of the byte after the number read by scanNumber, and its value.
+    private int numberEnd;
+    private double numberValue;
 
     /**
      * Build a new parser.
@@ -114,6 +143,15 @@ public class StrokesParser extends BaseParser {
         initStrokes(strokesIn);
     }
 
+    /**
+     * Build a new parser with no record, for compile.
+     */
+    private StrokesParser(CharacterTypeRepository typeRepository) {
+
+        this.typeRepository = typeRepository;
+        prepareStrokeBytes();
+    }
+
     private void initStrokes(InputStream strokesIn) throws IOException {
 
         try {
@@ -133,6 +171,10 @@ public class StrokesParser extends BaseParser {
      * Nothing should have already have been written to the stream, and it will
      * be closed once this method returns.  The recognizer can subsequently be read
      * in using the InputStream constructor.
+     * <p>
+     * Within each stroke count the records are sorted by substroke count, fewest substrokes first
+     * (records with the same substroke count keep the order of the source file).
+     * This lets a reader find the records of a substroke count window without decoding the others.
      */
     public void writeCompiledOutput(OutputStream out) throws IOException {
 
@@ -141,9 +183,9 @@ public class StrokesParser extends BaseParser {
         byte[][] traditionalBytes = new byte[CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT][];
 
         for (int i = 0; i < CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT; i++) {
-            genericBytes[i] = genericByteStreams[i].toByteArray();
-            simplifiedBytes[i] = simplifiedByteStreams[i].toByteArray();
-            traditionalBytes[i] = traditionalByteStreams[i].toByteArray();
+            genericBytes[i] = concatenate(genericByteStreams[i]);
+            simplifiedBytes[i] = concatenate(simplifiedByteStreams[i]);
+            traditionalBytes[i] = concatenate(traditionalByteStreams[i]);
         }
 
         DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(out));
@@ -155,6 +197,19 @@ public class StrokesParser extends BaseParser {
         dataOut.close();
     }
 
+    /**
+     * @return the records of a stroke count, in substroke count order
+     */
+    private byte[] concatenate(ByteArrayOutputStream[] bySubStrokeCount) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (ByteArrayOutputStream subStrokeCountBytes : bySubStrokeCount) {
+            if (subStrokeCountBytes != null)
+                subStrokeCountBytes.writeTo(bytes);
+        }
+        return bytes.toByteArray();
+    }
+
     private void writeStrokes(byte[][] bytesForSeries, DataOutputStream dataOut) throws IOException {
 
         for (int strokeCount = 0; strokeCount < CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT; strokeCount++) {
@@ -169,21 +224,27 @@ public class StrokesParser extends BaseParser {
 
     private void prepareStrokeBytes() {
 
-        genericByteStreams = new ByteArrayOutputStream[CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT];
-        genericOutStreams = new DataOutputStream[CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT];
-        simplifiedByteStreams = new ByteArrayOutputStream[CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT];
-        simplifiedOutStreams = new DataOutputStream[CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT];
-        traditionalByteStreams = new ByteArrayOutputStream[CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT];
-        traditionalOutStreams = new DataOutputStream[CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT];
+        int strokeCounts = CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT;
+        int subStrokeCounts = CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 1;
+        genericByteStreams = new ByteArrayOutputStream[strokeCounts][subStrokeCounts];
+        genericOutStreams = new DataOutputStream[strokeCounts][subStrokeCounts];
+        simplifiedByteStreams = new ByteArrayOutputStream[strokeCounts][subStrokeCounts];
+        simplifiedOutStreams = new DataOutputStream[strokeCounts][subStrokeCounts];
+        traditionalByteStreams = new ByteArrayOutputStream[strokeCounts][subStrokeCounts];
+        traditionalOutStreams = new DataOutputStream[strokeCounts][subStrokeCounts];
+    }
 
-        for (int i = 0; i < CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT; i++) {
-            genericByteStreams[i] = new ByteArrayOutputStream();
-            genericOutStreams[i] = new DataOutputStream(genericByteStreams[i]);
-            simplifiedByteStreams[i] = new ByteArrayOutputStream();
-            simplifiedOutStreams[i] = new DataOutputStream(simplifiedByteStreams[i]);
-            traditionalByteStreams[i] = new ByteArrayOutputStream();
-            traditionalOutStreams[i] = new DataOutputStream(traditionalByteStreams[i]);
+    /**
+     * @return the stream of the records with the given stroke and substroke counts, created if needed
+     */
+    private DataOutputStream getOutStream(ByteArrayOutputStream[][] byteStreams, DataOutputStream[][] outStreams,
+                                          int strokeCount, int subStrokeCount) {
+
+        if (outStreams[strokeCount - 1][subStrokeCount] == null) {
+            byteStreams[strokeCount - 1][subStrokeCount] = new ByteArrayOutputStream();
+            outStreams[strokeCount - 1][subStrokeCount] = new DataOutputStream(byteStreams[strokeCount - 1][subStrokeCount]);
         }
+        return outStreams[strokeCount - 1][subStrokeCount];
     }
 
     /**
@@ -229,27 +290,9 @@ public class StrokesParser extends BaseParser {
                     parsedOk = false;
             }
 
-            if (parsedOk) {
-                // Get the type of the character from the CharacterTypeRepository.
-                // Type is used to filter when only traditional or only simplified characters are wanted.
-                CharacterType type = typeRepository.getType(character);
-                if (type.isNotFound()) {
-                    // If type == -1, then the type wasn't found for this character in the type repository.
-                    // We just set it so that the character can be found by either a simplified or traditional search.
-                    // TODO Will want to add all characters to the type file, or find a better already existing source for this recognizer.
-                    type = CharacterType.GENERIC_TYPE;
-                }
-
-                DataOutputStream dataOut;
-                if (type.isTraditional())
-                    dataOut = traditionalOutStreams[strokeCount - 1];
-                else if (type.isSimplified())
-                    dataOut = simplifiedOutStreams[strokeCount - 1];
-                else
-                    dataOut = genericOutStreams[strokeCount - 1];
-
-                // Write the parsed recognizer out to the byte array, return true if the writing was successful.
-                writeStrokeData(dataOut, character, type, strokeCount, subStrokeIndex);
+            // A character has at least one stroke.
+            if (parsedOk && strokeCount > 0) {
+                writeEntry(character, strokeCount, subStrokeIndex);
                 return true;
             }
         }
@@ -257,6 +300,33 @@ public class StrokesParser extends BaseParser {
         return false;
     }
 
+    /**
+     * Writes a parsed entry, its substrokes being in the reusable arrays, to the stream of its type, stroke count and substroke count.
+     */
+    private void writeEntry(Character character, int strokeCount, int subStrokeCount) {
+
+        // Get the type of the character from the CharacterTypeRepository.
+        // Type is used to filter when only traditional or only simplified characters are wanted.
+        CharacterType type = typeRepository.getType(character.charValue());
+        if (type.isNotFound()) {
+            // If type == -1, then the type wasn't found for this character in the type repository.
+            // We just set it so that the character can be found by either a simplified or traditional search.
+            // TODO Will want to add all characters to the type file, or find a better already existing source for this recognizer.
+            type = CharacterType.GENERIC_TYPE;
+        }
+
+        DataOutputStream dataOut;
+        if (type.isTraditional())
+            dataOut = getOutStream(traditionalByteStreams, traditionalOutStreams, strokeCount, subStrokeCount);
+        else if (type.isSimplified())
+            dataOut = getOutStream(simplifiedByteStreams, simplifiedOutStreams, strokeCount, subStrokeCount);
+        else
+            dataOut = getOutStream(genericByteStreams, genericOutStreams, strokeCount, subStrokeCount);
+
+        // Write the parsed recognizer out to the byte array.
+        writeStrokeData(dataOut, character, type, strokeCount, subStrokeCount);
+    }
+
     /**
      * Parse a Stroke.
      * A Stroke should be composed of one or more SubStrokes separated by "#" characters.
@@ -271,7 +341,7 @@ public class StrokesParser extends BaseParser {
         int subStrokeCount = 0;
         for (StringTokenizer subStrokeTokenizer = new StringTokenizer(strokeText, "#"); subStrokeTokenizer.hasMoreTokens(); subStrokeCount++) {
             // We add subStrokeCount * 2 because there are two entries for each SubStroke (direction, length)
-            if (subStrokeCount >= CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT ||
+            if (baseSubStrokeIndex + subStrokeCount >= CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT ||
                     !parseSubStroke(subStrokeTokenizer.nextToken(), baseSubStrokeIndex + subStrokeCount)) {
                 // If there isn't room in the array (too many substrokes), or not parsed successfully...
                 // then we return -1 to signal error.
@@ -365,6 +435,329 @@ public class StrokesParser extends BaseParser {
         }
     }
 
+    /**
+     * Same as compile(byte[], CharacterTypeRepository, int), reading the source from a stream.
+     * The stream is fully read but not closed.
+     */
+    static public StrokesParser compile(InputStream strokesIn, CharacterTypeRepository typeRepository, int threads) throws IOException {
+
+        ByteArrayOutputStream source = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        for (int bytesRead = strokesIn.read(buffer); bytesRead > -1; bytesRead = strokesIn.read(buffer))
+            source.write(buffer, 0, bytesRead);
+        return compile(source.toByteArray(), typeRepository, threads);
+    }
+
+    /**
+     * Parses a strokes source with a byte level scanner instead of the regular expressions of parseLine.
+     * The lines are split in ranges, parsed on the given number of threads, each range into its own
+     * streams : the streams of the ranges are then appended in the order of the ranges.  So the compiled
+     * output is the same whatever the number of threads, and the same as with the constructors.
+     * The lines that can't be parsed are passed to lineError, in the order of the source.
+     *
+     * @param source         the strokes source, in US-ASCII
+     * @param typeRepository the CharacterTypeRepository to get type recognizer from
+     * @param threads        the number of threads, 1 to parse in the calling thread
+     * @return a parser holding the parsed records, see writeCompiledOutput
+     * @throws IOException on an exception parsing a range
+     */
+    static public StrokesParser compile(byte[] source, CharacterTypeRepository typeRepository, int threads) throws IOException {
+
+        int rangeCount = Math.max(1, Math.min(threads * RANGES_PER_THREAD, source.length / MIN_RANGE_SIZE));
+        if (threads <= 1)
+            rangeCount = 1;
+        // Ranges end after a '\n', so a "\r\n" is never split.
+        int[] rangeStarts = new int[rangeCount + 1];
+        for (int range = 1; range < rangeCount; range++) {
+            int start = Math.max(rangeStarts[range - 1], (int) ((long) source.length * range / rangeCount));
+            while (start < source.length && (start == 0 || source[start - 1] != '\n'))
+                start++;
+            rangeStarts[range] = start;
+        }
+        rangeStarts[rangeCount] = source.length;
+
+        StrokesParser[] rangeParsers = new StrokesParser[rangeCount];
+        int[] rangeLineCounts = new int[rangeCount];
+        List<Callable<Void>> tasks = new ArrayList<>(rangeCount);
+        for (int range = 0; range < rangeCount; range++) {
+            int rangeIndex = range;
+            rangeParsers[range] = new StrokesParser(typeRepository);
+            tasks.add(() -> {
+                rangeLineCounts[rangeIndex] = rangeParsers[rangeIndex].scanLines(source, rangeStarts[rangeIndex], rangeStarts[rangeIndex + 1]);
+                return null;
+            });
+        }
+        if (rangeCount == 1)
+            rangeLineCounts[0] = rangeParsers[0].scanLines(source, 0, source.length);
+        else {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                for (Future<Void> result : pool.invokeAll(tasks))
+                    result.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while parsing character stroke recognizer!", e);
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new IOException("Error parsing character stroke recognizer!", e.getCause());
+            }
+            finally {
+                pool.shutdown();
+            }
+        }
+
+        StrokesParser strokesParser = new StrokesParser(typeRepository);
+        int firstLine = 0;
+        for (int range = 0; range < rangeCount; range++) {
+            StrokesParser rangeParser = rangeParsers[range];
+            strokesParser.append(rangeParser);
+            if (rangeParser.lineErrors != null) {
+                for (LineError lineError : rangeParser.lineErrors)
+                    strokesParser.lineError(firstLine + lineError.lineNum, lineError.line);
+            }
+            firstLine += rangeLineCounts[range];
+        }
+        return strokesParser;
+    }
+
+    /**
+     * Logs the line, and keeps it for getErrorLines.
+     */
+    @Override
+    protected void lineError(int lineNum, String line) {
+
+        super.lineError(lineNum, line);
+        if (lineErrors == null)
+            lineErrors = new ArrayList<>();
+        lineErrors.add(new LineError(lineNum, line));
+    }
+
+    /**
+     * @return the lines that couldn't be parsed, as "[line number]: [line]", in the order of the source
+     */
+    List<String> getErrorLines() {
+
+        List<String> errorLines = new ArrayList<>();
+        if (lineErrors != null) {
+            for (LineError lineError : lineErrors)
+                errorLines.add(lineError.lineNum + ": " + lineError.line);
+        }
+        return errorLines;
+    }
+
+    /**
+     * Appends the records of another parser after the records of this one.
+     */
+    private void append(StrokesParser other) throws IOException {
+
+        append(other.genericByteStreams, genericByteStreams, genericOutStreams);
+        append(other.simplifiedByteStreams, simplifiedByteStreams, simplifiedOutStreams);
+        append(other.traditionalByteStreams, traditionalByteStreams, traditionalOutStreams);
+    }
+
+    private void append(ByteArrayOutputStream[][] otherByteStreams, ByteArrayOutputStream[][] byteStreams, DataOutputStream[][] outStreams)
+            throws IOException {
+
+        for (int strokeCount = 1; strokeCount <= otherByteStreams.length; strokeCount++) {
+            for (int subStrokeCount = 0; subStrokeCount < otherByteStreams[strokeCount - 1].length; subStrokeCount++) {
+                ByteArrayOutputStream otherBytes = otherByteStreams[strokeCount - 1][subStrokeCount];
+                if (otherBytes != null)
+                    otherBytes.writeTo(getOutStream(byteStreams, outStreams, strokeCount, subStrokeCount));
+            }
+        }
+    }
+
+    /**
+     * Parses the lines of source[from, to), from must be the start of a line.
+     * The lines are delimited as by BufferedReader.readLine : "\n", "\r" or "\r\n".
+     *
+     * @return the number of lines
+     */
+    private int scanLines(byte[] source, int from, int to) {
+
+        int lineNum = 0;
+        int position = from;
+        while (position < to) {
+            int end = position;
+            while (end < to && source[end] != '\n' && source[end] != '\r')
+                end++;
+            if (!isBlankOrComment(source, position, end) && !scanLine(source, position, end)) {
+                if (lineErrors == null)
+                    lineErrors = new ArrayList<>();
+                lineErrors.add(new LineError(lineNum, new String(source, position, end - position, StandardCharsets.US_ASCII)));
+            }
+            lineNum++;
+            if (end + 1 < to && source[end] == '\r' && source[end + 1] == '\n')
+                end++;
+            position = end + 1;
+        }
+        return lineNum;
+    }
+
+    /**
+     * Same as shouldParseLine, negated.
+     */
+    static private boolean isBlankOrComment(byte[] source, int from, int to) {
+
+        int position = skipWhitespace(source, from, to);
+        return position == to || source[position] == '#'
+                || source[position] == '/' && position + 1 < to && source[position + 1] == '/';
+    }
+
+    /**
+     * Same as parseLine, on the line source[from, to).
+     */
+    private boolean scanLine(byte[] source, int from, int to) {
+
+        // [4 hex digits] whitespace | strokes
+        if (to - from < 4)
+            return false;
+        int code = 0;
+        for (int i = from; i < from + 4; i++) {
+            int digit = Character.digit(source[i], 16);
+            if (digit < 0)
+                return false;
+            code = 16 * code + digit;
+        }
+        int position = skipWhitespace(source, from + 4, to);
+        if (position == to || source[position] != '|')
+            return false;
+
+        // Strokes are separated by "|" characters, the empty ones are ignored (as StringTokenizer).
+        int strokeCount = 0;
+        int subStrokeCount = 0;
+        while (true) {
+            while (position < to && source[position] == '|')
+                position++;
+            if (position == to)
+                break;
+            int strokeEnd = position;
+            while (strokeEnd < to && source[strokeEnd] != '|')
+                strokeEnd++;
+            if (strokeCount >= CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT)
+                return false;
+            int subStrokes = scanStroke(source, position, strokeEnd, strokeCount, subStrokeCount);
+            if (subStrokes <= 0)
+                return false;
+            subStrokeCount += subStrokes;
+            strokeCount++;
+            position = strokeEnd;
+        }
+        if (strokeCount == 0)
+            return false;
+        writeEntry(new Character((char) code), strokeCount, subStrokeCount);
+        return true;
+    }
+
+    /**
+     * Same as parseStroke, on the stroke source[from, to).
+     */
+    private int scanStroke(byte[] source, int from, int to, int strokeIndex, int baseSubStrokeIndex) {
+
+        // SubStrokes are separated by "#" characters, the empty ones are ignored.
+        int subStrokeCount = 0;
+        int position = from;
+        while (true) {
+            while (position < to && source[position] == '#')
+                position++;
+            if (position == to)
+                break;
+            int subStrokeEnd = position;
+            while (subStrokeEnd < to && source[subStrokeEnd] != '#')
+                subStrokeEnd++;
+            if (baseSubStrokeIndex + subStrokeCount >= CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT
+                    || !scanSubStroke(source, position, subStrokeEnd, baseSubStrokeIndex + subStrokeCount))
+                return -1;
+            subStrokeCount++;
+            position = subStrokeEnd;
+        }
+        subStrokesPerStroke[strokeIndex] = subStrokeCount;
+        return subStrokeCount;
+    }
+
+    /**
+     * Same as parseSubStroke, on the substroke source[from, to) : whitespace (direction whitespace , whitespace length) whitespace
+     */
+    private boolean scanSubStroke(byte[] source, int from, int to, int subStrokeIndex) {
+
+        int position = skipWhitespace(source, from, to);
+        if (position == to || source[position] != '(' || !scanNumber(source, position + 1, to))
+            return false;
+        double direction = numberValue;
+        position = skipWhitespace(source, numberEnd, to);
+        if (position == to || source[position] != ',')
+            return false;
+        position = skipWhitespace(source, position + 1, to);
+        if (!scanNumber(source, position, to))
+            return false;
+        double length = numberValue;
+        position = numberEnd;
+        if (position == to || source[position] != ')' || skipWhitespace(source, position + 1, to) != to)
+            return false;
+        subStrokeDirections[subStrokeIndex] = direction;
+        subStrokeLengths[subStrokeIndex] = length;
+        return true;
+    }
+
+    /**
+     * Reads a number at source[from], digits optionally followed by a "." and 1 to MAX_FRACTION_DIGITS digits.
+     * Sets numberEnd and numberValue, the value being the one of Double.parseDouble.
+     *
+     * @return true if there is a number at source[from]
+     */
+    private boolean scanNumber(byte[] source, int from, int to) {
+
+        long mantissa = 0;
+        int digits = 0;
+        int position = from;
+        while (position < to && source[position] >= '0' && source[position] <= '9') {
+            mantissa = 10 * mantissa + source[position++] - '0';
+            digits++;
+        }
+        if (position == from)
+            return false;
+        int fractionDigits = 0;
+        if (position < to && source[position] == '.') {
+            position++;
+            while (position < to && source[position] >= '0' && source[position] <= '9') {
+                mantissa = 10 * mantissa + source[position++] - '0';
+                fractionDigits++;
+            }
+            if (fractionDigits == 0 || fractionDigits > MAX_FRACTION_DIGITS)
+                return false;
+        }
+        numberEnd = position;
+        if (digits + fractionDigits <= MAX_EXACT_DIGITS)
+            // Both operands are exact, so the division rounds the decimal value once, as Double.parseDouble.
+            numberValue = mantissa / POWERS_OF_TEN[fractionDigits];
+        else
+            numberValue = Double.parseDouble(new String(source, from, position - from, StandardCharsets.US_ASCII));
+        return true;
+    }
+
+    /**
+     * @param text the text of a number
+     * @return the value scanNumber reads from the whole text, NaN if it isn't a number as subStrokePattern accepts them
+     */
+    static double scanNumber(String text) {
+
+        byte[] source = text.getBytes(StandardCharsets.US_ASCII);
+        StrokesParser parser = new StrokesParser((CharacterTypeRepository) null);
+        if (parser.scanNumber(source, 0, source.length) && parser.numberEnd == source.length)
+            return parser.numberValue;
+        return Double.NaN;
+    }
+
+    static private int skipWhitespace(byte[] source, int from, int to) {
+
+        while (from < to && isWhitespace(source[from]))
+            from++;
+        return from;
+    }
+
     static public byte[] getStrokeBytes(InputStream strokesIn, InputStream typesIn) throws IOException {
 
         StrokesParser strokesParser = new StrokesParser(strokesIn, typesIn);
@@ -373,36 +766,122 @@ public class StrokesParser extends BaseParser {
         return bytes.toByteArray();
     }
 
+    /**
+     * Converts compiled strokes from the version 1 format to the version 2 format of CompiledStrokesFormat.
+     * Neither stream is closed.
+     *
+     * @param compiledIn the compiled strokes, in either format
+     * @param out        the stream to write the version 2 strokes to
+     * @throws IOException on an exception reading or writing the strokes
+     */
+    static public void convertToVersion2(InputStream compiledIn, OutputStream out) throws IOException {
+        convertToVersion2(compiledIn, null, out);
+    }
+
+    /**
+     * Same as convertToVersion2(InputStream, OutputStream), writing the tables of the given character types
+     * with the strokes, so a reader gets them without parsing the plain-text types file.
+     *
+     * @param compiledIn     the compiled strokes, in either format
+     * @param typeRepository the character types, null to keep those of the compiled strokes if any
+     * @param out            the stream to write the version 2 strokes to
+     * @throws IOException on an exception reading or writing the strokes
+     */
+    static public void convertToVersion2(InputStream compiledIn, CharacterTypeRepository typeRepository, OutputStream out) throws IOException {
+
+        StrokesIndex index = StrokesIndex.build(new MemoryStrokesStreamProvider(compiledIn));
+        CompiledStrokesFormat.write(index, typeRepository != null ? typeRepository : index.getTypeRepository(), out);
+    }
+
     /**
      * Use this to output a compiled version of strokes recognizer.
      * We can use a pre-compiled file to load much quicker than if we
      * had to parse the recognizer on load.
+     * <p>
+     * With -v2 the compiled file is in the version 2 format, with the tables of the character types,
+     * and -convert converts a compiled file of the version 1 format to the version 2 format,
+     * with the character types of the plain-text types file if one is given.
+     * With -threads the source is parsed on that number of threads, see compile.
      */
     static public void main(String[] args) {
 
-        if (args.length != 3) {
+        boolean version2 = false;
+        boolean convert = false;
+        int threads = 1;
+        int first = 0;
+        boolean validOptions = true;
+        for (; first < args.length && args[first].startsWith("-"); first++) {
+            if (args[first].equals("-v2"))
+                version2 = true;
+            else if (args[first].equals("-convert"))
+                convert = true;
+            else if (args[first].equals("-threads") && first + 1 < args.length && args[first + 1].matches("\\d+"))
+                threads = Math.max(1, Integer.parseInt(args[++first]));
+            else
+                validOptions = false;
+        }
+        if (!validOptions || args.length - first < (convert ? 2 : 3) || args.length - first > 3 || convert && (version2 || threads > 1)) {
             StringBuffer sbuf = new StringBuffer();
             sbuf.append("Takes three arguments:\n");
             sbuf.append("1: the plain-text strokes recognizer file\n");
             sbuf.append("2: the plain-text types recognizer file\n");
-            sbuf.append("3: the file to output the compiled recognizer file to");
+            sbuf.append("3: the file to output the compiled recognizer file to\n");
+            sbuf.append("Prefixed by -v2, the compiled file is in the version 2 format.\n");
+            sbuf.append("Prefixed by -threads and a number, the strokes file is parsed on that number of threads.\n");
+            sbuf.append("Or -convert, then the version 1 compiled file, the version 2 file to convert it to\n");
+            sbuf.append("and optionally the plain-text types recognizer file.");
             System.err.println(sbuf);
         }
+        else if (convert) {
+            try (FileInputStream compiledIn = new FileInputStream(args[first]);
+                 FileOutputStream compiledOut = new FileOutputStream(args[first + 1])) {
+                CharacterTypeRepository typeRepository = null;
+                if (args.length - first > 2) {
+                    try (FileInputStream typesIn = new FileInputStream(args[first + 2])) {
+                        typeRepository = new CharacterTypeParser(typesIn).buildCharacterTypeRepository();
+                    }
+                }
+                convertToVersion2(compiledIn, typeRepository, compiledOut);
+            }
+            catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }
         else {
-            try {
-                FileInputStream strokesIn = new FileInputStream(args[0]);
-                FileInputStream typesIn = new FileInputStream(args[1]);
-                FileOutputStream compiledOut = new FileOutputStream(args[2]);
+            try (FileInputStream strokesIn = new FileInputStream(args[first]);
+                 FileInputStream typesIn = new FileInputStream(args[first + 1]);
+                 FileOutputStream compiledOut = new FileOutputStream(args[first + 2])) {
 
                 CharacterTypeParser typeParser = new CharacterTypeParser(typesIn);
                 CharacterTypeRepository typeRepository = typeParser.buildCharacterTypeRepository();
 
-                StrokesParser strokesParser = new StrokesParser(strokesIn, typeRepository);
-                strokesParser.writeCompiledOutput(compiledOut);
+                StrokesParser strokesParser = compile(strokesIn, typeRepository, threads);
+                if (version2) {
+                    ByteArrayOutputStream version1Bytes = new ByteArrayOutputStream();
+                    strokesParser.writeCompiledOutput(version1Bytes);
+                    convertToVersion2(new ByteArrayInputStream(version1Bytes.toByteArray()), typeRepository, compiledOut);
+                }
+                else
+                    strokesParser.writeCompiledOutput(compiledOut);
             }
             catch (IOException ioe) {
                 ioe.printStackTrace();
             }
         }
     }
+
+    /**
+     * A line that couldn't be parsed.
+     */
+    static private class LineError {
+
+        private final int lineNum;
+        private final String line;
+
+        private LineError(int lineNum, String line) {
+
+            this.lineNum = lineNum;
+            this.line = line;
+        }
+    }
 }
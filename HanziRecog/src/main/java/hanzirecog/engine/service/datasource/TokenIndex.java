@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+
+package hanzirecog.engine.service.datasource;
+
+import hanzirecog.engine.beans.CharacterDescriptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A TokenIndex is an inverted index of the entries of a StrokesIndex by substroke token.
+ * <p>
+ * A token is a coarse description of a substroke : its direction bin and its length bin
+ * (see StrokesIndex.getDirectionBin and getLengthBin).  A bigram is a pair of consecutive tokens.
+ * For each token and bigram the index has the posting list of the entries having it, each entry once,
+ * by increasing entry index.  The posting lists are compressed : each entry is stored as its difference
+ * with the previous one, in a variable number of bytes (7 bits per byte, the high bit telling that
+ * more bytes follow), so most entries take a single byte.
+ * <p>
+ * A matcher can then count, for every entry, how many of the tokens of the input character it has,
+ * by reading the posting lists of these tokens only.
+ * <p>
+ * A TokenIndex is never modified once built and can be shared between threads.
+ *
+ * @see StrokesIndex#getTokenIndex()
+ */
+public class TokenIndex {
+
+    // Tokens are numbered from 0 to TOKEN_COUNT - 1, bigrams from TOKEN_COUNT to TOKEN_COUNT + BIGRAM_COUNT - 1.
+    static public final int TOKEN_COUNT = StrokesIndex.FEATURE_BINS * StrokesIndex.FEATURE_BINS;
+    static public final int BIGRAM_COUNT = TOKEN_COUNT * TOKEN_COUNT;
+    // The most tokens and bigrams a character can have.
+    static public final int MAX_CHARACTER_TOKEN_COUNT = 2 * CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT;
+
+    private final byte[] postings;
+    // The posting list of token t is postings[postingStarts[t], postingStarts[t + 1]).
+    private final int[] postingStarts;
+    private final int[] postingSizes;
+
+    private TokenIndex(byte[] postings, int[] postingStarts, int[] postingSizes) {
+
+        this.postings = postings;
+        this.postingStarts = postingStarts;
+        this.postingSizes = postingSizes;
+    }
+
+    void writeSnapshot(IndexSnapshot.Output out) throws IOException {
+
+        out.writeBytes(postings);
+        out.writeInts(postingStarts);
+        out.writeInts(postingSizes);
+    }
+
+    static TokenIndex readSnapshot(IndexSnapshot.Input in) throws IOException {
+        return new TokenIndex(in.readBytes(), in.readInts(), in.readInts());
+    }
+
+    /**
+     * @param direction a substroke direction, in radians
+     * @param length    a substroke length
+     * @return the token of the substroke
+     */
+    static public int getToken(double direction, double length) {
+        return StrokesIndex.getDirectionBin(direction) * StrokesIndex.FEATURE_BINS + StrokesIndex.getLengthBin(length);
+    }
+
+    /**
+     * @return the bigram of two consecutive tokens
+     */
+    static public int getBigram(int token1, int token2) {
+        return TOKEN_COUNT + token1 * TOKEN_COUNT + token2;
+    }
+
+    /**
+     * Computes the distinct tokens of a character, and optionally its distinct bigrams.
+     *
+     * @param directions     the directions of the substrokes of the character
+     * @param lengths        the lengths of the substrokes of the character
+     * @param subStrokeCount the number of substrokes
+     * @param bigrams        true to include the bigrams
+     * @param tokens         receives the tokens, sorted, at least MAX_CHARACTER_TOKEN_COUNT long
+     * @return the number of tokens
+     */
+    static public int getTokens(double[] directions, double[] lengths, int subStrokeCount, boolean bigrams, int[] tokens) {
+
+        int count = 0;
+        int previousToken = -1;
+        for (int i = 0; i < subStrokeCount; i++) {
+            int token = getToken(directions[i], lengths[i]);
+            tokens[count++] = token;
+            if (bigrams && previousToken >= 0)
+                tokens[count++] = getBigram(previousToken, token);
+            previousToken = token;
+        }
+        Arrays.sort(tokens, 0, count);
+        int distinctCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinctCount == 0 || tokens[i] != tokens[distinctCount - 1])
+                tokens[distinctCount++] = tokens[i];
+        }
+        return distinctCount;
+    }
+
+    /**
+     * Indexes all the entries of a StrokesIndex.
+     *
+     * @param strokesIndex the index
+     * @return the token index
+     */
+    static public TokenIndex build(StrokesIndex strokesIndex) {
+
+        int tokenCount = TOKEN_COUNT + BIGRAM_COUNT;
+        ByteArrayOutputStream[] postingStreams = new ByteArrayOutputStream[tokenCount];
+        int[] lastEntries = new int[tokenCount];
+        int[] postingSizes = new int[tokenCount];
+        double[] directions = new double[CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT];
+        double[] lengths = new double[CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT];
+        int[] tokens = new int[MAX_CHARACTER_TOKEN_COUNT];
+        for (int entry = 0; entry < strokesIndex.size(); entry++) {
+            int offset = strokesIndex.getFeatureOffsets()[entry];
+            int subStrokeCount = strokesIndex.getSubStrokeCounts()[entry];
+            for (int i = 0; i < subStrokeCount; i++) {
+                directions[i] = strokesIndex.getDirections()[offset + i];
+                lengths[i] = strokesIndex.getLengths()[offset + i];
+            }
+            int count = getTokens(directions, lengths, subStrokeCount, true, tokens);
+            for (int i = 0; i < count; i++) {
+                int token = tokens[i];
+                if (postingStreams[token] == null)
+                    postingStreams[token] = new ByteArrayOutputStream();
+                // The entries are indexed in increasing order, so the differences are positive.
+                writeVarInt(postingStreams[token], entry - lastEntries[token]);
+                lastEntries[token] = entry;
+                postingSizes[token]++;
+            }
+        }
+
+        ByteArrayOutputStream postings = new ByteArrayOutputStream();
+        int[] postingStarts = new int[tokenCount + 1];
+        for (int token = 0; token < tokenCount; token++) {
+            postingStarts[token] = postings.size();
+            if (postingStreams[token] != null) {
+                byte[] bytes = postingStreams[token].toByteArray();
+                postings.write(bytes, 0, bytes.length);
+            }
+        }
+        postingStarts[tokenCount] = postings.size();
+        return new TokenIndex(postings.toByteArray(), postingStarts, postingSizes);
+    }
+
+    static private void writeVarInt(ByteArrayOutputStream out, int value) {
+
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Adds 1 to the count of every entry having the given token.
+     *
+     * @param token  a token or a bigram
+     * @param counts the counts, by entry
+     */
+    public void addOverlaps(int token, int[] counts) {
+
+        int entry = 0;
+        int position = postingStarts[token];
+        int end = postingStarts[token + 1];
+        while (position < end) {
+            // Decode the next difference.
+            int difference = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = postings[position++];
+                difference |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            entry += difference;
+            counts[entry]++;
+        }
+    }
+
+    /**
+     * @return the number of entries having the given token or bigram
+     */
+    public int getPostingSize(int token) {
+        return postingSizes[token];
+    }
+
+    /**
+     * @return the size of the compressed posting lists, in bytes
+     */
+    public int getCompressedSize() {
+        return postings.length;
+    }
+}
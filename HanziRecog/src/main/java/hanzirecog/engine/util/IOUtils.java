@@ -26,6 +26,7 @@ import hanzirecog.engine.enums.CharacterType;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
  * @author jkiang
@@ -86,6 +87,13 @@ public class IOUtils {
         return direction;
     }
 
+    /**
+     * Same as readDirection(DataInputStream), with an absolute get.
+     */
+    static public double readDirection(ByteBuffer in, int position) {
+        return convertDirectionFromShort(in.getShort(position));
+    }
+
     static public void writeLength(double length, DataOutputStream out) throws IOException {
 
         short lengthShort = convertLengthToShort(length);
@@ -99,6 +107,13 @@ public class IOUtils {
         return length;
     }
 
+    /**
+     * Same as readLength(DataInputStream), with an absolute get.
+     */
+    static public double readLength(ByteBuffer in, int position) {
+        return convertLengthFromShort(in.getShort(position));
+    }
+
 	/*
 	 * Convert a short direction value written by StrokesParser.convertDirectionToShort.
 	 * We store directions with shorts to save a bit of memory since we don't need much percision.
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.util;
+
+import java.util.Arrays;
+
+/**
+ * A TopMatchHeap keeps the best scoring characters of a lookup, at most one entry per character.
+ * <p>
+ * It replaces a PriorityList of CharacterMatch : the matches are held in a fixed capacity
+ * min-heap over parallel primitive arrays, the worst kept match being at the root.
+ * A small open addressing table, sized to the capacity, gives the heap slot of each kept character,
+ * so a second representation of the same character only updates its entry if it scores higher.
+ * A candidate that doesn't beat the worst kept match once the heap is full is rejected
+ * with a single comparison and no allocation.
+ * <p>
+ * Matches with equal scores are ordered as the PriorityList did, which inserted a match right after
+ * the first one of its score : the first match of a score (the "head" of the score) comes first,
+ * then the others, the one added last first.  When the heap is full the worst match dropped
+ * is the last one of the lowest score.
+ * <p>
+ * A TopMatchHeap is not thread safe.  clear() makes it reusable for another lookup.
+ */
+public class TopMatchHeap {
+
+    private final int capacity;
+    private final char[] characters;
+    private final double[] scores;
+    private final int[] sequences;  // insertion order of the matches, to order the ties
+    private final boolean[] heads;  // true for the first match of each score
+    // Number of kept matches per hash of their score, so that looking for a tie rarely needs a scan.
+    private final int[] scoreCounts;
+    // The slots of the kept characters : linear probing over buckets holding a character and its slot in the heap + 1,
+    // 0 for an empty bucket.  The table has at least 4 buckets per 2 matches, so it is never more than half full.
+    private final char[] bucketCharacters;
+    private final short[] bucketSlots;
+    private final int bucketShift;
+    private int size;
+    private int nextSequence;
+
+    /**
+     * @param capacity the number of matches to keep
+     */
+    public TopMatchHeap(int capacity) {
+
+        if (capacity < 1 || capacity > Short.MAX_VALUE)
+            throw new IllegalArgumentException("capacity must be between 1 and " + Short.MAX_VALUE + "!");
+        this.capacity = capacity;
+        characters = new char[capacity];
+        scores = new double[capacity];
+        sequences = new int[capacity];
+        heads = new boolean[capacity];
+        scoreCounts = new int[Integer.highestOneBit(capacity) * 16];
+        int bucketCount = Integer.highestOneBit(capacity) * 4;
+        bucketCharacters = new char[bucketCount];
+        bucketSlots = new short[bucketCount];
+        bucketShift = Integer.numberOfLeadingZeros(bucketCount) + 1;
+    }
+
+    /**
+     * Adds a match to the heap.
+     *
+     * @param character the character
+     * @param score     its score, higher is better
+     * @return true if the kept matches were changed
+     */
+    public boolean add(char character, double score) {
+
+        // The common case : the heap is full and the candidate doesn't make the cut.
+        if (size == capacity && score <= scores[0])
+            return false;
+
+        int slot = bucketSlots[findBucket(character)] - 1;
+        if (slot >= 0) {
+            // There is already a match for this character, only keep the best one.
+            if (score <= scores[slot])
+                return false;
+            // The match leaves the matches of its former score for those of the new one.
+            double previousScore = scores[slot];
+            boolean wasHead = heads[slot];
+            boolean head = !hasScore(score);
+            scoreCounts[hash(previousScore)]--;
+            scoreCounts[hash(score)]++;
+            set(slot, character, score, nextSequence++, head);
+            siftDown(slot);
+            if (wasHead)
+                promoteHead(previousScore);
+            return true;
+        }
+
+        boolean head = !hasScore(score);
+        scoreCounts[hash(score)]++;
+        if (size == capacity) {
+            // Replace the worst match.  It is never the head of a score shared with other matches.
+            scoreCounts[hash(scores[0])]--;
+            removeSlot(characters[0]);
+            set(0, character, score, nextSequence++, head);
+            siftDown(0);
+        }
+        else {
+            set(size, character, score, nextSequence++, head);
+            size++;
+            siftUp(size - 1);
+        }
+        return true;
+    }
+
+    /**
+     * Adds the matches of another heap to this one, in the order they were added to the other heap.
+     *
+     * @param other the heap to merge
+     */
+    public void addAll(TopMatchHeap other) {
+
+        Integer[] order = new Integer[other.size];
+        for (int i = 0; i < other.size; i++)
+            order[i] = i;
+        Arrays.sort(order, (i1, i2) -> Integer.compare(other.sequences[i1], other.sequences[i2]));
+        for (int slot : order)
+            add(other.characters[slot], other.scores[slot]);
+    }
+
+    /**
+     * @return the score a new character must exceed to enter the heap, negative infinity while the heap isn't full
+     */
+    public double getThreshold() {
+        return size == capacity ? scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Empties the heap.  Only the score counts of the kept matches are reset, so this is cheap.
+     */
+    public void clear() {
+
+        for (int i = 0; i < size; i++)
+            scoreCounts[hash(scores[i])] = 0;
+        Arrays.fill(bucketSlots, (short) 0);
+        size = 0;
+        nextSequence = 0;
+    }
+
+    /**
+     * @return the kept characters, best match first
+     */
+    public Character[] getMatches() {
+
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++)
+            order[i] = i;
+        Arrays.sort(order, (i1, i2) -> isLess(i1, i2) ? 1 : isLess(i2, i1) ? -1 : 0);
+        Character[] matches = new Character[size];
+        for (int i = 0; i < size; i++)
+            matches[i] = characters[order[i]];
+        return matches;
+    }
+
+    /**
+     * @return true if the match in slot i1 ranks below the match in slot i2
+     */
+    private boolean isLess(int i1, int i2) {
+
+        if (scores[i1] != scores[i2])
+            return scores[i1] < scores[i2];
+        return getTieRank(i1) < getTieRank(i2);
+    }
+
+    private int getTieRank(int slot) {
+        return heads[slot] ? Integer.MAX_VALUE : sequences[slot];
+    }
+
+    /**
+     * Ties are rare, so a linear scan is only needed when another kept score has the same hash.
+     *
+     * @return true if a kept match has the given score
+     */
+    private boolean hasScore(double score) {
+
+        if (scoreCounts[hash(score)] == 0)
+            return false;
+        for (int i = 0; i < size; i++) {
+            if (scores[i] == score)
+                return true;
+        }
+        return false;
+    }
+
+    private int hash(double score) {
+
+        // + 0.0 so that -0.0 and 0.0, which are equal, have the same hash.
+        long bits = Double.doubleToLongBits(score + 0.0);
+        int hash = (int) (bits ^ (bits >>> 32));
+        return (hash ^ (hash >>> 16)) & (scoreCounts.length - 1);
+    }
+
+    /**
+     * The head of a score left : the match of that score added last becomes the head.
+     * It was already ranked first among the remaining matches of the score.
+     */
+    private void promoteHead(double score) {
+
+        if (scoreCounts[hash(score)] == 0)
+            return;
+        int newHead = -1;
+        for (int i = 0; i < size; i++) {
+            if (scores[i] == score && (newHead < 0 || sequences[i] > sequences[newHead]))
+                newHead = i;
+        }
+        if (newHead >= 0) {
+            heads[newHead] = true;
+            siftDown(newHead);
+        }
+    }
+
+    private void set(int slot, char character, double score, int sequence, boolean head) {
+
+        characters[slot] = character;
+        scores[slot] = score;
+        sequences[slot] = sequence;
+        heads[slot] = head;
+        int bucket = findBucket(character);
+        bucketCharacters[bucket] = character;
+        bucketSlots[bucket] = (short) (slot + 1);
+    }
+
+    /**
+     * @return the bucket of the character, or the empty bucket where it would go
+     */
+    private int findBucket(char character) {
+
+        int mask = bucketSlots.length - 1;
+        int bucket = getHomeBucket(character);
+        while (bucketSlots[bucket] != 0 && bucketCharacters[bucket] != character)
+            bucket = (bucket + 1) & mask;
+        return bucket;
+    }
+
+    /**
+     * Removes a kept character from the table, moving back the characters probed past its bucket.
+     */
+    private void removeSlot(char character) {
+
+        int mask = bucketSlots.length - 1;
+        int emptied = findBucket(character);
+        bucketSlots[emptied] = 0;
+        for (int bucket = (emptied + 1) & mask; bucketSlots[bucket] != 0; bucket = (bucket + 1) & mask) {
+            // A character can fill the emptied bucket if that bucket is on its probe path, between its home and its bucket.
+            if (((bucket - getHomeBucket(bucketCharacters[bucket])) & mask) >= ((bucket - emptied) & mask)) {
+                bucketCharacters[emptied] = bucketCharacters[bucket];
+                bucketSlots[emptied] = bucketSlots[bucket];
+                bucketSlots[bucket] = 0;
+                emptied = bucket;
+            }
+        }
+    }
+
+    private int getHomeBucket(char character) {
+        // Fibonacci hashing : the characters of a lookup are often close code points.
+        return (character * 0x9E3779B9) >>> bucketShift;
+    }
+
+    private void swap(int slot1, int slot2) {
+
+        char character = characters[slot1];
+        double score = scores[slot1];
+        int sequence = sequences[slot1];
+        boolean head = heads[slot1];
+        set(slot1, characters[slot2], scores[slot2], sequences[slot2], heads[slot2]);
+        set(slot2, character, score, sequence, head);
+    }
+
+    private void siftUp(int slot) {
+
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 1;
+            if (!isLess(slot, parent))
+                break;
+            swap(slot, parent);
+            slot = parent;
+        }
+    }
+
+    private void siftDown(int slot) {
+
+        while (true) {
+            int child = 2 * slot + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && isLess(child + 1, child))
+                child++;
+            if (!isLess(child, slot))
+                break;
+            swap(slot, child);
+            slot = child;
+        }
+    }
+}
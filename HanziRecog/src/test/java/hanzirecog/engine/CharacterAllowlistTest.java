@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine;
+
+import hanzirecog.engine.beans.CharacterDescriptor;
+import hanzirecog.engine.benchmark.QueryCorpus;
+import hanzirecog.engine.enums.CandidateStrategy;
+import hanzirecog.engine.enums.ScanOrder;
+import hanzirecog.engine.enums.ScoringMode;
+import hanzirecog.engine.service.datasource.StrokesIndex;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a lookup with an allowlist never returns a character outside of it, on every scan path, and that the
+ * scans comparing all the allowed characters return the matches of the same scan without allowlist, filtered afterwards.
+ * <p>
+ * Two allowlists are checked : about half of the characters, and a few hundred of them, so that most partitions
+ * hold no allowed character and the lookups with few allowed characters in range fill their matches with
+ * the allowed characters out of the substroke range.
+ */
+public class CharacterAllowlistTest {
+
+  static private final double[] LOOSENESSES = {0, 0.25, 1.0};
+  static private final int NUM_MATCHES = 15;
+  static private final int STRATEGY_CANDIDATES = 200;
+
+  static private StrokesIndex strokesIndex;
+  static private List<CharacterDescriptor> queries;
+  static private List<CharacterAllowlist> allowlists;
+  static private ForkJoinPool forkJoinPool;
+
+  @BeforeClass
+  static public void generateAllowlists() {
+
+    strokesIndex = Recognizer.getInstance().getStrokesIndex();
+    strokesIndex.buildClusterIndex();
+    QueryCorpus corpus = QueryCorpus.generate(strokesIndex, 10, 20180611L, 0.5);
+    queries = new ArrayList<>();
+    for (int i = 0; i < corpus.size(); i++)
+      queries.add(corpus.getQuery(i));
+    // Only 2 characters have 1 stroke, fewer than the matches.
+    CharacterDescriptor oneStroke = new CharacterDescriptor();
+    strokesIndex.loadDescriptor(strokesIndex.getPartitionStart(StrokesIndex.getPartition(StrokesIndex.GENERIC_PARTITION, 1)), oneStroke);
+    queries.add(oneStroke);
+
+    Random random = new Random(20180611L);
+    StringBuilder half = new StringBuilder();
+    StringBuilder few = new StringBuilder();
+    for (char character : strokesIndex.getCharacters()) {
+      if (random.nextBoolean())
+        half.append(character);
+      if (random.nextInt(30) == 0)
+        few.append(character);
+    }
+    allowlists = new ArrayList<>();
+    allowlists.add(new CharacterAllowlist(half));
+    allowlists.add(new CharacterAllowlist(few));
+    forkJoinPool = new ForkJoinPool(4);
+  }
+
+  @AfterClass
+  static public void shutdownPool() {
+    forkJoinPool.shutdown();
+  }
+
+  @Test
+  public void serialScanMatchesFilteredScan() {
+
+    assertFilteredMatches(matcher -> {
+    });
+    assertFilteredMatches(matcher -> {
+      matcher.setEarlyAbandon(true);
+      matcher.setCandidateFilters(true);
+    });
+    assertFilteredMatches(matcher -> matcher.setScanOrder(ScanOrder.NEAREST_STROKE_COUNT_FIRST));
+    // The trie is ignored with an allowlist.
+    assertFilteredMatches(matcher -> matcher.setScanOrder(ScanOrder.PREFIX_TRIE));
+    assertFilteredMatches(matcher -> matcher.setScoringMode(ScoringMode.FIXED_POINT));
+  }
+
+  @Test
+  public void batchedScanMatchesFilteredScan() {
+
+    assertFilteredMatches(matcher -> matcher.setBatchLanes(8));
+    assertFilteredMatches(matcher -> {
+      matcher.setBatchLanes(8);
+      matcher.setEarlyAbandon(true);
+      matcher.setCandidateFilters(true);
+    });
+  }
+
+  @Test
+  public void parallelScanMatchesFilteredScan() {
+
+    assertFilteredMatches(matcher -> matcher.setParallelism(forkJoinPool, 0));
+    assertFilteredMatches(matcher -> {
+      matcher.setParallelism(forkJoinPool, 0);
+      matcher.setBatchLanes(8);
+      matcher.setEarlyAbandon(true);
+    });
+  }
+
+  @Test
+  public void preselectedScansReturnAllowedCharacters() {
+
+    assertAllowedMatches(matcher -> matcher.setCoarseCandidates(STRATEGY_CANDIDATES));
+    for (CandidateStrategy candidateStrategy : CandidateStrategy.values()) {
+      if (candidateStrategy != CandidateStrategy.SCAN)
+        assertAllowedMatches(matcher -> matcher.setCandidateStrategy(candidateStrategy, STRATEGY_CANDIDATES));
+    }
+  }
+
+  /**
+   * For each lookup, checks that the configured matcher with an allowlist returns the allowed matches
+   * of the configured matcher without allowlist keeping all its matches.  The characters with equal scores
+   * rank by the order they were compared in, and the allowlist leaves some of them out, so the matches
+   * are compared by score : the same scores in the same order, and the same characters for each score
+   * but the last one, whose characters may be cut differently.
+   *
+   * @param configuration the scan path checked on a default matcher
+   */
+  static private void assertFilteredMatches(Consumer<StrokesMatcher> configuration) {
+
+    int allMatches = Math.min(strokesIndex.size(), Short.MAX_VALUE);
+    forEachLookup((query, plan, allowlist, description) -> {
+      StrokesMatcher unfilteredMatcher = new StrokesMatcher(strokesIndex, query,
+              MatchPlan.get(plan.getLooseness(), plan.isSearchTraditional(), plan.isSearchSimplified(), allMatches));
+      configuration.accept(unfilteredMatcher);
+      List<Character> expected = new ArrayList<>();
+      for (Character match : unfilteredMatcher.doMatching()) {
+        if (allowlist.contains(match) && expected.size() < NUM_MATCHES)
+          expected.add(match);
+      }
+
+      StrokesMatcher matcher = new StrokesMatcher(strokesIndex, query, plan);
+      configuration.accept(matcher);
+      matcher.setAllowlist(allowlist);
+      Character[] matches = matcher.doMatching();
+      for (Character match : matches)
+        assertTrue(description + ", disallowed match " + match, allowlist.contains(match));
+
+      StrokesMatcher scoringMatcher = new StrokesMatcher(strokesIndex, query, plan);
+      configuration.accept(scoringMatcher);
+      Map<Character, Double> bestScores = computeBestScores(scoringMatcher, query, plan);
+      double[] expectedScores = getScores(expected.toArray(new Character[0]), bestScores);
+      assertArrayEquals(description, expectedScores, getScores(matches, bestScores), 0);
+      if (expectedScores.length > 0) {
+        double lastScore = expectedScores[expectedScores.length - 1];
+        assertEquals(description, getCharactersAbove(expected.toArray(new Character[0]), bestScores, lastScore),
+                getCharactersAbove(matches, bestScores, lastScore));
+      }
+    });
+  }
+
+  /**
+   * @return the best score of each character of the stroke count range and character types of the lookup
+   */
+  static private Map<Character, Double> computeBestScores(StrokesMatcher scoringMatcher, CharacterDescriptor query, MatchPlan plan) {
+
+    double[] scores = scoringMatcher.scoreEntries(0, strokesIndex.size());
+    Map<Character, Double> bestScores = new HashMap<>();
+    for (int partitionType = 0; partitionType < StrokesIndex.PARTITION_TYPE_COUNT; partitionType++) {
+      if ((partitionType == StrokesIndex.SIMPLIFIED_PARTITION && !plan.isSearchSimplified())
+              || (partitionType == StrokesIndex.TRADITIONAL_PARTITION && !plan.isSearchTraditional()))
+        continue;
+      int strokeCount = query.getStrokeCount();
+      for (int compareStrokeCount = plan.getMinimumStrokes(strokeCount); compareStrokeCount <= plan.getMaximumStrokes(strokeCount);
+           compareStrokeCount++) {
+        int partition = StrokesIndex.getPartition(partitionType, compareStrokeCount);
+        for (int entry = strokesIndex.getPartitionStart(partition); entry < strokesIndex.getPartitionEnd(partition); entry++)
+          bestScores.merge(strokesIndex.getCharacters()[entry], scores[entry], Math::max);
+      }
+    }
+    return bestScores;
+  }
+
+  static private double[] getScores(Character[] matches, Map<Character, Double> bestScores) {
+
+    double[] scores = new double[matches.length];
+    for (int i = 0; i < matches.length; i++)
+      scores[i] = bestScores.get(matches[i]);
+    return scores;
+  }
+
+  /**
+   * @return the matches scoring above the given score, as a set
+   */
+  static private Set<Character> getCharactersAbove(Character[] matches, Map<Character, Double> bestScores, double score) {
+
+    Set<Character> characters = new HashSet<>();
+    for (Character match : matches) {
+      if (bestScores.get(match) > score)
+        characters.add(match);
+    }
+    return characters;
+  }
+
+  /**
+   * For each lookup, checks that the configured matcher with an allowlist only returns allowed characters.
+   *
+   * @param configuration the scan path checked on a default matcher
+   */
+  static private void assertAllowedMatches(Consumer<StrokesMatcher> configuration) {
+
+    forEachLookup((query, plan, allowlist, description) -> {
+      StrokesMatcher matcher = new StrokesMatcher(strokesIndex, query, plan);
+      configuration.accept(matcher);
+      matcher.setAllowlist(allowlist);
+      for (Character match : matcher.doMatching())
+        assertTrue(description + ", disallowed match " + match, allowlist.contains(match));
+    });
+  }
+
+  static private void forEachLookup(Lookup lookup) {
+
+    for (int allowlist = 0; allowlist < allowlists.size(); allowlist++) {
+      for (int query = 0; query < queries.size(); query++) {
+        for (double looseness : LOOSENESSES) {
+          // Both character types, simplified only, traditional only.
+          for (int types = 0; types < 3; types++) {
+            lookup.run(queries.get(query), MatchPlan.get(looseness, types != 1, types != 2, NUM_MATCHES), allowlists.get(allowlist),
+                    "allowlist " + allowlist + ", query " + query + ", looseness " + looseness + ", types " + types);
+          }
+        }
+      }
+    }
+  }
+
+  private interface Lookup {
+    void run(CharacterDescriptor query, MatchPlan plan, CharacterAllowlist allowlist, String description);
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine;
+
+import hanzirecog.engine.benchmark.QueryCorpus;
+import hanzirecog.engine.enums.ScoringMode;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Pins how close the FIXED_POINT results are to the EXACT ones, on the seeded query corpus of ScoringParityReport,
+ * so that a change to the quantization or to the fixed point score tables can't silently degrade them.
+ * <p>
+ * On this corpus all but one query have the same best match in both modes : the thresholds leave room for
+ * a couple more, not for a regression.
+ */
+public class FixedPointScoringTest {
+
+  static private final double[] LOOSENESSES = {0.25, 1.0};
+  static private final int NUM_QUERIES = 300;
+  static private final int NUM_MATCHES = 15;
+  // The least share of queries with the same best match, and the least mean share of common matches.
+  static private final double MIN_SAME_BEST = 0.99;
+  static private final double MIN_OVERLAP = 0.95;
+
+  static private Recognizer recognizer;
+  static private QueryCorpus corpus;
+
+  @BeforeClass
+  static public void generateQueries() {
+
+    recognizer = Recognizer.getInstance();
+    corpus = QueryCorpus.generate(recognizer.getStrokesIndex(), NUM_QUERIES, 20180611L, 0.5);
+  }
+
+  @Test
+  public void fixedPointMatchesAgreeWithExactMatches() {
+
+    for (double looseness : LOOSENESSES) {
+      int sameBest = 0;
+      double overlap = 0;
+      int exactExpectedFirst = 0;
+      int expectedFirst = 0;
+      for (int i = 0; i < NUM_QUERIES; i++) {
+        Character[] exactMatches = match(i, looseness, ScoringMode.EXACT);
+        Character[] matches = match(i, looseness, ScoringMode.FIXED_POINT);
+        if (exactMatches.length > 0 && matches.length > 0 && exactMatches[0].equals(matches[0]))
+          sameBest++;
+        Set<Character> common = new HashSet<>(Arrays.asList(exactMatches));
+        common.retainAll(Arrays.asList(matches));
+        overlap += exactMatches.length == 0 ? 1 : (double) common.size() / exactMatches.length;
+        if (exactMatches.length > 0 && exactMatches[0].equals(corpus.getExpectedCharacter(i)))
+          exactExpectedFirst++;
+        if (matches.length > 0 && matches[0].equals(corpus.getExpectedCharacter(i)))
+          expectedFirst++;
+      }
+      String description = "looseness " + looseness;
+      assertTrue(description + ", same best match " + sameBest + " / " + NUM_QUERIES, sameBest >= MIN_SAME_BEST * NUM_QUERIES);
+      assertTrue(description + ", overlap " + overlap / NUM_QUERIES, overlap >= MIN_OVERLAP * NUM_QUERIES);
+      assertTrue(description + ", expected character first " + expectedFirst + " / " + NUM_QUERIES + ", EXACT " + exactExpectedFirst,
+              expectedFirst >= exactExpectedFirst - (1 - MIN_SAME_BEST) * NUM_QUERIES);
+    }
+  }
+
+  static private Character[] match(int query, double looseness, ScoringMode scoringMode) {
+
+    StrokesMatcher matcher = recognizer.newMatcher(corpus.getQuery(query), true, true, looseness, NUM_MATCHES);
+    matcher.setScoringMode(scoringMode);
+    return matcher.doMatching();
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine;
+
+import hanzirecog.engine.beans.CharacterDescriptor;
+import hanzirecog.engine.benchmark.QueryCorpus;
+import hanzirecog.engine.enums.CandidateStrategy;
+import hanzirecog.engine.enums.ScanOrder;
+import hanzirecog.engine.service.datasource.IndexSnapshot;
+import hanzirecog.engine.service.datasource.ResourceStrokesStreamProvider;
+import hanzirecog.engine.service.datasource.StrokesIndex;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a Recognizer loaded from an index snapshot returns the lookups of a Recognizer
+ * loaded from the compiled strokes, for every candidate strategy and scan order.
+ */
+public class IndexSnapshotParityTest {
+
+  static private final double[] LOOSENESSES = {0, 0.25, 1.0};
+  static private final int NUM_MATCHES = 15;
+  static private final int STRATEGY_CANDIDATES = 200;
+
+  static private File snapshotFile;
+  static private Recognizer compiledRecognizer;
+  static private Recognizer snapshotRecognizer;
+  static private List<CharacterDescriptor> queries;
+
+  @BeforeClass
+  static public void writeSnapshot() throws IOException {
+
+    snapshotFile = File.createTempFile("strokes", ".snapshot");
+    try (OutputStream out = new FileOutputStream(snapshotFile)) {
+      IndexSnapshot.write(StrokesIndex.build(new ResourceStrokesStreamProvider("/strokes.dat")), out);
+    }
+    snapshotRecognizer = Recognizer.loadSnapshot(snapshotFile);
+    try (InputStream in = IndexSnapshotParityTest.class.getResourceAsStream("/strokes.dat")) {
+      compiledRecognizer = Recognizer.load(in);
+    }
+    QueryCorpus corpus = QueryCorpus.generate(compiledRecognizer.getStrokesIndex(), 15, 20180611L, 0.5);
+    queries = new ArrayList<>();
+    for (int i = 0; i < corpus.size(); i++)
+      queries.add(corpus.getQuery(i));
+  }
+
+  @AfterClass
+  static public void deleteSnapshot() throws IOException {
+    Files.delete(snapshotFile.toPath());
+  }
+
+  @Test
+  public void snapshotLookupsEqualCompiledLookups() {
+
+    for (CandidateStrategy candidateStrategy : CandidateStrategy.values()) {
+      for (ScanOrder scanOrder : ScanOrder.values()) {
+        for (Recognizer recognizer : new Recognizer[]{compiledRecognizer, snapshotRecognizer}) {
+          recognizer.setCandidateStrategy(candidateStrategy, STRATEGY_CANDIDATES);
+          recognizer.setScanOrder(scanOrder);
+        }
+        for (int i = 0; i < queries.size(); i++) {
+          for (double looseness : LOOSENESSES) {
+            for (int types = 0; types < 3; types++) {
+              String lookup = candidateStrategy + " " + scanOrder + " query " + i + " looseness " + looseness + " types " + types;
+              Character[] expected = compiledRecognizer.recognize(queries.get(i), types != 1, types != 2, looseness, NUM_MATCHES);
+              Character[] actual = snapshotRecognizer.recognize(queries.get(i), types != 1, types != 2, looseness, NUM_MATCHES);
+              assertArrayEquals(lookup, expected, actual);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void snapshotOfAnotherVersionIsRefused() throws IOException {
+
+    ByteBuffer snapshot = ByteBuffer.wrap(Files.readAllBytes(snapshotFile.toPath()));
+    assertEquals(IndexSnapshot.VERSION, snapshot.getInt(4));
+    snapshot.putInt(4, IndexSnapshot.VERSION + 1);
+    try {
+      IndexSnapshot.read(snapshot);
+      fail("read");
+    }
+    catch (IOException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine;
+
+import hanzirecog.engine.beans.CharacterDescriptor;
+import hanzirecog.engine.util.CurveUtils;
+import org.junit.Test;
+
+import java.awt.geom.CubicCurve2D;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Compares the ranges a MatchPlan compiles to those the StrokesMatcher solved on its cubic curves for each lookup.
+ */
+public class MatchPlanTest {
+
+  @Test
+  public void rangesEqualThePerLookupRanges() {
+
+    for (int step = 0; step <= 100; step++) {
+      double looseness = step / 100.0;
+      MatchPlan plan = MatchPlan.get(looseness, true, true, 15);
+      // Past MAX_CHARACTER_SUB_STROKE_COUNT, the stroke ranges aren't precomputed.
+      for (int strokeCount = 1; strokeCount <= CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 8; strokeCount++) {
+        int strokeRange = getStrokesRange(strokeCount, looseness);
+        assertEquals("looseness " + looseness + ", " + strokeCount + " strokes",
+                Math.max(strokeCount - strokeRange, 1), plan.getMinimumStrokes(strokeCount));
+        assertEquals("looseness " + looseness + ", " + strokeCount + " strokes",
+                Math.min(strokeCount + strokeRange, CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT), plan.getMaximumStrokes(strokeCount));
+      }
+      for (int subStrokeCount = 0; subStrokeCount <= CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT; subStrokeCount++)
+        assertEquals("looseness " + looseness + ", " + subStrokeCount + " substrokes",
+                getSubStrokesRange(subStrokeCount, looseness), plan.getSubStrokesRange(subStrokeCount));
+    }
+  }
+
+  @Test
+  public void plansAreCached() {
+
+    assertSame(MatchPlan.get(0.37, true, false, 15), MatchPlan.get(0.37, true, false, 15));
+    MatchPlan plan = MatchPlan.get(0.37, false, true, 20);
+    assertEquals(0.37, plan.getLooseness(), 0);
+    assertEquals(false, plan.isSearchTraditional());
+    assertEquals(true, plan.isSearchSimplified());
+    assertEquals(20, plan.getNumMatches());
+  }
+
+  /**
+   * The stroke range of the StrokesMatcher before the plans.
+   */
+  static private int getStrokesRange(int strokeCount, double looseness) {
+
+    if (looseness == 0.0)
+      return 0;
+    else if (looseness == 1.0)
+      return CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT;
+    double[] solutions = new double[1];
+    CubicCurve2D curve = new CubicCurve2D.Double(0, 0, 0.35, strokeCount * 0.4, 0.6, strokeCount,
+            1, CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT);
+    CurveUtils.solveCubicCurveForX(curve, looseness, solutions);
+    return (int) Math.round(CurveUtils.getPointOnCubicCurve(curve, solutions[0]).getY());
+  }
+
+  /**
+   * The substroke range of the StrokesMatcher before the plans.
+   */
+  static private int getSubStrokesRange(int subStrokeCount, double looseness) {
+
+    if (looseness == 1.0)
+      return CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT;
+    double y0 = subStrokeCount * 0.25;
+    double[] solutions = new double[1];
+    CubicCurve2D curve = new CubicCurve2D.Double(0, y0, 0.4, 1.5 * y0, 0.75, 1.5 * (1.5 * y0),
+            1, CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT);
+    CurveUtils.solveCubicCurveForX(curve, looseness, solutions);
+    return (int) Math.round(CurveUtils.getPointOnCubicCurve(curve, solutions[0]).getY());
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine;
+
+import hanzirecog.engine.beans.CharacterDescriptor;
+import hanzirecog.engine.beans.MatchResult;
+import hanzirecog.engine.benchmark.QueryCorpus;
+import hanzirecog.engine.service.datasource.StrokesIndex;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how a lookup ends when it runs out of time or is stopped, without depending on the speed of the machine :
+ * a budget already spent when the scan starts cuts it at its first check, a generous one never does.
+ * <p>
+ * The lookups are at looseness 1.0, so that the stroke count ranges hold enough characters to be checked.
+ */
+public class StrokesMatcherDeadlineTest {
+
+  static private final double LOOSENESS = 1.0;
+  static private final int NUM_MATCHES = 15;
+
+  static private StrokesIndex strokesIndex;
+  static private List<CharacterDescriptor> queries;
+  static private ForkJoinPool forkJoinPool;
+
+  @BeforeClass
+  static public void generateQueries() {
+
+    strokesIndex = Recognizer.getInstance().getStrokesIndex();
+    QueryCorpus corpus = QueryCorpus.generate(strokesIndex, 10, 20180611L, 0.5);
+    queries = new ArrayList<>();
+    for (int i = 0; i < corpus.size(); i++)
+      queries.add(corpus.getQuery(i));
+    forkJoinPool = new ForkJoinPool(4);
+  }
+
+  @AfterClass
+  static public void shutdownPool() {
+    forkJoinPool.shutdown();
+  }
+
+  @Test
+  public void spentBudgetReturnsPartialMatches() {
+
+    for (Duration budget : new Duration[] {Duration.ZERO, Duration.ofMillis(-1)}) {
+      assertPartial(budget, matcher -> {
+      });
+      assertPartial(budget, matcher -> matcher.setParallelism(forkJoinPool, 0));
+      assertPartial(budget, matcher -> matcher.setBatchLanes(8));
+    }
+  }
+
+  @Test
+  public void generousBudgetReturnsTheCompleteMatches() {
+
+    for (CharacterDescriptor query : queries) {
+      Character[] matches = newMatcher(query).doMatching();
+      MatchResult result = newMatcher(query).doMatching(Duration.ofHours(1));
+      assertNotNull(result);
+      assertFalse(result.isPartial());
+      assertArrayEquals(matches, result.getMatches());
+    }
+  }
+
+  @Test
+  public void stoppedMatcherReturnsNull() {
+
+    for (CharacterDescriptor query : queries) {
+      StrokesMatcher matcher = newMatcher(query);
+      matcher.stop();
+      assertNull(matcher.doMatching());
+      assertNull(matcher.doMatching(Duration.ofHours(1)));
+      assertNull(matcher.doMatching(Duration.ZERO));
+    }
+  }
+
+  static private void assertPartial(Duration budget, Consumer<StrokesMatcher> configuration) {
+
+    for (CharacterDescriptor query : queries) {
+      StrokesMatcher matcher = newMatcher(query);
+      configuration.accept(matcher);
+      MatchResult result = matcher.doMatching(budget);
+      assertNotNull(result);
+      assertNotNull(result.getMatches());
+      assertTrue(result.isPartial());
+    }
+  }
+
+  static private StrokesMatcher newMatcher(CharacterDescriptor query) {
+    return new StrokesMatcher(strokesIndex, query, MatchPlan.get(LOOSENESS, true, true, NUM_MATCHES));
+  }
+}
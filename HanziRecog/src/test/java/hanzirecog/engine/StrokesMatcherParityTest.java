@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine;
+
+import hanzirecog.engine.beans.CharacterDescriptor;
+import hanzirecog.engine.benchmark.QueryCorpus;
+import hanzirecog.engine.enums.CandidateStrategy;
+import hanzirecog.engine.enums.ScanOrder;
+import hanzirecog.engine.service.datasource.ResourceStrokesStreamProvider;
+import hanzirecog.engine.service.datasource.StrokesIndex;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the matching modes documented as exact return the matches of the plain scan :
+ * every character of the stroke count range compared serially in the compiled order, without early abandon nor filters.
+ * <p>
+ * The queries are a fixed QueryCorpus, plus the edge cases of the stroke count ranges : a stroke count
+ * only some character types have, a stroke count no character has, and fewer characters than matches.
+ */
+public class StrokesMatcherParityTest {
+
+  static private final double[] LOOSENESSES = {0, 0.1, 0.5, 1.0};
+  static private final int NUM_MATCHES = 15;
+
+  static private StrokesIndex strokesIndex;
+  static private List<CharacterDescriptor> queries;
+  // The matches of the plain scan, by query, then looseness, then character types.
+  static private List<Character[]> plainMatches;
+  static private ForkJoinPool forkJoinPool;
+
+  @BeforeClass
+  static public void scanQueries() {
+
+    strokesIndex = Recognizer.getInstance().getStrokesIndex();
+    QueryCorpus corpus = QueryCorpus.generate(strokesIndex, 25, 20180611L, 0.5);
+    queries = new ArrayList<>();
+    for (int i = 0; i < corpus.size(); i++)
+      queries.add(corpus.getQuery(i));
+    // Only traditional characters have 25 strokes, so the simplified lookups at looseness 0 select nothing.
+    queries.add(copyFirstEntry(StrokesIndex.TRADITIONAL_PARTITION, 25));
+    // No character has 30 strokes.
+    CharacterDescriptor noCharacter = copyFirstEntry(StrokesIndex.TRADITIONAL_PARTITION, 32);
+    noCharacter.setStrokeCount(30);
+    queries.add(noCharacter);
+    // Only 2 characters have 1 stroke, fewer than the matches.
+    queries.add(copyFirstEntry(StrokesIndex.GENERIC_PARTITION, 1));
+
+    plainMatches = new ArrayList<>();
+    forEachLookup((query, plan) -> plainMatches.add(newPlainMatcher(query, plan).doMatching()));
+    forkJoinPool = new ForkJoinPool(4);
+  }
+
+  @AfterClass
+  static public void shutdownPool() {
+    forkJoinPool.shutdown();
+  }
+
+  @Test
+  public void parallelScanMatchesPlainScan() {
+
+    assertSameMatches(matcher -> matcher.setParallelism(forkJoinPool, 0));
+    assertSameMatches(matcher -> {
+      matcher.setParallelism(forkJoinPool, 0);
+      matcher.setEarlyAbandon(true);
+      matcher.setCandidateFilters(true);
+    });
+  }
+
+  @Test
+  public void earlyAbandonMatchesPlainScan() {
+    assertSameMatches(matcher -> matcher.setEarlyAbandon(true));
+  }
+
+  @Test
+  public void batchedScanMatchesPlainScan() {
+
+    for (int batchLanes : new int[]{2, 4, 8, StrokesMatcher.MAX_BATCH_LANES}) {
+      assertSameMatches(matcher -> matcher.setBatchLanes(batchLanes));
+      assertSameMatches(matcher -> {
+        matcher.setBatchLanes(batchLanes);
+        matcher.setEarlyAbandon(true);
+      });
+    }
+  }
+
+  @Test
+  public void filteredScanMatchesPlainScan() {
+
+    assertSameMatches(matcher -> {
+      matcher.setEarlyAbandon(true);
+      matcher.setCandidateFilters(true);
+    });
+    assertSameMatches(matcher -> {
+      matcher.setEarlyAbandon(true);
+      matcher.setCandidateFilters(true);
+      matcher.setBatchLanes(8);
+    });
+  }
+
+  @Test
+  public void nearestStrokeCountFirstMatchesPlainScanScores() {
+
+    assertSameScores(matcher -> {
+      matcher.setScanOrder(ScanOrder.NEAREST_STROKE_COUNT_FIRST);
+      matcher.setEarlyAbandon(true);
+      matcher.setCandidateFilters(true);
+    });
+  }
+
+  @Test
+  public void prefixTrieScanMatchesPlainScanScores() {
+
+    assertSameScores(matcher -> matcher.setScanOrder(ScanOrder.PREFIX_TRIE));
+    assertSameScores(matcher -> {
+      matcher.setScanOrder(ScanOrder.PREFIX_TRIE);
+      matcher.setEarlyAbandon(true);
+    });
+  }
+
+  @Test
+  public void prefixTrieScanWithoutCandidatesReturnsNoMatches() {
+
+    CharacterDescriptor query = queries.get(queries.size() - 2);
+    StrokesMatcher matcher = newPlainMatcher(query, MatchPlan.get(0, true, true, NUM_MATCHES));
+    matcher.setScanOrder(ScanOrder.PREFIX_TRIE);
+    assertEquals(0, matcher.doMatching().length);
+  }
+
+  @Test
+  public void clustersMatcherWithoutClusterIndexIsRefused() throws IOException {
+
+    StrokesIndex unclusteredIndex = StrokesIndex.build(new ResourceStrokesStreamProvider("/strokes.dat"));
+    StrokesMatcher matcher = new StrokesMatcher(unclusteredIndex, queries.get(0), MatchPlan.get(0, true, true, NUM_MATCHES));
+    try {
+      matcher.setCandidateStrategy(CandidateStrategy.CLUSTERS, 200);
+      fail("A CLUSTERS matcher was made on an index without a ClusterIndex");
+    }
+    catch (IllegalStateException expected) {
+    }
+    assertNull(unclusteredIndex.getClusterIndex());
+  }
+
+  /**
+   * Runs a lookup of every query, at every looseness, for every character type selection, and checks
+   * that the configured matcher returns the characters of the plain scan in the same order.
+   *
+   * @param configuration enables the mode checked on a plain matcher
+   */
+  private void assertSameMatches(Consumer<StrokesMatcher> configuration) {
+
+    int[] lookup = {0};
+    forEachLookup((query, plan) -> {
+      StrokesMatcher matcher = newPlainMatcher(query, plan);
+      configuration.accept(matcher);
+      assertArrayEquals(describe(lookup[0], plan), plainMatches.get(lookup[0]), matcher.doMatching());
+      lookup[0]++;
+    });
+  }
+
+  /**
+   * Same as assertSameMatches, for the modes returning the characters with equal scores in any order :
+   * the matches must have the scores of the plain scan matches, in the same order.
+   *
+   * @param configuration enables the mode checked on a plain matcher
+   */
+  private void assertSameScores(Consumer<StrokesMatcher> configuration) {
+
+    int[] lookup = {0};
+    forEachLookup((query, plan) -> {
+      Map<Character, Double> bestScores = computeBestScores(query, plan);
+      StrokesMatcher matcher = newPlainMatcher(query, plan);
+      configuration.accept(matcher);
+      String description = describe(lookup[0], plan);
+      assertArrayEquals(description, getScores(plainMatches.get(lookup[0]), bestScores, description),
+              getScores(matcher.doMatching(), bestScores, description), 0);
+      lookup[0]++;
+    });
+  }
+
+  /**
+   * @return the best score of each character of the stroke count range and character types of the lookup
+   */
+  static private Map<Character, Double> computeBestScores(CharacterDescriptor query, MatchPlan plan) {
+
+    double[] scores = new StrokesMatcher(strokesIndex, query, plan).scoreEntries(0, strokesIndex.size());
+    Map<Character, Double> bestScores = new HashMap<>();
+    for (int partitionType = 0; partitionType < StrokesIndex.PARTITION_TYPE_COUNT; partitionType++) {
+      if ((partitionType == StrokesIndex.SIMPLIFIED_PARTITION && !plan.isSearchSimplified())
+              || (partitionType == StrokesIndex.TRADITIONAL_PARTITION && !plan.isSearchTraditional()))
+        continue;
+      int strokeCount = query.getStrokeCount();
+      for (int compareStrokeCount = plan.getMinimumStrokes(strokeCount); compareStrokeCount <= plan.getMaximumStrokes(strokeCount);
+           compareStrokeCount++) {
+        int partition = StrokesIndex.getPartition(partitionType, compareStrokeCount);
+        for (int entry = strokesIndex.getPartitionStart(partition); entry < strokesIndex.getPartitionEnd(partition); entry++)
+          bestScores.merge(strokesIndex.getCharacters()[entry], scores[entry], Math::max);
+      }
+    }
+    return bestScores;
+  }
+
+  static private double[] getScores(Character[] matches, Map<Character, Double> bestScores, String description) {
+
+    double[] scores = new double[matches.length];
+    for (int i = 0; i < matches.length; i++) {
+      Double score = bestScores.get(matches[i]);
+      assertNotNull(description + ", unexpected match " + matches[i], score);
+      scores[i] = score;
+    }
+    return scores;
+  }
+
+  static private void forEachLookup(Lookup lookup) {
+
+    for (CharacterDescriptor query : queries) {
+      for (double looseness : LOOSENESSES) {
+        // Both character types, simplified only, traditional only.
+        for (int types = 0; types < 3; types++)
+          lookup.run(query, MatchPlan.get(looseness, types != 1, types != 2, NUM_MATCHES));
+      }
+    }
+  }
+
+  static private StrokesMatcher newPlainMatcher(CharacterDescriptor query, MatchPlan plan) {
+
+    StrokesMatcher matcher = new StrokesMatcher(strokesIndex, query, plan);
+    matcher.setEarlyAbandon(false);
+    matcher.setCandidateFilters(false);
+    return matcher;
+  }
+
+  static private CharacterDescriptor copyFirstEntry(int partitionType, int strokeCount) {
+
+    CharacterDescriptor descriptor = new CharacterDescriptor();
+    strokesIndex.loadDescriptor(strokesIndex.getPartitionStart(StrokesIndex.getPartition(partitionType, strokeCount)), descriptor);
+    return descriptor;
+  }
+
+  static private String describe(int lookup, MatchPlan plan) {
+
+    CharacterDescriptor query = queries.get(lookup / (LOOSENESSES.length * 3));
+    return "query " + query.getCharacter() + " with " + query.getStrokeCount() + " strokes, looseness " + plan.getLooseness()
+            + ", traditional " + plan.isSearchTraditional() + ", simplified " + plan.isSearchSimplified();
+  }
+
+  private interface Lookup {
+    void run(CharacterDescriptor query, MatchPlan plan);
+  }
+}
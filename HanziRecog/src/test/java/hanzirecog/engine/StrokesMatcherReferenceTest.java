@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine;
+
+import hanzirecog.engine.beans.CharacterDescriptor;
+import hanzirecog.engine.benchmark.QueryCorpus;
+import hanzirecog.engine.service.datasource.ResourceStrokesStreamProvider;
+import hanzirecog.engine.service.datasource.StrokesDataSource;
+import hanzirecog.engine.service.datasource.StrokesIndex;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Compares the StrokesIndex matcher to the scores of the stream-based matcher it replaced :
+ * the reference aligns the characters decoded by a StrokesDataSource, substroke by substroke,
+ * with none of the tables, bands nor bounds of the StrokesMatcher.
+ */
+public class StrokesMatcherReferenceTest {
+
+  static private final double[] LOOSENESSES = {0, 0.25, 0.5, 1.0};
+  static private final int NUM_MATCHES = 15;
+
+  static private StrokesIndex strokesIndex;
+  static private StrokesDataSource dataSource;
+  static private List<CharacterDescriptor> queries;
+
+  @BeforeClass
+  static public void loadStrokes() throws IOException {
+
+    strokesIndex = Recognizer.getInstance().getStrokesIndex();
+    dataSource = new StrokesDataSource(new ResourceStrokesStreamProvider("/strokes.dat"));
+    QueryCorpus corpus = QueryCorpus.generate(strokesIndex, 40, 20180611L, 0.5);
+    queries = new ArrayList<>();
+    for (int i = 0; i < corpus.size(); i++)
+      queries.add(corpus.getQuery(i));
+  }
+
+  @Test
+  public void scoresEqualTheDecodedStrokesScores() throws IOException {
+
+    for (CharacterDescriptor query : queries) {
+      for (double looseness : LOOSENESSES) {
+        MatchPlan plan = MatchPlan.get(looseness, true, true, NUM_MATCHES);
+        int subStrokesRange = plan.getSubStrokesRange(query.getSubStrokeCount());
+        double[] scores = new StrokesMatcher(strokesIndex, query, plan).scoreEntries(0, strokesIndex.size());
+        List<String> indexScores = new ArrayList<>();
+        for (int entry = 0; entry < scores.length; entry++)
+          indexScores.add(strokesIndex.getCharacters()[entry] + " " + scores[entry]);
+
+        List<String> referenceScores = new ArrayList<>();
+        StrokesDataSource.StrokesDataScanner scanner =
+                dataSource.getStrokesScanner(true, true, 1, CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT);
+        CharacterDescriptor compare = new CharacterDescriptor();
+        while (loadNext(scanner, compare)) {
+          if (compare.getCharacter() != null)
+            referenceScores.add(compare.getCharacter() + " " + computeReferenceScore(query, compare, subStrokesRange));
+        }
+        // The index orders the characters of a partition by substroke count.
+        Collections.sort(indexScores);
+        Collections.sort(referenceScores);
+        assertEquals("looseness " + looseness, referenceScores, indexScores);
+      }
+    }
+  }
+
+  @Test
+  public void matchesHaveTheDecodedStrokesBestScores() throws IOException {
+
+    for (CharacterDescriptor query : queries) {
+      for (double looseness : LOOSENESSES) {
+        for (int types = 0; types < 3; types++) {
+          boolean searchTraditional = types != 1;
+          boolean searchSimplified = types != 2;
+          MatchPlan plan = MatchPlan.get(looseness, searchTraditional, searchSimplified, NUM_MATCHES);
+          Map<Character, Double> bestScores = computeReferenceBestScores(query, plan);
+          List<Double> expectedScores = new ArrayList<>(bestScores.values());
+          Collections.sort(expectedScores, Collections.reverseOrder());
+          expectedScores = expectedScores.subList(0, Math.min(NUM_MATCHES, expectedScores.size()));
+
+          Character[] matches = new StrokesMatcher(strokesIndex, query, plan).doMatching();
+          double[] matchScores = new double[matches.length];
+          for (int i = 0; i < matches.length; i++) {
+            Double score = bestScores.get(matches[i]);
+            assertNotNull("unexpected match " + matches[i], score);
+            matchScores[i] = score;
+          }
+          // The characters with the same score may come in any order.
+          assertArrayEquals("looseness " + looseness + " types " + types,
+                  toArray(expectedScores), matchScores, 0);
+        }
+      }
+    }
+  }
+
+  private Map<Character, Double> computeReferenceBestScores(CharacterDescriptor query, MatchPlan plan) throws IOException {
+
+    int strokeCount = query.getStrokeCount();
+    int subStrokesRange = plan.getSubStrokesRange(query.getSubStrokeCount());
+    StrokesDataSource.StrokesDataScanner scanner = dataSource.getStrokesScanner(plan.isSearchTraditional(),
+            plan.isSearchSimplified(), plan.getMinimumStrokes(strokeCount), plan.getMaximumStrokes(strokeCount));
+    Map<Character, Double> bestScores = new HashMap<>();
+    CharacterDescriptor compare = new CharacterDescriptor();
+    while (loadNext(scanner, compare)) {
+      if (compare.getCharacter() == null)
+        continue;
+      double score = computeReferenceScore(query, compare, subStrokesRange);
+      Double bestScore = bestScores.get(compare.getCharacter());
+      if (bestScore == null || score > bestScore)
+        bestScores.put(compare.getCharacter(), score);
+    }
+    return bestScores;
+  }
+
+  /**
+   * An empty stroke count group leaves the descriptor untouched, its character stays null.
+   */
+  static private boolean loadNext(StrokesDataSource.StrokesDataScanner scanner, CharacterDescriptor compare) throws IOException {
+
+    compare.setCharacter(null);
+    return scanner.loadNextCharacterStrokeData(compare);
+  }
+
+  /**
+   * The alignment of the stream-based matcher, on the directions and lengths as IOUtils decodes them.
+   */
+  static private double computeReferenceScore(CharacterDescriptor input, CharacterDescriptor compare, int subStrokesRange) {
+
+    int inputSubStrokeCount = input.getSubStrokeCount();
+    int compareSubStrokeCount = compare.getSubStrokeCount();
+    double[][] scoreMatrix = new double[inputSubStrokeCount + 1][compareSubStrokeCount + 1];
+    for (int i = 0; i <= inputSubStrokeCount; i++)
+      scoreMatrix[i][0] = -0.33 * StrokesMatcher.SKIP_PENALTY_MULTIPLIER * i;
+    for (int i = 0; i <= compareSubStrokeCount; i++)
+      scoreMatrix[0][i] = -0.33 * StrokesMatcher.SKIP_PENALTY_MULTIPLIER * i;
+
+    for (int x = 0; x < inputSubStrokeCount; x++) {
+      double inputDirection = input.getDirections()[x];
+      double inputLength = input.getLengths()[x];
+      for (int y = 0; y < compareSubStrokeCount; y++) {
+        double score = Double.NEGATIVE_INFINITY;
+        if (Math.abs(x - y) <= subStrokesRange) {
+          double compareDirection = compare.getDirections()[y];
+          double compareLength = compare.getLengths()[y];
+          double skip1Score = scoreMatrix[x][y + 1] - inputLength * StrokesMatcher.SKIP_PENALTY_MULTIPLIER;
+          double skip2Score = scoreMatrix[x + 1][y] - compareLength * StrokesMatcher.SKIP_PENALTY_MULTIPLIER;
+          double matchScore = scoreMatrix[x][y]
+                  + StrokesMatcher.computeSubStrokeScore(inputDirection, inputLength, compareDirection, compareLength);
+          score = Math.max(matchScore, Math.max(skip1Score, skip2Score));
+        }
+        scoreMatrix[x + 1][y + 1] = score;
+      }
+    }
+    double score = scoreMatrix[inputSubStrokeCount][compareSubStrokeCount];
+
+    int inputStrokeCount = input.getStrokeCount();
+    if (inputStrokeCount == compare.getStrokeCount() && inputStrokeCount < StrokesMatcher.CORRECT_NUM_STROKES_CAP) {
+      double bonus = StrokesMatcher.CORRECT_NUM_STROKES_BONUS * ((double) (Math.max(StrokesMatcher.CORRECT_NUM_STROKES_CAP
+              - inputStrokeCount, 0)) / StrokesMatcher.CORRECT_NUM_STROKES_CAP);
+      score += bonus * score;
+    }
+    return score;
+  }
+
+  static private double[] toArray(List<Double> values) {
+
+    double[] array = new double[values.size()];
+    for (int i = 0; i < array.length; i++)
+      array[i] = values.get(i);
+    return array;
+  }
+}
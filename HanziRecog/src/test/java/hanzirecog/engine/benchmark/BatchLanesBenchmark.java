@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.benchmark;
+
+import hanzirecog.engine.Recognizer;
+import hanzirecog.engine.StrokesMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency of a serial lookup for each number of batch lanes, 1 being the default one character at a time.
+ * The lookups cycle through a fixed QueryCorpus, the same for every setting.
+ * <p>
+ * Run with : mvn -P jmh test-compile exec:exec -Djmh.benchmarks=BatchLanesBenchmark
+ *
+ * @see StrokesMatcher#setBatchLanes(int)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class BatchLanesBenchmark {
+
+  @Param({"1", "2", "4", "8", "16"})
+  public int batchLanes;
+
+  @Param({"0.25", "1.0"})
+  public double looseness;
+
+  @Param({"true", "false"})
+  public boolean earlyAbandon;
+
+  private Recognizer recognizer;
+  private QueryCorpus corpus;
+  private int nextQuery;
+
+  @Setup
+  public void loadQueries() {
+
+    recognizer = Recognizer.getInstance();
+    corpus = QueryCorpus.generate(recognizer.getStrokesIndex(), 100, 42, 0.5);
+  }
+
+  @Benchmark
+  public Character[] lookup() {
+
+    StrokesMatcher matcher = recognizer.newMatcher(corpus.getQuery(nextQuery), true, true, looseness, 15);
+    nextQuery = (nextQuery + 1) % corpus.size();
+    matcher.setParallelism(null, Integer.MAX_VALUE);
+    matcher.setEarlyAbandon(earlyAbandon);
+    matcher.setBatchLanes(batchLanes);
+    return matcher.doMatching();
+  }
+}
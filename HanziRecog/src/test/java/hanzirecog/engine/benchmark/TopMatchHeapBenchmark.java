@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.benchmark;
+
+import hanzirecog.engine.util.TopMatchHeap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time to collect the matches of one lookup's candidates, with the PriorityList collector StrokesMatcher
+ * used before and with the TopMatchHeap, as CollectorBenchmark but under JMH.
+ * The candidate streams are the ones of CollectorBenchmark : 8000 candidates over 9000 characters,
+ * one in 20 out of range.  The heap is reused across lookups, as the serial scans do.
+ * <p>
+ * Run with : mvn -P jmh test-compile exec:exec -Djmh.benchmarks=TopMatchHeapBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class TopMatchHeapBenchmark {
+
+  static private final int LOOKUPS = 64;
+  static private final int CANDIDATES = 8000;
+  static private final int CHARACTER_RANGE = 9000;
+
+  @Param({"1", "15", "200"})
+  public int capacity;
+
+  private char[][] characters;
+  private double[][] scores;
+  private TopMatchHeap heap;
+  private int nextLookup;
+
+  @Setup
+  public void generateCandidates() {
+
+    characters = new char[LOOKUPS][CANDIDATES];
+    scores = new double[LOOKUPS][CANDIDATES];
+    Random random = new Random(42);
+    for (int i = 0; i < LOOKUPS; i++) {
+      for (int j = 0; j < CANDIDATES; j++) {
+        characters[i][j] = (char) ('一' + random.nextInt(CHARACTER_RANGE));
+        scores[i][j] = random.nextInt(20) == 0 ? Double.NEGATIVE_INFINITY : random.nextGaussian() * 100;
+      }
+    }
+    heap = new TopMatchHeap(capacity);
+  }
+
+  @Benchmark
+  public Character[] priorityList() {
+
+    int lookup = nextLookup();
+    CollectorBenchmark.PriorityListCollector collector = new CollectorBenchmark.PriorityListCollector(capacity);
+    for (int j = 0; j < CANDIDATES; j++)
+      collector.addMatch(characters[lookup][j], scores[lookup][j]);
+    return collector.getMatches();
+  }
+
+  @Benchmark
+  public Character[] topMatchHeap() {
+
+    int lookup = nextLookup();
+    heap.clear();
+    for (int j = 0; j < CANDIDATES; j++)
+      heap.add(characters[lookup][j], scores[lookup][j]);
+    return heap.getMatches();
+  }
+
+  /**
+   * A new heap per lookup, as each chunk of a parallel scan allocates its own.
+   */
+  @Benchmark
+  public Character[] newTopMatchHeap() {
+
+    int lookup = nextLookup();
+    TopMatchHeap lookupHeap = new TopMatchHeap(capacity);
+    for (int j = 0; j < CANDIDATES; j++)
+      lookupHeap.add(characters[lookup][j], scores[lookup][j]);
+    return lookupHeap.getMatches();
+  }
+
+  private int nextLookup() {
+
+    int lookup = nextLookup;
+    nextLookup = (nextLookup + 1) % LOOKUPS;
+    return lookup;
+  }
+}
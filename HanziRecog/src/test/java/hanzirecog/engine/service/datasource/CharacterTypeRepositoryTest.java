@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.service.datasource;
+
+import hanzirecog.engine.beans.TypeDescriptor;
+import hanzirecog.engine.enums.CharacterType;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Compares the type tables of CharacterTypeRepository to the map the repository was backed by before,
+ * for every char, on the types of strokes.dat and a few equivalence chains.
+ */
+public class CharacterTypeRepositoryTest {
+
+    // Equivalence chains ending on a type, a loop, a character equivalent to itself and one to a character without type.
+    static private final String EQUIVALENCES =
+            "e000 | 3 | 4e00\n" +
+            "e001 | 3 | e000\n" +
+            "e002 | 3 | e001\n" +
+            "e010 | 3 | e011\n" +
+            "e011 | 3 | e012\n" +
+            "e012 | 3 | e010\n" +
+            "e013 | 3 | e010\n" +
+            "e020 | 3 | e020\n" +
+            "e030 | 3 | e0ff\n";
+
+    static private Map<Character, TypeDescriptor> typeMap;
+    static private CharacterTypeRepository typeRepository;
+
+    @BeforeClass
+    static public void parseTypes() throws IOException {
+
+        String source = StrokesSources.typesSource() + EQUIVALENCES;
+        typeMap = new CharacterTypeParser(StrokesSources.toStream(source)).getTypeMap();
+        typeRepository = new CharacterTypeParser(StrokesSources.toStream(source)).buildCharacterTypeRepository();
+    }
+
+    @Test
+    public void typesEqualTheMapTypes() {
+
+        for (int character = 0; character < CharacterTypeRepository.TABLE_SIZE; character++)
+            assertEquals(describe(character), getMapType((char) character), typeRepository.getType((char) character));
+        assertEquals(CharacterType.GENERIC_TYPE, typeRepository.getType(''));
+        assertEquals(CharacterType.NOT_FOUND, typeRepository.getType(''));
+        assertEquals(CharacterType.NOT_FOUND, typeRepository.getType(''));
+        assertEquals(CharacterType.NOT_FOUND, typeRepository.getType(''));
+    }
+
+    @Test
+    public void alternatesEqualTheMapAlternates() {
+
+        for (int character = 0; character < CharacterTypeRepository.TABLE_SIZE; character++) {
+            TypeDescriptor descriptor = typeMap.get((char) character);
+            char alternate = descriptor != null && descriptor.getAlUnicode() != null ? descriptor.getAlUnicode() : 0;
+            assertEquals(describe(character), alternate, typeRepository.getAlternate((char) character));
+        }
+    }
+
+    @Test
+    public void lookupsEqualTheMapDescriptors() {
+
+        for (int character = 0; character < CharacterTypeRepository.TABLE_SIZE; character++) {
+            TypeDescriptor expected = typeMap.get((char) character);
+            TypeDescriptor actual = typeRepository.lookup((char) character);
+            if (expected == null)
+                assertNull(describe(character), actual);
+            else {
+                assertEquals(describe(character), expected.getType(), actual.getType());
+                assertEquals(describe(character), expected.getUnicode(), actual.getUnicode());
+                assertEquals(describe(character), expected.getAlUnicode(), actual.getAlUnicode());
+            }
+        }
+    }
+
+    @Test
+    public void tablesSurviveTheVersion2Stream() throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompiledStrokesFormat.write(StrokesIndex.build(new ResourceStrokesStreamProvider("/strokes.dat")), typeRepository, out);
+        CompiledStrokesFormatTest.assertSameTypes(typeRepository, CompiledStrokesFormat.readTypeRepository(ByteBuffer.wrap(out.toByteArray())));
+    }
+
+    /**
+     * The getType of the map-based repository, except that a looping chain is NOT_FOUND instead of a StackOverflowError.
+     */
+    static private CharacterType getMapType(char character) {
+
+        Set<Character> visited = new HashSet<>();
+        TypeDescriptor typeDescriptor = typeMap.get(character);
+        while (typeDescriptor != null && typeDescriptor.isEquivalent()) {
+            if (!visited.add(typeDescriptor.getUnicode()))
+                return CharacterType.NOT_FOUND;
+            typeDescriptor = typeMap.get(typeDescriptor.getAlUnicode());
+        }
+        return typeDescriptor == null ? CharacterType.NOT_FOUND : typeDescriptor.getType();
+    }
+
+    static private String describe(int character) {
+        return String.format("%04x", character);
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.service.datasource;
+
+import hanzirecog.engine.beans.CharacterDescriptor;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Reads back the version 2 streams StrokesParser writes, comparing them entry by entry with the version 1
+ * index they come from, and checks that the readers refuse the streams they don't understand.
+ */
+public class CompiledStrokesFormatTest {
+
+    static private byte[] version1Bytes;
+    static private StrokesIndex version1Index;
+
+    @BeforeClass
+    static public void loadStrokes() throws IOException {
+
+        try (InputStream in = CompiledStrokesFormatTest.class.getResourceAsStream("/strokes.dat")) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1 << 16];
+            for (int bytesRead = in.read(buffer); bytesRead > -1; bytesRead = in.read(buffer))
+                bytes.write(buffer, 0, bytesRead);
+            version1Bytes = bytes.toByteArray();
+        }
+        version1Index = StrokesIndex.build(new MemoryStrokesStreamProvider(version1Bytes));
+    }
+
+    @Test
+    public void convertedStreamHasTheVersion1Entries() throws IOException {
+
+        byte[] version2Bytes = convert(null);
+        assertSameEntries(version1Index, CompiledStrokesFormat.read(ByteBuffer.wrap(version2Bytes)));
+        assertSameEntries(version1Index, StrokesIndex.build(new MemoryStrokesStreamProvider(version2Bytes)));
+        assertNull(CompiledStrokesFormat.readTypeRepository(ByteBuffer.wrap(version2Bytes)));
+    }
+
+    @Test
+    public void convertCommandWritesTheVersion1Entries() throws IOException {
+
+        Path directory = Files.createTempDirectory("strokes");
+        try {
+            File version1File = write(directory, "strokes.dat", version1Bytes);
+            File typesFile = write(directory, "types.txt", StrokesSources.typesSource().getBytes("US-ASCII"));
+            File version2File = directory.resolve("strokes-v2.dat").toFile();
+            StrokesParser.main(new String[]{"-convert", version1File.getPath(), version2File.getPath(), typesFile.getPath()});
+
+            StrokesIndex version2Index = StrokesIndex.build(new MappedStrokesStreamProvider(version2File));
+            assertSameEntries(version1Index, version2Index);
+            assertSameTypes(new CharacterTypeParser(new ByteArrayInputStream(Files.readAllBytes(typesFile.toPath())))
+                    .buildCharacterTypeRepository(), version2Index.getTypeRepository());
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void version2CommandWritesTheVersion1CommandEntries() throws IOException {
+
+        Path directory = Files.createTempDirectory("strokes");
+        try {
+            File strokesFile = write(directory, "strokes.txt", StrokesSources.strokesSource().getBytes("US-ASCII"));
+            File typesFile = write(directory, "types.txt", StrokesSources.typesSource().getBytes("US-ASCII"));
+            File version1File = directory.resolve("strokes.dat").toFile();
+            File version2File = directory.resolve("strokes-v2.dat").toFile();
+            StrokesParser.main(new String[]{strokesFile.getPath(), typesFile.getPath(), version1File.getPath()});
+            StrokesParser.main(new String[]{"-v2", "-threads", "4", strokesFile.getPath(), typesFile.getPath(), version2File.getPath()});
+
+            StrokesIndex compiledIndex = StrokesIndex.build(new MemoryStrokesStreamProvider(Files.readAllBytes(version1File.toPath())));
+            assertEquals(version1Index.size(), compiledIndex.size());
+            StrokesIndex version2Index = StrokesIndex.build(new MappedStrokesStreamProvider(version2File));
+            assertSameEntries(compiledIndex, version2Index);
+            assertNotNull(version2Index.getTypeRepository());
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void checkHeaderRejectsStreamsItDoesNotUnderstand() throws IOException {
+
+        byte[] stream = convert(null);
+        CompiledStrokesFormat.checkHeader(ByteBuffer.wrap(stream));
+        assertEquals(CompiledStrokesFormat.BASE_SECTION_COUNT, ByteBuffer.wrap(stream).getInt(CompiledStrokesFormat.SECTION_COUNT_OFFSET));
+        byte[] typedStream = convert(new CharacterTypeParser(StrokesSources.toStream(StrokesSources.typesSource())).buildCharacterTypeRepository());
+        CompiledStrokesFormat.checkHeader(ByteBuffer.wrap(typedStream));
+        assertEquals(CompiledStrokesFormat.SECTION_COUNT, ByteBuffer.wrap(typedStream).getInt(CompiledStrokesFormat.SECTION_COUNT_OFFSET));
+        assertRejected("type sections cut", Arrays.copyOf(typedStream, typedStream.length - 2));
+        assertRejected("section count between the layouts", withInt(typedStream, CompiledStrokesFormat.SECTION_COUNT_OFFSET,
+                CompiledStrokesFormat.BASE_SECTION_COUNT + 1));
+
+        assertRejected("empty", new byte[0]);
+        assertRejected("version 1", version1Bytes);
+        assertRejected("header only", Arrays.copyOf(stream, CompiledStrokesFormat.HEADER_SIZE));
+        assertRejected("truncated", Arrays.copyOf(stream, stream.length - 1));
+        assertRejected("magic", withInt(stream, 0, CompiledStrokesFormat.MAGIC + 1));
+        assertRejected("version", withInt(stream, 4, CompiledStrokesFormat.VERSION + 1));
+        assertRejected("unsorted", withInt(stream, CompiledStrokesFormat.FLAGS_OFFSET, 0));
+        assertRejected("entry count", withInt(stream, CompiledStrokesFormat.ENTRY_COUNT_OFFSET, version1Index.size() + 1));
+        assertRejected("negative entry count", withInt(stream, CompiledStrokesFormat.ENTRY_COUNT_OFFSET, -1));
+        assertRejected("substroke count", withInt(stream, CompiledStrokesFormat.FEATURE_COUNT_OFFSET, Integer.MAX_VALUE));
+        assertRejected("partition count", withInt(stream, CompiledStrokesFormat.PARTITION_COUNT_OFFSET,
+                StrokesIndex.PARTITION_TYPE_COUNT * (CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT + 1)));
+        assertRejected("substroke stride", withInt(stream, CompiledStrokesFormat.SUB_PARTITION_STRIDE_OFFSET,
+                CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 3));
+        assertRejected("section count", withInt(stream, CompiledStrokesFormat.SECTION_COUNT_OFFSET, CompiledStrokesFormat.SECTION_COUNT + 1));
+        assertRejected("types flag without type sections", withInt(stream, CompiledStrokesFormat.FLAGS_OFFSET,
+                CompiledStrokesFormat.FLAG_SUB_STROKE_SORTED | CompiledStrokesFormat.FLAG_CHARACTER_TYPES));
+        assertRejected("section offset", withInt(stream, CompiledStrokesFormat.HEADER_SIZE + 4 * CompiledStrokesFormat.LENGTHS, stream.length));
+        assertRejected("section offset in the header", withInt(stream, CompiledStrokesFormat.HEADER_SIZE, 0));
+    }
+
+    static private byte[] convert(CharacterTypeRepository typeRepository) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StrokesParser.convertToVersion2(new ByteArrayInputStream(version1Bytes), typeRepository, out);
+        return out.toByteArray();
+    }
+
+    static private void assertSameEntries(StrokesIndex expected, StrokesIndex actual) {
+
+        assertEquals(expected.size(), actual.size());
+        for (int entry = 0; entry < expected.size(); entry++) {
+            String message = "entry " + entry;
+            assertEquals(message, expected.getCharacters()[entry], actual.getCharacters()[entry]);
+            assertEquals(message, expected.getTypes()[entry], actual.getTypes()[entry]);
+            assertEquals(message, expected.getStrokeCounts()[entry], actual.getStrokeCounts()[entry]);
+            assertEquals(message, expected.getSubStrokeCounts()[entry], actual.getSubStrokeCounts()[entry]);
+            int from = expected.getFeatureOffsets()[entry];
+            int to = expected.getFeatureOffsets()[entry + 1];
+            assertEquals(message, from, actual.getFeatureOffsets()[entry]);
+            assertEquals(message, to, actual.getFeatureOffsets()[entry + 1]);
+            assertArrayEquals(message, Arrays.copyOfRange(expected.getDirections(), from, to),
+                    Arrays.copyOfRange(actual.getDirections(), from, to), 0);
+            assertArrayEquals(message, Arrays.copyOfRange(expected.getLengths(), from, to),
+                    Arrays.copyOfRange(actual.getLengths(), from, to), 0);
+        }
+        int partitionCount = StrokesIndex.PARTITION_TYPE_COUNT * CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT;
+        for (int partition = 0; partition < partitionCount; partition++) {
+            assertEquals("partition " + partition, expected.getPartitionStart(partition), actual.getPartitionStart(partition));
+            assertEquals("partition " + partition, expected.getPartitionEnd(partition), actual.getPartitionEnd(partition));
+            for (int subStrokeCount = 0; subStrokeCount <= CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 1; subStrokeCount++)
+                assertEquals("partition " + partition + " substrokes " + subStrokeCount,
+                        expected.getSubPartitionStart(partition, subStrokeCount), actual.getSubPartitionStart(partition, subStrokeCount));
+        }
+    }
+
+    static void assertSameTypes(CharacterTypeRepository expected, CharacterTypeRepository actual) {
+
+        assertArrayEquals(expected.getTypeTable(), actual.getTypeTable());
+        assertArrayEquals(expected.getAlternateTable(), actual.getAlternateTable());
+    }
+
+    static private void assertRejected(String what, byte[] stream) {
+
+        try {
+            CompiledStrokesFormat.read(ByteBuffer.wrap(stream));
+            fail(what + " : read");
+        }
+        catch (IOException e) {
+            // expected
+        }
+        try {
+            CompiledStrokesFormat.readTypeRepository(ByteBuffer.wrap(stream));
+            fail(what + " : types read");
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+
+    static private byte[] withInt(byte[] stream, int offset, int value) {
+
+        byte[] copy = stream.clone();
+        ByteBuffer.wrap(copy).putInt(offset, value);
+        return copy;
+    }
+
+    static private File write(Path directory, String name, byte[] bytes) throws IOException {
+        return Files.write(directory.resolve(name), bytes).toFile();
+    }
+
+    static private void delete(Path directory) throws IOException {
+
+        File[] files = directory.toFile().listFiles();
+        if (files != null) {
+            for (File file : files)
+                Files.delete(file.toPath());
+        }
+        Files.delete(directory);
+    }
+}
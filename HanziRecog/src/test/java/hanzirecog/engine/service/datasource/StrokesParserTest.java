@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.service.datasource;
+
+import hanzirecog.engine.beans.CharacterDescriptor;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the byte level scanner of StrokesParser.compile parses a strokes source as the regular expressions
+ * of the constructors do, whatever the number of threads : the same compiled output, the same lines in error,
+ * and the same value for each number.
+ * <p>
+ * The source is the one of strokes.dat (see StrokesSources), with edge lines inserted at its start, middle and end,
+ * so in different ranges of the threaded compiles.
+ */
+public class StrokesParserTest {
+
+    // The number of each subStrokePattern, exactly as Double.parseDouble reads it.
+    static private final Pattern NUMBER_PATTERN = Pattern.compile("\\d+(\\.\\d{1,10})?");
+    static private final Pattern SUB_STROKE_PATTERN = Pattern.compile("\\(([^,()]*),([^,()]*)\\)");
+    static private final int[] THREADS = {1, 2, 4, 7};
+
+    static private CharacterTypeRepository typeRepository;
+    static private String shippedSource;
+    static private String source;
+    static private List<String> errorLines;
+
+    @BeforeClass
+    static public void writeSource() throws IOException {
+
+        typeRepository = new CharacterTypeParser(StrokesSources.toStream(StrokesSources.typesSource())).buildCharacterTypeRepository();
+        shippedSource = StrokesSources.strokesSource();
+
+        int middle = shippedSource.indexOf('\n', shippedSource.length() / 2) + 1;
+        StringBuilder builder = new StringBuilder();
+        errorLines = new ArrayList<>();
+        appendEdgeLines(builder, 0xe000);
+        builder.append(shippedSource, 0, middle);
+        appendEdgeLines(builder, 0xe100);
+        builder.append(shippedSource, middle, shippedSource.length());
+        appendEdgeLines(builder, 0xe200);
+        // The last line has no line terminator.
+        builder.append("e2ff | (0.5, 0.5)");
+        source = builder.toString();
+    }
+
+    @Test
+    public void compiledOutputEqualsTheRegularExpressionsOutput() throws IOException {
+
+        StrokesParser parser = new StrokesParser(StrokesSources.toStream(source), typeRepository);
+        byte[] expected = writeCompiledOutput(parser);
+        assertEquals(errorLines, parser.getErrorLines());
+
+        byte[] sourceBytes = source.getBytes(StandardCharsets.US_ASCII);
+        for (int threads : THREADS) {
+            StrokesParser compiledParser = StrokesParser.compile(sourceBytes, typeRepository, threads);
+            assertArrayEquals(threads + " threads", expected, writeCompiledOutput(compiledParser));
+            assertEquals(threads + " threads", errorLines, compiledParser.getErrorLines());
+        }
+    }
+
+    @Test
+    public void shippedNumbersEqualParseDouble() {
+
+        int count = 0;
+        for (Matcher subStroke = SUB_STROKE_PATTERN.matcher(shippedSource); subStroke.find(); count++) {
+            assertSameNumber(subStroke.group(1).trim());
+            assertSameNumber(subStroke.group(2).trim());
+        }
+        assertTrue(count > 0);
+    }
+
+    @Test
+    public void edgeNumbersEqualParseDouble() {
+
+        String[] numbers = {
+                "0", "00", "1", "0.0", "6.2831853072", "0.0000000001", "0.9999999999", "1.00000000000",
+                "12345.1234567891", "123456.1234567891", "0003.1415926535", "000000003.1415926535",
+                "99999999999999999999.9999999999", "123456789012345678901234567890",
+                "9007199254740993", "0.30000000000000004", "2.2250738585",
+                "1e3", "1E3", "4.5e-3", "1.", ".5", "-1", "+1", "1.5.5", "1,5", "", " 1", "1 ", "0x10", "NaN", "Infinity"};
+        for (String number : numbers)
+            assertSameNumber(number);
+
+        // Random mantissas, most longer than the 15 digits exactly representable in a double.
+        Random random = new Random(20180611L);
+        for (int i = 0; i < 100000; i++) {
+            StringBuilder number = new StringBuilder();
+            appendDigits(number, random, 1 + random.nextInt(20));
+            if (random.nextBoolean())
+                appendDigits(number.append('.'), random, 1 + random.nextInt(11));
+            assertSameNumber(number.toString());
+        }
+    }
+
+    /**
+     * Appends lines at the edge of the format around the given character : valid lines, blank lines, comments,
+     * "\r\n" and "\r" line terminators, and lines in error, recorded in errorLines.
+     */
+    static private void appendEdgeLines(StringBuilder builder, int character) {
+
+        // 64 substrokes in one stroke, 48 strokes, empty strokes and substrokes, upper case hexadecimal digits.
+        builder.append(String.format("%04x | %s\n", character, repeat("(1.5, 0.25)", "#", CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT)));
+        builder.append(String.format("%04x | %s\n", character + 1, repeat("(0.5, 0.5)", " | ", CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT)));
+        builder.append(String.format("%04X || (1, 1) ## (2, 0.5) |\r\n", character + 2));
+        // Mantissas longer than 15 digits, and as many fraction digits as allowed.
+        builder.append(String.format("%04x | (000000003.1415926535, 0.1234567891)#(123456.1234567891, 00000000000000000000.5)\r", character + 3));
+        builder.append(String.format("%04x|(0,0)\t\n", character + 4));
+        builder.append("\n  \t\n# a comment\n  // another comment\r\n");
+
+        appendErrorLine(builder, String.format("%04x |", character + 16));
+        appendErrorLine(builder, String.format("%04x | | |", character + 17));
+        appendErrorLine(builder, String.format("%04x | (1e-3, 0.5)", character + 18));
+        appendErrorLine(builder, String.format("%04x | (1.5E2, 0.5)", character + 19));
+        appendErrorLine(builder, String.format("%04x | (0.12345678901, 0.5)", character + 20));
+        appendErrorLine(builder, String.format("%04x | (.5, 0.5)", character + 21));
+        appendErrorLine(builder, String.format("%04x | (1., 0.5)", character + 22));
+        appendErrorLine(builder, String.format("%04x | (-1, 0.5)", character + 23));
+        appendErrorLine(builder, String.format("%04x | (1, 0.5", character + 24));
+        appendErrorLine(builder, String.format("%04x | (1, 0.5) x", character + 25));
+        appendErrorLine(builder, "zzzz | (1, 1)");
+        appendErrorLine(builder, String.format("%03x | (1, 1)", character >> 4));
+        // One substroke or stroke too many.
+        appendErrorLine(builder, String.format("%04x | %s", character + 26,
+                repeat("(1.5, 0.25)", "#", CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT + 1)));
+        appendErrorLine(builder, String.format("%04x | %s", character + 27,
+                repeat("(1.5, 0.25)#(1.5, 0.25)", " | ", CharacterDescriptor.MAX_CHARACTER_SUB_STROKE_COUNT / 2 + 1)));
+        appendErrorLine(builder, String.format("%04x | %s", character + 28,
+                repeat("(0.5, 0.5)", " | ", CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT + 1)));
+    }
+
+    static private void appendErrorLine(StringBuilder builder, String line) {
+
+        int lineNum = 0;
+        for (int i = 0; i < builder.length(); i++) {
+            if (builder.charAt(i) == '\n' || builder.charAt(i) == '\r' && (i + 1 == builder.length() || builder.charAt(i + 1) != '\n'))
+                lineNum++;
+        }
+        errorLines.add(lineNum + ": " + line);
+        builder.append(line).append('\n');
+    }
+
+    static private String repeat(String text, String separator, int count) {
+
+        StringBuilder builder = new StringBuilder(text);
+        for (int i = 1; i < count; i++)
+            builder.append(separator).append(text);
+        return builder.toString();
+    }
+
+    static private void appendDigits(StringBuilder builder, Random random, int count) {
+
+        for (int i = 0; i < count; i++)
+            builder.append((char) ('0' + random.nextInt(10)));
+    }
+
+    static private void assertSameNumber(String number) {
+
+        double expected = NUMBER_PATTERN.matcher(number).matches() ? Double.parseDouble(number) : Double.NaN;
+        assertEquals(number, Double.doubleToLongBits(expected), Double.doubleToLongBits(StrokesParser.scanNumber(number)));
+    }
+
+    static private byte[] writeCompiledOutput(StrokesParser parser) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        parser.writeCompiledOutput(out);
+        return out.toByteArray();
+    }
+}
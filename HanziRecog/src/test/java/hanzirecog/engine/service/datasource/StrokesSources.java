@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.service.datasource;
+
+import hanzirecog.engine.beans.CharacterDescriptor;
+import hanzirecog.engine.util.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Plain-text strokes and types sources for the parser tests, written back from the records of strokes.dat :
+ * the plain-text files strokes.dat was compiled from aren't part of the project.
+ * The directions and lengths are written with the most fraction digits a source line accepts.
+ */
+class StrokesSources {
+
+    static private final int FRACTION_DIGITS = 10;
+
+    private StrokesSources() {
+    }
+
+    /**
+     * @return the strokes source of the records of strokes.dat, in the order of the records, one line per record
+     */
+    static String strokesSource() throws IOException {
+
+        StringBuilder source = new StringBuilder();
+        try (DataInputStream in = new DataInputStream(StrokesSources.class.getResourceAsStream("/strokes.dat"))) {
+            for (int group = 0; group < StrokesIndex.PARTITION_TYPE_COUNT * CharacterDescriptor.MAX_CHARACTER_STROKE_COUNT; group++) {
+                byte[] groupBytes = new byte[in.readInt()];
+                in.readFully(groupBytes);
+                DataInputStream records = new DataInputStream(new ByteArrayInputStream(groupBytes));
+                while (records.available() > 0) {
+                    source.append(String.format("%04x |", (int) IOUtils.readCharacter(records)));
+                    IOUtils.readCharacterType(records);
+                    int strokeCount = IOUtils.readStrokeCount(records);
+                    for (int stroke = 0; stroke < strokeCount; stroke++) {
+                        source.append(stroke == 0 ? " " : " | ");
+                        int subStrokeCount = IOUtils.readSubStrokeCount(records);
+                        for (int subStroke = 0; subStroke < subStrokeCount; subStroke++) {
+                            double direction = IOUtils.readDirection(records);
+                            double length = IOUtils.readLength(records);
+                            source.append(subStroke == 0 ? "(" : "#(").append(format(direction)).append(", ").append(format(length)).append(')');
+                        }
+                    }
+                    source.append('\n');
+                }
+            }
+        }
+        return source.toString();
+    }
+
+    /**
+     * @return a types source giving each character of strokes.dat the type of its record, the simplified and
+     * traditional ones with the character of the record before as alternate
+     */
+    static String typesSource() throws IOException {
+
+        StringBuilder source = new StringBuilder();
+        StrokesIndex index = StrokesIndex.build(new ResourceStrokesStreamProvider("/strokes.dat"));
+        char[] characters = index.getCharacters();
+        byte[] types = index.getTypes();
+        for (int entry = 0; entry < index.size(); entry++) {
+            if (types[entry] == 0)
+                source.append(String.format("%04x | 0\n", (int) characters[entry]));
+            else
+                source.append(String.format("%04x | %d | %04x\n", (int) characters[entry], types[entry], (int) characters[Math.max(entry - 1, 0)]));
+        }
+        return source.toString();
+    }
+
+    static InputStream toStream(String source) {
+        return new ByteArrayInputStream(source.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static private String format(double value) {
+        return new BigDecimal(value).setScale(FRACTION_DIGITS, RoundingMode.HALF_EVEN).toPlainString();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+package hanzirecog.engine.util;
+
+import hanzirecog.engine.beans.CharacterMatch;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Feeds the same seeded candidate streams to the TopMatchHeap and to the PriorityList collector it replaced.
+ * The streams have many more candidates than characters, so characters come back with other scores,
+ * and few distinct scores, so many matches tie.
+ */
+public class TopMatchHeapTest {
+
+  static private final int[] CAPACITIES = {1, 15, 200};
+  static private final int LOOKUPS = 40;
+  static private final int CANDIDATES = 3000;
+  static private final int CHARACTER_RANGE = 400;
+  static private final int SCORE_RANGE = 30;
+
+  @Test
+  public void matchesEqualPriorityListMatches() {
+
+    for (int capacity : CAPACITIES) {
+      Random random = new Random(20180611L + capacity);
+      // One heap for all the lookups, as the serial scans reuse theirs.
+      TopMatchHeap heap = new TopMatchHeap(capacity);
+      for (int lookup = 0; lookup < LOOKUPS; lookup++) {
+        char[] characters = new char[CANDIDATES];
+        double[] scores = new double[CANDIDATES];
+        generate(random, characters, scores);
+
+        PriorityListCollector collector = new PriorityListCollector(capacity);
+        heap.clear();
+        for (int i = 0; i < CANDIDATES; i++) {
+          collector.addMatch(characters[i], scores[i]);
+          heap.add(characters[i], scores[i]);
+        }
+        assertArrayEquals("k " + capacity + " lookup " + lookup, collector.getMatches(), heap.getMatches());
+      }
+    }
+  }
+
+  static private void generate(Random random, char[] characters, double[] scores) {
+
+    for (int i = 0; i < characters.length; i++) {
+      characters[i] = (char) ('一' + random.nextInt(CHARACTER_RANGE));
+      scores[i] = random.nextInt(20) == 0 ? Double.NEGATIVE_INFINITY : -random.nextInt(SCORE_RANGE) * 0.5;
+    }
+  }
+
+  /**
+   * The collector StrokesMatcher used before the TopMatchHeap, as it was.
+   */
+  static private class PriorityListCollector {
+
+    private Map<Character, CharacterMatch> matchMap = new HashMap<>();
+    private PriorityList<CharacterMatch> matches = new PriorityList<>();
+    private int maxSize;
+
+    private PriorityListCollector(int maxSize) {
+      this.maxSize = maxSize;
+    }
+
+    private boolean addMatch(char character, double score) {
+
+      if (matches.size() >= maxSize && score <= ((CharacterMatch) matches.getLast()).getScore())
+        return false;
+
+      CharacterMatch match = new CharacterMatch(character, score);
+      CharacterMatch existingMatch = matchMap.get(match.getCharacter());
+      if (null != existingMatch) {
+        if (match.getScore() > existingMatch.getScore())
+          matches.remove(existingMatch);
+        else
+          return false;
+      }
+      if (matches.size() >= maxSize) {
+        CharacterMatch worstMatch = (CharacterMatch) matches.getLast();
+        matches.removeLast();
+        matchMap.remove(worstMatch.getCharacter());
+      }
+      matchMap.put(match.getCharacter(), match);
+      matches.add(match);
+      return true;
+    }
+
+    private Character[] getMatches() {
+
+      Character[] matchChars = new Character[matches.size()];
+      int i = 0;
+      for (Object match : matches)
+        matchChars[i++] = ((CharacterMatch) match).getCharacter();
+      return matchChars;
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package hanzirecog.swingui;
 
+import hanzirecog.engine.Recognizer;
+
 import javax.swing.*;
 
 /*
@@ -25,10 +27,12 @@ public class StartApp {
     /**
      * Run the app.
      * Need a main method so that it can be run stand-alone and not just as an Applet.
-     * @param args
+     * @param args optionally, an index snapshot file to load instead of building the index from the strokes.dat resource
      */
     static public void main(String[] args) {
 
+        if (args.length > 0)
+            System.setProperty(Recognizer.SNAPSHOT_FILE_PROPERTY, args[0]);
         OnlineHanziRecog inputApp = new OnlineHanziRecog();
         inputApp.init();	// init as if it were an applet
         JFrame frame = new JFrame();
@@ -23,6 +23,7 @@ package hanzirecog.swingui.uicommon;
 
 import hanzirecog.engine.beans.CharacterDescriptor;
 import hanzirecog.engine.MatcherThread;
+import hanzirecog.engine.Recognizer;
 import hanzirecog.engine.StrokesMatcher;
 import hanzirecog.engine.enums.CharacterType;
 import hanzirecog.engine.beans.WrittenCharacter;
@@ -121,6 +122,9 @@ public class HanziLookup extends JPanel {
   // of the app, putting it to sleep when there's no comparison to be done.
   private MatcherThread matcherThread;
 
+  // Holds the strokes data set, loaded once and shared by all the lookups.
+  private Recognizer recognizer;
+
   // List of components that receive the results of this lookup widget.
   // Use a LinkedHashSet since it iterates in order.
   private Set<Consumer<CharacterSelectionEvent>> characterHandlers = new LinkedHashSet();
@@ -134,6 +138,7 @@ public class HanziLookup extends JPanel {
    */
   public HanziLookup(Font font) {
 
+    recognizer = Recognizer.getInstance();
     matcherThread = new MatcherThread();
     matcherThread.addResultsHandler(results -> handleResults(results));
     initUI(font);
@@ -251,7 +256,7 @@ public class HanziLookup extends JPanel {
     CharacterDescriptor inputDescriptor = writtenCharacter.buildCharacterDescriptor();
     boolean searchTraditional = searchType.isGeneric() || searchType.isTraditional();
     boolean searchSimplified = searchType.isGeneric() || searchType.isSimplified();
-    StrokesMatcher matcher = new StrokesMatcher(inputDescriptor,
+    StrokesMatcher matcher = recognizer.newMatcher(inputDescriptor,
             searchTraditional, searchSimplified, looseness, numResults);
 
     // If the Thread is currently running, setting a new StrokesMatcher
@@ -1,9 +1,21 @@
 package com.foryousoft;
 
+import hanzirecog.engine.Recognizer;
+import hanzirecog.engine.enums.ScanOrder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
 
 /*
  * Copyright (C) 2018 I-Tang HIU
@@ -30,6 +42,33 @@ public class Application {
     SpringApplication.run(Application.class, args);
   }
 
+  /**
+   * The strokes data set is loaded once at startup and shared by all the requests.
+   * With a snapshot file the index is loaded ready to use, see IndexSnapshot, which shortens the startup.
+   *
+   * @param parallelThreshold lookups comparing at least this number of characters are split across the cores
+   * @param scanOrder         the order in which the characters are compared
+   * @param snapshotFile      the index snapshot to load, empty to build the index from the strokes.dat resource
+   * @param environment       holds the hanzirecog.allowlists, the characters of each allowlist by name
+   * @throws IOException on an exception reading the snapshot
+   */
+  @Bean
+  public Recognizer recognizer(@Value("${hanzirecog.parallel-threshold:2147483647}") int parallelThreshold,
+                               @Value("${hanzirecog.scan-order:COMPILED}") ScanOrder scanOrder,
+                               @Value("${hanzirecog.snapshot-file:}") String snapshotFile,
+                               Environment environment) throws IOException {
+
+    Recognizer recognizer = snapshotFile.isEmpty() ? Recognizer.getInstance() : Recognizer.loadSnapshot(new File(snapshotFile));
+    recognizer.setParallelThreshold(parallelThreshold);
+    recognizer.setScanOrder(scanOrder);
+    // Registered once here, so the requests naming an allowlist find it ready.
+    Map<String, String> allowlists = Binder.get(environment)
+            .bind("hanzirecog.allowlists", Bindable.mapOf(String.class, String.class))
+            .orElse(Collections.emptyMap());
+    allowlists.forEach(recognizer::registerAllowlist);
+    return recognizer;
+  }
+
   //@Bean
   public CommandLineRunner commandLineRunner(ApplicationContext ctx) {
     return args -> {
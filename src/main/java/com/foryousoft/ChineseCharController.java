@@ -16,6 +16,7 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
 /*
@@ -53,9 +54,22 @@ public class ChineseCharController {
     StrokesDto strokeDto = objectMapper.readValue(charSignature, mapType);
     List<SignatureStroke> strokes = strokeDto.getStrokes();
     DeferredResult<ResponseEntity<String>> deferredResult = new DeferredResult<>();
-    CompletableFuture.supplyAsync(() -> hanziRecogSrv.recognizeHanzi(strokes))
+    CompletableFuture.supplyAsync(() -> hanziRecogSrv.recognizeHanzi(strokes, strokeDto.getAllowlist()))
             .whenComplete((charResults, throwable) ->
                     {
+                      if (throwable != null) {
+                        // Only an unknown allowlist name is the client's fault, the exceptions stay in the log.
+                        Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                        if (cause instanceof UnknownAllowlistException) {
+                          logger.warn(cause.getMessage());
+                          deferredResult.setResult(new ResponseEntity<>("Unknown allowlist", HttpStatus.BAD_REQUEST));
+                        }
+                        else {
+                          logger.error("Lookup failed", cause);
+                          deferredResult.setResult(new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR));
+                        }
+                        return;
+                      }
                       List<String> results = Arrays.stream(charResults).map((c) -> c + "").collect(Collectors.toList());
                       String candidateChars = String.join(":", results);
                       ResponseEntity r =new ResponseEntity(candidateChars, HttpStatus.OK);
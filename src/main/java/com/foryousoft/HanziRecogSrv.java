@@ -1,15 +1,21 @@
 package com.foryousoft;
 
 import hanzirecog.engine.beans.CharacterDescriptor;
+import hanzirecog.engine.beans.MatchResult;
 import hanzirecog.engine.beans.WrittenCharacter;
 import hanzirecog.engine.beans.WrittenPoint;
 import hanzirecog.engine.beans.WrittenStroke;
-import hanzirecog.engine.service.datasource.StrokesDataSource;
 import hanzirecog.engine.enums.CharacterType;
+import hanzirecog.engine.CharacterAllowlist;
 import hanzirecog.engine.MatcherThread;
+import hanzirecog.engine.Recognizer;
 import hanzirecog.engine.StrokesMatcher;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -37,13 +43,32 @@ public class HanziRecogSrv {
   private int numResults = 15;
   MatcherThread matcherThread;
   private CharacterType searchType = CharacterType.GENERIC_TYPE;
-  private StrokesDataSource strokesDataSource;
+  private static Logger logger = Logger.getLogger(HanziRecogSrv.class.toString());
+
+  @Autowired
+  private Recognizer recognizer;
+  // Maximum duration of a lookup, 0 for no limit.  A lookup running out of time returns its best matches so far.
+  @Value("${hanzirecog.lookup-budget-ms:0}")
+  private long lookupBudgetMillis;
 
   public HanziRecogSrv() {
     matcherThread = new MatcherThread();
   }
 
-  public Character[] recognizeHanzi(List<SignatureStroke> strokes) {
+  /**
+   * @param strokes   the strokes of the written character
+   * @param allowlist the name of the registered allowlist the results are restricted to, null for no restriction
+   * @return the closest matches
+   * @throws UnknownAllowlistException if no allowlist is registered under that name
+   */
+  public Character[] recognizeHanzi(List<SignatureStroke> strokes, String allowlist) {
+
+    CharacterAllowlist characterAllowlist = null;
+    if (allowlist != null) {
+      characterAllowlist = recognizer.getAllowlist(allowlist);
+      if (characterAllowlist == null)
+        throw new UnknownAllowlistException(allowlist);
+    }
 
     WrittenCharacter writtenCharacter = convert(strokes);
     if (writtenCharacter.getStrokes().isEmpty())
@@ -52,10 +77,15 @@ public class HanziRecogSrv {
     CharacterDescriptor inputDescriptor = writtenCharacter.buildCharacterDescriptor();
     boolean searchTraditional = searchType.isGeneric() || searchType.isTraditional();
     boolean searchSimplified = searchType.isGeneric() || searchType.isSimplified();
-    StrokesMatcher matcher = new StrokesMatcher(inputDescriptor,
+    StrokesMatcher matcher = recognizer.newMatcher(inputDescriptor,
             searchTraditional, searchSimplified, looseness, numResults);
-    Character[] results = matcher.doMatching();
-    return results;
+    matcher.setAllowlist(characterAllowlist);
+    if (lookupBudgetMillis <= 0)
+      return matcher.doMatching();
+    MatchResult result = matcher.doMatching(Duration.ofMillis(lookupBudgetMillis));
+    if (result.isPartial())
+      logger.debug("Lookup budget of " + lookupBudgetMillis + " ms reached, returning partial matches.");
+    return result.getMatches();
   }
 
   private WrittenCharacter convert(List<SignatureStroke> signatureStrokes) {
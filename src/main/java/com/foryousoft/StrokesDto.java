@@ -25,6 +25,10 @@ public class StrokesDto {
   @JsonProperty("value")
   List<SignatureStroke> strokes;
 
+  // The name of an allowlist of hanzirecog.allowlists the results are restricted to, optional.
+  @JsonProperty("allowlist")
+  String allowlist;
+
   public StrokesDto() {
   }
 
@@ -39,4 +43,12 @@ public class StrokesDto {
   public void setStrokes(List<SignatureStroke> strokes) {
     this.strokes = strokes;
   }
+
+  public String getAllowlist() {
+    return allowlist;
+  }
+
+  public void setAllowlist(String allowlist) {
+    this.allowlist = allowlist;
+  }
 }
@@ -0,0 +1,104 @@
+package com.foryousoft;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doThrow;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+/*
+ * Copyright (C) 2018 I-Tang HIU
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+
+/**
+ * Posts a written character to /addCharImage, through the allowlists registered from the configuration.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "hanzirecog.allowlists.test-numbers=" + ChineseCharControllerTest.NUMBERS)
+@AutoConfigureMockMvc
+public class ChineseCharControllerTest {
+
+  static final String NUMBERS = "一二三四五六七八九十百千万零";
+  // A single horizontal stroke, written as 一.
+  static private final String STROKES = "[{\"x\":[10,20,30,40,50,60,70,80,90],\"y\":[50,50,50,50,50,50,50,50,50]}]";
+
+  @Autowired
+  private MockMvc mockMvc;
+  @SpyBean
+  private HanziRecogSrv hanziRecogSrv;
+
+  @Test
+  public void recognizesWithoutAllowlist() throws Exception {
+
+    MockHttpServletResponse response = postStrokes("{\"value\":" + STROKES + "}");
+    assertEquals(HttpStatus.OK.value(), response.getStatus());
+    assertTrue(response.getContentAsString().startsWith("一:"));
+  }
+
+  @Test
+  public void restrictsToConfiguredAllowlist() throws Exception {
+
+    MockHttpServletResponse response = postStrokes("{\"value\":" + STROKES + ",\"allowlist\":\"test-numbers\"}");
+    assertEquals(HttpStatus.OK.value(), response.getStatus());
+    String[] matches = response.getContentAsString().split(":");
+    assertEquals("一", matches[0]);
+    for (String match : matches)
+      assertTrue(match + " isn't allowed", NUMBERS.contains(match));
+  }
+
+  @Test
+  public void rejectsUnknownAllowlist() throws Exception {
+
+    MockHttpServletResponse response = postStrokes("{\"value\":" + STROKES + ",\"allowlist\":\"unknown\"}");
+    assertEquals(HttpStatus.BAD_REQUEST.value(), response.getStatus());
+    assertFalse(response.getContentAsString().contains("Exception"));
+  }
+
+  @Test
+  public void hidesLookupFailures() throws Exception {
+
+    doThrow(new IllegalArgumentException("internal detail")).when(hanziRecogSrv).recognizeHanzi(anyList(), any());
+    MockHttpServletResponse response = postStrokes("{\"value\":" + STROKES + "}");
+    assertEquals(HttpStatus.INTERNAL_SERVER_ERROR.value(), response.getStatus());
+    assertFalse(response.getContentAsString().contains("internal detail"));
+  }
+
+  private MockHttpServletResponse postStrokes(String content) throws Exception {
+
+    MvcResult result = mockMvc.perform(post("/addCharImage").contentType(MediaType.APPLICATION_JSON).content(content))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+    return mockMvc.perform(asyncDispatch(result)).andReturn().getResponse();
+  }
+}